@@ -4,15 +4,12 @@ package com.bbn.openmap.maptileservlet;
 
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.ResultSet;
-import java.sql.Statement;
 import java.util.Properties;
 import java.util.logging.Logger;
 
 import javax.swing.ImageIcon;
 
+import com.bbn.openmap.dataAccess.mapTile.MBTilesDatabase;
 import com.bbn.openmap.dataAccess.mapTile.TileMillMapTileFactory;
 import com.bbn.openmap.image.BufferedImageHelper;
 import com.bbn.openmap.image.PNGImageIOFormatter;
@@ -41,6 +38,11 @@ import com.bbn.openmap.util.PropUtils;
  */
 public class TileMillMapTileSet extends StandardMapTileSet {
 
+    /** The first bytes of a PNG file. */
+    protected final static byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G' };
+
+    protected MBTilesDatabase database;
+
     public TileMillMapTileSet() {
     }
 
@@ -60,10 +62,8 @@ public class TileMillMapTileSet extends StandardMapTileSet {
 
         byte[] imageData = null;
 
-        try {
-            Class.forName(TileMillMapTileFactory.DEFAULT_TEST_CLASS);
-        } catch (Exception e) {
-            getLogger().warning("can't locate sqlite JDBC components");
+        MBTilesDatabase db = getDatabase();
+        if (db == null) {
             return null;
         }
 
@@ -71,30 +71,20 @@ public class TileMillMapTileSet extends StandardMapTileSet {
 
             TileInfo ti = new TileInfo(pathInfo);
 
-            Connection conn = DriverManager.getConnection(rootDir);
-            Statement stat = conn.createStatement();
-
-            // "select zoom_level, tile_column, tile_row, tile_data from map, images where map.tile_id = images.tile_id";
-            StringBuilder statement = new StringBuilder("select tile_data from map, images where");
-            statement.append(" zoom_level = ").append(ti.zoomLevel);
-            statement.append(" and tile_column = ").append(ti.x);
-            statement.append(" and tile_row = ").append((int) (Math.pow(2, ti.zoomLevel)) - ti.y
-                    - 1);
-            statement.append(" and map.tile_id = images.tile_id;");
-
-            ResultSet rs = stat.executeQuery(statement.toString());
-            while (rs.next()) {
-                byte[] imageBytes = rs.getBytes("tile_data");
-                ImageIcon ii = new ImageIcon(imageBytes);
-                BufferedImage bi = BufferedImageHelper.getBufferedImage(ii.getImage(), 0, 0, -1, -1);
-
-                // TODO: Still have to incorporate properties or something to
-                // all
-                // specification of map image format.
-                imageData = new PNGImageIOFormatter().formatImage(bi);
+            byte[] imageBytes = db.getTile(ti.zoomLevel, ti.x, ti.y);
+            if (imageBytes != null) {
+                if (isPNG(imageBytes)) {
+                    imageData = imageBytes;
+                } else {
+                    ImageIcon ii = new ImageIcon(imageBytes);
+                    BufferedImage bi = BufferedImageHelper.getBufferedImage(ii.getImage(), 0, 0, -1, -1);
+
+                    // TODO: Still have to incorporate properties or something to
+                    // all
+                    // specification of map image format.
+                    imageData = new PNGImageIOFormatter().formatImage(bi);
+                }
             }
-            rs.close();
-            conn.close();
         } catch (Exception e) {
             getLogger().warning("something went wrong fetching image from database: "
                     + e.getMessage());
@@ -104,6 +94,33 @@ public class TileMillMapTileSet extends StandardMapTileSet {
         return imageData;
     }
 
+    /**
+     * @return the MBTilesDatabase holding the open connections to the
+     *         rootDir, null if the JDBC driver isn't available.
+     */
+    protected synchronized MBTilesDatabase getDatabase() {
+        if (database == null && rootDir != null) {
+            if (!MBTilesDatabase.isDriverAvailable(TileMillMapTileFactory.DEFAULT_TEST_CLASS)) {
+                getLogger().warning("can't locate sqlite JDBC components");
+                return null;
+            }
+            database = new MBTilesDatabase(rootDir, MBTilesDatabase.DEFAULT_POOL_SIZE);
+        }
+        return database;
+    }
+
+    protected static boolean isPNG(byte[] imageBytes) {
+        if (imageBytes.length < PNG_SIGNATURE.length) {
+            return false;
+        }
+        for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+            if (imageBytes[i] != PNG_SIGNATURE[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Holder for this class's Logger. This allows for lazy initialization of
      * the logger.
@@ -0,0 +1,212 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap;
+
+import java.awt.Component;
+import java.awt.RenderingHints;
+import java.awt.event.ContainerEvent;
+import java.awt.event.ContainerListener;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.layer.OMGraphicHandlerLayer;
+import com.bbn.openmap.layer.policy.BackBufferRenderPolicy;
+import com.bbn.openmap.layer.policy.RenderPolicy;
+import com.bbn.openmap.layer.policy.RenderStatistics;
+import com.bbn.openmap.layer.policy.RenderingHintsRenderPolicy;
+import com.bbn.openmap.layer.policy.StandardRenderPolicy;
+import com.bbn.openmap.util.Debug;
+
+/**
+ * A MapBeanRepaintPolicy that has the OMGraphicHandlerLayers on the MapBean
+ * render into their own image buffers on their worker threads, so the MapBean
+ * only has to draw the finished images when it paints. Each layer gets a
+ * BackBufferRenderPolicy when it's added to the MapBean, if it's using a
+ * StandardRenderPolicy or RenderingHintsRenderPolicy. Layers configured with
+ * any other RenderPolicy keep it. The layers get their original policies back
+ * when they are removed from the MapBean.
+ * <P>
+ * The rendering hints set on this policy are used on the layer buffers, since
+ * the layers don't render with the MapBean's Graphics anymore. It's set up
+ * like the HintsMapBeanRepaintPolicy:
+ *
+ * <pre>
+ *  repaintPolicy.class=com.bbn.openmap.BackBufferMapBeanRepaintPolicy
+ *  repaintPolicy.renderingHints=KEY_ANTIALIASING
+ *  repaintPolicy.KEY_ANTIALIASING=VALUE_ANTIALIAS_ON
+ * </pre>
+ *
+ * The frame times of each layer are available from getLayerStatistics(), and
+ * are logged when the logger for this class is set to FINER.
+ */
+public class BackBufferMapBeanRepaintPolicy extends HintsMapBeanRepaintPolicy implements
+        ContainerListener {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.BackBufferMapBeanRepaintPolicy");
+
+    /**
+     * The policies the layers had before they got a BackBufferRenderPolicy.
+     */
+    protected final Map<OMGraphicHandlerLayer, RenderPolicy> replacedPolicies = new HashMap<OMGraphicHandlerLayer, RenderPolicy>();
+
+    public BackBufferMapBeanRepaintPolicy() {
+        super();
+    }
+
+    public BackBufferMapBeanRepaintPolicy(MapBean mb) {
+        this();
+        setMap(mb);
+    }
+
+    public void setMap(MapBean mb) {
+        if (map == mb) {
+            return;
+        }
+
+        if (map != null) {
+            map.removeContainerListener(this);
+            for (Component comp : map.getComponents()) {
+                restore(comp);
+            }
+        }
+
+        super.setMap(mb);
+
+        if (mb != null) {
+            mb.addContainerListener(this);
+            for (Component comp : mb.getComponents()) {
+                install(comp);
+            }
+        }
+    }
+
+    /**
+     * Give a layer a BackBufferRenderPolicy, if it's using one of the standard
+     * policies.
+     */
+    protected void install(Component comp) {
+        if (!(comp instanceof OMGraphicHandlerLayer)) {
+            return;
+        }
+
+        OMGraphicHandlerLayer layer = (OMGraphicHandlerLayer) comp;
+        RenderPolicy rp = layer.getRenderPolicy();
+        Class<?> rpClass = rp.getClass();
+        if (rpClass != StandardRenderPolicy.class && rpClass != RenderingHintsRenderPolicy.class) {
+            return;
+        }
+
+        BackBufferRenderPolicy bbrp = new BackBufferRenderPolicy();
+        bbrp.setComposite(rp.getComposite());
+        RenderingHints renderingHints = bbrp.getRenderingHints();
+        if (hints != null) {
+            renderingHints.putAll(hints.getRenderingHints());
+        }
+        if (rp instanceof RenderingHintsRenderPolicy) {
+            renderingHints.putAll(((RenderingHintsRenderPolicy) rp).getRenderingHints());
+        }
+
+        synchronized (replacedPolicies) {
+            replacedPolicies.put(layer, rp);
+        }
+        layer.setRenderPolicy(bbrp);
+
+        // The MapBean may have already sent the layer off to prepare with the
+        // old policy, so the buffer needs to be created.
+        if (layer.getProjection() != null) {
+            layer.doPrepare();
+        }
+
+        if (DEBUG) {
+            Debug.output("BBMBRP: rendering " + layer.getName() + " into a back buffer");
+        }
+    }
+
+    /**
+     * Give a layer back the RenderPolicy it had before install().
+     */
+    protected void restore(Component comp) {
+        RenderPolicy rp;
+        synchronized (replacedPolicies) {
+            rp = replacedPolicies.remove(comp);
+        }
+        if (rp != null) {
+            OMGraphicHandlerLayer layer = (OMGraphicHandlerLayer) comp;
+            if (layer.getRenderPolicy() instanceof BackBufferRenderPolicy) {
+                layer.setRenderPolicy(rp);
+            }
+        }
+    }
+
+    public void componentAdded(ContainerEvent e) {
+        install(e.getChild());
+    }
+
+    public void componentRemoved(ContainerEvent e) {
+        restore(e.getChild());
+    }
+
+    public void repaint(Layer layer) {
+        super.repaint(layer);
+
+        if (logger.isLoggable(Level.FINER) && layer instanceof OMGraphicHandlerLayer) {
+            RenderPolicy rp = ((OMGraphicHandlerLayer) layer).getRenderPolicy();
+            if (rp instanceof BackBufferRenderPolicy) {
+                logger.finer(layer.getName() + ": " + ((BackBufferRenderPolicy) rp).getStatistics());
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of the frame times for the layers rendering into back
+     *         buffers, sorted by layer name.
+     */
+    public Map<String, RenderStatistics> getLayerStatistics() {
+        Map<String, RenderStatistics> ret = new TreeMap<String, RenderStatistics>();
+        MapBean mb = map;
+        if (mb != null) {
+            for (Component comp : mb.getComponents()) {
+                if (comp instanceof OMGraphicHandlerLayer) {
+                    RenderPolicy rp = ((OMGraphicHandlerLayer) comp).getRenderPolicy();
+                    if (rp instanceof BackBufferRenderPolicy) {
+                        ret.put(((Layer) comp).getName(), ((BackBufferRenderPolicy) rp).getStatistics().copy());
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the frame times for the layers, one line for each layer, for
+     *         logging.
+     */
+    public String getStatistics() {
+        StringBuilder sb = new StringBuilder("layer frame times:");
+        for (Map.Entry<String, RenderStatistics> entry : getLayerStatistics().entrySet()) {
+            sb.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    public Object clone() {
+        BackBufferMapBeanRepaintPolicy bbmbrp = new BackBufferMapBeanRepaintPolicy();
+        bbmbrp.setHints(getHints());
+        return bbmbrp;
+    }
+}
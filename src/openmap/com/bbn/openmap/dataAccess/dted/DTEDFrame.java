@@ -214,7 +214,9 @@ public class DTEDFrame
 
     /**
      * Interpolated elevation at a given lat/lon - should be more precise than
-     * elevationAt(), but that depends on the resolution of the data.
+     * elevationAt(), but that depends on the resolution of the data. The four
+     * posts around the point are interpolated bilinearly. If any of them are
+     * missing, the closest post is used.
      * 
      * @param lat latitude in decimal degrees.
      * @param lon longitude in decimal degrees.
@@ -231,7 +233,7 @@ public class DTEDFrame
 
                 int lflon_index = (int) Math.floor(lon_index);
                 int lclon_index = (int) Math.ceil(lon_index);
-                /* int lflat_index = (int) Math.floor(lat_index); */
+                int lflat_index = (int) Math.floor(lat_index);
                 int lclat_index = (int) Math.ceil(lat_index);
 
                 if (elevations[lflon_index] == null)
@@ -257,8 +259,12 @@ public class DTEDFrame
 
                 int ul = elevations[lflon_index][lclat_index];
                 int ur = elevations[lclon_index][lclat_index];
-                int ll = elevations[lflon_index][lclat_index];
-                int lr = elevations[lclon_index][lclat_index];
+                int ll = elevations[lflon_index][lflat_index];
+                int lr = elevations[lclon_index][lflat_index];
+
+                if (ul == -32767 || ur == -32767 || ll == -32767 || lr == -32767) {
+                    return elevationAt(lat, lon);
+                }
 
                 float answer = resolveFourPoints(ul, ur, lr, ll, lat_index, lon_index);
                 return Math.round(answer);
@@ -394,20 +400,15 @@ public class DTEDFrame
     // ////////////////
 
     /**
-     * A try at interpolating the corners of the surrounding posts, given a lat
-     * lon. Called from a function where the data for the lon has been read in.
+     * Bilinear interpolation between the posts surrounding a lat/lon. Called
+     * from a function where the data for the lon has been read in.
      */
     private float resolveFourPoints(int ul, int ur, int lr, int ll, float lat_index, float lon_index) {
-        float top_avg = ((lon_index - new Double(Math.floor(lon_index)).floatValue()) * (float) (ur - ul)) + ul;
-        float bottom_avg = ((lon_index - new Double(Math.floor(lon_index)).floatValue()) * (float) (lr - ll)) + ll;
-        float right_avg = ((lat_index - new Double(Math.floor(lat_index)).floatValue()) * (float) (ur - lr)) + lr;
-        float left_avg = ((lat_index - new Double(Math.floor(lat_index)).floatValue()) * (float) (ul - ll)) / 100.0F + ll;
-
-        float lon_avg = ((lat_index - new Double(Math.floor(lat_index)).floatValue()) * (top_avg - bottom_avg)) + bottom_avg;
-        float lat_avg = ((lon_index - new Double(Math.floor(lon_index)).floatValue()) * (right_avg - left_avg)) + left_avg;
-
-        float result = (lon_avg + lat_avg) / 2.0F;
-        return result;
+        float lon_fraction = lon_index - (float) Math.floor(lon_index);
+        float lat_fraction = lat_index - (float) Math.floor(lat_index);
+        float top_avg = ul + lon_fraction * (ur - ul);
+        float bottom_avg = ll + lon_fraction * (lr - ll);
+        return bottom_avg + lat_fraction * (top_avg - bottom_avg);
     }
 
     /**
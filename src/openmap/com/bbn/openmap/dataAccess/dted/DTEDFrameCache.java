@@ -23,13 +23,19 @@
 package com.bbn.openmap.dataAccess.dted;
 
 import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Properties;
 import java.util.Vector;
 
 import com.bbn.openmap.PropertyConsumer;
 import com.bbn.openmap.io.BinaryFile;
+import com.bbn.openmap.io.FormatException;
 import com.bbn.openmap.proj.EqualArc;
+import com.bbn.openmap.proj.GreatCircle;
+import com.bbn.openmap.proj.Length;
+import com.bbn.openmap.proj.coords.LatLonPoint;
 import com.bbn.openmap.util.Debug;
 import com.bbn.openmap.util.PropUtils;
 import com.bbn.openmap.util.cacheHandler.CacheHandler;
@@ -56,6 +62,8 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  *         frameCache.dteddir1.path=/data/dted
  *         frameCache.dteddir2.translator=com.bbn.openmap.dataAccess.dted.StandardDTEDNameTranslator
  *         frameCache.dteddir2.path=/data/dted
+ *         # Optional elevation pyramid, for areas covering many frames
+ *         frameCache.pyramid=/data/dted/dted0.pyr
  * 
  * 
  * </pre>
@@ -66,6 +74,13 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  * that doesn't conform to the naming conventions specified in the Military
  * Standard, you can use a different DTEDNameTranslator instead for your
  * particular directory handler.
+ * <P>
+ * 
+ * An ElevationPyramid, created by the ElevationPyramidBuilder from the DTED
+ * frames or from ETOPO data, can be set for the cache. When elevations are
+ * requested for an area with a post spacing coarser than the DTED level, they
+ * are read from the matching pyramid level instead of from every frame in the
+ * area.
  */
 public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
     /**
@@ -75,6 +90,11 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
 
     public static final String DTEDDirectoryHandlerProperty = "directoryHandlers";
     public static final String DTEDFrameCacheSizeProperty = "cacheSize";
+    public static final String ElevationPyramidProperty = "pyramid";
+
+    /** DTED post spacings for levels 0, 1 and 2, in decimal degrees. */
+    protected final static double[] POST_SPACINGS = new double[] { 30.0 / 3600.0, 3.0 / 3600.0,
+            1.0 / 3600.0 };
 
     public int DEFAULT_CACHE_SIZE = 20;
 
@@ -84,6 +104,9 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
 
     protected int highestResLevel = 2;
 
+    /** Overview elevations for large areas, may be null. */
+    protected ElevationPyramid pyramid = null;
+
     public DTEDFrameCache() {
         super();
     }
@@ -228,66 +251,75 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
     }
 
     /**
-     * This version of resizeCache is for screen size changes, where the number
-     * of frames kept on hand in the cache must change, but the images
-     * themselves don't have to because the pixel/posting spacing hasn't changed
-     * in the projection. The frames already in the cache are re-added to the
-     * new cache, if the cache size is increasing. If the cache size is
-     * shrinking, then as many as will fit are added to the new cache.
-     * 
-     * @param max_size the new size of the cache.
+     * Weigh frames by the memory used by their elevation posts, once they are
+     * all read.
      */
-    public void resizeCache(int max_size) {
-
-        CacheObject[] oldObjs = objs;
-
-        if (max_size != objs.length && max_size > 0) {
-            objs = new CacheObject[max_size];
+    protected long weigh(CacheObject obj) {
+        DTEDFrame frame = (DTEDFrame) obj.obj;
+        if (frame != null && frame.uhl != null) {
+            return 2L * frame.uhl.num_lon_lines * frame.uhl.num_lat_points;
         }
+        return 1;
+    }
 
-        for (int i = 0; i < objs.length; i++) {
-
-            if (i >= oldObjs.length) {
-                break;
-            }
-
-            DTEDCacheObject dco = (DTEDCacheObject) oldObjs[i];
-
-            if (dco == null) {
-                // We load from the front to the back 0 -> length - 1;
-                // Once you hit a null, the rest should be null, too.
-                objs[i] = null;
-                continue;
-            }
-
-            DTEDFrame frame = (DTEDFrame) (dco.obj);
-            dco.cachedTime = 0;
+    public int getHighestResLevel() {
+        return highestResLevel;
+    }
 
-            if (frame == null) {
-                Debug.output("DTEDFrameCache: No Frame for key!");
-                continue;
-            }
+    public void setHighestResLevel(int highestResLevel) {
+        this.highestResLevel = highestResLevel;
+    }
 
-            if (oldObjs == objs) {
-                continue;
-            }
+    /**
+     * Get the ElevationPyramid used for areas covering many frames.
+     * 
+     * @return ElevationPyramid, or null if one isn't set.
+     */
+    public ElevationPyramid getElevationPyramid() {
+        return pyramid;
+    }
 
-            if (i < oldObjs.length) {
-                objs[i] = oldObjs[i];
-            } else {
-                objs[i] = null;
-            }
+    /**
+     * Set the ElevationPyramid used for areas covering many frames. The
+     * previous pyramid is closed.
+     * 
+     * @param elevationPyramid ElevationPyramid, can be null.
+     */
+    public void setElevationPyramid(ElevationPyramid elevationPyramid) {
+        if (pyramid != null && pyramid != elevationPyramid) {
+            pyramid.close();
         }
-
-        oldObjs = null;
+        pyramid = elevationPyramid;
     }
 
-    public int getHighestResLevel() {
-        return highestResLevel;
+    /**
+     * @param dtedLevel DTED level (0, 1, 2).
+     * @return the nominal spacing between DTED posts for a level, in decimal
+     *         degrees. The longitude spacing gets wider above 50 degrees
+     *         latitude.
+     */
+    public static double getPostSpacing(int dtedLevel) {
+        return POST_SPACINGS[Math.max(0, Math.min(POST_SPACINGS.length - 1, dtedLevel))];
     }
 
-    public void setHighestResLevel(int highestResLevel) {
-        this.highestResLevel = highestResLevel;
+    /**
+     * Find the ElevationPyramid level to use instead of DTED frames.
+     * 
+     * @param dtedLevel the DTED level that would be used.
+     * @param postSpacing the largest spacing wanted between posts, like the
+     *        size of a pixel, in decimal degrees.
+     * @return the pyramid level, or -1 if there isn't a pyramid or the DTED
+     *         level posts are needed.
+     */
+    public int getPyramidLevel(int dtedLevel, double postSpacing) {
+        if (pyramid == null) {
+            return -1;
+        }
+        int level = pyramid.getLevel(postSpacing);
+        if (level < 0 || pyramid.getPostSpacing(level) <= getPostSpacing(dtedLevel)) {
+            return -1;
+        }
+        return level;
     }
 
     /**
@@ -339,6 +371,139 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
         return NO_DATA;
     }
 
+    /**
+     * Return the elevations of many lat/lon points at once, in meters. Like
+     * getElevation(lat, lon), uses the highest resolution frame available for
+     * each point, but the points are grouped by frame first, so each frame is
+     * only looked up once. The elevations are interpolated between the posts
+     * around each point.
+     * 
+     * @param lats latitudes of the points, in decimal degrees.
+     * @param lons longitudes of the points, in decimal degrees.
+     * @param elevations array to put the elevations in, at least as long as
+     *        lats. If null, a new one is created.
+     * @return array of elevations in meters, NO_DATA for points without data.
+     */
+    public int[] getElevations(float[] lats, float[] lons, int[] elevations) {
+        return getElevations(lats, lons, highestResLevel, 0, elevations);
+    }
+
+    /**
+     * Return the elevations of many lat/lon points at once, in meters, from
+     * frames at one DTED level. The points are grouped by frame first, so each
+     * frame is only looked up once. The elevations are interpolated between
+     * the posts around each point.
+     * 
+     * @param lats latitudes of the points, in decimal degrees.
+     * @param lons longitudes of the points, in decimal degrees.
+     * @param level the dted level.
+     * @param elevations array to put the elevations in, at least as long as
+     *        lats. If null, a new one is created.
+     * @return array of elevations in meters, NO_DATA for points without data.
+     */
+    public int[] getElevations(float[] lats, float[] lons, int level, int[] elevations) {
+        return getElevations(lats, lons, level, level, elevations);
+    }
+
+    /**
+     * Return the elevations for radian lat/lon pairs, like the points
+     * returned by GreatCircle.greatCircle() or getPathPoints().
+     * 
+     * @param radLatLons lat, lon pairs of points, in radians.
+     * @param elevations array to put the elevations in, at least half as long
+     *        as radLatLons. If null, a new one is created.
+     * @return array of elevations in meters, one for each pair, NO_DATA for
+     *         points without data.
+     */
+    public int[] getElevations(double[] radLatLons, int[] elevations) {
+        int numPoints = radLatLons.length / 2;
+        float[] lats = new float[numPoints];
+        float[] lons = new float[numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            lats[i] = (float) Math.toDegrees(radLatLons[i * 2]);
+            lons[i] = (float) Math.toDegrees(radLatLons[i * 2 + 1]);
+        }
+        return getElevations(lats, lons, elevations);
+    }
+
+    /**
+     * Sample points along the great circle between two points, for a profile.
+     * 
+     * @param start the first point.
+     * @param end the last point.
+     * @param spacing the most distance between the sample points.
+     * @param units the units of the spacing.
+     * @return lat, lon pairs in radians, including the start and end points.
+     */
+    public static double[] getPathPoints(LatLonPoint start, LatLonPoint end, double spacing,
+                                         Length units) {
+        double distance = units.fromRadians(start.distance(end));
+        int numSegments = Math.max(1, (int) Math.ceil(distance / spacing));
+        return GreatCircle.greatCircle(start.getRadLat(),
+                start.getRadLon(),
+                end.getRadLat(),
+                end.getRadLon(),
+                numSegments,
+                true);
+    }
+
+    /**
+     * Look up the elevations of points, trying the DTED levels from highLevel
+     * down to lowLevel for each frame.
+     */
+    protected int[] getElevations(float[] lats, float[] lons, int highLevel, int lowLevel,
+                                  int[] elevations) {
+        int numPoints = lats.length;
+        if (elevations == null) {
+            elevations = new int[numPoints];
+        }
+
+        // Sort the point indexes by the frame they're in, with the frame key
+        // in the upper half of each long.
+        long[] order = new long[numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            order[i] = ((long) getFrameKey(lats[i], lons[i]) << 32) | i;
+        }
+        Arrays.sort(order);
+
+        int start = 0;
+        while (start < numPoints) {
+            int key = (int) (order[start] >> 32);
+            int end = start + 1;
+            while (end < numPoints && (int) (order[end] >> 32) == key) {
+                end++;
+            }
+
+            DTEDFrame frame = null;
+            if (key >= 0) {
+                int first = (int) order[start];
+                for (int level = highLevel; level >= lowLevel && frame == null; level--) {
+                    frame = get(lats[first], lons[first], level);
+                }
+            }
+
+            for (int i = start; i < end; i++) {
+                int index = (int) order[i];
+                elevations[index] = frame != null ? frame.interpElevationAt(lats[index], lons[index])
+                        : NO_DATA;
+            }
+            start = end;
+        }
+
+        return elevations;
+    }
+
+    /**
+     * @return a number for the 1x1 degree frame holding a point, or -1 if the
+     *         point isn't a valid lat/lon.
+     */
+    protected static int getFrameKey(float lat, float lon) {
+        if (!(lat >= -90f && lat <= 90f && lon >= -180f && lon <= 180f)) {
+            return -1;
+        }
+        return ((int) Math.floor(lat) + 90) * 361 + (int) Math.floor(lon) + 180;
+    }
+
     /**
      * Return the two-dimensional matrix of elevation posts (heights)
      * representing coverage of a given geographical rectangle. The matrix
@@ -362,6 +527,41 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
                 dtedLevel);
     }
 
+    /**
+     * Return the two-dimensional matrix of elevation posts (heights)
+     * representing coverage of a given geographical rectangle, at a post
+     * spacing that doesn't need to be finer than postSpacing. If the
+     * ElevationPyramid has a level coarser than the DTED level that still has
+     * posts no farther apart than postSpacing, the mean elevations of that
+     * pyramid level are returned, and getPyramidLevel() says which level that
+     * is. Otherwise, the DTED level posts are returned. Doesn't handle
+     * projections which cross the dateline.
+     * 
+     * @param ullat upper latitude, in decimal degrees
+     * @param ullon left longitude, in decimal degrees
+     * @param lrlat lower latitude, in decimal degrees
+     * @param lrlon right longitude, in decimal degrees
+     * @param dtedLevel the DTED level (0, 1, 2) to be used if the pyramid
+     *        can't be.
+     * @param postSpacing the largest spacing wanted between posts, in decimal
+     *        degrees.
+     * @return array of elevations, in meters.
+     */
+    public short[][] getElevations(float ullat, float ullon, float lrlat,
+                                   float lrlon, int dtedLevel,
+                                   double postSpacing) {
+        int level = getPyramidLevel(dtedLevel, postSpacing);
+        if (level >= 0) {
+            return pyramid.getElevations(ullat,
+                    ullon,
+                    lrlat,
+                    lrlon,
+                    level,
+                    ElevationPyramid.MEAN);
+        }
+        return getElevations(ullat, ullon, lrlat, lrlon, dtedLevel, null);
+    }
+
     /**
      * Return the two-dimensional matrix of elevation posts (heights)
      * representing coverage of a given geographical rectangle. The matrix
@@ -619,6 +819,20 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
 
         resetCache(PropUtils.intFromProperties(props, prefix
                 + DTEDFrameCacheSizeProperty, DEFAULT_CACHE_SIZE));
+        setCacheEngineProperties(prefix, props);
+
+        String pyramidPath = props.getProperty(prefix + ElevationPyramidProperty);
+        if (pyramidPath != null && pyramidPath.length() > 0) {
+            try {
+                setElevationPyramid(new ElevationPyramid(pyramidPath));
+            } catch (IOException ioe) {
+                Debug.error("DTEDFrameCache: can't read elevation pyramid "
+                        + pyramidPath + ": " + ioe.getMessage());
+            } catch (FormatException fe) {
+                Debug.error("DTEDFrameCache: can't read elevation pyramid "
+                        + pyramidPath + ": " + fe.getMessage());
+            }
+        }
     }
 
     /**
@@ -632,6 +846,9 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
         String prefix = PropUtils.getScopedPropertyPrefix(this);
         props.put(prefix + DTEDFrameCacheSizeProperty,
                 Integer.toString(getCacheSize()));
+        getCacheEngineProperties(prefix, props);
+        props.put(prefix + ElevationPyramidProperty,
+                pyramid != null ? pyramid.getPath() : "");
 
         // Directory handler properties...
         if (directories != null) {
@@ -665,6 +882,11 @@ public class DTEDFrameCache extends CacheHandler implements PropertyConsumer {
         }
 
         props.put(DTEDFrameCacheSizeProperty, "Size of the frame cache");
+        props.put(ElevationPyramidProperty,
+                "Path to an elevation pyramid file for large areas");
+        props.put(ElevationPyramidProperty + ScopedEditorProperty,
+                "com.bbn.openmap.util.propertyEditor.FUPropertyEditor");
+        getCacheEnginePropertyInfo(props);
 
         // Not sure how to handle setting up a DTEDDirectoryHandler
         // yet.
@@ -248,12 +248,28 @@ public class DTEDFrameCacheHandler extends CacheHandler implements DTEDConstants
      * The call to the cache that lets you choose what kind of information is
      * returned. This function also figures out what part of the earth is
      * covered on the screen, and creates auxillary cache handlers as needed.
+     * If the DTEDFrameCache has an ElevationPyramid, and the pixels are larger
+     * than the spacing between the DTED posts, the grids come from a matching
+     * pyramid level instead of from the DTED frames.
      * 
      * @param proj The projection of the screen (CADRG).
      * @return List of rasters to display.
      */
     public OMGraphicList getRectangle(Projection proj) {
 
+        if (frameCache != null && frameCache.getElevationPyramid() != null) {
+            Point2D ul = proj.getUpperLeft();
+            Point2D lr = proj.getLowerRight();
+            double lonSpan = lr.getX() - ul.getX();
+            if (lonSpan <= 0) {
+                lonSpan += 360;
+            }
+            int pyramidLevel = frameCache.getPyramidLevel(dtedLevel, lonSpan / proj.getWidth());
+            if (pyramidLevel >= 0) {
+                return getOverviewList(proj, pyramidLevel);
+            }
+        }
+
         double[] lat = new double[3];
         double[] lon = new double[3];
 
@@ -354,6 +370,96 @@ public class DTEDFrameCacheHandler extends CacheHandler implements DTEDConstants
         return list;
     }
 
+    /**
+     * Get the grids for the projection from a level of the DTEDFrameCache's
+     * ElevationPyramid, one grid for each pyramid tile on the screen.
+     * 
+     * @param proj the projection of the screen.
+     * @param level the pyramid level.
+     * @return List of grids to display.
+     */
+    protected OMGraphicList getOverviewList(Projection proj, int level) {
+        ElevationPyramid pyramid = frameCache.getElevationPyramid();
+        OMGraphicList list = new OMGraphicList();
+
+        Point2D ul = proj.getUpperLeft();
+        Point2D lr = proj.getLowerRight();
+        double left = ul.getX();
+        double right = lr.getX();
+        // Dateline split
+        if (left >= right) {
+            addOverviews(list, pyramid, level, ul.getY(), left, lr.getY(), 180);
+            left = -180;
+        }
+        addOverviews(list, pyramid, level, ul.getY(), left, lr.getY(), right);
+
+        if (Debug.debugging("dted")) {
+            Debug.output("DTEDFrameCacheHandler: " + list.size() + " grids from pyramid level "
+                    + level);
+        }
+        return list;
+    }
+
+    /**
+     * Add the grids for the pyramid tiles covering an area to a list.
+     */
+    protected void addOverviews(OMGraphicList list, ElevationPyramid pyramid, int level,
+                                double upper, double left, double lower, double right) {
+        int tileSize = pyramid.getTileSize();
+        int col1 = Math.max(0, pyramid.getColumn(level, left));
+        int col2 = Math.min(pyramid.getWidth(level) - 1, pyramid.getColumn(level, right));
+        int row1 = Math.max(0, pyramid.getRow(level, lower));
+        int row2 = Math.min(pyramid.getHeight(level) - 1, pyramid.getRow(level, upper));
+        if (col1 > col2 || row1 > row2) {
+            return;
+        }
+
+        for (int tx = col1 / tileSize; tx <= col2 / tileSize; tx++) {
+            for (int ty = row2 / tileSize; ty >= row1 / tileSize; ty--) {
+                OMGraphic omg = getOverview(level, tx, ty);
+                if (omg != null) {
+                    list.add(omg);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return an OMGraphic for an ElevationPyramid tile, from the cache if it
+     * has already been created.
+     * 
+     * @param level the pyramid level.
+     * @param tx the tile column, from the west.
+     * @param ty the tile row, from the south.
+     * @return OMGraphic, an OMGrid, or null if the tile doesn't have data.
+     */
+    public OMGraphic getOverview(int level, int tx, int ty) {
+        ElevationPyramid pyramid = frameCache.getElevationPyramid();
+        if (pyramid == null) {
+            return null;
+        }
+
+        // The pyramid path is in the key so tiles from a pyramid that has
+        // been replaced on the frame cache aren't used.
+        String key = "pyramid:" + pyramid.getPath() + ":" + level + ":" + tx + ":" + ty;
+
+        CacheObject ret = searchCache(key);
+        if (ret != null) {
+            return (OMGraphic) ret.obj;
+        }
+
+        long start = System.nanoTime();
+        OMGrid omgrid = pyramid.getOMGrid(level, tx, ty);
+        recordLoad(start, omgrid != null);
+        if (omgrid == null) {
+            return null;
+        }
+
+        omgrid.setGenerator(getGenerator());
+        replaceLeastUsed(new DTEDCacheObject(key, omgrid));
+        return omgrid;
+    }
+
     /**
      * Method that pings the cache for images based on the projection that has
      * been set on it. If the cache returns null from getNextImage(), it's done.
@@ -496,7 +602,9 @@ public class DTEDFrameCacheHandler extends CacheHandler implements DTEDConstants
             return (OMGraphic) ret.obj;
         }
 
+        long start = System.nanoTime();
         ret = load(key, lat, lon, level);
+        recordLoad(start, ret != null);
         if (ret == null) {
             return null;
         }
@@ -608,6 +716,8 @@ public class DTEDFrameCacheHandler extends CacheHandler implements DTEDConstants
                 }
             }
         }
+
+        setCacheEngineProperties(realPrefix, props);
     }
 
     /**
@@ -644,6 +754,7 @@ public class DTEDFrameCacheHandler extends CacheHandler implements DTEDConstants
         }
 
         props.put(prefix + GeneratorLoadersProperty, sb.toString());
+        getCacheEngineProperties(prefix, props);
 
         return props;
     }
@@ -670,6 +781,7 @@ public class DTEDFrameCacheHandler extends CacheHandler implements DTEDConstants
         }
         // Not sure how to set up an inspector to create child classes
         // yet.
+        getCacheEnginePropertyInfo(list);
         return list;
     }
 
@@ -0,0 +1,601 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.dataAccess.dted;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.bbn.openmap.io.BinaryFile;
+import com.bbn.openmap.io.FormatException;
+import com.bbn.openmap.omGraphics.OMGrid;
+import com.bbn.openmap.omGraphics.grid.OMGridData;
+import com.bbn.openmap.proj.Length;
+import com.bbn.openmap.util.Debug;
+import com.bbn.openmap.util.cacheHandler.CacheHandler;
+import com.bbn.openmap.util.cacheHandler.CacheObject;
+
+/**
+ * The ElevationPyramid reads a precomputed, multi-resolution set of elevations
+ * from a tiled binary file created by the ElevationPyramidBuilder from DTED or
+ * ETOPO data. At small scales, the elevations for a large area can be read
+ * from a few pyramid tiles instead of from every DTED frame in the area.
+ * <P>
+ *
+ * Each level of the pyramid is a lat/lon grid of cells, and each cell holds the
+ * minimum, maximum and mean elevation of the area it covers. Level 0 has the
+ * finest cells, each level after that has cells twice as large as the level
+ * before it, aggregated from the 2x2 cells below them. The elevation posts
+ * returned from the pyramid are for the cell centers, and the cell containing
+ * a lat/lon can be found with getColumn() and getRow().
+ * <P>
+ *
+ * The levels are divided into square tiles of cells, which are read as needed
+ * and cached. Tiles without any data aren't stored in the file. The file is
+ * big-endian, laid out as:
+ *
+ * <pre>
+ *
+ *   &quot;OMEP&quot;, version (int)
+ *   west lon, south lat, level 0 cell size in decimal degrees (doubles)
+ *   level 0 columns, level 0 rows, tile size, number of levels (ints)
+ *   tile index offset for each level (longs)
+ *   tiles, each one a type byte followed by tile size x tile size shorts,
+ *     once if all the aggregates are the same (SINGLE_TILE), or for min, max
+ *     and mean (AGGREGATE_TILE), column by column from the west, rows from
+ *     the south.
+ *   tile index for each level, the offset for each tile (longs, 0 if the
+ *     tile is missing), row by row from the south.
+ *
+ * </pre>
+ */
+public class ElevationPyramid extends CacheHandler {
+
+    public final static String MAGIC = "OMEP";
+    public final static int VERSION = 1;
+
+    /** Aggregate type for the lowest elevation in a cell. */
+    public final static int MIN = 0;
+    /** Aggregate type for the highest elevation in a cell. */
+    public final static int MAX = 1;
+    /** Aggregate type for the average elevation in a cell. */
+    public final static int MEAN = 2;
+
+    /** Tile type where the min, max and mean values are all the same. */
+    public final static byte SINGLE_TILE = 0;
+    /** Tile type holding separate min, max and mean values. */
+    public final static byte AGGREGATE_TILE = 1;
+
+    public final static int DEFAULT_CACHE_SIZE = 64;
+
+    protected String path;
+    protected BinaryFile binFile;
+
+    protected double west;
+    protected double south;
+    protected double cellSize;
+    protected int width;
+    protected int height;
+    protected int tileSize;
+    protected int numLevels;
+    protected long[] indexOffsets;
+
+    /**
+     * Open a pyramid file.
+     *
+     * @param path the path to the pyramid file, or a resource or URL.
+     * @throws IOException if the file can't be read.
+     * @throws FormatException if the file isn't a pyramid file.
+     */
+    public ElevationPyramid(String path) throws IOException, FormatException {
+        super(DEFAULT_CACHE_SIZE);
+        this.path = path;
+        binFile = new BinaryFile(path);
+        binFile.byteOrder(true);
+        readHeader();
+    }
+
+    protected void readHeader() throws IOException, FormatException {
+        String magic = binFile.readFixedLengthString(4);
+        if (!MAGIC.equals(magic)) {
+            throw new FormatException("ElevationPyramid: " + path + " isn't an elevation pyramid file");
+        }
+        int version = binFile.readInteger();
+        if (version != VERSION) {
+            throw new FormatException("ElevationPyramid: " + path + " has unknown version " + version);
+        }
+
+        west = binFile.readDouble();
+        south = binFile.readDouble();
+        cellSize = binFile.readDouble();
+        width = binFile.readInteger();
+        height = binFile.readInteger();
+        tileSize = binFile.readInteger();
+        numLevels = binFile.readInteger();
+
+        if (cellSize <= 0 || width <= 0 || height <= 0 || tileSize <= 0 || numLevels <= 0) {
+            throw new FormatException("ElevationPyramid: " + path + " has a bad header");
+        }
+
+        indexOffsets = new long[numLevels];
+        for (int i = 0; i < numLevels; i++) {
+            indexOffsets[i] = binFile.readLong();
+        }
+
+        if (Debug.debugging("dted")) {
+            Debug.output("ElevationPyramid: " + path + " has " + numLevels + " levels, " + width + "x"
+                    + height + " cells of " + cellSize + " degrees at level 0");
+        }
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getNumLevels() {
+        return numLevels;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * @return the western edge of the pyramid, in decimal degrees.
+     */
+    public double getWest() {
+        return west;
+    }
+
+    /**
+     * @return the southern edge of the pyramid, in decimal degrees.
+     */
+    public double getSouth() {
+        return south;
+    }
+
+    /**
+     * @return the eastern edge of the pyramid, in decimal degrees.
+     */
+    public double getEast() {
+        return west + width * cellSize;
+    }
+
+    /**
+     * @return the northern edge of the pyramid, in decimal degrees.
+     */
+    public double getNorth() {
+        return south + height * cellSize;
+    }
+
+    /**
+     * @param level pyramid level.
+     * @return the size of the cells (the spacing between the posts) of a level,
+     *         in decimal degrees.
+     */
+    public double getPostSpacing(int level) {
+        return cellSize * (1 << level);
+    }
+
+    /**
+     * @param level pyramid level.
+     * @return the number of cell columns in a level.
+     */
+    public int getWidth(int level) {
+        return (width + (1 << level) - 1) >> level;
+    }
+
+    /**
+     * @param level pyramid level.
+     * @return the number of cell rows in a level.
+     */
+    public int getHeight(int level) {
+        return (height + (1 << level) - 1) >> level;
+    }
+
+    /**
+     * @param level pyramid level.
+     * @return the number of tile columns in a level.
+     */
+    public int getTileColumns(int level) {
+        return (getWidth(level) + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * @param level pyramid level.
+     * @return the number of tile rows in a level.
+     */
+    public int getTileRows(int level) {
+        return (getHeight(level) + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * Find the level to use for a post spacing.
+     *
+     * @param postSpacing the largest spacing wanted between posts, like the
+     *        size of a pixel, in decimal degrees.
+     * @return the coarsest level whose posts are no farther apart than the
+     *         spacing, or -1 if the level 0 posts are farther apart.
+     */
+    public int getLevel(double postSpacing) {
+        int level = -1;
+        while (level < numLevels - 1 && getPostSpacing(level + 1) <= postSpacing) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * @param level pyramid level.
+     * @param lon longitude in decimal degrees.
+     * @return the column of the cell containing the longitude, which may be
+     *         outside of the level.
+     */
+    public int getColumn(int level, double lon) {
+        return (int) Math.floor((lon - west) / getPostSpacing(level));
+    }
+
+    /**
+     * @param level pyramid level.
+     * @param lat latitude in decimal degrees.
+     * @return the row of the cell containing the latitude, counted from the
+     *         south, which may be outside of the level.
+     */
+    public int getRow(int level, double lat) {
+        return (int) Math.floor((lat - south) / getPostSpacing(level));
+    }
+
+    /**
+     * @return the western edge of a cell column, in decimal degrees.
+     */
+    public double getLongitude(int level, int column) {
+        return west + column * getPostSpacing(level);
+    }
+
+    /**
+     * @return the southern edge of a cell row, in decimal degrees.
+     */
+    public double getLatitude(int level, int row) {
+        return south + row * getPostSpacing(level);
+    }
+
+    /**
+     * Get the elevations for a geographical rectangle, like
+     * DTEDFrameCache.getElevations(). Doesn't handle rectangles that cross the
+     * dateline.
+     *
+     * @param ullat upper latitude, in decimal degrees
+     * @param ullon left longitude, in decimal degrees
+     * @param lrlat lower latitude, in decimal degrees
+     * @param lrlon right longitude, in decimal degrees
+     * @param level the pyramid level to read.
+     * @param aggregate MIN, MAX or MEAN.
+     * @return elevations in meters, [column from the west][row from the south],
+     *         for the cells from the one containing the lower left corner to
+     *         the one containing the upper right corner. Cells without data
+     *         are DTEDFrameCache.NO_DATA. Null if the rectangle straddles the
+     *         dateline.
+     */
+    public short[][] getElevations(float ullat, float ullon, float lrlat, float lrlon, int level,
+                                   int aggregate) {
+        float upper = Math.max(ullat, lrlat);
+        float lower = Math.min(ullat, lrlat);
+        float left = ullon;
+        float right = lrlon;
+        if (ullon > lrlon) {
+            if (ullon > 0 && lrlon < 0) {
+                Debug.error("ElevationPyramid: getElevations: Straddling dateline not handled!");
+                return null;
+            }
+            left = lrlon;
+            right = ullon;
+        }
+
+        int col1 = getColumn(level, left);
+        int col2 = getColumn(level, right);
+        int row1 = getRow(level, lower);
+        int row2 = getRow(level, upper);
+
+        short[][] matrix = new short[col2 - col1 + 1][row2 - row1 + 1];
+        for (int i = 0; i < matrix.length; i++) {
+            Arrays.fill(matrix[i], (short) DTEDFrameCache.NO_DATA);
+        }
+
+        int levelWidth = getWidth(level);
+        int levelHeight = getHeight(level);
+        if (col2 < 0 || row2 < 0 || col1 >= levelWidth || row1 >= levelHeight) {
+            return matrix;
+        }
+
+        int tx1 = Math.max(0, col1) / tileSize;
+        int tx2 = Math.min(levelWidth - 1, col2) / tileSize;
+        int ty1 = Math.max(0, row1) / tileSize;
+        int ty2 = Math.min(levelHeight - 1, row2) / tileSize;
+
+        for (int tx = tx1; tx <= tx2; tx++) {
+            for (int ty = ty1; ty <= ty2; ty++) {
+                Tile tile = getTile(level, tx, ty);
+                if (tile == null) {
+                    continue;
+                }
+                short[] values = tile.get(aggregate);
+                int c1 = Math.max(col1, tx * tileSize);
+                int c2 = Math.min(col2, Math.min(levelWidth, (tx + 1) * tileSize) - 1);
+                int r1 = Math.max(row1, ty * tileSize);
+                int r2 = Math.min(row2, Math.min(levelHeight, (ty + 1) * tileSize) - 1);
+                for (int c = c1; c <= c2; c++) {
+                    System.arraycopy(values, (c - tx * tileSize) * tileSize + r1 - ty * tileSize,
+                            matrix[c - col1], r1 - row1, r2 - r1 + 1);
+                }
+            }
+        }
+
+        return matrix;
+    }
+
+    /**
+     * Create an OMGrid holding the mean elevations of a tile, trimmed to the
+     * cells inside the level. The grid corners are the edges of the cells, so
+     * a DTEDSlopeGenerator lines each cell up with its area.
+     *
+     * @param level pyramid level.
+     * @param tx tile column, from the west.
+     * @param ty tile row, from the south.
+     * @return OMDTEDGrid, or null if the tile doesn't have data.
+     */
+    public OMGrid getOMGrid(int level, int tx, int ty) {
+        Tile tile = getTile(level, tx, ty);
+        if (tile == null) {
+            return null;
+        }
+
+        int cols = Math.min(tileSize, getWidth(level) - tx * tileSize);
+        int rows = Math.min(tileSize, getHeight(level) - ty * tileSize);
+        short[] mean = tile.get(MEAN);
+        short[][] elevations = new short[cols][rows];
+        for (int c = 0; c < cols; c++) {
+            System.arraycopy(mean, c * tileSize, elevations[c], 0, rows);
+        }
+
+        double spacing = getPostSpacing(level);
+        int col = tx * tileSize;
+        int row = ty * tileSize;
+        OMDTEDGrid omg = new OMDTEDGrid(getLatitude(level, row), getLongitude(level, col), getLatitude(level, row
+                + rows), getLongitude(level, col + cols), spacing, spacing, new OMGridData.Short(elevations));
+        omg.setUnits(Length.METER);
+        return omg;
+    }
+
+    /**
+     * Get a tile, reading it from the file if it isn't cached.
+     *
+     * @param level pyramid level.
+     * @param tx tile column, from the west.
+     * @param ty tile row, from the south.
+     * @return Tile, or null if the tile isn't in the pyramid.
+     */
+    public Tile getTile(int level, int tx, int ty) {
+        if (level < 0 || level >= numLevels || tx < 0 || ty < 0 || tx >= getTileColumns(level)
+                || ty >= getTileRows(level)) {
+            return null;
+        }
+        return (Tile) get(new TileKey(level, tx, ty));
+    }
+
+    /**
+     * Read a tile from the file, the key is a TileKey.
+     */
+    public CacheObject load(Object key) {
+        TileKey tk = (TileKey) key;
+        try {
+            Tile tile = readTile(tk.level, tk.x, tk.y);
+            if (tile != null) {
+                return new CacheObject(key, tile);
+            }
+        } catch (IOException ioe) {
+            Debug.error("ElevationPyramid: problem reading " + tk + " from " + path + ": "
+                    + ioe.getMessage());
+        } catch (FormatException fe) {
+            Debug.error("ElevationPyramid: problem reading " + tk + " from " + path + ": "
+                    + fe.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Tiles are weighed by the bytes in their elevations.
+     */
+    protected long weigh(CacheObject obj) {
+        if (obj.obj instanceof Tile) {
+            Tile tile = (Tile) obj.obj;
+            return 2L * tile.mean.length * (tile.min == tile.mean ? 1 : 3);
+        }
+        return 1;
+    }
+
+    protected synchronized Tile readTile(int level, int tx, int ty) throws IOException,
+            FormatException {
+        if (binFile == null) {
+            return null;
+        }
+        binFile.seek(indexOffsets[level] + 8L * ((long) ty * getTileColumns(level) + tx));
+        long offset = binFile.readLong();
+        if (offset == 0) {
+            return null;
+        }
+
+        binFile.seek(offset);
+        byte type = (byte) binFile.read();
+        int numBytes = getTileLength(type, tileSize) - 1;
+        if (numBytes < 0) {
+            throw new FormatException("unknown tile type " + type);
+        }
+        byte[] bytes = binFile.readBytes(numBytes, false);
+        return decodeTile(type, bytes, tileSize);
+    }
+
+    /**
+     * Close the file, the pyramid can't read any more tiles.
+     */
+    public synchronized void close() {
+        if (binFile != null) {
+            try {
+                binFile.close();
+            } catch (IOException ioe) {
+            }
+            binFile = null;
+        }
+        clear();
+    }
+
+    /**
+     * @return the number of bytes used in the file for a tile of a type,
+     *         including the type byte, or 0 if the type isn't known.
+     */
+    protected static int getTileLength(byte type, int tileSize) {
+        int numValues = tileSize * tileSize;
+        switch (type) {
+        case SINGLE_TILE:
+            return 1 + 2 * numValues;
+        case AGGREGATE_TILE:
+            return 1 + 6 * numValues;
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Create a tile from its bytes in the file, after the type byte.
+     */
+    protected static Tile decodeTile(byte type, byte[] bytes, int tileSize) {
+        int numValues = tileSize * tileSize;
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        short[] mean = new short[numValues];
+        if (type == SINGLE_TILE) {
+            buf.asShortBuffer().get(mean);
+            return new Tile(mean, mean, mean);
+        }
+
+        short[] min = new short[numValues];
+        short[] max = new short[numValues];
+        buf.asShortBuffer().get(min);
+        buf.position(2 * numValues);
+        buf.asShortBuffer().get(max);
+        buf.position(4 * numValues);
+        buf.asShortBuffer().get(mean);
+        return new Tile(min, max, mean);
+    }
+
+    /**
+     * Create the bytes for a tile in the file, including the type byte.
+     */
+    protected static byte[] encodeTile(Tile tile) {
+        boolean single = tile.isSingle();
+        int numValues = tile.mean.length;
+        ByteBuffer buf = ByteBuffer.allocate(1 + (single ? 2 : 6) * numValues);
+        buf.put(single ? SINGLE_TILE : AGGREGATE_TILE);
+        if (!single) {
+            buf.asShortBuffer().put(tile.min);
+            buf.position(1 + 2 * numValues);
+            buf.asShortBuffer().put(tile.max);
+            buf.position(1 + 4 * numValues);
+        }
+        buf.asShortBuffer().put(tile.mean);
+        return buf.array();
+    }
+
+    /**
+     * A tile of cells in a pyramid level. The arrays are tile size x tile size,
+     * column by column from the west, with the rows from the south. Shared,
+     * don't modify.
+     */
+    public static class Tile {
+        public final short[] min;
+        public final short[] max;
+        public final short[] mean;
+
+        public Tile(short[] min, short[] max, short[] mean) {
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+        }
+
+        /**
+         * @param aggregate MIN, MAX or MEAN.
+         * @return the values for the aggregate type.
+         */
+        public short[] get(int aggregate) {
+            switch (aggregate) {
+            case MIN:
+                return min;
+            case MAX:
+                return max;
+            default:
+                return mean;
+            }
+        }
+
+        /**
+         * @return true if the min, max and mean values are all the same.
+         */
+        public boolean isSingle() {
+            return (min == mean || Arrays.equals(min, mean))
+                    && (max == mean || Arrays.equals(max, mean));
+        }
+
+        /**
+         * @return true if none of the cells have data.
+         */
+        public boolean isEmpty() {
+            for (int i = 0; i < mean.length; i++) {
+                if (mean[i] != DTEDFrameCache.NO_DATA) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The cache key for a tile.
+     */
+    protected static class TileKey {
+        protected final int level;
+        protected final int x;
+        protected final int y;
+
+        public TileKey(int level, int x, int y) {
+            this.level = level;
+            this.x = x;
+            this.y = y;
+        }
+
+        public int hashCode() {
+            return (level * 31 + x) * 31 + y;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) obj;
+            return level == other.level && x == other.x && y == other.y;
+        }
+
+        public String toString() {
+            return "level " + level + " tile " + x + ", " + y;
+        }
+    }
+}
@@ -0,0 +1,505 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.dataAccess.dted;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import com.bbn.openmap.io.BinaryBufferedFile;
+import com.bbn.openmap.io.FormatException;
+import com.bbn.openmap.util.ArgParser;
+import com.bbn.openmap.util.Debug;
+
+/**
+ * The ElevationPyramidBuilder creates the file read by an ElevationPyramid,
+ * from DTED frames or an ETOPO file. The level 0 cells are centered on the
+ * elevation posts of the source, and each level after that is aggregated from
+ * the level before it, so the source is only read once. The tiles of the level
+ * below are read back from the file being written, so only a few tiles are
+ * held in memory at a time. Usage:
+ * <P>
+ *
+ * <pre>
+ *
+ *   -boundary   upper lat, left lon, lower lat, right lon (4 arguments expected)
+ *   -dted       The source DTED directory path. (1 argument expected)
+ *   -etopo      The source ETOPO file, and its minute spacing (2, 5, 10, 15). (2 arguments expected)
+ *   -etopoWest  The longitude of the first column of the ETOPO file. (1 argument expected)
+ *   -level      DTED level to read (0, 1, 2), 0 is default. (1 argument expected)
+ *   -levels     Number of pyramid levels, by default enough for one tile on top. (1 argument expected)
+ *   -output     The pyramid file to create. (1 argument expected)
+ *   -spacing    Level 0 cell size in arc seconds, the source post spacing by default. (1 argument expected)
+ *   -tileSize   Number of cells across each tile, 256 is default. (1 argument expected)
+ *   -verbose    Print out progress. (0 arguments expected)
+ *
+ * </pre>
+ *
+ * The pyramid can then be set on a DTEDFrameCache with its pyramid property.
+ */
+public class ElevationPyramidBuilder {
+
+    public final static int DEFAULT_TILE_SIZE = 256;
+
+    protected ElevationSource source;
+    protected double west;
+    protected double south;
+    protected double cellSize;
+    protected int width;
+    protected int height;
+    protected int tileSize = DEFAULT_TILE_SIZE;
+    protected int numLevels = 0;
+
+    /**
+     * Create a builder for an area. The area is expanded so the level 0 cells
+     * are centered on multiples of the cell size, which is where the DTED and
+     * ETOPO posts are.
+     *
+     * @param source where the elevations come from.
+     * @param ullat upper latitude, in decimal degrees
+     * @param ullon left longitude, in decimal degrees
+     * @param lrlat lower latitude, in decimal degrees
+     * @param lrlon right longitude, in decimal degrees
+     * @param cellSize the size of the level 0 cells, in decimal degrees.
+     */
+    public ElevationPyramidBuilder(ElevationSource source, double ullat, double ullon, double lrlat,
+            double lrlon, double cellSize) {
+        this.source = source;
+        this.cellSize = cellSize;
+        west = (Math.floor(Math.min(ullon, lrlon) / cellSize) - .5) * cellSize;
+        south = (Math.floor(Math.min(ullat, lrlat) / cellSize) - .5) * cellSize;
+        width = (int) Math.ceil((Math.max(ullon, lrlon) - west) / cellSize);
+        height = (int) Math.ceil((Math.max(ullat, lrlat) - south) / cellSize);
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Set the number of cells across each tile, needs to be even.
+     */
+    public void setTileSize(int tileSize) {
+        if (tileSize < 2 || tileSize % 2 != 0) {
+            throw new IllegalArgumentException("tile size needs to be even: " + tileSize);
+        }
+        this.tileSize = tileSize;
+    }
+
+    public int getNumLevels() {
+        return numLevels;
+    }
+
+    /**
+     * Set the number of levels to create, 0 (the default) to keep adding
+     * levels until one tile covers the area.
+     */
+    public void setNumLevels(int numLevels) {
+        this.numLevels = numLevels;
+    }
+
+    /**
+     * Create the pyramid file.
+     *
+     * @param outputPath path to the file, it will be replaced if it exists.
+     * @throws IOException if there is a problem writing the file.
+     */
+    public void build(String outputPath) throws IOException {
+        int levels = numLevels;
+        if (levels <= 0) {
+            levels = 1;
+            while (Math.max(getWidth(levels - 1), getHeight(levels - 1)) > tileSize) {
+                levels++;
+            }
+        }
+
+        RandomAccessFile out = new RandomAccessFile(outputPath, "rw");
+        try {
+            out.setLength(0);
+            out.writeBytes(ElevationPyramid.MAGIC);
+            out.writeInt(ElevationPyramid.VERSION);
+            out.writeDouble(west);
+            out.writeDouble(south);
+            out.writeDouble(cellSize);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(tileSize);
+            out.writeInt(levels);
+            long indexOffsetsPos = out.getFilePointer();
+            for (int i = 0; i < levels; i++) {
+                out.writeLong(0);
+            }
+
+            long[][] tileOffsets = new long[levels][];
+            for (int level = 0; level < levels; level++) {
+                int cols = getTileColumns(level);
+                int rows = getTileRows(level);
+                tileOffsets[level] = new long[cols * rows];
+                int count = 0;
+
+                for (int ty = 0; ty < rows; ty++) {
+                    for (int tx = 0; tx < cols; tx++) {
+                        ElevationPyramid.Tile tile;
+                        if (level == 0) {
+                            tile = createBaseTile(tx, ty);
+                        } else {
+                            tile = createTile(out, level, tx, ty, tileOffsets[level - 1]);
+                        }
+
+                        if (tile != null && !tile.isEmpty()) {
+                            long offset = out.length();
+                            out.seek(offset);
+                            out.write(ElevationPyramid.encodeTile(tile));
+                            tileOffsets[level][ty * cols + tx] = offset;
+                            count++;
+                        }
+                    }
+                }
+
+                if (Debug.debugging("dted")) {
+                    Debug.output("ElevationPyramidBuilder: level " + level + ", " + count + " of "
+                            + (cols * rows) + " tiles with data");
+                }
+            }
+
+            for (int level = 0; level < levels; level++) {
+                long indexOffset = out.length();
+                out.seek(indexOffset);
+                for (int i = 0; i < tileOffsets[level].length; i++) {
+                    out.writeLong(tileOffsets[level][i]);
+                }
+                out.seek(indexOffsetsPos + 8L * level);
+                out.writeLong(indexOffset);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    protected int getWidth(int level) {
+        return (width + (1 << level) - 1) >> level;
+    }
+
+    protected int getHeight(int level) {
+        return (height + (1 << level) - 1) >> level;
+    }
+
+    protected int getTileColumns(int level) {
+        return (getWidth(level) + tileSize - 1) / tileSize;
+    }
+
+    protected int getTileRows(int level) {
+        return (getHeight(level) + tileSize - 1) / tileSize;
+    }
+
+    /**
+     * Create a level 0 tile from the source, reading the elevation at the
+     * center of each cell.
+     */
+    protected ElevationPyramid.Tile createBaseTile(int tx, int ty) {
+        short[] values = new short[tileSize * tileSize];
+        int index = 0;
+        for (int c = 0; c < tileSize; c++) {
+            int col = tx * tileSize + c;
+            double lon = west + (col + .5) * cellSize;
+            for (int r = 0; r < tileSize; r++) {
+                int row = ty * tileSize + r;
+                int elevation = DTEDFrameCache.NO_DATA;
+                if (col < width && row < height) {
+                    elevation = source.getElevation(south + (row + .5) * cellSize, lon);
+                }
+                values[index++] = (short) elevation;
+            }
+        }
+        return new ElevationPyramid.Tile(values, values, values);
+    }
+
+    /**
+     * Create a tile by aggregating the 2x2 tiles below it, which are read back
+     * from the file.
+     */
+    protected ElevationPyramid.Tile createTile(RandomAccessFile out, int level, int tx, int ty,
+                                               long[] childOffsets) throws IOException {
+        int childCols = getTileColumns(level - 1);
+        int childRows = getTileRows(level - 1);
+        ElevationPyramid.Tile[] children = new ElevationPyramid.Tile[4];
+        boolean found = false;
+        for (int i = 0; i < 4; i++) {
+            int ctx = tx * 2 + i % 2;
+            int cty = ty * 2 + i / 2;
+            if (ctx < childCols && cty < childRows && childOffsets[cty * childCols + ctx] != 0) {
+                children[i] = readTile(out, childOffsets[cty * childCols + ctx]);
+                found = true;
+            }
+        }
+        if (!found) {
+            return null;
+        }
+
+        int numValues = tileSize * tileSize;
+        short[] min = new short[numValues];
+        short[] max = new short[numValues];
+        short[] mean = new short[numValues];
+        int half = tileSize / 2;
+        for (int c = 0; c < tileSize; c++) {
+            for (int r = 0; r < tileSize; r++) {
+                ElevationPyramid.Tile child = children[(r / half) * 2 + c / half];
+                int lo = Short.MAX_VALUE;
+                int hi = Short.MIN_VALUE;
+                int sum = 0;
+                int count = 0;
+                if (child != null) {
+                    int cc = (c % half) * 2;
+                    int cr = (r % half) * 2;
+                    for (int k = 0; k < 4; k++) {
+                        int ci = (cc + k % 2) * tileSize + cr + k / 2;
+                        if (child.mean[ci] != DTEDFrameCache.NO_DATA) {
+                            lo = Math.min(lo, child.min[ci]);
+                            hi = Math.max(hi, child.max[ci]);
+                            sum += child.mean[ci];
+                            count++;
+                        }
+                    }
+                }
+
+                int index = c * tileSize + r;
+                if (count > 0) {
+                    min[index] = (short) lo;
+                    max[index] = (short) hi;
+                    mean[index] = (short) Math.round((float) sum / count);
+                } else {
+                    min[index] = max[index] = mean[index] = (short) DTEDFrameCache.NO_DATA;
+                }
+            }
+        }
+        return new ElevationPyramid.Tile(min, max, mean);
+    }
+
+    protected ElevationPyramid.Tile readTile(RandomAccessFile in, long offset) throws IOException {
+        in.seek(offset);
+        byte type = in.readByte();
+        int length = ElevationPyramid.getTileLength(type, tileSize);
+        if (length == 0) {
+            throw new IOException("unknown tile type " + type + " at " + offset);
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return ElevationPyramid.decodeTile(type, bytes, tileSize);
+    }
+
+    /**
+     * Where the elevations for the level 0 cells come from.
+     */
+    public interface ElevationSource {
+        /**
+         * @param lat latitude in decimal degrees.
+         * @param lon longitude in decimal degrees.
+         * @return elevation in meters, or DTEDFrameCache.NO_DATA.
+         */
+        int getElevation(double lat, double lon);
+    }
+
+    /**
+     * An ElevationSource reading the posts of DTED frames at one level. Holds
+     * on to the last frame used, since the cells are read column by column.
+     */
+    public static class DTEDSource implements ElevationSource {
+        protected DTEDFrameCache cache;
+        protected int level;
+        protected DTEDFrame frame;
+        protected int frameLat = Integer.MIN_VALUE;
+        protected int frameLon = Integer.MIN_VALUE;
+
+        public DTEDSource(DTEDFrameCache cache, int level) {
+            this.cache = cache;
+            this.level = level;
+        }
+
+        public int getElevation(double lat, double lon) {
+            int flat = (int) Math.floor(lat);
+            int flon = (int) Math.floor(lon);
+            if (flat != frameLat || flon != frameLon) {
+                frameLat = flat;
+                frameLon = flon;
+                frame = cache.get(flat, flon, level);
+            }
+            return frame != null ? frame.elevationAt((float) lat, (float) lon)
+                    : DTEDFrameCache.NO_DATA;
+        }
+    }
+
+    /**
+     * An ElevationSource reading an ETOPO file, a global grid of big-endian
+     * shorts, row by row from the north.
+     */
+    public static class ETOPOSource implements ElevationSource {
+        protected short[] data;
+        protected int width;
+        protected int height;
+        protected double spacing;
+        protected double west;
+
+        /**
+         * @param path the ETOPO file.
+         * @param minuteSpacing the minutes between the posts (2, 5, 10, 15).
+         * @param west the longitude of the first column, -180 for ETOPO2, 0
+         *        for the others.
+         */
+        public ETOPOSource(String path, int minuteSpacing, double west) throws IOException,
+                FormatException {
+            this.west = west;
+            spacing = minuteSpacing / 60.0;
+            width = (int) Math.round(360 / spacing);
+            height = (int) Math.round(180 / spacing);
+            data = new short[width * height];
+
+            BinaryBufferedFile binFile = new BinaryBufferedFile(path);
+            try {
+                binFile.byteOrder(true);
+                binFile.readShortArray(data, 0, data.length);
+            } finally {
+                binFile.close();
+            }
+        }
+
+        public int getElevation(double lat, double lon) {
+            int row = (int) Math.round((90 - lat) / spacing);
+            if (row < 0 || row >= height) {
+                return DTEDFrameCache.NO_DATA;
+            }
+            int col = (int) Math.round((lon - west) / spacing) % width;
+            if (col < 0) {
+                col += width;
+            }
+            return data[row * width + col];
+        }
+    }
+
+    /**
+     * Run the ElevationPyramidBuilder from the command line.
+     */
+    public static void main(String[] argv) {
+        Debug.init();
+
+        ArgParser ap = new ArgParser("ElevationPyramidBuilder");
+        ap.add("boundary", "upper lat, left lon, lower lat, right lon", 4, true);
+        ap.add("dted", "The source DTED directory path.", 1);
+        ap.add("etopo", "The source ETOPO file, and its minute spacing (2, 5, 10, 15).", 2);
+        ap.add("etopoWest", "The longitude of the first column of the ETOPO file.", 1, true);
+        ap.add("level", "DTED level to read (0, 1, 2), 0 is default.", 1);
+        ap.add("levels", "Number of pyramid levels, by default enough for one tile on top.", 1);
+        ap.add("output", "The pyramid file to create.", 1);
+        ap.add("spacing", "Level 0 cell size in arc seconds, the source post spacing by default.", 1);
+        ap.add("tileSize", "Number of cells across each tile, 256 is default.", 1);
+        ap.add("verbose", "Print out progress.");
+
+        if (!ap.parse(argv)) {
+            ap.printUsage();
+            System.exit(0);
+        }
+
+        String[] arg = ap.getArgValues("output");
+        if (arg == null) {
+            Debug.error("ElevationPyramidBuilder: need an output file");
+            ap.printUsage();
+            System.exit(0);
+        }
+        String output = arg[0];
+
+        if (ap.getArgValues("verbose") != null) {
+            Debug.put("dted");
+        }
+
+        double ullat = 90;
+        double ullon = -180;
+        double lrlat = -90;
+        double lrlon = 180;
+        arg = ap.getArgValues("boundary");
+        if (arg != null) {
+            try {
+                ullat = Double.parseDouble(arg[0]);
+                ullon = Double.parseDouble(arg[1]);
+                lrlat = Double.parseDouble(arg[2]);
+                lrlon = Double.parseDouble(arg[3]);
+            } catch (NumberFormatException nfe) {
+                Debug.error("ElevationPyramidBuilder: boundary coordinates not valid:\n" + "  "
+                        + arg[0] + "\n  " + arg[1] + "\n  " + arg[2] + "\n  " + arg[3]);
+                System.exit(0);
+            }
+        }
+
+        try {
+            ElevationSource source = null;
+            double spacing = 0;
+
+            arg = ap.getArgValues("dted");
+            if (arg != null) {
+                int level = 0;
+                String[] levelArg = ap.getArgValues("level");
+                if (levelArg != null) {
+                    level = Integer.parseInt(levelArg[0]);
+                }
+                DTEDFrameCache cache = new DTEDFrameCache(20);
+                cache.addDTEDDirectoryHandler(new DTEDDirectoryHandler(arg[0]));
+                source = new DTEDSource(cache, level);
+                spacing = DTEDFrameCache.getPostSpacing(level);
+            }
+
+            arg = ap.getArgValues("etopo");
+            if (arg != null) {
+                int minutes = Integer.parseInt(arg[1]);
+                double etopoWest = minutes == 2 ? -180 : 0;
+                String[] westArg = ap.getArgValues("etopoWest");
+                if (westArg != null) {
+                    etopoWest = Double.parseDouble(westArg[0]);
+                }
+                source = new ETOPOSource(arg[0], minutes, etopoWest);
+                spacing = minutes / 60.0;
+            }
+
+            if (source == null) {
+                Debug.error("ElevationPyramidBuilder: need a DTED directory or ETOPO file");
+                ap.printUsage();
+                System.exit(0);
+            }
+
+            arg = ap.getArgValues("spacing");
+            if (arg != null) {
+                spacing = Double.parseDouble(arg[0]) / 3600.0;
+            }
+
+            ElevationPyramidBuilder builder = new ElevationPyramidBuilder(source, ullat, ullon, lrlat, lrlon, spacing);
+            arg = ap.getArgValues("tileSize");
+            if (arg != null) {
+                builder.setTileSize(Integer.parseInt(arg[0]));
+            }
+            arg = ap.getArgValues("levels");
+            if (arg != null) {
+                builder.setNumLevels(Integer.parseInt(arg[0]));
+            }
+
+            builder.build(output);
+            Debug.output("ElevationPyramidBuilder: created " + output);
+
+        } catch (NumberFormatException nfe) {
+            Debug.error("ElevationPyramidBuilder: bad number argument: " + nfe.getMessage());
+        } catch (IllegalArgumentException iae) {
+            Debug.error("ElevationPyramidBuilder: " + iae.getMessage());
+        } catch (IOException ioe) {
+            Debug.error("ElevationPyramidBuilder: problem creating " + output + ": " + ioe.getMessage());
+        } catch (FormatException fe) {
+            Debug.error("ElevationPyramidBuilder: problem reading ETOPO file: " + fe.getMessage());
+        }
+    }
+}
@@ -257,6 +257,17 @@ public class ImageTile extends OMScalingRaster implements Serializable {
             return null;
         }
 
+        /**
+         * Weigh images by the memory used by their pixels.
+         */
+        protected long weigh(CacheObject obj) {
+            if (obj.obj instanceof BufferedImage) {
+                BufferedImage bi = (BufferedImage) obj.obj;
+                return 4L * bi.getWidth() * bi.getHeight();
+            }
+            return 1;
+        }
+
     }
 
 }
@@ -0,0 +1,445 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.dataAccess.mapTile;
+
+import java.awt.Point;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Access to a MBTiles file, the SQLite database of image tiles that TileMill
+ * and other tile tools export. Tiles are read through a small pool of
+ * connections, each with its prepared statements, so looking up a tile doesn't
+ * mean opening the database again. All of the tiles for a view can be fetched
+ * with one query.
+ * <P>
+ * Tiles can also be written, through a separate connection that inserts them
+ * in batched transactions. The tables are created if they don't exist. The
+ * MapTileMaker uses this to put the tiles it makes into a MBTiles file instead
+ * of a directory tree.
+ * <P>
+ * The x, y coordinates used by this class are the uv tile coordinates used by
+ * the rest of the map tile package, with y increasing going south. MBTiles
+ * files store rows in TMS order, with y increasing going north, and the rows
+ * are flipped going in and out of the database.
+ * <P>
+ * This class needs a JDBC driver for SQLite, like the sqlitejdbc package, on
+ * the classpath.
+ */
+public class MBTilesDatabase {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.dataAccess.mapTile.MBTilesDatabase");
+
+    public final static String DEFAULT_DRIVER_CLASS = "org.sqlite.JDBC";
+    public final static int DEFAULT_POOL_SIZE = 4;
+    /** The number of tiles inserted in each transaction. */
+    public final static int WRITE_BATCH_SIZE = 256;
+
+    protected final static String TILE_QUERY = "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+    protected final static String RANGE_QUERY = "SELECT tile_column, tile_row, tile_data FROM tiles WHERE zoom_level = ? AND tile_column BETWEEN ? AND ? AND tile_row BETWEEN ? AND ?";
+    protected final static String METADATA_QUERY = "SELECT value FROM metadata WHERE name = ?";
+    protected final static String TILE_INSERT = "INSERT OR REPLACE INTO tiles (zoom_level, tile_column, tile_row, tile_data) VALUES (?, ?, ?, ?)";
+    protected final static String METADATA_INSERT = "INSERT OR REPLACE INTO metadata (name, value) VALUES (?, ?)";
+    protected final static String[] CREATE_STATEMENTS = {
+        "CREATE TABLE IF NOT EXISTS metadata (name text, value text)",
+        "CREATE TABLE IF NOT EXISTS tiles (zoom_level integer, tile_column integer, tile_row integer, tile_data blob)",
+        "CREATE UNIQUE INDEX IF NOT EXISTS name ON metadata (name)",
+        "CREATE UNIQUE INDEX IF NOT EXISTS tile_index ON tiles (zoom_level, tile_column, tile_row)"
+    };
+
+    protected final String url;
+    protected final int poolSize;
+    /** The idle readers. */
+    protected final BlockingQueue<Reader> readers;
+    /** The number of readers created, guarded by readers. */
+    protected int numReaders = 0;
+    protected boolean closed = false;
+
+    protected Connection writeConnection;
+    protected PreparedStatement tileInsert;
+    /** The number of tiles inserted since the last commit. */
+    protected int pendingWrites = 0;
+
+    /**
+     * Create a MBTilesDatabase. Nothing is opened until it's used.
+     *
+     * @param location the path to the file, or a jdbc URL, like
+     *        "jdbc:sqlite:path".
+     * @param poolSize the most connections used for reading at once.
+     */
+    public MBTilesDatabase(String location, int poolSize) {
+        url = toURL(location);
+        this.poolSize = Math.max(1, poolSize);
+        readers = new ArrayBlockingQueue<Reader>(this.poolSize);
+    }
+
+    /**
+     * @param location a file path or a jdbc URL.
+     * @return the jdbc URL for the location, assuming a SQLite file if it's
+     *         not a URL already.
+     */
+    public static String toURL(String location) {
+        if (location.startsWith("jdbc:")) {
+            return location;
+        }
+        return "jdbc:sqlite:" + location;
+    }
+
+    /**
+     * Check that the JDBC driver is available.
+     *
+     * @param driverClass a class in the JDBC driver package.
+     * @return true if the class can be loaded.
+     */
+    public static boolean isDriverAvailable(String driverClass) {
+        try {
+            Class.forName(driverClass);
+            return true;
+        } catch (Exception e) {
+            return false;
+        } catch (LinkageError le) {
+            return false;
+        }
+    }
+
+    public String getURL() {
+        return url;
+    }
+
+    /**
+     * Get the image bytes for a tile.
+     *
+     * @param zoomLevel the zoom level.
+     * @param x the uv x coordinate.
+     * @param y the uv y coordinate.
+     * @return the image bytes, or null if the tile isn't in the database.
+     * @throws SQLException
+     */
+    public byte[] getTile(int zoomLevel, int x, int y) throws SQLException {
+        Reader reader = acquire();
+        boolean ok = false;
+        try {
+            PreparedStatement stmt = reader.tileQuery;
+            stmt.setInt(1, zoomLevel);
+            stmt.setInt(2, x);
+            stmt.setInt(3, flipRow(y, zoomLevel));
+            ResultSet rs = stmt.executeQuery();
+            try {
+                byte[] ret = rs.next() ? rs.getBytes(1) : null;
+                ok = true;
+                return ret;
+            } finally {
+                rs.close();
+            }
+        } finally {
+            release(reader, ok);
+        }
+    }
+
+    /**
+     * Get the image bytes for all of the tiles in a range, with one query.
+     *
+     * @param zoomLevel the zoom level.
+     * @param x1 the left uv x coordinate.
+     * @param y1 the top uv y coordinate.
+     * @param x2 the right uv x coordinate, included.
+     * @param y2 the bottom uv y coordinate, included.
+     * @return Map of image bytes, keyed by uv x, y. Tiles that aren't in the
+     *         database aren't in the map.
+     * @throws SQLException
+     */
+    public Map<Point, byte[]> getTiles(int zoomLevel, int x1, int y1, int x2, int y2)
+            throws SQLException {
+        Map<Point, byte[]> ret = new HashMap<Point, byte[]>();
+        Reader reader = acquire();
+        boolean ok = false;
+        try {
+            PreparedStatement stmt = reader.rangeQuery;
+            stmt.setInt(1, zoomLevel);
+            stmt.setInt(2, Math.min(x1, x2));
+            stmt.setInt(3, Math.max(x1, x2));
+            // Flipping the rows swaps the ends of the range.
+            stmt.setInt(4, Math.min(flipRow(y1, zoomLevel), flipRow(y2, zoomLevel)));
+            stmt.setInt(5, Math.max(flipRow(y1, zoomLevel), flipRow(y2, zoomLevel)));
+            ResultSet rs = stmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    int x = rs.getInt(1);
+                    int y = flipRow(rs.getInt(2), zoomLevel);
+                    ret.put(new Point(x, y), rs.getBytes(3));
+                }
+                ok = true;
+            } finally {
+                rs.close();
+            }
+        } finally {
+            release(reader, ok);
+        }
+        return ret;
+    }
+
+    /**
+     * Get a value from the metadata table.
+     *
+     * @param name the name of the value, like "format" or "bounds".
+     * @return the value, null if it isn't there.
+     * @throws SQLException
+     */
+    public String getMetadata(String name) throws SQLException {
+        Reader reader = acquire();
+        boolean ok = false;
+        try {
+            PreparedStatement stmt = reader.connection.prepareStatement(METADATA_QUERY);
+            try {
+                stmt.setString(1, name);
+                ResultSet rs = stmt.executeQuery();
+                String ret = rs.next() ? rs.getString(1) : null;
+                rs.close();
+                ok = true;
+                return ret;
+            } finally {
+                stmt.close();
+            }
+        } finally {
+            release(reader, ok);
+        }
+    }
+
+    /**
+     * Convert between uv y coordinates and TMS rows, it works both ways.
+     */
+    protected static int flipRow(int y, int zoomLevel) {
+        return (1 << zoomLevel) - 1 - y;
+    }
+
+    /**
+     * Get a reader from the pool, creating one if there aren't any idle and
+     * the pool isn't full, waiting for one otherwise.
+     */
+    protected Reader acquire() throws SQLException {
+        while (true) {
+            boolean create = false;
+            synchronized (readers) {
+                if (closed) {
+                    throw new SQLException("MBTilesDatabase closed: " + url);
+                }
+                Reader reader = readers.poll();
+                if (reader != null) {
+                    return reader;
+                }
+                if (numReaders < poolSize) {
+                    numReaders++;
+                    create = true;
+                }
+            }
+
+            if (create) {
+                try {
+                    return new Reader(DriverManager.getConnection(url));
+                } catch (SQLException e) {
+                    synchronized (readers) {
+                        numReaders--;
+                    }
+                    throw e;
+                }
+            }
+
+            // Check again every so often, in case a reader was closed
+            // instead of returned, or the database was closed.
+            try {
+                Reader reader = readers.poll(100, TimeUnit.MILLISECONDS);
+                if (reader != null) {
+                    return reader;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("interrupted waiting for a connection to " + url);
+            }
+        }
+    }
+
+    /**
+     * Put a reader back in the pool. Readers that had a problem are closed,
+     * so a new connection is made the next time.
+     */
+    protected void release(Reader reader, boolean ok) {
+        boolean keep;
+        synchronized (readers) {
+            keep = ok && !closed && readers.offer(reader);
+            if (!keep) {
+                numReaders--;
+            }
+        }
+        if (!keep) {
+            reader.close();
+        }
+    }
+
+    /**
+     * Insert a tile, replacing any tile that was there. Tiles are committed in
+     * batches, call flush() to commit the ones waiting. Can be called from
+     * more than one thread.
+     *
+     * @param zoomLevel the zoom level.
+     * @param x the uv x coordinate.
+     * @param y the uv y coordinate.
+     * @param imageBytes the image bytes.
+     * @throws SQLException
+     */
+    public synchronized void putTile(int zoomLevel, int x, int y, byte[] imageBytes)
+            throws SQLException {
+        openWriter();
+        tileInsert.setInt(1, zoomLevel);
+        tileInsert.setInt(2, x);
+        tileInsert.setInt(3, flipRow(y, zoomLevel));
+        tileInsert.setBytes(4, imageBytes);
+        tileInsert.addBatch();
+
+        if (++pendingWrites >= WRITE_BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Set a value in the metadata table, like name, format, bounds, minzoom
+     * and maxzoom.
+     *
+     * @throws SQLException
+     */
+    public synchronized void putMetadata(String name, String value) throws SQLException {
+        openWriter();
+        PreparedStatement stmt = writeConnection.prepareStatement(METADATA_INSERT);
+        try {
+            stmt.setString(1, name);
+            stmt.setString(2, value);
+            stmt.executeUpdate();
+        } finally {
+            stmt.close();
+        }
+    }
+
+    /**
+     * Commit the tiles waiting to be written.
+     *
+     * @throws SQLException
+     */
+    public synchronized void flush() throws SQLException {
+        if (writeConnection == null) {
+            return;
+        }
+        if (pendingWrites > 0) {
+            tileInsert.executeBatch();
+            pendingWrites = 0;
+        }
+        writeConnection.commit();
+    }
+
+    protected void openWriter() throws SQLException {
+        if (writeConnection != null) {
+            return;
+        }
+
+        Connection conn = DriverManager.getConnection(url);
+        try {
+            Statement stmt = conn.createStatement();
+            try {
+                for (String create : CREATE_STATEMENTS) {
+                    stmt.executeUpdate(create);
+                }
+            } finally {
+                stmt.close();
+            }
+            conn.setAutoCommit(false);
+            tileInsert = conn.prepareStatement(TILE_INSERT);
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        writeConnection = conn;
+    }
+
+    /**
+     * Commit any tiles waiting to be written, and close the connections. Readers
+     * in use are closed when they are returned.
+     */
+    public void close() {
+        synchronized (this) {
+            if (writeConnection != null) {
+                try {
+                    flush();
+                } catch (SQLException e) {
+                    logger.warning("problem writing tiles to " + url + ": " + e.getMessage());
+                }
+                try {
+                    writeConnection.close();
+                } catch (SQLException e) {
+                    // Done with it anyway.
+                }
+                writeConnection = null;
+                tileInsert = null;
+            }
+        }
+
+        synchronized (readers) {
+            closed = true;
+            Reader reader;
+            while ((reader = readers.poll()) != null) {
+                numReaders--;
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * A read connection with its prepared statements.
+     */
+    protected static class Reader {
+        protected final Connection connection;
+        protected final PreparedStatement tileQuery;
+        protected final PreparedStatement rangeQuery;
+
+        protected Reader(Connection connection) throws SQLException {
+            this.connection = connection;
+            try {
+                tileQuery = connection.prepareStatement(TILE_QUERY);
+                rangeQuery = connection.prepareStatement(RANGE_QUERY);
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+        }
+
+        protected void close() {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("problem closing connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
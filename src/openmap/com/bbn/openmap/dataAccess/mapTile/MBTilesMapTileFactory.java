@@ -0,0 +1,250 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.dataAccess.mapTile;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import javax.imageio.ImageIO;
+
+import com.bbn.openmap.Environment;
+import com.bbn.openmap.I18n;
+import com.bbn.openmap.omGraphics.OMGraphic;
+import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.util.PropUtils;
+import com.bbn.openmap.util.cacheHandler.CacheObject;
+
+/**
+ * The MBTilesMapTileFactory is a StandardMapTileFactory that reads image tiles
+ * from a MBTiles file, the SQLite database format used by TileMill and other
+ * tile tools. The database is read through a MBTilesDatabase, which keeps a
+ * pool of open connections. The tiles missing from the cache for a view are
+ * fetched with one query, and then decoded on the factory's load threads.
+ * <p>
+ *
+ * This component can be configured using properties:
+ * <p>
+ *
+ * <pre>
+ * # Inherited from StandardMapTileFactory
+ * rootDir=the path to the mbtiles file, or the jdbc URL to use for it, "jdbc:sqlite:path to file"
+ * cacheSize=the number of mapTiles the factory should hold on to. The default is 100.
+ *
+ * #optional:
+ * # The class used to test for the existence of jdbc components.  Assumes sqlitejdbc, but the code fetching the tiles
+ * # is pretty standard SQL - so you should be able to use any jdbc driver library.
+ * testClass=org.sqlite.JDBC
+ * # The most database connections open for reading tiles (default 4).
+ * poolSize=4
+ * </pre>
+ */
+public class MBTilesMapTileFactory extends StandardMapTileFactory {
+
+    public final static String DEFAULT_TEST_CLASS = MBTilesDatabase.DEFAULT_DRIVER_CLASS;
+    public final static String TEST_CLASS_PROPERTY = "testClass";
+    public final static String POOL_SIZE_PROPERTY = "poolSize";
+
+    /**
+     * Test class to use for existence of JDBC drivers.
+     */
+    protected String testClass = DEFAULT_TEST_CLASS;
+    protected int poolSize = MBTilesDatabase.DEFAULT_POOL_SIZE;
+    protected MBTilesDatabase database;
+    /**
+     * Tile image bytes fetched for a view, waiting to be decoded by load(),
+     * keyed by cache key.
+     */
+    protected final Map<String, byte[]> fetchedTiles = new ConcurrentHashMap<String, byte[]>();
+
+    public MBTilesMapTileFactory() {
+        this(null);
+    }
+
+    public MBTilesMapTileFactory(String rootDir) {
+        this.rootDir = rootDir;
+        this.rootDirProperty = rootDir;
+        this.fileExt = ".png";
+        verbose = logger.isLoggable(Level.FINE);
+    }
+
+    /**
+     * @return the MBTilesDatabase for the rootDir, or null if the JDBC driver
+     *         isn't available or the rootDir isn't set.
+     */
+    protected synchronized MBTilesDatabase getDatabase() {
+        if (database == null && rootDir != null) {
+            if (!MBTilesDatabase.isDriverAvailable(testClass)) {
+                logger.warning("can't locate sqlite JDBC components");
+                return null;
+            }
+            database = new MBTilesDatabase(rootDir, poolSize);
+        }
+        return database;
+    }
+
+    /**
+     * The rootDir for this factory is the database file or URL, there aren't
+     * any tiles.omp files to look for.
+     */
+    public void setRootDir(String rootDirectory) {
+        synchronized (this) {
+            if (database != null) {
+                database.close();
+                database = null;
+            }
+        }
+        rootDir = rootDirectory;
+        rootDirProperty = rootDirectory;
+        clear();
+    }
+
+    /**
+     * Fetch the tiles that need to be loaded for the view with one query, so
+     * load() only has to decode them.
+     */
+    protected boolean loadTiles(List<LoadObj> reloads, Projection proj, OMGraphicList list,
+                                int placeholderCount) {
+        MBTilesDatabase db = getDatabase();
+        if (db != null && reloads.size() > 1) {
+            int x1 = Integer.MAX_VALUE;
+            int y1 = Integer.MAX_VALUE;
+            int x2 = Integer.MIN_VALUE;
+            int y2 = Integer.MIN_VALUE;
+            for (LoadObj reload : reloads) {
+                x1 = Math.min(x1, reload.x);
+                y1 = Math.min(y1, reload.y);
+                x2 = Math.max(x2, reload.x);
+                y2 = Math.max(y2, reload.y);
+            }
+
+            int zoomLevel = reloads.get(0).zoomLevel;
+            try {
+                Map<Point, byte[]> tiles = db.getTiles(zoomLevel, x1, y1, x2, y2);
+                Point pnt = new Point();
+                for (LoadObj reload : reloads) {
+                    pnt.setLocation(reload.x, reload.y);
+                    byte[] imageBytes = tiles.get(pnt);
+                    // An empty array marks a tile known to be missing.
+                    fetchedTiles.put(reload.imagePath, imageBytes != null ? imageBytes : new byte[0]);
+                }
+                if (verbose) {
+                    logger.fine("fetched " + tiles.size() + " of " + reloads.size() + " tiles from " + db.getURL());
+                }
+            } catch (SQLException e) {
+                logger.warning("something went wrong fetching images from database: " + e.getMessage());
+            }
+        }
+
+        try {
+            return super.loadTiles(reloads, proj, list, placeholderCount);
+        } finally {
+            // Left over if loading was stopped.
+            for (LoadObj reload : reloads) {
+                fetchedTiles.remove(reload.imagePath);
+            }
+        }
+    }
+
+    /**
+     * Fetches a new tile from the database, unless it was fetched with the
+     * other tiles for the view.
+     */
+    public CacheObject load(Object key, int x, int y, int zoomLevel, Projection proj) {
+        byte[] imageBytes = fetchedTiles.remove(key);
+
+        try {
+            if (imageBytes == null) {
+                MBTilesDatabase db = getDatabase();
+                if (db == null) {
+                    return null;
+                }
+                imageBytes = db.getTile(zoomLevel, x, y);
+            }
+
+            if (imageBytes == null || imageBytes.length == 0) {
+                return null;
+            }
+
+            BufferedImage bi = ImageIO.read(new ByteArrayInputStream(imageBytes));
+            OMGraphic raster = createOMGraphicFromBufferedImage(bi, x, y, zoomLevel, proj);
+
+            if (raster != null) {
+                return new CacheObject(key, raster);
+            }
+        } catch (SQLException e) {
+            logger.warning("something went wrong fetching image from database: " + e.getMessage());
+        } catch (IOException e) {
+            logger.warning("couldn't decode image for tile " + zoomLevel + "/" + x + "/" + y + ": "
+                    + e.getMessage());
+        } catch (InterruptedException e) {
+            logger.fine("decoding the image was interrupted: " + key);
+        }
+
+        return null;
+    }
+
+    /**
+     * Tell the factory to dump the cache, and close the database connections.
+     */
+    public void reset() {
+        super.reset();
+        synchronized (this) {
+            if (database != null) {
+                database.close();
+                database = null;
+            }
+        }
+    }
+
+    public Properties getProperties(Properties getList) {
+        getList = super.getProperties(getList);
+        String prefix = PropUtils.getScopedPropertyPrefix(this);
+        if (testClass != null && !testClass.equals(DEFAULT_TEST_CLASS)) {
+            getList.put(prefix + TEST_CLASS_PROPERTY, PropUtils.unnull(testClass));
+        }
+        getList.put(prefix + POOL_SIZE_PROPERTY, Integer.toString(poolSize));
+        return getList;
+    }
+
+    public Properties getPropertyInfo(Properties list) {
+        list = super.getPropertyInfo(list);
+        I18n i18n = Environment.getI18n();
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.MBTilesMapTileFactory.class, TEST_CLASS_PROPERTY, "JDBC Availability Test Class", "A class in the JDBC driver package to use to test for JDBC driver configuration (any class in package).", null);
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.MBTilesMapTileFactory.class, POOL_SIZE_PROPERTY, "Connection Pool Size", "The most database connections open for reading tiles.", null);
+        return list;
+    }
+
+    public void setProperties(String prefix, Properties setList) {
+        super.setProperties(prefix, setList);
+        prefix = PropUtils.getScopedPropertyPrefix(prefix);
+
+        testClass = setList.getProperty(prefix + TEST_CLASS_PROPERTY, testClass);
+        int size = PropUtils.intFromProperties(setList, prefix + POOL_SIZE_PROPERTY, poolSize);
+        if (size != poolSize) {
+            poolSize = size;
+            // Picked up the next time the database is needed.
+            reset();
+        }
+    }
+}
@@ -28,6 +28,7 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GraphicsEnvironment;
 import java.awt.Paint;
+import java.awt.Rectangle;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
@@ -38,6 +39,7 @@ import java.io.InputStream;
 import java.io.PrintStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -45,10 +47,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import com.bbn.openmap.Environment;
 import com.bbn.openmap.Layer;
+import com.bbn.openmap.PropertyConsumer;
 import com.bbn.openmap.image.ImageFormatter;
 import com.bbn.openmap.image.ImageServer;
 import com.bbn.openmap.image.PNG32ImageFormatter;
@@ -104,19 +112,89 @@ import com.bbn.openmap.util.PropUtils;
  * zoom1.range=0
  * 
  * # and repeat for every zoomLevel defined
+ * 
+ * # Optional, the number of threads rendering tiles (default 1, -1 for one
+ * # thread per processor).
+ * threads=4
+ * # Optional, render blocks of NxN tiles at once and cut them up (default 1).
+ * metaTileSize=4
+ * # Optional, tiles that look just like the tiles this handler would create
+ * # aren't written.
+ * emptyTileHandler=com.bbn.openmap.dataAccess.mapTile.SimpleEmptyTileHandler
+ * # Optional, write the tiles into a MBTiles file instead of under the rootDir.
+ * # Needs a SQLite JDBC driver on the classpath.
+ * mbtiles=Path to .mbtiles file
  * </pre>
  * 
+ * When more than one thread is used, each thread gets its own copy of the
+ * MapTileMaker, created from the properties, so each has its own layers. The
+ * layers need to be defined in the properties for that to work, and the
+ * memory needed for the layers is multiplied by the number of threads. The
+ * zoom levels are still done one after another, so the range tiles can be
+ * made from the tiles of the level above.
+ * <p>
+ * 
+ * Rendering a metatile lets the layers fetch and project their data once for
+ * a block of tiles, instead of once per tile, which makes a big difference for
+ * layers with a lot of data to sort through. Labels and other things that
+ * cross tile edges also get drawn once, instead of being cut off in one tile
+ * and missing from the next.
+ * <p>
+ * 
+ * Writing the tiles into a MBTiles file saves creating millions of small files
+ * for the deeper zoom levels. The tiles are added to the file in batches, and
+ * the range tiles are made from the tiles in the file. The file can be read
+ * with the MBTilesMapTileFactory.
+ * 
  * @author dietrick
  */
 public class MapTileMaker extends ImageServer implements EmptyTileHandler {
 
     public final static String ROOT_DIRECTORY_PROPERTY = "rootDir";
     public final static String ZOOM_LEVELS_PROPERTY = "zoomLevels";
+    public final static String THREADS_PROPERTY = "threads";
+    public final static String METATILE_SIZE_PROPERTY = "metaTileSize";
+    public final static String EMPTY_TILE_HANDLER_PROPERTY = StandardMapTileFactory.EMPTY_TILE_HANDLER_PROPERTY;
+    public final static String MBTILES_PROPERTY = "mbtiles";
+
+    /**
+     * How often progress is logged while tiles are being made, in
+     * milliseconds.
+     */
+    public final static long PROGRESS_INTERVAL = 10000;
 
     protected String rootDir;
     protected List<ZoomLevelMaker> zoomLevels;
     protected MapTileCoordinateTransform mtcTransform = new OSMMapTileCoordinateTransform();
     protected int TILE_SIZE = mtcTransform.getTileSize();
+    /*
+     * No initializers for these, the ImageServer constructors set the
+     * properties before they would run.
+     */
+    /**
+     * The number of threads making tiles, 0 or 1 for just the calling thread,
+     * negative for one per processor.
+     */
+    protected int threads;
+    /**
+     * The number of tiles on each side of a rendered block of tiles, 0 or 1
+     * for rendering tiles one at a time.
+     */
+    protected int metaTileSize;
+    /** Used to decide if a tile needs to be written. */
+    protected EmptyTileHandler emptyTileHandler;
+    /**
+     * The properties this MapTileMaker was configured with, used to create
+     * copies for other threads.
+     */
+    protected Properties configProperties;
+    /**
+     * The path to the MBTiles file the tiles are written into, null if they
+     * are written as files under the rootDir.
+     */
+    protected String mbtilesFile;
+    /** The MBTiles file being written, while makeTiles() is running. */
+    protected MBTilesDatabase mbtiles;
 
     /**
      * Empty constructor that expects to be configured later.
@@ -170,10 +248,30 @@ public class MapTileMaker extends ImageServer implements EmptyTileHandler {
         super.setProperties(prefix, props);
         prefix = PropUtils.getScopedPropertyPrefix(prefix);
 
+        configProperties = props;
+
         rootDir = props.getProperty(prefix + ROOT_DIRECTORY_PROPERTY, rootDir);
         List<ZoomLevelMaker> zoomLevels = (List<ZoomLevelMaker>) PropUtils.objectsFromProperties(props, prefix
                 + ZOOM_LEVELS_PROPERTY, ComponentFactory.ClassNameProperty);
         getZoomLevels().addAll(zoomLevels);
+
+        threads = PropUtils.intFromProperties(props, prefix + THREADS_PROPERTY, threads);
+        metaTileSize = PropUtils.intFromProperties(props, prefix + METATILE_SIZE_PROPERTY, metaTileSize);
+        String mbtilesString = props.getProperty(prefix + MBTILES_PROPERTY);
+        if (mbtilesString != null) {
+            // An empty property means tile files, not an in-memory database.
+            mbtilesString = mbtilesString.trim();
+            mbtilesFile = mbtilesString.length() > 0 ? mbtilesString : null;
+        }
+
+        String emptyTileHandlerString = props.getProperty(prefix + EMPTY_TILE_HANDLER_PROPERTY);
+        if (emptyTileHandlerString != null) {
+            Object obj = ComponentFactory.create(emptyTileHandlerString, prefix, props);
+
+            if (obj instanceof EmptyTileHandler) {
+                setEmptyTileHandler((EmptyTileHandler) obj);
+            }
+        }
     }
 
     public Properties getProperties(Properties props) {
@@ -191,12 +289,29 @@ public class MapTileMaker extends ImageServer implements EmptyTileHandler {
             props.put(prefix + ZOOM_LEVELS_PROPERTY, buf.toString().trim());
         }
 
+        props.put(prefix + THREADS_PROPERTY, Integer.toString(threads));
+        props.put(prefix + METATILE_SIZE_PROPERTY, Integer.toString(metaTileSize));
+        if (mbtilesFile != null) {
+            props.put(prefix + MBTILES_PROPERTY, mbtilesFile);
+        }
+
+        if (emptyTileHandler != null) {
+            props.put(prefix + EMPTY_TILE_HANDLER_PROPERTY, emptyTileHandler.getClass().getName());
+            if (emptyTileHandler instanceof PropertyConsumer) {
+                ((PropertyConsumer) emptyTileHandler).getProperties(props);
+            }
+        }
+
         return props;
     }
 
     public Properties getPropertyInfo(Properties props) {
         props = super.getPropertyInfo(props);
         PropUtils.setI18NPropertyInfo(Environment.getI18n(), props, com.bbn.openmap.dataAccess.mapTile.MapTileMaker.class, ROOT_DIRECTORY_PROPERTY, "Tile Directory", "Root directory for holding tile files.", "com.bbn.openmap.util.propertyEditor.DirectoryPropertyEditor");
+        PropUtils.setI18NPropertyInfo(Environment.getI18n(), props, com.bbn.openmap.dataAccess.mapTile.MapTileMaker.class, THREADS_PROPERTY, "Threads", "Number of threads making tiles, -1 for one per processor.", null);
+        PropUtils.setI18NPropertyInfo(Environment.getI18n(), props, com.bbn.openmap.dataAccess.mapTile.MapTileMaker.class, METATILE_SIZE_PROPERTY, "Metatile Size", "Number of tiles on each side of a block rendered at once.", null);
+        PropUtils.setI18NPropertyInfo(Environment.getI18n(), props, com.bbn.openmap.dataAccess.mapTile.MapTileMaker.class, EMPTY_TILE_HANDLER_PROPERTY, "Empty Tile Handler", "Class of the EmptyTileHandler whose tiles don't need to be written.", null);
+        PropUtils.setI18NPropertyInfo(Environment.getI18n(), props, com.bbn.openmap.dataAccess.mapTile.MapTileMaker.class, MBTILES_PROPERTY, "MBTiles File", "MBTiles file to write the tiles into, instead of the tile directory.", "com.bbn.openmap.util.propertyEditor.FUPropertyEditor");
         return props;
     }
 
@@ -265,6 +380,36 @@ public class MapTileMaker extends ImageServer implements EmptyTileHandler {
         return writeImageFile(imageBytes, filePath, true);
     }
 
+    /**
+     * Write a tile into the MBTiles file if one is being written, or to a
+     * file under the rootDir.
+     * 
+     * @param imageBytes the formatted image.
+     * @param filePath the path of the tile file, without the extension.
+     * @param x the uv x coordinate of the tile.
+     * @param y the uv y coordinate of the tile.
+     * @param zoomLevel the zoom level of the tile.
+     * @param worker the MapTileMaker that made the tile, its formatter
+     *        decides the file extension.
+     * @return a description of where the tile was written.
+     * @throws IOException
+     */
+    protected String writeTile(byte[] imageBytes, String filePath, int x, int y, int zoomLevel,
+                               MapTileMaker worker)
+            throws IOException {
+        MBTilesDatabase db = mbtiles;
+        if (db == null) {
+            return worker.writeImageFile(imageBytes, filePath, true);
+        }
+
+        try {
+            db.putTile(zoomLevel, x, y, imageBytes);
+        } catch (SQLException e) {
+            throw new IOException("can't write tile to " + db.getURL() + ": " + e.getMessage(), e);
+        }
+        return db.getURL() + " " + zoomLevel + "/" + x + "/" + y;
+    }
+
     /**
      * EmptyTileHandler method, called when a MapTileFactory needs to create and
      * return a missing tile.
@@ -361,144 +506,785 @@ public class MapTileMaker extends ImageServer implements EmptyTileHandler {
      * layers already set on the MapTileMaker, or it can have a List of Layer
      * objects to use. The root output directory has to be set in the
      * MapTileMaker. The image formatter also needs to be set.
+     * <p>
+     *
+     * The tiles for each zoom level are divided up between the threads, if
+     * more than one is configured. Progress is logged as the tiles are
+     * written.
      */
     public void makeTiles() {
 
-        if (rootDir != null) {
+        if (mbtilesFile != null) {
+            if (!MBTilesDatabase.isDriverAvailable(MBTilesDatabase.DEFAULT_DRIVER_CLASS)) {
+                logger.warning("can't locate sqlite JDBC components, needed to write " + mbtilesFile);
+                return;
+            }
+            mbtiles = new MBTilesDatabase(mbtilesFile, 1);
+            try {
+                writeMetadata(mbtiles);
+            } catch (SQLException e) {
+                logger.warning("can't write to MBTiles file " + mbtilesFile + ": " + e.getMessage());
+                mbtiles.close();
+                mbtiles = null;
+                return;
+            }
+        } else if (rootDir != null) {
             File rd = new File(rootDir);
             if (!rd.exists()) {
                 rd.mkdir();
             }
         }
 
+        List<ZoomLevelMaker> zoomLevels = getZoomLevels();
+        List<MapTileMaker> workers = createWorkers();
+        ExecutorService executor = null;
+        if (workers.size() > 1) {
+            executor = Executors.newFixedThreadPool(workers.size());
+        }
+
+        TileProgress progress = new TileProgress(countTiles());
+        logger.info("making " + progress.getTotal() + " tiles with " + workers.size() + " thread(s)");
+
+        try {
+            for (int zoomIndex = 0; zoomIndex < zoomLevels.size(); zoomIndex++) {
+                ZoomLevelMaker zfi = zoomLevels.get(zoomIndex);
+                logger.info("writing zoom level " + zfi.getName() + " tiles...");
+                int zoomLevel = zfi.getZoomLevel();
+
+                TileSet tileSet = new TileSet(zfi, zoomLevel, zfi.getUVBounds(mtcTransform, zoomLevel));
+                tileSet.zoomIndex = zoomIndex;
+                makeTiles(tileSet, workers, executor, progress);
+                flushTiles();
+
+                // At this point, for a specific ZoomLevelInfo, the basic tiles
+                // for it have been created. Now we can check the range and
+                // create tiles for the range out of the new tiles.
+                int range = zfi.getRange();
+                if (range < zoomLevel) {
+                    for (int rangeZoomLevel = zoomLevel - 1; rangeZoomLevel >= range; rangeZoomLevel--) {
+                        ZoomLevelInfo rangeZFI = createRangeZoomLevelInfo(rangeZoomLevel);
+                        List<Rectangle2D> uvBounds = new ArrayList<Rectangle2D>();
+                        for (Rectangle2D rawBounds : zfi.getBounds()) {
+                            uvBounds.add(rangeZFI.getUVBounds(rawBounds, mtcTransform, rangeZoomLevel));
+                        }
+
+                        // Create new tiles from the tiles one zoom level up
+                        makeTiles(new TileSet(rangeZFI, rangeZoomLevel, uvBounds), workers, executor, progress);
+                        flushTiles();
+                    }
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+            if (mbtiles != null) {
+                mbtiles.close();
+                mbtiles = null;
+            }
+        }
+
+        progress.report(true);
+        logger.info("done writing tiles");
+    }
+
+    /**
+     * Commit the tiles written to the MBTiles file, so they can be read to make
+     * the range tiles.
+     */
+    protected void flushTiles() {
+        if (mbtiles != null) {
+            try {
+                mbtiles.flush();
+            } catch (SQLException e) {
+                logger.warning("problem writing tiles to " + mbtilesFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Write the MBTiles metadata describing the tiles about to be made.
+     * 
+     * @param db the MBTiles file.
+     * @throws SQLException
+     */
+    protected void writeMetadata(MBTilesDatabase db) throws SQLException {
+        int minZoom = Integer.MAX_VALUE;
+        int maxZoom = Integer.MIN_VALUE;
+        for (ZoomLevelMaker zfi : getZoomLevels()) {
+            minZoom = Math.min(minZoom, Math.min(zfi.getZoomLevel(), zfi.getRange()));
+            maxZoom = Math.max(maxZoom, zfi.getZoomLevel());
+        }
+
+        String format = getFormatter() != null ? getFormatter().getFormatLabel().toLowerCase() : "png";
+        if (format.startsWith("jp")) {
+            format = "jpg";
+        }
+
+        String name = new File(mbtilesFile).getName();
+        if (name.endsWith(".mbtiles")) {
+            name = name.substring(0, name.length() - ".mbtiles".length());
+        }
+
+        db.putMetadata("name", name);
+        db.putMetadata("type", "baselayer");
+        db.putMetadata("version", "1.0");
+        db.putMetadata("description", "Tiles made by the OpenMap MapTileMaker");
+        db.putMetadata("format", format);
+        if (minZoom <= maxZoom) {
+            db.putMetadata("minzoom", Integer.toString(minZoom));
+            db.putMetadata("maxzoom", Integer.toString(maxZoom));
+        }
+        db.flush();
+    }
+
+    /**
+     * Make the tiles for one zoom level, splitting the work up between the
+     * workers. Returns when all of the tiles have been made.
+     *
+     * @param tileSet the tiles to make.
+     * @param workers the MapTileMakers to use, one per thread.
+     * @param executor runs the workers, if null the first worker is run on the
+     *        calling thread.
+     * @param progress keeps track of the tiles made.
+     */
+    protected void makeTiles(TileSet tileSet, List<MapTileMaker> workers, ExecutorService executor,
+                             TileProgress progress) {
+
+        if (executor == null) {
+            makeTiles(tileSet, workers.get(0), progress);
+            return;
+        }
+
+        List<Future<?>> futures = new ArrayList<Future<?>>(workers.size());
+        for (MapTileMaker worker : workers) {
+            futures.add(executor.submit(new TileWorker(tileSet, worker, progress)));
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                tileSet.cancel();
+                logger.warning("interrupted while making tiles for zoom level " + tileSet.zoomLevel);
+                return;
+            } catch (ExecutionException ee) {
+                logger.log(Level.WARNING, "problem making tiles for zoom level " + tileSet.zoomLevel, ee.getCause());
+            }
+        }
+    }
+
+    /**
+     * Make tiles from the TileSet until there aren't any left, using the
+     * layers of the worker.
+     *
+     * @param tileSet the tiles to make.
+     * @param worker the MapTileMaker doing the rendering, this one or a copy.
+     * @param progress keeps track of the tiles made.
+     */
+    protected void makeTiles(TileSet tileSet, MapTileMaker worker, TileProgress progress) {
+
         Proj proj = new Mercator(new LatLonPoint.Double(), 10000, MapTileCoordinateTransform.TILE_SIZE, MapTileCoordinateTransform.TILE_SIZE);
 
-        List<ZoomLevelMaker> zoomLevels = getZoomLevels();
-        for (ZoomLevelMaker zfi : zoomLevels) {
-            logger.info("writing zoom level " + zfi.getName() + " tiles...");
-            int zoomLevel = zfi.getZoomLevel();
-            for (Rectangle2D bounds : zfi.getUVBounds(mtcTransform, zoomLevel)) {
-                if (logger.isLoggable(Level.FINE)) {
-                    logger.fine(" creating tiles " + bounds);
+        ZoomLevelMaker zoomMaker = null;
+        List<Layer> layers;
+        Paint background;
+        if (tileSet.zoomIndex >= 0) {
+            zoomMaker = worker.getZoomLevels().get(tileSet.zoomIndex);
+            layers = zoomMaker.getLayerList();
+            if (layers == null) {
+                layers = worker.getLayersForNames(zoomMaker.getLayers());
+            }
+            background = worker.getBackground();
+        } else {
+            layers = worker.createRangeLayers(tileSet.zoomLevel);
+            background = OMColor.clear;
+        }
+
+        try {
+            makeTiles(tileSet, worker, progress, zoomMaker, layers, background, proj);
+        } finally {
+            if (zoomMaker == null) {
+                resetRangeLayers(layers);
+            }
+        }
+    }
+
+    /**
+     * Make tiles from the TileSet until there aren't any left, with the
+     * layers picked for it.
+     *
+     * @param tileSet the tiles to make.
+     * @param worker the MapTileMaker doing the rendering, this one or a copy.
+     * @param progress keeps track of the tiles made.
+     * @param zoomMaker the ZoomLevelMaker for the tiles, null for range tiles.
+     * @param layers the layers to render.
+     * @param background the background paint for the tiles.
+     * @param proj the projection reused for each tile.
+     */
+    protected void makeTiles(TileSet tileSet, MapTileMaker worker, TileProgress progress,
+                             ZoomLevelMaker zoomMaker, List<Layer> layers, Paint background, Proj proj) {
+
+        boolean renderMetaTiles = metaTileSize > 1 || emptyTileHandler != null;
+        BufferedImage tileImage = null;
+        int[] pixels = null;
+
+        Rectangle block;
+        while ((block = tileSet.next()) != null) {
+
+            // Tiles written to an MBTiles file don't need directories.
+            if (mbtiles == null) {
+                for (int x = block.x; x < block.x + block.width; x++) {
+                    File parentDir = new File(tileSet.zoomInfo.formatParentDirectoryName(getRootDir(), x, block.y));
+                    if (!parentDir.exists()) {
+                        parentDir.mkdirs();
+                    }
                 }
-                int startx = (int) bounds.getX();
-                int starty = (int) bounds.getY();
-                int xofflimit = (int) bounds.getWidth();
-                int yofflimit = (int) bounds.getHeight();
+            }
+
+            if (!renderMetaTiles) {
+                int x = block.x;
+                int y = block.y;
+                try {
+                    String outputFile;
+                    if (zoomMaker != null && mbtiles == null) {
+                        outputFile = worker.makeTileFile(x, y, zoomMaker, proj);
+                    } else {
+                        byte[] imageBytes;
+                        if (zoomMaker != null) {
+                            imageBytes = zoomMaker.makeTile(x, y, worker, proj);
+                        } else {
+                            imageBytes = worker.makeTile(x, y, tileSet.zoomLevel, layers, proj, background);
+                        }
+                        String filePath = tileSet.zoomInfo.formatImageFilePath(getRootDir(), x, y);
+                        outputFile = writeTile(imageBytes, filePath, x, y, tileSet.zoomLevel, worker);
+                    }
+                    if (logger.isLoggable(Level.FINER)) {
+                        logger.finer("wrote: " + outputFile);
+                    }
+                    progress.tileWritten();
+                } catch (IOException ioe) {
+                    logger.warning("Caught IOException writing " + x + ", " + y + ", " + tileSet.zoomInfo);
+                    progress.tileFailed();
+                }
+                continue;
+            }
 
-                for (int xoff = 0; xoff < xofflimit; xoff++) {
-                    int x = startx + xoff;
+            ImageFormatter imageFormatter = worker.getFormatter().makeClone();
+            BufferedImage metaTile = worker.renderMetaTile(block, tileSet.zoomLevel, layers, background, imageFormatter, proj);
+            if (metaTile == null) {
+                progress.tilesFailed(block.width * block.height);
+                continue;
+            }
+
+            if (tileImage == null) {
+                int imageType = metaTile.getType();
+                if (imageType == BufferedImage.TYPE_CUSTOM) {
+                    imageType = BufferedImage.TYPE_INT_ARGB;
+                }
+                tileImage = new BufferedImage(TILE_SIZE, TILE_SIZE, imageType);
+                pixels = new int[TILE_SIZE * TILE_SIZE];
+            }
 
-                    // Reset every x loop for first time check through y loop
-                    String parentDirPath = null;
+            for (int xoff = 0; xoff < block.width; xoff++) {
+                for (int yoff = 0; yoff < block.height; yoff++) {
+                    int x = block.x + xoff;
+                    int y = block.y + yoff;
+                    String filePath = tileSet.zoomInfo.formatImageFilePath(getRootDir(), x, y);
 
-                    for (int yoff = 0; yoff < yofflimit; yoff++) {
-                        int y = starty + yoff;
+                    metaTile.getRGB(xoff * TILE_SIZE, yoff * TILE_SIZE, TILE_SIZE, TILE_SIZE, pixels, 0, TILE_SIZE);
 
-                        if (parentDirPath == null) {
-                            parentDirPath = zfi.formatParentDirectoryName(getRootDir(), x, y);
-                            File parentDir = new File(parentDirPath);
-                            if (!parentDir.exists()) {
-                                parentDir.mkdirs();
-                            }
+                    if (isEmptyTile(pixels, filePath, x, y, tileSet.zoomLevel, proj)) {
+                        if (logger.isLoggable(Level.FINER)) {
+                            logger.finer("skipping empty tile: " + filePath);
                         }
+                        progress.tileSkipped();
+                        continue;
+                    }
+
+                    tileImage.setRGB(0, 0, TILE_SIZE, TILE_SIZE, pixels, 0, TILE_SIZE);
 
-                        try {
-                            String outputFile = makeTileFile(x, y, zfi, proj);
-                            if (logger.isLoggable(Level.FINER)) {
-                                logger.finer("wrote: " + outputFile);
-                            }
-                        } catch (IOException ioe) {
-                            logger.warning("Caught IOException writing " + x + ", " + y + ", "
-                                    + zfi);
+                    try {
+                        String outputFile = writeTile(imageFormatter.formatImage(tileImage), filePath, x, y, tileSet.zoomLevel, worker);
+                        if (logger.isLoggable(Level.FINER)) {
+                            logger.finer("wrote: " + outputFile);
                         }
+                        progress.tileWritten();
+                    } catch (IOException ioe) {
+                        logger.warning("Caught IOException writing " + x + ", " + y + ", " + tileSet.zoomInfo);
+                        progress.tileFailed();
                     }
+                }
+            }
+        }
+    }
+
+    /**
+     * Render a block of tiles into one image.
+     *
+     * @param block the uv coordinates of the upper left tile, and the number
+     *        of tiles across and down.
+     * @param zoomLevel the zoom level of the tiles.
+     * @param layers the layers to render.
+     * @param background the background paint for the image.
+     * @param imageFormatter the formatter holding the image.
+     * @param proj the projection to use, it will be modified.
+     * @return the image, or null if the graphics couldn't be created.
+     */
+    protected BufferedImage renderMetaTile(Rectangle block, int zoomLevel, List<Layer> layers, Paint background,
+                                           ImageFormatter imageFormatter, Proj proj) {
+        int width = block.width * TILE_SIZE;
+        int height = block.height * TILE_SIZE;
+
+        Point2D center = tileUVToLatLon(new Point2D.Double(block.x + block.width / 2.0, block.y + block.height / 2.0), zoomLevel);
+        proj.setScale(mtcTransform.getScaleForZoom(zoomLevel));
+        proj.setCenter(center);
+        proj.setHeight(height);
+        proj.setWidth(width);
+
+        Graphics graphics = createGraphics(imageFormatter, width, height);
+        if (graphics == null) {
+            return null;
+        }
+
+        try {
+            proj.drawBackground((Graphics2D) graphics, background);
+            renderLayers(proj, graphics, layers);
+        } finally {
+            graphics.dispose();
+        }
+
+        return imageFormatter.getBufferedImage();
+    }
+
+    /**
+     * Check whether a tile can be skipped because it looks just like the tile
+     * the EmptyTileHandler would create for it. If the EmptyTileHandler doesn't
+     * create anything for the tile, it's empty if it's completely clear.
+     * Always false if there isn't an EmptyTileHandler.
+     *
+     * @param pixels the ARGB pixels of the tile.
+     * @param imagePath the path of the tile, without the extension.
+     * @param x the uv x coordinate of the tile.
+     * @param y the uv y coordinate of the tile.
+     * @param zoomLevel the zoom level of the tile.
+     * @param proj the projection used to render the tile.
+     * @return true if the tile doesn't need to be written.
+     */
+    protected boolean isEmptyTile(int[] pixels, String imagePath, int x, int y, int zoomLevel, Projection proj) {
+        EmptyTileHandler handler = emptyTileHandler;
+        if (handler == null) {
+            return false;
+        }
+
+        BufferedImage emptyImage;
+        // EmptyTileHandlers aren't expected to be called from more than one
+        // thread at a time.
+        synchronized (handler) {
+            emptyImage = handler.getImageForEmptyTile(imagePath, x, y, zoomLevel, mtcTransform, proj);
+        }
 
+        if (emptyImage == null) {
+            for (int pixel : pixels) {
+                if ((pixel >>> 24) != 0) {
+                    return false;
                 }
             }
+            return true;
+        }
 
-            // At this point, for a specific ZoomLevelInfo, the basic tiles for
-            // it have been created. Now we can check the range and create tiles
-            // for the range out of the new tiles.
-            int range = zfi.getRange();
-            if (range < zoomLevel) {
-                Properties rangeProps = new Properties();
-                MapTileLayer tileLayer = new MapTileLayer();
-                StandardMapTileFactory tileFactory = new StandardMapTileFactory();
-                tileFactory.setRootDir(getRootDir());
-                tileFactory.setFileExt(getFormatter().getFormatLabel());
-                tileLayer.setTileFactory(tileFactory);
-
-                List<Layer> subLayers = new ArrayList<Layer>();
-                subLayers.add(tileLayer);
-
-                for (int rangeZoomLevel = zoomLevel - 1; rangeZoomLevel >= range; rangeZoomLevel--) {
-                    tileLayer.setZoomLevel(rangeZoomLevel);
-                    ZoomLevelInfo rangeZFI = new ZoomLevelInfo();
-                    rangeZFI.setZoomLevel(rangeZoomLevel);
-                    rangeZFI.setScale(mtcTransform.getScaleForZoom(rangeZoomLevel));
-                    // Create new tiles from the tiles one zoom level up
-                    tileLayer.setZoomLevel(rangeZoomLevel + 1);
-
-                    for (Rectangle2D rawBounds : zfi.getBounds()) {
-                        Rectangle2D bounds = rangeZFI.getUVBounds(rawBounds, mtcTransform, rangeZoomLevel);
-                        if (logger.isLoggable(Level.INFO)) {
-                            logger.fine(" creating subtiles " + bounds);
-                        }
-                        int startx = (int) bounds.getX();
-                        int starty = (int) bounds.getY();
-                        int xofflimit = (int) bounds.getWidth();
-                        int yofflimit = (int) bounds.getHeight();
+        if (emptyImage.getWidth() != TILE_SIZE || emptyImage.getHeight() != TILE_SIZE) {
+            return false;
+        }
 
-                        for (int xoff = 0; xoff < xofflimit; xoff++) {
-                            int x = startx + xoff;
+        int index = 0;
+        for (int row = 0; row < TILE_SIZE; row++) {
+            for (int col = 0; col < TILE_SIZE; col++) {
+                int pixel = pixels[index++];
+                int emptyPixel = emptyImage.getRGB(col, row);
+                // Clear pixels match, whatever color they are.
+                if (pixel != emptyPixel && ((pixel >>> 24) != 0 || (emptyPixel >>> 24) != 0)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
 
-                            // Reset every x loop for first time check through y
-                            // loop
-                            String parentDirPath = null;
+    /**
+     * Create the layers used to make range tiles, which are made out of the
+     * tiles one zoom level up.
+     *
+     * @param rangeZoomLevel the zoom level of the tiles being made.
+     * @return List of Layers
+     */
+    protected List<Layer> createRangeLayers(int rangeZoomLevel) {
+        MapTileLayer tileLayer = new MapTileLayer();
+        StandardMapTileFactory tileFactory;
+        if (mbtilesFile != null) {
+            tileFactory = new MBTilesMapTileFactory(mbtilesFile);
+        } else {
+            tileFactory = new StandardMapTileFactory();
+            tileFactory.setRootDir(getRootDir());
+        }
+        tileFactory.setFileExt(getFormatter().getFormatLabel());
+        // Only the tiles under each range tile are needed.
+        tileFactory.setPlaceholders(false);
+        tileFactory.setPrefetch(false);
+        tileLayer.setTileFactory(tileFactory);
+        tileLayer.setZoomLevel(rangeZoomLevel + 1);
+
+        List<Layer> subLayers = new ArrayList<Layer>();
+        subLayers.add(tileLayer);
+        return subLayers;
+    }
 
-                            for (int yoff = 0; yoff < yofflimit; yoff++) {
-                                int y = starty + yoff;
+    /**
+     * Reset the tile factories of the layers made by createRangeLayers, so
+     * their cached tiles and database connections are let go when a range
+     * TileSet is done.
+     *
+     * @param layers the range layers.
+     */
+    protected void resetRangeLayers(List<Layer> layers) {
+        for (Layer layer : layers) {
+            if (layer instanceof MapTileLayer) {
+                MapTileFactory tileFactory = ((MapTileLayer) layer).getTileFactory();
+                if (tileFactory != null) {
+                    tileFactory.reset();
+                }
+            }
+        }
+    }
 
-                                if (parentDirPath == null) {
-                                    parentDirPath = rangeZFI.formatParentDirectoryName(getRootDir(), x, y);
-                                    File parentDir = new File(parentDirPath);
-                                    if (!parentDir.exists()) {
-                                        parentDir.mkdirs();
-                                    }
-                                }
+    protected ZoomLevelInfo createRangeZoomLevelInfo(int rangeZoomLevel) {
+        ZoomLevelInfo rangeZFI = new ZoomLevelInfo();
+        rangeZFI.setZoomLevel(rangeZoomLevel);
+        rangeZFI.setScale(mtcTransform.getScaleForZoom(rangeZoomLevel));
+        return rangeZFI;
+    }
 
-                                try {
+    /**
+     * @return the number of tiles makeTiles will make, including range tiles.
+     */
+    protected long countTiles() {
+        long count = 0;
+        for (ZoomLevelMaker zfi : getZoomLevels()) {
+            int zoomLevel = zfi.getZoomLevel();
+            for (Rectangle2D bounds : zfi.getUVBounds(mtcTransform, zoomLevel)) {
+                count += (long) bounds.getWidth() * (long) bounds.getHeight();
+            }
 
-                                    byte[] imageBytes = makeTile(x, y, rangeZoomLevel, subLayers, proj, OMColor.clear);
+            for (int rangeZoomLevel = zoomLevel - 1; rangeZoomLevel >= zfi.getRange(); rangeZoomLevel--) {
+                ZoomLevelInfo rangeZFI = createRangeZoomLevelInfo(rangeZoomLevel);
+                for (Rectangle2D rawBounds : zfi.getBounds()) {
+                    Rectangle2D bounds = rangeZFI.getUVBounds(rawBounds, mtcTransform, rangeZoomLevel);
+                    count += (long) bounds.getWidth() * (long) bounds.getHeight();
+                }
+            }
+        }
+        return count;
+    }
 
-                                    String filePath = rangeZFI.formatImageFilePath(getRootDir(), (int) x, (int) y);
-                                    String outputFile = writeImageFile(imageBytes, filePath, true);
+    /**
+     * Create the MapTileMakers used to render tiles, one for each thread.
+     * Layers can't be shared between threads, so if there is more than one
+     * thread each gets a copy of this MapTileMaker, created from the
+     * properties it was configured with. If that isn't possible, only this
+     * MapTileMaker is returned.
+     *
+     * @return List of MapTileMakers, this one first.
+     */
+    protected List<MapTileMaker> createWorkers() {
+        List<MapTileMaker> workers = new ArrayList<MapTileMaker>();
+        workers.add(this);
 
-                                    if (logger.isLoggable(Level.INFO)) {
-                                        logger.finer("wrote: " + outputFile);
-                                    }
-                                } catch (IOException ioe) {
-                                    logger.warning("Caught IOException writing " + x + ", " + y
-                                            + ", " + zfi);
-                                }
-                            }
+        int numThreads = threads;
+        if (numThreads < 0) {
+            numThreads = Runtime.getRuntime().availableProcessors();
+        }
 
-                        }
+        if (numThreads > 1) {
+            for (ZoomLevelMaker zfi : getZoomLevels()) {
+                if (zfi.getLayerList() != null) {
+                    logger.warning("zoom level " + zfi.getName()
+                            + " has its own Layer objects, which can't be copied for other threads, using one thread");
+                    return workers;
+                }
+            }
+
+            Properties props = configProperties;
+            if (props == null) {
+                props = getProperties(new Properties());
+            }
+
+            for (int i = 1; i < numThreads; i++) {
+                MapTileMaker worker = createWorker(props);
+                if (worker == null) {
+                    break;
+                }
+                workers.add(worker);
+            }
+        }
+
+        return workers;
+    }
+
+    /**
+     * Create a copy of this MapTileMaker for another thread.
+     *
+     * @param props the properties to configure the copy with.
+     * @return MapTileMaker, or null if the copy doesn't match this one.
+     */
+    protected MapTileMaker createWorker(Properties props) {
+        MapTileMaker worker;
+        try {
+            worker = getClass().newInstance();
+        } catch (Exception e) {
+            logger.warning("can't create copy of " + getClass().getName() + " for another thread: " + e.getMessage());
+            return null;
+        }
+
+        worker.setProperties(getPropertyPrefix(), props);
+
+        if (worker.getZoomLevels().size() != getZoomLevels().size()) {
+            logger.warning("copy of MapTileMaker doesn't have the same zoom levels, can't use it in another thread");
+            return null;
+        }
+
+        worker.setRootDir(getRootDir());
+        worker.setFormatter(getFormatter());
+        worker.setBackground(getBackground());
+        worker.setTransparent(getTransparent());
+        worker.setDoAntiAliasing(getDoAntiAliasing());
+        // The workers are the copies of the layers, they don't need more.
+        worker.setRenderPoolSize(1);
+        return worker;
+    }
+
+    /**
+     * Describes the tiles to be made for a zoom level, and hands out blocks of
+     * them to the workers.
+     */
+    protected class TileSet {
+        /** Used to figure out tile file paths. */
+        protected final ZoomLevelInfo zoomInfo;
+        protected final int zoomLevel;
+        /**
+         * Index of the ZoomLevelMaker in the zoom level list, or -1 for range
+         * tiles.
+         */
+        protected int zoomIndex = -1;
+        protected final List<Rectangle2D> uvBounds;
+        protected final int blockSize;
+
+        protected int boundsIndex = 0;
+        protected int xoff = 0;
+        protected int yoff = 0;
+        protected boolean cancelled = false;
+
+        public TileSet(ZoomLevelInfo zoomInfo, int zoomLevel, List<Rectangle2D> uvBounds) {
+            this.zoomInfo = zoomInfo;
+            this.zoomLevel = zoomLevel;
+            this.uvBounds = uvBounds;
+            this.blockSize = Math.max(1, metaTileSize);
+        }
+
+        /**
+         * @return the next block of tiles to make, in uv tile coordinates, or
+         *         null if there are no more.
+         */
+        public synchronized Rectangle next() {
+            while (!cancelled && boundsIndex < uvBounds.size()) {
+                Rectangle2D bounds = uvBounds.get(boundsIndex);
+                int xofflimit = (int) bounds.getWidth();
+                int yofflimit = (int) bounds.getHeight();
+
+                if (xoff < xofflimit && yoff < yofflimit) {
+                    Rectangle block = new Rectangle((int) bounds.getX() + xoff, (int) bounds.getY() + yoff, Math.min(blockSize, xofflimit
+                            - xoff), Math.min(blockSize, yofflimit - yoff));
 
+                    yoff += blockSize;
+                    if (yoff >= yofflimit) {
+                        yoff = 0;
+                        xoff += blockSize;
                     }
+                    return block;
                 }
 
+                boundsIndex++;
+                xoff = 0;
+                yoff = 0;
             }
+            return null;
         }
 
-        logger.info("done writing tiles");
+        public synchronized void cancel() {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * Makes tiles from a TileSet with one of the MapTileMakers.
+     */
+    protected class TileWorker implements Runnable {
+        protected final TileSet tileSet;
+        protected final MapTileMaker worker;
+        protected final TileProgress progress;
+
+        public TileWorker(TileSet tileSet, MapTileMaker worker, TileProgress progress) {
+            this.tileSet = tileSet;
+            this.worker = worker;
+            this.progress = progress;
+        }
+
+        public void run() {
+            makeTiles(tileSet, worker, progress);
+        }
+    }
+
+    /**
+     * Keeps count of the tiles that have been made, and logs the rate and how
+     * much longer it's going to take.
+     */
+    public static class TileProgress {
+        protected final long total;
+        protected final long startTime = System.currentTimeMillis();
+        protected final AtomicLong written = new AtomicLong();
+        protected final AtomicLong skipped = new AtomicLong();
+        protected final AtomicLong failed = new AtomicLong();
+        protected long lastReport = startTime;
+
+        public TileProgress(long total) {
+            this.total = total;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public long getDone() {
+            return written.get() + skipped.get() + failed.get();
+        }
+
+        public void tileWritten() {
+            written.incrementAndGet();
+            report(false);
+        }
+
+        public void tileSkipped() {
+            skipped.incrementAndGet();
+            report(false);
+        }
+
+        public void tileFailed() {
+            tilesFailed(1);
+        }
+
+        public void tilesFailed(int count) {
+            failed.addAndGet(count);
+            report(false);
+        }
+
+        /**
+         * Log the progress, if it hasn't been logged for PROGRESS_INTERVAL.
+         *
+         * @param force log it anyway.
+         */
+        public void report(boolean force) {
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                if (!force && now - lastReport < PROGRESS_INTERVAL) {
+                    return;
+                }
+                lastReport = now;
+            }
+
+            if (logger.isLoggable(Level.INFO)) {
+                logger.info(toString());
+            }
+        }
+
+        public String toString() {
+            long done = getDone();
+            double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+            double rate = done / seconds;
+
+            StringBuilder sb = new StringBuilder();
+            sb.append(done).append("/").append(total).append(" tiles");
+            if (total > 0) {
+                sb.append(" (").append(Math.round(done * 100.0 / total)).append("%)");
+            }
+            sb.append(", ").append(written.get()).append(" written, ").append(skipped.get()).append(" skipped");
+            if (failed.get() > 0) {
+                sb.append(", ").append(failed.get()).append(" failed");
+            }
+            sb.append(", ").append(Math.round(rate * 10) / 10.0).append(" tiles/sec");
+            if (rate > 0 && done < total) {
+                sb.append(", ETA ").append(formatSeconds((long) ((total - done) / rate)));
+            }
+            return sb.toString();
+        }
+
+        protected static String formatSeconds(long seconds) {
+            return String.format("%d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads the number of threads making tiles, -1 for one per
+     *        processor.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getMetaTileSize() {
+        return metaTileSize;
+    }
+
+    /**
+     * @param metaTileSize the number of tiles on each side of a block of tiles
+     *        rendered at once.
+     */
+    public void setMetaTileSize(int metaTileSize) {
+        this.metaTileSize = metaTileSize;
+    }
+
+    public EmptyTileHandler getEmptyTileHandler() {
+        return emptyTileHandler;
+    }
+
+    /**
+     * @param emptyTileHandler tiles that match what this EmptyTileHandler
+     *        would provide for them aren't written. May be null.
+     */
+    public void setEmptyTileHandler(EmptyTileHandler emptyTileHandler) {
+        this.emptyTileHandler = emptyTileHandler;
     }
 
     public String getRootDir() {
         return rootDir;
     }
 
+    public String getMbtilesFile() {
+        return mbtilesFile;
+    }
+
+    /**
+     * Set the MBTiles file to write tiles into, instead of the rootDir.
+     * 
+     * @param mbtilesFile path to the file, null to write tile files.
+     */
+    public void setMbtilesFile(String mbtilesFile) {
+        this.mbtilesFile = mbtilesFile;
+    }
+
     public void setRootDir(String rootDir) {
         this.rootDir = rootDir;
     }
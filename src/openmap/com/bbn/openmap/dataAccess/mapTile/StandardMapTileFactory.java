@@ -34,9 +34,15 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 import java.util.logging.Level;
@@ -50,10 +56,12 @@ import com.bbn.openmap.PropertyConsumer;
 import com.bbn.openmap.image.BufferedImageHelper;
 import com.bbn.openmap.omGraphics.OMGraphic;
 import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.omGraphics.OMRasterObject;
 import com.bbn.openmap.omGraphics.OMScalingRaster;
 import com.bbn.openmap.omGraphics.OMText;
 import com.bbn.openmap.omGraphics.OMTextLabeler;
 import com.bbn.openmap.omGraphics.OMWarpingImage;
+import com.bbn.openmap.omGraphics.util.ImageWarp;
 import com.bbn.openmap.proj.Mercator;
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.proj.coords.LatLonPoint;
@@ -61,6 +69,7 @@ import com.bbn.openmap.util.ClasspathHacker;
 import com.bbn.openmap.util.ComponentFactory;
 import com.bbn.openmap.util.DataBounds;
 import com.bbn.openmap.util.PropUtils;
+import com.bbn.openmap.util.TaskService;
 import com.bbn.openmap.util.cacheHandler.CacheHandler;
 import com.bbn.openmap.util.cacheHandler.CacheObject;
 
@@ -87,6 +96,12 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  * tileImagePreparer=com.bbn.openmap.dataAccess.mapTile.StandardImagePreparer
  * # or
  * tileImagePreparer=com.bbn.openmap.dataAccess.mapTile.GreyscaleImagePreparer
+ * # The number of threads loading tiles that aren't in the cache (default 4, -1 for one per processor)
+ * loadThreads=4
+ * # Show cached tiles from the zoom levels above and below while tiles are loading (default true)
+ * placeholders=true
+ * # Load the tiles around the map and the zoom level above into the cache after the map tiles are loaded (default true)
+ * prefetch=true
  * </pre>
  * 
  * @author dietrick
@@ -104,6 +119,10 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
     public final static String ZOOM_LEVEL_INFO_PROPERTY = "zoomLevelInfo";
     public final static String ZOOM_LEVEL_TILE_SIZE_PROPERTY = "zoomLevelTileSize";
     public final static String TILE_IMAGE_PREPARER_PROPERTY = "tileImagePreparer";
+    public final static String LOAD_THREADS_PROPERTY = "loadThreads";
+    public final static String PLACEHOLDERS_PROPERTY = "placeholders";
+    public final static String PREFETCH_PROPERTY = "prefetch";
+    public final static int DEFAULT_LOAD_THREADS = 4;
     /**
      * Inserted into properties loaded via tiles.omp, so that the
      * EmptyTileHandler can know where the tile set is located, in case it needs
@@ -141,10 +160,31 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
      */
     protected MapTileRequester mapTileRequester;
     /**
-     * Flag to tell the factory to create the extra tiles off-map. Tends to
-     * cause the layer to do more work than necessary, so it's not used.
+     * The number of threads loading tiles that aren't in the cache, -1 for one
+     * per processor. Tiles from a server are mostly waiting on the network, so
+     * it's worth having a few more than the number of processors.
      */
-    private boolean doExtraTiles = false;
+    protected int loadThreads = DEFAULT_LOAD_THREADS;
+    /**
+     * Flag to add cached tiles from the zoom levels above and below to the
+     * list, scaled to the map, while the tiles for the zoom level are loaded.
+     */
+    protected boolean placeholders = true;
+    /**
+     * Flag to load the ring of tiles around the map, and the tiles for the
+     * zoom level above, into the cache after the tiles on the map are loaded.
+     */
+    protected boolean prefetch = true;
+    /**
+     * Incremented for each getTiles and prefetch request, so an older prefetch
+     * can quit.
+     */
+    protected final AtomicInteger prefetchCount = new AtomicInteger();
+    /**
+     * Held while tiles are added to a list, so they go in front of the
+     * placeholders.
+     */
+    private final Object listLock = new Object();
     /**
      * Coordinate transform for the uv coordinates of the tiles. Different
      * sources have different origins for tile coordinates.
@@ -169,6 +209,29 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         return null;
     }
 
+    /**
+     * Weigh tiles by the memory used by their images, so the cache can be
+     * limited by bytes.
+     */
+    protected long weigh(CacheObject obj) {
+        if (obj.obj instanceof OMRasterObject) {
+            Image image = ((OMRasterObject) obj.obj).getImage();
+            if (image != null) {
+                int width = image.getWidth(null);
+                int height = image.getHeight(null);
+                if (width > 0 && height > 0) {
+                    return 4L * width * height;
+                }
+            }
+        } else if (obj.obj instanceof OMWarpingImage) {
+            ImageWarp warp = ((OMWarpingImage) obj.obj).getWarp();
+            if (warp != null) {
+                return 4L * warp.getIwidth() * warp.getIheight();
+            }
+        }
+        return 1;
+    }
+
     /**
      * Tell the factory to dump the cache.
      */
@@ -344,7 +407,9 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
             return ret.obj;
         }
 
+        long start = System.nanoTime();
         ret = load(key, x, y, zoomLevel, proj);
+        recordLoad(start, ret != null);
         if (ret == null) {
             return null;
         }
@@ -476,6 +541,8 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         }
 
         lastProj = proj;
+        // Stop any prefetching for the last request.
+        prefetchCount.incrementAndGet();
 
         /**
          * Given a projection, a couple of things have to happen.
@@ -624,9 +691,14 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
             }
         }
 
+        List<OMGraphic> placeholderTiles = placeholders ? getPlaceholders(reloads, proj) : new ArrayList<OMGraphic>(0);
+        for (OMGraphic placeholder : placeholderTiles) {
+            list.add(placeholder);
+        }
+
         if (verbose) {
-            logger.fine("found " + list.size() + " frames in cache, loading " + reloads.size()
-                    + " others now...");
+            logger.fine("found " + list.size() + " frames in cache, " + placeholderTiles.size()
+                    + " placeholders, loading " + reloads.size() + " others now...");
         }
 
         if (mapTileRequester != null) {
@@ -637,120 +709,248 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
          * Load the tiles that are not already in the cache, that need to be
          * fetched from the source.
          */
-        for (LoadObj reload : reloads) {
-            // Check and see of we should bother fetching the new tile.
-            if (mapTileRequester != null && !mapTileRequester.shouldContinue()) {
-                return;
-            }
-
-            loadTile(reload.imagePath, reload.x, reload.y, reload.zoomLevel, proj, list);
+        if (!loadTiles(reloads, proj, list, placeholderTiles.size())) {
+            return;
+        }
 
-            // OK, got it, notify requester the list has been updated.
+        if (!placeholderTiles.isEmpty()) {
+            for (OMGraphic placeholder : placeholderTiles) {
+                list.remove(placeholder);
+            }
             if (mapTileRequester != null) {
                 mapTileRequester.listUpdated();
             }
         }
 
         if (verbose) {
-            logger.fine("finished loading " + reloads.size() + " frames from source for screen"
-                    + (doExtraTiles ? ", moving to off-screen frames..." : ""));
+            logger.fine("finished loading " + reloads.size() + " frames from source for screen");
         }
 
-        if (!doExtraTiles) {
-            return;
+        if (prefetch) {
+            int budget = getCacheSize() - (uvrightM - uvleftM) * (uvbottomM - uvupM);
+            prefetchTiles(uvleftM, uvrightM, uvupM, uvbottomM, zoomLevel, proj, budget);
         }
+    }
 
-        // Just for giggles, lets go ahead and walk around the edge of the area
-        // and prefetch tiles to load them into memory...
-
-        // int uvleft, int uvright, int uvup, int uvbottom
-        int x1 = uvleft;
-        int y1 = uvup;
-        int x2 = uvright;
-        int y2 = uvbottom;
-        boolean top = false;
-        boolean left = false;
-        boolean right = false;
-        boolean bottom = false;
-        if (x1 > 0) {
-            x1--;
-            left = true;
-        }
-        if (y1 > 0) {
-            y1--;
-            top = true;
-        }
-        int edgeTileCount = zoomLevelInfo.getEdgeTileCount();
-        if (x2 < edgeTileCount - 1) {
-            x2++;
-            right = true;
+    /**
+     * Load tiles that aren't in the cache on loadThreads threads, adding them
+     * to the list as they are loaded. The calling thread loads tiles too, and
+     * checks with the MapTileRequester between tiles to see if the tiles are
+     * still wanted.
+     * 
+     * @param reloads the tiles to load.
+     * @param proj the current projection.
+     * @param list the list to add the tiles to.
+     * @param placeholderCount the number of placeholders at the end of the
+     *        list, the tiles are added in front of them.
+     * @return false if the MapTileRequester stopped the loading.
+     */
+    protected boolean loadTiles(final List<LoadObj> reloads, final Projection proj,
+                                final OMGraphicList list, final int placeholderCount) {
+        final AtomicInteger nextTile = new AtomicInteger();
+        final int numTiles = reloads.size();
+
+        class Loader implements Callable<Boolean> {
+            boolean callerThread;
+
+            public Boolean call() {
+                while (true) {
+                    // Only the calling thread can tell if the layer has
+                    // cancelled its worker, it stops the other threads.
+                    if (callerThread && mapTileRequester != null && !mapTileRequester.shouldContinue()) {
+                        nextTile.set(numTiles);
+                        return Boolean.FALSE;
+                    }
+
+                    int index = nextTile.getAndIncrement();
+                    if (index >= numTiles) {
+                        return Boolean.TRUE;
+                    }
+
+                    LoadObj reload = reloads.get(index);
+                    OMGraphic raster = loadTile(reload.imagePath, reload.x, reload.y, reload.zoomLevel, proj);
+                    if (raster != null) {
+                        raster.generate(proj);
+                        synchronized (listLock) {
+                            list.add(list.size() - placeholderCount, raster);
+                        }
+
+                        // OK, got it, notify requester the list has been
+                        // updated.
+                        if (mapTileRequester != null) {
+                            mapTileRequester.listUpdated();
+                        }
+                    }
+                }
+            }
         }
-        if (y2 < edgeTileCount - 1) {
-            y2++;
-            bottom = true;
+
+        int numThreads = loadThreads < 0 ? Runtime.getRuntime().availableProcessors() : loadThreads;
+        numThreads = Math.min(numThreads, numTiles);
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+        for (int i = 1; i < numThreads; i++) {
+            futures.add(TaskService.singleton().spawn(new Loader()));
         }
 
-        // Get the corners
-        if (top && left) {
-            loadTile(x1, y1, zoomLevel, proj, list);
+        Loader loader = new Loader();
+        loader.callerThread = true;
+        boolean finished = loader.call().booleanValue();
+
+        for (Future<Boolean> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                logger.log(Level.WARNING, "problem loading tiles", e.getCause());
+            }
         }
-        if (bottom && left) {
-            loadTile(x1, y2, zoomLevel, proj, list);
+
+        return finished;
+    }
+
+    /**
+     * Find the cached tiles from the zoom levels around the tiles being
+     * loaded, to stand in for them until they are loaded. The parent tile is
+     * used if it's in the cache, going up a few zoom levels if it isn't, and
+     * if there isn't a parent, any cached tiles from the next zoom level down
+     * are used. The tiles are generated for the projection, so they are scaled
+     * to cover the tiles being loaded.
+     * 
+     * @param reloads the tiles being loaded.
+     * @param proj the current projection.
+     * @return List of OMGraphics to draw under the tiles being loaded.
+     */
+    protected List<OMGraphic> getPlaceholders(List<LoadObj> reloads, Projection proj) {
+        Map<String, OMGraphic> found = new LinkedHashMap<String, OMGraphic>();
+
+        for (LoadObj reload : reloads) {
+            boolean covered = false;
+            for (int up = 1; up <= 3 && reload.zoomLevel - up >= 1 && !covered; up++) {
+                int z = reload.zoomLevel - up;
+                int x = reload.x >> up;
+                int y = reload.y >> up;
+                covered = addPlaceholder(x, y, z, found);
+            }
+
+            if (!covered) {
+                int z = reload.zoomLevel + 1;
+                for (int i = 0; i < 4; i++) {
+                    addPlaceholder(reload.x * 2 + (i & 1), reload.y * 2 + (i >> 1), z, found);
+                }
+            }
         }
-        if (bottom && right) {
-            loadTile(x2, y2, zoomLevel, proj, list);
+
+        List<OMGraphic> ret = new ArrayList<OMGraphic>(found.size());
+        for (OMGraphic placeholder : found.values()) {
+            placeholder.generate(proj);
+            ret.add(placeholder);
         }
-        if (top && right) {
-            loadTile(x2, y1, zoomLevel, proj, list);
+        return ret;
+    }
+
+    private boolean addPlaceholder(int x, int y, int z, Map<String, OMGraphic> found) {
+        String key = buildCacheKey(x, y, z, fileExt);
+        if (found.containsKey(key)) {
+            return true;
         }
-        // Now go along the sides
-        if (top) {
-            for (int x = uvleft; x < uvright; x++) {
-                loadTile(x, y1, zoomLevel, proj, list);
-            }
+        // Straight to the engine, so looking around doesn't count as misses.
+        CacheObject co = engine.get(key);
+        if (co != null && co.obj instanceof OMGraphic) {
+            found.put(key, (OMGraphic) co.obj);
+            return true;
         }
+        return false;
+    }
 
-        if (bottom) {
-            for (int x = uvleft; x < uvright; x++) {
-                loadTile(x, y2, zoomLevel, proj, list);
-            }
+    /**
+     * Load tiles into the cache on another thread, so they are ready if the
+     * map is panned or zoomed out: the ring of tiles around the map, then the
+     * tiles from the next zoom level up. Stops if another getTiles or prefetch
+     * request comes in.
+     * 
+     * @param uvleft the left tile on the map.
+     * @param uvright one more than the right tile on the map.
+     * @param uvup the top tile on the map.
+     * @param uvbottom one more than the bottom tile on the map.
+     * @param zoomLevel the zoom level of the tiles on the map.
+     * @param proj the current projection.
+     * @param budget the most tiles to load, so tiles on the map aren't pushed
+     *        out of the cache.
+     */
+    protected void prefetchTiles(int uvleft, int uvright, int uvup, int uvbottom, int zoomLevel,
+                                 final Projection proj, int budget) {
+        if (budget <= 0) {
+            return;
         }
 
-        if (right) {
-            for (int y = uvup; y < uvbottom; y++) {
-                loadTile(x2, y, zoomLevel, proj, list);
+        final List<LoadObj> tiles = new ArrayList<LoadObj>();
+        int edgeTileCount = 1 << zoomLevel;
+        int x1 = Math.max(uvleft - 1, 0);
+        int x2 = Math.min(uvright, edgeTileCount - 1);
+        int y1 = Math.max(uvup - 1, 0);
+        int y2 = Math.min(uvbottom, edgeTileCount - 1);
+
+        for (int x = x1; x <= x2; x++) {
+            for (int y = y1; y <= y2; y++) {
+                if (x < uvleft || x >= uvright || y < uvup || y >= uvbottom) {
+                    tiles.add(new LoadObj(buildCacheKey(x, y, zoomLevel, fileExt), x, y, zoomLevel));
+                }
             }
         }
 
-        if (left) {
-            for (int y = uvup; y < uvbottom; y++) {
-                loadTile(x1, y, zoomLevel, proj, list);
+        if (zoomLevel > 1) {
+            int z = zoomLevel - 1;
+            for (int x = uvleft >> 1; x <= (uvright - 1) >> 1; x++) {
+                for (int y = uvup >> 1; y <= (uvbottom - 1) >> 1; y++) {
+                    tiles.add(new LoadObj(buildCacheKey(x, y, z, fileExt), x, y, z));
+                }
             }
         }
 
-        if (verbose) {
-            logger.fine("finished loading all tiles (" + list.size() + ")");
+        while (tiles.size() > budget) {
+            tiles.remove(tiles.size() - 1);
         }
+
+        final int prefetchRequest = prefetchCount.incrementAndGet();
+        TaskService.singleton().spawn(new Runnable() {
+            public void run() {
+                int count = 0;
+                for (LoadObj tile : tiles) {
+                    if (prefetchCount.get() != prefetchRequest) {
+                        break;
+                    }
+                    if (getFromCache(tile.imagePath, tile.x, tile.y, tile.zoomLevel) == null) {
+                        loadTile(tile.imagePath, tile.x, tile.y, tile.zoomLevel, proj);
+                        count++;
+                    }
+                }
+
+                if (verbose) {
+                    logger.fine("prefetched " + count + " of " + tiles.size() + " tiles");
+                }
+            }
+        });
     }
 
     /**
      * Handles going to the cache, getting the cache to load the tile, and then
-     * manage the resulting OMRaster tile. Adds the tile to the list after
-     * generating it with the projection, and calls the repaintCallback if there
-     * is one.
+     * manage the resulting OMRaster tile. Adds the tile to the cache, and
+     * returns it to be generated and added to a list.
      * 
      * @param imagePath the image path for the tile
      * @param x the x uv coordinate of the tile
      * @param y the y uv coordinate of the tile
      * @param zoomLevel the zoomLevel of the tile
      * @param proj the current projection.
-     * @param list the OMGraphicList to add the tile to.
-     * @throws InterruptedException
+     * @return OMGraphic for the tile, or null if there isn't one.
      */
-    private void loadTile(String imagePath, int x, int y, int zoomLevel, Projection proj,
-                          OMGraphicList list) {
+    protected OMGraphic loadTile(String imagePath, int x, int y, int zoomLevel, Projection proj) {
 
+        long start = System.nanoTime();
         CacheObject ret = load(imagePath, x, y, zoomLevel, proj);
+        recordLoad(start, ret != null);
         if (ret == null) {
 
             // Check if the factory wants to do anything for empty tiles.
@@ -761,36 +961,12 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
             replaceLeastUsed(ret);
             OMGraphic raster = (OMGraphic) ret.obj;
 
-            if (raster != null) {
-
-                raster.generate(proj);
-                list.add(raster);
-
-                if (logger.isLoggable(Level.FINE)) {
-                    raster.putAttribute(OMGraphic.TOOLTIP, imagePath);
-                }
+            if (raster != null && logger.isLoggable(Level.FINE)) {
+                raster.putAttribute(OMGraphic.TOOLTIP, imagePath);
             }
+            return raster;
         }
-    }
-
-    /**
-     * Handles going to the cache, getting the cache to load the tile, and then
-     * manage the resulting OMRaster tile. Adds the tile to the list after
-     * generating it with the projection, and calls the repaintCallback if there
-     * is one. Handles creating the image file path given the other info.
-     * 
-     * @param x the x uv coordinate of the tile
-     * @param y the y uv coordinate of the tile
-     * @param zoomLevel the zoomLevel of the tile
-     * @param proj the current projection.
-     * @param list the OMGraphicList to add the tile to.
-     * @throws InterruptedException
-     */
-    private void loadTile(int x, int y, int zoomLevel, Projection proj, OMGraphicList list) {
-        // String imagePath = zoomLevelInfo.formatImageFilePath(rootDir, x, y) +
-        // fileExt;
-        String imagePath = buildFilePath(x, y, zoomLevel, fileExt);
-        loadTile(imagePath, x, y, zoomLevel, proj, list);
+        return null;
     }
 
     /**
@@ -905,6 +1081,7 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         getList.put(prefix + ROOT_DIR_PROPERTY, PropUtils.unnull(rootDirProperty));
         getList.put(prefix + FILE_EXT_PROPERTY, PropUtils.unnull(fileExt));
         getList.put(prefix + CACHE_SIZE_PROPERTY, Integer.toString(getCacheSize()));
+        getCacheEngineProperties(prefix, getList);
         getList.put(prefix + MTCTRANSFORM_PROPERTY, mtcTransform.getClass().toString());
         if (emptyTileHandler != null) {
             getList.put(prefix + EMPTY_TILE_HANDLER_PROPERTY, emptyTileHandler.getClass().toString());
@@ -919,6 +1096,9 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         }
 
         getList.put(prefix + ZOOM_LEVEL_TILE_SIZE_PROPERTY, Integer.toString(zoomLevelTileSize));
+        getList.put(prefix + LOAD_THREADS_PROPERTY, Integer.toString(loadThreads));
+        getList.put(prefix + PLACEHOLDERS_PROPERTY, Boolean.toString(placeholders));
+        getList.put(prefix + PREFETCH_PROPERTY, Boolean.toString(prefetch));
         TileImagePreparer tip = getTileImagePreparer();
         if (!(tip instanceof StandardImagePreparer)) {
             getList.put(prefix + TILE_IMAGE_PREPARER_PROPERTY, tip.getClass().getName());
@@ -935,7 +1115,11 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, ROOT_DIR_PROPERTY, "Tile Directory", "Root directory containing image tiles", "com.bbn.openmap.util.propertyEditor.DirectoryPropertyEditor");
         PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, FILE_EXT_PROPERTY, "Image File Extension", "Extension of image files (.jpg, .png, etc)", null);
         PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, CACHE_SIZE_PROPERTY, "Cache Size", "Number of tile images held in memory", null);
+        getCacheEnginePropertyInfo(list);
         PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, ZOOM_LEVEL_TILE_SIZE_PROPERTY, "Zoom Level Tile Size", "The maximum pixel size of a tile before switching to a higher zoom level (350 is default)", null);
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, LOAD_THREADS_PROPERTY, "Load Threads", "Number of threads loading tiles, -1 for one per processor", null);
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, PLACEHOLDERS_PROPERTY, "Placeholders", "Show cached tiles from other zoom levels while tiles are loading", "com.bbn.openmap.util.propertyEditor.YesNoPropertyEditor");
+        PropUtils.setI18NPropertyInfo(i18n, list, com.bbn.openmap.dataAccess.mapTile.StandardMapTileFactory.class, PREFETCH_PROPERTY, "Prefetch", "Load the tiles around the map and the zoom level above into the cache", "com.bbn.openmap.util.propertyEditor.YesNoPropertyEditor");
         return list;
     }
 
@@ -999,9 +1183,13 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
         }
 
         super.resetCache(PropUtils.intFromProperties(setList, prefix + CACHE_SIZE_PROPERTY, getCacheSize()));
+        setCacheEngineProperties(prefix, setList);
 
         zoomLevelTileSize = PropUtils.intFromProperties(setList, prefix
                 + ZOOM_LEVEL_TILE_SIZE_PROPERTY, zoomLevelTileSize);
+        loadThreads = PropUtils.intFromProperties(setList, prefix + LOAD_THREADS_PROPERTY, loadThreads);
+        placeholders = PropUtils.booleanFromProperties(setList, prefix + PLACEHOLDERS_PROPERTY, placeholders);
+        prefetch = PropUtils.booleanFromProperties(setList, prefix + PREFETCH_PROPERTY, prefetch);
     }
 
     public void setPropertyPrefix(String prefix) {
@@ -1255,4 +1443,51 @@ public class StandardMapTileFactory extends CacheHandler implements MapTileFacto
     public void setEmptyTileHandler(EmptyTileHandler emptyTileHandler) {
         this.emptyTileHandler = emptyTileHandler;
     }
+
+    /**
+     * @return the number of threads loading tiles, -1 for one per processor.
+     */
+    public int getLoadThreads() {
+        return loadThreads;
+    }
+
+    /**
+     * @param loadThreads the number of threads loading tiles, -1 for one per
+     *        processor.
+     */
+    public void setLoadThreads(int loadThreads) {
+        this.loadThreads = loadThreads;
+    }
+
+    /**
+     * @return whether cached tiles from other zoom levels are shown while
+     *         tiles are loading.
+     */
+    public boolean isPlaceholders() {
+        return placeholders;
+    }
+
+    /**
+     * @param placeholders whether cached tiles from other zoom levels are shown
+     *        while tiles are loading.
+     */
+    public void setPlaceholders(boolean placeholders) {
+        this.placeholders = placeholders;
+    }
+
+    /**
+     * @return whether tiles around the map are loaded into the cache after the
+     *         tiles on the map.
+     */
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * @param prefetch whether tiles around the map are loaded into the cache
+     *        after the tiles on the map.
+     */
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
 }
@@ -0,0 +1,697 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.dataAccess.shape;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.ParseException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.io.FormatException;
+
+/**
+ * Column oriented storage for the contents of a dbf file. Numeric columns are
+ * kept in int or double arrays, and the other columns as indexes into a
+ * dictionary of their distinct values, so a large dbf file doesn't need an
+ * object for every cell. Values are handed out as the same Doubles and Strings
+ * the DbfTableModel has always held.
+ * <P>
+ * A DbfColumnStore can be built from records as they are read, or mapped from
+ * a dbf file. A mapped store decodes a column the first time a value is asked
+ * for from it, and decodes rows straight from the file for getRow() and
+ * getRecord(), so a layer that only looks at one column never decodes the
+ * others.
+ * <P>
+ * The store is read-only. The DbfTableModel copies its records into lists
+ * before it makes any changes.
+ */
+public class DbfColumnStore {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.dataAccess.shape.DbfColumnStore");
+
+    protected final String[] names;
+    protected final byte[] types;
+    protected final int[] lengths;
+    protected final byte[] decimalCounts;
+    protected final int rowCount;
+    /** The decoded columns, null entries haven't been decoded yet. */
+    protected final AtomicReferenceArray<Column> columns;
+
+    /** The mapped file, if the store decodes columns as needed. */
+    protected ByteBuffer buffer;
+    protected int headerLength;
+    protected int recordLength;
+    /** Byte offset of each column in a record. */
+    protected int[] offsets;
+
+    protected DbfColumnStore(String[] names, byte[] types, int[] lengths, byte[] decimalCounts, int rowCount) {
+        this.names = names;
+        this.types = types;
+        this.lengths = lengths;
+        this.decimalCounts = decimalCounts;
+        this.rowCount = rowCount;
+        this.columns = new AtomicReferenceArray<Column>(names.length);
+    }
+
+    /**
+     * Map a dbf file. Columns are decoded when they are first used.
+     *
+     * @param dbf the file.
+     * @param columnNames the names of the columns to provide, in any case. If
+     *        null or empty, all of the columns are provided.
+     * @return DbfColumnStore
+     * @throws IOException if the file can't be read or is too large to map.
+     * @throws FormatException if the file isn't a dbf file.
+     */
+    public static DbfColumnStore map(File dbf, String... columnNames)
+            throws IOException, FormatException {
+        RandomAccessFile raf = new RandomAccessFile(dbf, "r");
+        ByteBuffer buffer;
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(dbf + " is too large to map");
+            }
+            // The mapping stays valid after the channel is closed.
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        return create(buffer, columnNames);
+    }
+
+    /**
+     * Create a store for the contents of a dbf file held in a buffer. Columns
+     * are decoded when they are first used.
+     */
+    public static DbfColumnStore create(ByteBuffer buffer, String... columnNames)
+            throws FormatException {
+        buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < 32) {
+            throw new FormatException("dbf header is too short");
+        }
+        int rowCount = buffer.getInt(4);
+        int headerLength = buffer.getShort(8) & 0xffff;
+        int recordLength = buffer.getShort(10) & 0xffff;
+        int columnCount = (headerLength - 32 - 1) / 32;
+        if (rowCount < 0 || columnCount < 0 || (long) headerLength + (long) rowCount * recordLength > buffer.limit()) {
+            throw new FormatException("dbf header doesn't match the file size");
+        }
+
+        List<String> names = new ArrayList<String>();
+        byte[] types = new byte[columnCount];
+        int[] lengths = new int[columnCount];
+        byte[] decimalCounts = new byte[columnCount];
+        int[] offsets = new int[columnCount];
+        int numColumns = 0;
+        int offset = 1; // deletion flag
+        byte[] nameBytes = new byte[11];
+        for (int n = 0; n < columnCount; n++) {
+            int pos = 32 + n * 32;
+            buffer.position(pos);
+            buffer.get(nameBytes);
+            String name = new String(nameBytes, 0, nameBytes.length);
+            // Some TIGER dbf files from ESRI have nulls in the column names.
+            int ix = name.indexOf((char) 0);
+            if (ix >= 0) {
+                name = name.substring(0, ix);
+            }
+            name = name.trim();
+            int length = buffer.get(pos + 16) & 0xff;
+
+            if (isRequested(name, columnNames)) {
+                names.add(name);
+                types[numColumns] = buffer.get(pos + 11);
+                lengths[numColumns] = length;
+                decimalCounts[numColumns] = buffer.get(pos + 17);
+                offsets[numColumns] = offset;
+                numColumns++;
+            }
+            offset += length;
+        }
+
+        DbfColumnStore store = new DbfColumnStore(names.toArray(new String[numColumns]), Arrays.copyOf(types, numColumns), Arrays.copyOf(lengths, numColumns), Arrays.copyOf(decimalCounts, numColumns), rowCount);
+        store.buffer = buffer;
+        store.headerLength = headerLength;
+        store.recordLength = recordLength;
+        store.offsets = Arrays.copyOf(offsets, numColumns);
+        return store;
+    }
+
+    /**
+     * @return true if the column name is one of the column names, or if there
+     *         aren't any column names.
+     */
+    public static boolean isRequested(String name, String[] columnNames) {
+        if (columnNames == null || columnNames.length == 0) {
+            return true;
+        }
+        for (String columnName : columnNames) {
+            if (name.equalsIgnoreCase(columnName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return names.length;
+    }
+
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    public byte[] getTypes() {
+        return types.clone();
+    }
+
+    public int[] getLengths() {
+        return lengths.clone();
+    }
+
+    public byte[] getDecimalCounts() {
+        return decimalCounts.clone();
+    }
+
+    /**
+     * Get a value, decoding its column if it hasn't been decoded yet.
+     *
+     * @return a Double for numeric columns, unless the cell is blank, a String
+     *         otherwise.
+     */
+    public Object getValue(int row, int column) {
+        checkRow(row);
+        return getColumn(column).get(row);
+    }
+
+    /**
+     * Get a value as a double without creating an object for it.
+     *
+     * @return the value, or NaN if the column isn't numeric or the cell is
+     *         blank.
+     */
+    public double getDouble(int row, int column) {
+        checkRow(row);
+        return getColumn(column).getDouble(row);
+    }
+
+    /**
+     * @return a new list of the values in a row.
+     */
+    public List<Object> getRecord(int row) {
+        checkRow(row);
+        int numColumns = names.length;
+        ArrayList<Object> record = new ArrayList<Object>(numColumns);
+        byte[] bytes = null;
+        for (int c = 0; c < numColumns; c++) {
+            Column column = columns.get(c);
+            if (column != null) {
+                record.add(column.get(row));
+            } else {
+                if (bytes == null) {
+                    bytes = readRecord(row, new byte[recordLength]);
+                }
+                record.add(decode(bytes, offsets[c], lengths[c], types[c]));
+            }
+        }
+        return record;
+    }
+
+    /**
+     * @return a read-only view of a row, that only decodes the columns that
+     *         are asked for.
+     */
+    public List<Object> getRow(int row) {
+        checkRow(row);
+        return new Row(row);
+    }
+
+    /**
+     * @return a read-only list of the records, creating a new list for a
+     *         record every time it's asked for.
+     */
+    public List<List<Object>> getRecords() {
+        return new Records();
+    }
+
+    /**
+     * Decode all of the columns that haven't been decoded yet.
+     */
+    public void decodeAll() {
+        for (int c = 0; c < names.length; c++) {
+            getColumn(c);
+        }
+    }
+
+    /**
+     * @return true if the column has been decoded.
+     */
+    public boolean isDecoded(int column) {
+        return columns.get(column) != null;
+    }
+
+    protected void checkRow(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + rowCount);
+        }
+    }
+
+    protected Column getColumn(int column) {
+        Column ret = columns.get(column);
+        if (ret == null) {
+            synchronized (this) {
+                ret = columns.get(column);
+                if (ret == null) {
+                    ret = decodeColumn(column);
+                    columns.set(column, ret);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Decode a column from the mapped file.
+     */
+    protected Column decodeColumn(int column) {
+        if (buffer == null) {
+            throw new IllegalStateException("column " + names[column] + " wasn't read");
+        }
+        ByteBuffer buf = buffer.duplicate();
+        int length = lengths[column];
+        byte[] bytes = new byte[length];
+        ColumnBuilder builder = new ColumnBuilder(types[column], length, rowCount);
+        int pos = headerLength + offsets[column];
+        for (int r = 0; r < rowCount; r++, pos += recordLength) {
+            buf.position(pos);
+            buf.get(bytes);
+            builder.add(bytes, 0, length);
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("decoded column " + names[column] + " for " + rowCount + " rows");
+        }
+        return builder.build();
+    }
+
+    protected byte[] readRecord(int row, byte[] bytes) {
+        ByteBuffer buf = buffer.duplicate();
+        buf.position(headerLength + row * recordLength);
+        buf.get(bytes, 0, recordLength);
+        return bytes;
+    }
+
+    /**
+     * Decode one cell the same way a column would.
+     */
+    protected static Object decode(byte[] bytes, int off, int length, byte type) {
+        ColumnBuilder builder = new ColumnBuilder(type, length, 1);
+        builder.add(bytes, off, length);
+        return builder.build().get(0);
+    }
+
+    /**
+     * Builds a store from records as they are read.
+     */
+    public static class Builder {
+        protected final String[] names;
+        protected final byte[] types;
+        protected final int[] lengths;
+        protected final byte[] decimalCounts;
+        protected final ColumnBuilder[] builders;
+        protected int rowCount;
+
+        public Builder(String[] names, byte[] types, int[] lengths, byte[] decimalCounts, int expectedRows) {
+            this.names = names;
+            this.types = types;
+            this.lengths = lengths;
+            this.decimalCounts = decimalCounts;
+            builders = new ColumnBuilder[names.length];
+            for (int c = 0; c < builders.length; c++) {
+                builders[c] = new ColumnBuilder(types[c], lengths[c], expectedRows);
+            }
+        }
+
+        /**
+         * Add a record.
+         *
+         * @param bytes the bytes of the record.
+         * @param offsets the offset of each column in the bytes.
+         */
+        public void addRecord(byte[] bytes, int[] offsets) {
+            for (int c = 0; c < builders.length; c++) {
+                builders[c].add(bytes, offsets[c], lengths[c]);
+            }
+            rowCount++;
+        }
+
+        public DbfColumnStore build() {
+            DbfColumnStore store = new DbfColumnStore(names, types, lengths, decimalCounts, rowCount);
+            for (int c = 0; c < builders.length; c++) {
+                store.columns.set(c, builders[c].build());
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Parses cells into a column. Numeric columns start out as ints and
+     * switch to doubles at the first value that isn't an int. Numeric cells
+     * that are blank or can't be parsed are blank in the column, the other
+     * columns hold trimmed strings.
+     */
+    protected static class ColumnBuilder {
+        protected final byte type;
+        protected final int length;
+        protected final boolean numeric;
+        protected int size;
+
+        protected int[] ints;
+        protected double[] doubles;
+        protected BitSet blanks;
+
+        protected int[] codes;
+        protected HashMap<String, Integer> dictionary;
+        protected ArrayList<String> values;
+
+        protected DecimalFormat df;
+
+        protected ColumnBuilder(byte type, int length, int expectedRows) {
+            this.type = type;
+            this.length = length == -1 ? 255 : length;
+            numeric = DbfTableModel.isNumericalType(type);
+            int capacity = Math.max(expectedRows, 1);
+            if (numeric) {
+                ints = new int[capacity];
+            } else {
+                codes = new int[capacity];
+                dictionary = new HashMap<String, Integer>();
+                values = new ArrayList<String>();
+            }
+        }
+
+        protected void add(byte[] bytes, int off, int len) {
+            int start = off;
+            int end = off + len;
+            while (start < end && (bytes[start] & 0xff) <= ' ') {
+                start++;
+            }
+            while (end > start && (bytes[end - 1] & 0xff) <= ' ') {
+                end--;
+            }
+
+            if (numeric) {
+                addNumber(bytes, start, end);
+            } else {
+                String cell = new String(bytes, start, end - start);
+                try {
+                    cell = (String) DbfTableModel.getObjectForType(cell, type, null, length);
+                } catch (ParseException pe) {
+                    // Doesn't happen for types that aren't numeric.
+                }
+                Integer code = dictionary.get(cell);
+                if (code == null) {
+                    code = Integer.valueOf(values.size());
+                    dictionary.put(cell, code);
+                    values.add(cell);
+                }
+                if (size == codes.length) {
+                    codes = Arrays.copyOf(codes, size * 2);
+                }
+                codes[size++] = code.intValue();
+            }
+        }
+
+        protected void addNumber(byte[] bytes, int start, int end) {
+            if (doubles == null && size == ints.length) {
+                ints = Arrays.copyOf(ints, size * 2);
+            } else if (doubles != null && size == doubles.length) {
+                doubles = Arrays.copyOf(doubles, size * 2);
+            }
+
+            double value = 0;
+            boolean blank = start == end;
+            if (!blank) {
+                value = parse(bytes, start, end);
+                if (Double.isNaN(value) && !isNaNText(bytes, start, end)) {
+                    String cell = new String(bytes, start, end - start);
+                    try {
+                        value = Double.parseDouble(cell);
+                    } catch (NumberFormatException nfe) {
+                        try {
+                            value = getDecimalFormat().parse(cell).doubleValue();
+                        } catch (ParseException pe) {
+                            blank = true;
+                            value = 0;
+                        }
+                    }
+                }
+            }
+
+            if (blank) {
+                if (blanks == null) {
+                    blanks = new BitSet();
+                }
+                blanks.set(size);
+            }
+
+            if (doubles == null) {
+                int intValue = (int) value;
+                if (intValue == value && Double.doubleToRawLongBits(value) != NEGATIVE_ZERO_BITS) {
+                    ints[size++] = intValue;
+                    return;
+                }
+                doubles = new double[ints.length];
+                for (int i = 0; i < size; i++) {
+                    doubles[i] = ints[i];
+                }
+                ints = null;
+            }
+            doubles[size++] = value;
+        }
+
+        protected DecimalFormat getDecimalFormat() {
+            if (df == null) {
+                df = new DecimalFormat();
+                df.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.ENGLISH));
+            }
+            return df;
+        }
+
+        protected Column build() {
+            if (numeric) {
+                String blank = DbfTableModel.appendWhitespaceOrTrim(null, length);
+                if (doubles != null) {
+                    return new DoubleColumn(Arrays.copyOf(doubles, size), blanks, blank);
+                }
+                return new IntColumn(Arrays.copyOf(ints, size), blanks, blank);
+            }
+            return new StringColumn(Arrays.copyOf(codes, size), values.toArray(new String[values.size()]));
+        }
+    }
+
+    protected final static long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0d);
+
+    protected final static double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Parse a plain decimal number without creating a String. Only numbers
+     * with up to 15 digits are parsed, which can be done exactly with one
+     * division, so the result matches Double.parseDouble().
+     *
+     * @return the number, or NaN if it needs to be parsed another way.
+     */
+    protected static double parse(byte[] bytes, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (bytes[i] == '-' || bytes[i] == '+') {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            int b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                if (mantissa != 0 || b != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return Double.NaN;
+            }
+            if (digits > 15) {
+                return Double.NaN;
+            }
+        }
+        int numChars = end - start - (negative || bytes[start] == '+' ? 1 : 0);
+        if (numChars == 0 || (fractionDigits >= 0 && numChars == 1) || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.NaN;
+        }
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+
+    protected static boolean isNaNText(byte[] bytes, int start, int end) {
+        int len = end - start;
+        return len >= 3 && bytes[end - 3] == 'N' && bytes[end - 2] == 'a' && bytes[end - 1] == 'N';
+    }
+
+    /**
+     * A decoded column.
+     */
+    protected abstract static class Column {
+        protected abstract Object get(int row);
+
+        protected double getDouble(int row) {
+            return Double.NaN;
+        }
+    }
+
+    protected static class IntColumn
+            extends Column {
+        protected final int[] values;
+        protected final BitSet blanks;
+        protected final String blank;
+
+        protected IntColumn(int[] values, BitSet blanks, String blank) {
+            this.values = values;
+            this.blanks = blanks;
+            this.blank = blank;
+        }
+
+        protected Object get(int row) {
+            if (blanks != null && blanks.get(row)) {
+                return blank;
+            }
+            return new Double(values[row]);
+        }
+
+        protected double getDouble(int row) {
+            if (blanks != null && blanks.get(row)) {
+                return Double.NaN;
+            }
+            return values[row];
+        }
+    }
+
+    protected static class DoubleColumn
+            extends Column {
+        protected final double[] values;
+        protected final BitSet blanks;
+        protected final String blank;
+
+        protected DoubleColumn(double[] values, BitSet blanks, String blank) {
+            this.values = values;
+            this.blanks = blanks;
+            this.blank = blank;
+        }
+
+        protected Object get(int row) {
+            if (blanks != null && blanks.get(row)) {
+                return blank;
+            }
+            return new Double(values[row]);
+        }
+
+        protected double getDouble(int row) {
+            if (blanks != null && blanks.get(row)) {
+                return Double.NaN;
+            }
+            return values[row];
+        }
+    }
+
+    protected static class StringColumn
+            extends Column {
+        protected final int[] codes;
+        protected final String[] values;
+
+        protected StringColumn(int[] codes, String[] values) {
+            this.codes = codes;
+            this.values = values;
+        }
+
+        protected Object get(int row) {
+            return values[codes[row]];
+        }
+    }
+
+    /**
+     * A row that decodes values when they are asked for.
+     */
+    protected class Row
+            extends AbstractList<Object>
+            implements RandomAccess {
+        protected final int row;
+
+        protected Row(int row) {
+            this.row = row;
+        }
+
+        public Object get(int index) {
+            return getValue(row, index);
+        }
+
+        public int size() {
+            return names.length;
+        }
+    }
+
+    protected class Records
+            extends AbstractList<List<Object>>
+            implements RandomAccess {
+
+        public List<Object> get(int index) {
+            return getRecord(index);
+        }
+
+        public int size() {
+            return rowCount;
+        }
+    }
+}
@@ -161,7 +161,7 @@ public class DbfFile
     }
 
     /**
-     * Reads the data and puts data in an ArrayList of records.
+     * Reads the data into columns, see readData(int, int).
      */
     public void readData()
             throws IOException, FormatException {
@@ -170,7 +170,10 @@ public class DbfFile
 
     /**
      * Read in a set of records from the dbf file, starting at the provided
-     * index and continuing for the provided count.
+     * index and continuing for the provided count. The records are held in a
+     * DbfColumnStore, with the numbers in primitive arrays and the other
+     * values in dictionaries, and only the columns in the column mask are
+     * read. Numbers that can't be parsed are left blank.
      * 
      * @param startingRecordIndex , 0 is the first record index.
      * @param numRecordsToRead
@@ -187,11 +190,42 @@ public class DbfFile
             numRecordsToRead = _rowCount - startingRecordIndex;
         }
 
-        _records = new ArrayList<List<Object>>(numRecordsToRead);
-        for (int r = startingRecordIndex; r <= numRecordsToRead - 1; r++) {
-            List<Object> record = getRecordData(r);
-            _records.add(record);
+        if (bf == null) {
+            throw new IOException("DbfFile not set with valid BinaryFile.");
+        }
+
+        // Offsets of the columns being read, in the record bytes.
+        int[] offsets = new int[_columnCount];
+        int fileColumnCount = _columnMask != null ? _columnMask.length : _columnCount;
+        int offset = 1; // deletion flag
+        int targetColumnIndex = 0;
+        for (int c = 0; c < fileColumnCount; c++) {
+            if (_columnMask == null || _columnMask[c] == Boolean.TRUE) {
+                offsets[targetColumnIndex] = offset;
+                offset += _lengths[targetColumnIndex];
+                targetColumnIndex++;
+            } else {
+                offset += ((Integer) _columnMask[c]).intValue();
+            }
         }
+
+        DbfColumnStore.Builder builder = new DbfColumnStore.Builder(_names, _types, _lengths, _decimalCounts, numRecordsToRead);
+        byte[] record = new byte[Math.max(_recordLength, offset)];
+        bf.seek(_headerLength + (long) startingRecordIndex * _recordLength);
+        for (int r = 0; r < numRecordsToRead; r++) {
+            int numRead = 0;
+            while (numRead < _recordLength) {
+                int count = bf.read(record, numRead, _recordLength - numRead);
+                if (count <= 0) {
+                    throw new EOFException("DbfFile: ran out of records at " + (startingRecordIndex + r));
+                }
+                numRead += count;
+            }
+            builder.addRecord(record, offsets);
+        }
+
+        columnStore = builder.build();
+        _records = columnStore.getRecords();
     }
 
     /**
@@ -253,7 +287,10 @@ public class DbfFile
      * 
      */
     public void clearRecords() {
-        if (_records != null) {
+        if (columnStore != null) {
+            columnStore = null;
+            _records = new ArrayList<List<Object>>();
+        } else if (_records != null) {
             _records.clear();
         }
     }
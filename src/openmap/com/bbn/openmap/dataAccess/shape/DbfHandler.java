@@ -24,6 +24,7 @@
 
 package com.bbn.openmap.dataAccess.shape;
 
+import java.io.File;
 import java.io.IOException;
 import java.text.DecimalFormatSymbols;
 import java.util.Iterator;
@@ -106,6 +107,11 @@ public class DbfHandler
         extends OMComponent {
 
     protected DbfFile dbf;
+    /**
+     * The mapped dbf file, only the columns the rules look at get decoded.
+     */
+    protected DbfColumnStore columnStore;
+    protected boolean columnStoreUnavailable = false;
     protected List<Rule> rules;
     protected DrawingAttributes defaultDA;
 
@@ -206,6 +212,10 @@ public class DbfHandler
 
     public void setDbf(DbfFile dbf) {
         this.dbf = dbf;
+        synchronized (this) {
+            columnStore = null;
+            columnStoreUnavailable = false;
+        }
     }
 
     public DrawingAttributes getDefaultDA() {
@@ -256,7 +266,8 @@ public class DbfHandler
 
     /**
      * Tells the DbfFile to close the file pointer to the data. Will reopen if
-     * needed.
+     * needed. The decoded columns are kept, the mapped file doesn't hold a
+     * file pointer.
      */
     public void close() {
         if (dbf != null) {
@@ -314,7 +325,7 @@ public class DbfHandler
         }
 
         try {
-            List record = dbf.getRecordData(index);
+            List record = getRecord(index);
             for (Iterator<Rule> it = getRuleIterator(); it.hasNext();) {
                 Rule rule = (Rule) it.next();
 
@@ -370,6 +381,47 @@ public class DbfHandler
 
     }
 
+    /**
+     * Get the record for a graphic. If the dbf file is a local file, it's
+     * mapped and the record's values are taken from its columns, which are
+     * decoded the first time a rule asks for one of their values. Otherwise,
+     * the record is read from the file.
+     * 
+     * @param index the index of the record in the dbf file.
+     * @return List of record values.
+     * @throws IOException
+     * @throws FormatException
+     */
+    protected List<Object> getRecord(int index)
+            throws IOException, FormatException {
+        DbfColumnStore store = getColumnStore();
+        if (store != null && index >= 0 && index < store.getRowCount()) {
+            return store.getRow(index);
+        }
+        return dbf.getRecordData(index);
+    }
+
+    /**
+     * @return the mapped dbf file, or null if it can't be mapped.
+     */
+    protected synchronized DbfColumnStore getColumnStore() {
+        if (columnStore == null && !columnStoreUnavailable && dbf != null && dbf._columnMask == null) {
+            BinaryFile bf = dbf.getBinaryFile();
+            File file = bf != null && bf.getName() != null ? new File(bf.getName()) : null;
+            if (file != null && file.isFile()) {
+                try {
+                    columnStore = DbfColumnStore.map(file);
+                } catch (Exception e) {
+                    if (Debug.debugging("shape")) {
+                        Debug.error("DbfHandler: couldn't map " + file + ", " + e.getMessage());
+                    }
+                }
+            }
+            columnStoreUnavailable = columnStore == null;
+        }
+        return columnStore;
+    }
+
     /**
      * Returns a String of concatenated record values.
      * 
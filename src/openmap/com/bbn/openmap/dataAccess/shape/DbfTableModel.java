@@ -62,6 +62,7 @@ import com.bbn.openmap.Environment;
 import com.bbn.openmap.I18n;
 import com.bbn.openmap.dataAccess.shape.input.DbfInputStream;
 import com.bbn.openmap.dataAccess.shape.output.DbfOutputStream;
+import com.bbn.openmap.io.FormatException;
 import com.bbn.openmap.omGraphics.OMAction;
 import com.bbn.openmap.omGraphics.OMGraphic;
 import com.bbn.openmap.omGraphics.OMGraphicList;
@@ -216,6 +217,12 @@ public class DbfTableModel
     /** Class scope reference to a list of data formatted by row */
     protected List<List<Object>> _records = null;
 
+    /**
+     * Column storage for the records, if they were read that way. _records is
+     * a read-only view of it, copied into lists before any changes are made.
+     */
+    protected DbfColumnStore columnStore = null;
+
     /**
      * Class scope variable for the number of columns that exist in the model
      */
@@ -267,6 +274,53 @@ public class DbfTableModel
         _types = is.getTypes();
         _records = is.getRecords();
         _columnCount = is.getColumnCount();
+        columnStore = is.getColumnStore();
+    }
+
+    /**
+     * Creates a DbfTableModel for records held in columns.
+     * 
+     * @param store the columns.
+     */
+    public DbfTableModel(DbfColumnStore store) {
+        this();
+        setColumnStore(store);
+    }
+
+    /**
+     * Use the contents of a DbfColumnStore for the model, replacing its
+     * columns and records.
+     */
+    protected void setColumnStore(DbfColumnStore store) {
+        _lengths = store.getLengths();
+        _decimalCounts = store.getDecimalCounts();
+        _names = store.getNames();
+        _types = store.getTypes();
+        _columnCount = store.getColumnCount();
+        _records = store.getRecords();
+        columnStore = store;
+    }
+
+    /**
+     * @return the column storage for the records, or null if the records are
+     *         held as lists.
+     */
+    public DbfColumnStore getColumnStore() {
+        return columnStore;
+    }
+
+    /**
+     * Get the records to make changes to them. If they are held in columns,
+     * they are copied into lists first.
+     * 
+     * @return _records
+     */
+    protected List<List<Object>> getModifiableRecords() {
+        if (columnStore != null) {
+            _records = new ArrayList<List<Object>>(_records);
+            columnStore = null;
+        }
+        return _records;
     }
 
     /**
@@ -281,14 +335,14 @@ public class DbfTableModel
         if (columns.size() != _columnCount) {
             throw new RuntimeException("DbfTableModel: Mismatched Column Count");
         }
-        _records.add(columns);
+        getModifiableRecords().add(columns);
     }
 
     /**
      * Remove the record at the index.
      */
     public List<Object> remove(int index) {
-        return _records.remove(index);
+        return getModifiableRecords().remove(index);
     }
 
     public void addBlankRecord() {
@@ -333,7 +387,8 @@ public class DbfTableModel
      * Shape file records start their indexes at 0. This is the number attribute
      * stored in the EsriGraphic. Note: The Shape Specification and Shape files
      * contain indexes starting at 0. Make sure you don't get bit by an
-     * off-by-one situation.
+     * off-by-one situation. If the records are held in columns, the list is a
+     * new copy of the record.
      * 
      * @param recordnumber The record number
      * @return An ArrayList for the given record number
@@ -449,11 +504,28 @@ public class DbfTableModel
      * @return Object A value for a specific column and row index
      */
     public Object getValueAt(int row, int column) {
+        if (columnStore != null) {
+            return columnStore.getValue(row, column);
+        }
         List<Object> cells = _records.get(row);
         Object cell = cells.get(column);
         return cell;
     }
 
+    /**
+     * Retrieves a numeric value for a specific column and row index, without
+     * creating an object for it if the records are held in columns.
+     * 
+     * @return the value, or NaN if the cell isn't a number.
+     */
+    public double getDoubleAt(int row, int column) {
+        if (columnStore != null) {
+            return columnStore.getDouble(row, column);
+        }
+        Object cell = getValueAt(row, column);
+        return cell instanceof Number ? ((Number) cell).doubleValue() : Double.NaN;
+    }
+
     /**
      * Sets the column name for the passed-in field index
      * 
@@ -497,7 +569,7 @@ public class DbfTableModel
     }
 
     public void setValueAt(Object object, int row, int column) {
-        List<Object> columns = _records.get(row);
+        List<Object> columns = getModifiableRecords().get(row);
         columns.set(column, object);
     }
 
@@ -758,7 +830,7 @@ public class DbfTableModel
      * of each record.
      */
     protected void deleteColumn(int columnIndex) {
-        Iterator<List<Object>> rows = getRecords();
+        Iterator<List<Object>> rows = getModifiableRecords().iterator();
         while (rows.hasNext()) {
             rows.next().remove(columnIndex);
         }
@@ -807,7 +879,7 @@ public class DbfTableModel
      */
     protected void addColumn(List<Object> recordColumn) {
 
-        Iterator<List<Object>> rows = getRecords();
+        Iterator<List<Object>> rows = getModifiableRecords().iterator();
         while (rows.hasNext()) {
             rows.next().add("");
         }
@@ -886,10 +958,43 @@ public class DbfTableModel
 
     public static DbfTableModel read(URL dbf)
             throws Exception {
+        return read(dbf, (String[]) null);
+    }
+
+    /**
+     * Read only some of the columns of a dbf file, the others are skipped.
+     * 
+     * @param dbf The url of the file to read.
+     * @param columnNames the names of the columns to read, in any case. If
+     *        null or empty, all of the columns are read.
+     * @return DbfTableModel
+     * @throws Exception
+     */
+    public static DbfTableModel read(URL dbf, String... columnNames)
+            throws Exception {
         InputStream is = dbf.openStream();
-        DbfTableModel model = new DbfTableModel(new DbfInputStream(is));
-        is.close();
-        return model;
+        try {
+            return new DbfTableModel(new DbfInputStream(is, columnNames));
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Map a dbf file instead of reading it. Columns are decoded when they are
+     * first used, so the columns that are never looked at are never decoded.
+     * The file stays mapped until the model is garbage collected.
+     * 
+     * @param dbf the dbf file.
+     * @param columnNames the names of the columns to provide, in any case. If
+     *        null or empty, all of the columns are provided.
+     * @return DbfTableModel
+     * @throws IOException
+     * @throws FormatException
+     */
+    public static DbfTableModel map(File dbf, String... columnNames)
+            throws IOException, FormatException {
+        return new DbfTableModel(DbfColumnStore.map(dbf, columnNames));
     }
 
     public static String write(DbfTableModel model, String location)
@@ -1207,7 +1312,7 @@ public class DbfTableModel
 
         list.doAction(graphic, action);
 
-        _records.clear();
+        getModifiableRecords().clear();
 
         indexCount = 0;
         for (OMGraphic omg : list) {
@@ -1200,10 +1200,10 @@ public class EsriGraphicFactory implements ShapeConstants {
         float[] coords = new float[isPolygon ? length * 2 + 2 : length * 2];
         int j = 0;
 
-        // Create the llp here and reuse it for coordinate transformations.
-        LatLonPoint llp = null;
+        // The points are converted together, at double precision.
+        double[] transformed = null;
         if (dataTrans != null) {
-            llp = new LatLonPoint.Double();
+            transformed = new double[length * 2];
         }
 
         for (j = 0; j < length; j++) {
@@ -1211,17 +1211,21 @@ public class EsriGraphicFactory implements ShapeConstants {
             double y = shpFile.readDouble();
             bitTracker.addRead(2 * 8);
 
-            if (dataTrans != null) {
-                llp = dataTrans.inverse(x, y, llp);
-                x = llp.getRadLon();
-                y = llp.getRadLat();
+            if (transformed != null) {
+                transformed[j * 2] = x;
+                transformed[j * 2 + 1] = y;
             } else {
-                x = ProjMath.degToRad(x);
-                y = ProjMath.degToRad(y);
+                coords[j * 2] = (float) ProjMath.degToRad(y);
+                coords[j * 2 + 1] = (float) ProjMath.degToRad(x);
             }
+        }
 
-            coords[j * 2] = (float) y;
-            coords[j * 2 + 1] = (float) x;
+        if (transformed != null) {
+            // Convert all of the points at once.
+            dataTrans.inverse(transformed, 0, transformed, 0, length);
+            for (int i = 0; i < length * 2; i++) {
+                coords[i] = (float) ProjMath.degToRad(transformed[i]);
+            }
         }
 
         if (isPolygon) {
@@ -1239,10 +1243,10 @@ public class EsriGraphicFactory implements ShapeConstants {
         float[] coords = new float[isPolygon ? length * 2 + 2 : length * 2];
         int j = 0;
 
-        // Create the llp here and reuse it for coordinate transformations.
-        LatLonPoint llp = null;
+        // The points are converted together, at double precision.
+        double[] transformed = null;
         if (dataTrans != null) {
-            llp = new LatLonPoint.Double();
+            transformed = new double[length * 2];
         }
 
         for (j = 0; j < length; j++) {
@@ -1250,17 +1254,21 @@ public class EsriGraphicFactory implements ShapeConstants {
             double y = iStream.readLEDouble();
             bitTracker.addRead(2 * 8);
 
-            if (dataTrans != null) {
-                llp = dataTrans.inverse(x, y, llp);
-                x = llp.getRadLon();
-                y = llp.getRadLat();
+            if (transformed != null) {
+                transformed[j * 2] = x;
+                transformed[j * 2 + 1] = y;
             } else {
-                x = ProjMath.degToRad(x);
-                y = ProjMath.degToRad(y);
+                coords[j * 2] = (float) ProjMath.degToRad(y);
+                coords[j * 2 + 1] = (float) ProjMath.degToRad(x);
             }
+        }
 
-            coords[j * 2] = (float) y;
-            coords[j * 2 + 1] = (float) x;
+        if (transformed != null) {
+            // Convert all of the points at once.
+            dataTrans.inverse(transformed, 0, transformed, 0, length);
+            for (int i = 0; i < length * 2; i++) {
+                coords[i] = (float) ProjMath.degToRad(transformed[i]);
+            }
         }
 
         if (isPolygon) {
@@ -1277,28 +1285,27 @@ public class EsriGraphicFactory implements ShapeConstants {
         double[] coords = new double[isPolygon ? length * 2 + 2 : length * 2];
         int j = 0;
 
-        // Create the llp here and reuse it for coordinate transformations.
-        LatLonPoint llp = null;
-        if (dataTrans != null) {
-            llp = new LatLonPoint.Double();
-        }
-
         for (j = 0; j < length; j++) {
             double x = shpFile.readDouble();
             double y = shpFile.readDouble();
             bitTracker.addRead(2 * 8);
 
             if (dataTrans != null) {
-                llp = dataTrans.inverse(x, y, llp);
-                x = llp.getRadLon();
-                y = llp.getRadLat();
+                coords[j * 2] = x;
+                coords[j * 2 + 1] = y;
             } else {
-                x = ProjMath.degToRad(x);
-                y = ProjMath.degToRad(y);
+                coords[j * 2] = ProjMath.degToRad(y);
+                coords[j * 2 + 1] = ProjMath.degToRad(x);
             }
+        }
 
-            coords[j * 2] = y;
-            coords[j * 2 + 1] = x;
+        if (dataTrans != null) {
+            // Convert all of the points at once, they're x, y pairs until
+            // now.
+            dataTrans.inverse(coords, 0, coords, 0, length);
+            for (int i = 0; i < length * 2; i++) {
+                coords[i] = ProjMath.degToRad(coords[i]);
+            }
         }
 
         if (isPolygon) {
@@ -1315,28 +1322,27 @@ public class EsriGraphicFactory implements ShapeConstants {
         double[] coords = new double[isPolygon ? length * 2 + 2 : length * 2];
         int j = 0;
 
-        // Create the llp here and reuse it for coordinate transformations.
-        LatLonPoint llp = null;
-        if (dataTrans != null) {
-            llp = new LatLonPoint.Double();
-        }
-
         for (j = 0; j < length; j++) {
             double x = iStream.readLEDouble();
             double y = iStream.readLEDouble();
             bitTracker.addRead(2 * 8);
 
             if (dataTrans != null) {
-                llp = dataTrans.inverse(x, y, llp);
-                x = llp.getRadLon();
-                y = llp.getRadLat();
+                coords[j * 2] = x;
+                coords[j * 2 + 1] = y;
             } else {
-                x = ProjMath.degToRad(x);
-                y = ProjMath.degToRad(y);
+                coords[j * 2] = ProjMath.degToRad(y);
+                coords[j * 2 + 1] = ProjMath.degToRad(x);
             }
+        }
 
-            coords[j * 2] = y;
-            coords[j * 2 + 1] = x;
+        if (dataTrans != null) {
+            // Convert all of the points at once, they're x, y pairs until
+            // now.
+            dataTrans.inverse(coords, 0, coords, 0, length);
+            for (int i = 0; i < length * 2; i++) {
+                coords[i] = ProjMath.degToRad(coords[i]);
+            }
         }
 
         if (isPolygon) {
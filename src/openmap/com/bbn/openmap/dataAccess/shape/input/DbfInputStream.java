@@ -25,15 +25,9 @@ package com.bbn.openmap.dataAccess.shape.input;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.text.ParseException;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 
-import com.bbn.openmap.dataAccess.shape.DbfTableModel;
-import com.bbn.openmap.util.Debug;
+import com.bbn.openmap.dataAccess.shape.DbfColumnStore;
 
 /**
  * Reads the contents of a DBF file and provides access to what it has read
@@ -79,11 +73,28 @@ public class DbfInputStream {
    /** The record length */
    // private short _recordLength = -1; // Unused
    /**
-    * An ArrayList with each element representing a record, which itself is an
-    * ArrayList
+    * A list with each element representing a record, which itself is a list,
+    * made from the column store
     */
    private List<List<Object>> _records = null;
 
+   /** The columns holding the records */
+   private DbfColumnStore _columnStore = null;
+
+   /**
+    * The names of the columns to read, the others are skipped. All columns are
+    * read if null.
+    */
+   private String[] _columnNamesToRead = null;
+
+   /**
+    * The lengths of all the columns in the file, including the skipped ones.
+    */
+   private int[] _fileLengths = null;
+
+   /** Which of the columns in the file are read */
+   private boolean[] _columnMask = null;
+
    /**
     * Creates a LittleEndianInputStream then uses it to read the contents of the
     * DBF file
@@ -92,8 +103,22 @@ public class DbfInputStream {
     */
    public DbfInputStream(InputStream is)
          throws Exception {
+      this(is, (String[]) null);
+   }
+
+   /**
+    * Creates a LittleEndianInputStream then uses it to read some of the columns
+    * of the DBF file.
+    * 
+    * @param is An InputStream used to create a LittleEndianInputStream
+    * @param columnNames the names of the columns to read, in any case. If null
+    *        or empty, all of the columns are read.
+    */
+   public DbfInputStream(InputStream is, String... columnNames)
+         throws Exception {
       BufferedInputStream bis = new BufferedInputStream(is);
       _leis = new LittleEndianInputStream(bis);
+      _columnNamesToRead = columnNames;
       readHeader();
       readFieldDescripters();
       readData();
@@ -136,14 +161,23 @@ public class DbfInputStream {
    }
 
    /**
-    * Returns an ArrayList of records
+    * Returns a read-only list of records
     * 
-    * @return An ArrayList of records
+    * @return A list of records
     */
    public List<List<Object>> getRecords() {
       return _records;
    }
 
+   /**
+    * Returns the columns holding the records
+    * 
+    * @return DbfColumnStore
+    */
+   public DbfColumnStore getColumnStore() {
+      return _columnStore;
+   }
+
    /**
     * Returns the number of columns
     * 
@@ -206,45 +240,71 @@ public class DbfInputStream {
          _decimalCounts[n] = _leis.readByte();
          _leis.skipBytes(14);
       }
+
+      _fileLengths = _lengths;
+      _columnMask = new boolean[_columnCount];
+      int numColumns = 0;
+      for (int n = 0; n < _columnCount; n++) {
+         _columnMask[n] = DbfColumnStore.isRequested(_columnNames[n], _columnNamesToRead);
+         if (_columnMask[n]) {
+            numColumns++;
+         }
+      }
+
+      if (numColumns < _columnCount) {
+         String[] columnNames = new String[numColumns];
+         byte[] types = new byte[numColumns];
+         int[] lengths = new int[numColumns];
+         byte[] decimalCounts = new byte[numColumns];
+         int c = 0;
+         for (int n = 0; n < _columnCount; n++) {
+            if (_columnMask[n]) {
+               columnNames[c] = _columnNames[n];
+               types[c] = _types[n];
+               lengths[c] = _lengths[n];
+               decimalCounts[c] = _decimalCounts[n];
+               c++;
+            }
+         }
+         _columnNames = columnNames;
+         _types = types;
+         _lengths = lengths;
+         _decimalCounts = decimalCounts;
+         _columnCount = numColumns;
+      }
    }
 
    /**
-    * Reads the data and places data in a class scope ArrayList of records
+    * Reads the data into columns, and provides a read-only list of records
+    * that are made from them when they are asked for. Numbers that can't be
+    * parsed are left blank.
     */
    public void readData()
          throws IOException {
 
-      // Thanks to Bart Jourquin for the heads-up that some locales
-      // may try to read this data incorrectly. DBF files have to
-      // have '.' as decimal markers, not ','
-      DecimalFormat df = new DecimalFormat();
-      DecimalFormatSymbols dfs = new DecimalFormatSymbols(Locale.ENGLISH);
-      df.setDecimalFormatSymbols(dfs);
+      // The column offsets in the record bytes, which don't include the
+      // deletion flag.
+      int recordLength = 0;
+      int[] offsets = new int[_columnCount];
+      int c = 0;
+      for (int n = 0; n < _fileLengths.length; n++) {
+         if (_columnMask[n]) {
+            offsets[c++] = recordLength;
+         }
+         recordLength += _fileLengths[n];
+      }
+
+      DbfColumnStore.Builder builder = new DbfColumnStore.Builder(_columnNames, _types, _lengths, _decimalCounts, _rowCount);
+      byte[] record = new byte[recordLength];
 
       _leis.skipBytes(2);
-      _records = new ArrayList<List<Object>>(_rowCount);
       for (int r = 0; r <= _rowCount - 1; r++) {
-         ArrayList<Object> record = new ArrayList<Object>(_columnCount);
-         for (int c = 0; c <= _columnCount - 1; c++) {
-            int length = _lengths[c];
-            if (length == -1)
-               length = 255;
-            int type = _types[c];
-            int numDecSpaces = _decimalCounts[c];
-            df.setMaximumFractionDigits(numDecSpaces);
-            String cell = _leis.readString(length);
-            try {
-               record.add(c, DbfTableModel.getObjectForType(cell, type, df, length));
-            } catch (ParseException pe) {
-               if (Debug.debugging("shape")) {
-                  Debug.error("DbfInputStream:  error parsing column " + c + ", row " + r + ", expected number and got " + cell);
-               }
-               record.add(c, DbfTableModel.appendWhitespaceOrTrim(null, length));
-            }
-         }
-         _records.add(record);
+         _leis.readFully(record);
+         builder.addRecord(record, offsets);
          _leis.skipBytes(1);
       }
+      _columnStore = builder.build();
+      _records = _columnStore.getRecords();
    }
 
 }
\ No newline at end of file
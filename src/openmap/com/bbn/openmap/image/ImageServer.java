@@ -33,11 +33,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -76,10 +82,16 @@ import com.bbn.openmap.util.PropUtils;
  * layer array contents and the request layer mask at the time the request
  * processing is started, not when it is submitted.
  * <P>
- * Right now, the ImageServer is single threaded - processing requests one after
- * another. The request setup was written to support multi-threaded processing,
- * though, where each image could be generated in it's own thread. That code is
- * not written - maybe someday.
+ * Layers aren't written to render more than one map at a time, so by default
+ * images created at the same time share the one set of layers and take their
+ * chances. If the renderPoolSize property is more than 1, the ImageServer
+ * creates that many independent copies of its layers from its properties, and
+ * each image borrows one set of layers while it's being rendered, so that many
+ * images can be rendered at once. Requests wait for a set of layers to free up,
+ * and if more than renderQueueSize of them are already waiting, the image isn't
+ * created. The layers are handed back before the image is encoded, so encoding
+ * doesn't hold up rendering. The time spent waiting, rendering and encoding is
+ * available from getRenderStatistics().
  * <P>
  * <code><pre>
  *                 
@@ -99,6 +111,11 @@ import com.bbn.openmap.util.PropUtils;
  *                    formatter1.class=&lt;classname of formatter 1&gt;
  *                    # Add other formatter1 properties
  *                    formatter2.class=&lt;classname of formatter 2&gt;
+ *                    # Optional, number of copies of the layers for rendering
+ *                    # images at the same time (default 1, no copies)
+ *                    imageServer.renderPoolSize=4
+ *                    # Optional, number of requests that can wait for layers
+ *                    imageServer.renderQueueSize=50
  *                    
  *                   
  *                  
@@ -148,6 +165,21 @@ public class ImageServer
      */
     public static final String BackgroundProperty = "background";
 
+    /**
+     * Property for the number of sets of layers used to render images at the
+     * same time.
+     */
+    public static final String RenderPoolSizeProperty = "renderPoolSize";
+
+    /**
+     * Property for the number of image requests that can wait for a set of
+     * layers when they are all in use.
+     */
+    public static final String RenderQueueSizeProperty = "renderQueueSize";
+
+    /** The default number of image requests waiting for layers. */
+    public static final int DEFAULT_RENDER_QUEUE_SIZE = 50;
+
     /** Flag to do graphics and text anti-aliasing on the map image. */
     protected boolean doAntiAliasing = false;
 
@@ -165,6 +197,30 @@ public class ImageServer
 
     private boolean transparent = true;
 
+    /** The number of sets of layers used to render images. */
+    protected int renderPoolSize = 1;
+
+    /** The number of image requests that can wait for layers. */
+    protected int renderQueueSize = DEFAULT_RENDER_QUEUE_SIZE;
+
+    /**
+     * The sets of layers handed out to render images, created when needed if
+     * renderPoolSize is more than 1.
+     */
+    protected LayerStackPool layerStackPool;
+
+    /**
+     * The properties the layers were created from, used to create the copies
+     * of the layers for the pool.
+     */
+    protected Properties layerProperties;
+
+    protected final AtomicLong imageCount = new AtomicLong();
+    protected final AtomicLong rejectedImageCount = new AtomicLong();
+    protected final AtomicLong waitNanos = new AtomicLong();
+    protected final AtomicLong renderNanos = new AtomicLong();
+    protected final AtomicLong encodeNanos = new AtomicLong();
+
     /**
      * Empty constructor that expects to be configured later.
      */
@@ -241,6 +297,8 @@ public class ImageServer
         } else {
             layers = newLayers;
         }
+        // The copies are of the old layers.
+        layerStackPool = null;
     }
 
     /**
@@ -352,21 +410,22 @@ public class ImageServer
             return new byte[0];
         }
 
-        ImageFormatter imageFormatter = formatter.makeClone();
-        java.awt.Graphics graphics = createGraphics(imageFormatter, proj.getWidth(), proj.getHeight());
-
-        if (graphics == null) {
-            return new byte[0];
-        }
-
-        ((Proj) proj).drawBackground((Graphics2D) graphics, background);
+        return createImageFromLayers(proj, scaledWidth, scaledHeight, getLayersForNames(showLayers), background);
+    }
 
-        if (showLayers != null) {
-            int size = showLayers.size();
-            for (int j = size - 1; j >= 0; j--) {
-                for (int i = layers.length - 1; i >= 0; i--) {
-                    String layerName = (String) showLayers.get(j);
-                    Layer layer = layers[i];
+    /**
+     * Find the layers matching a list of layer marker names. The returned list
+     * is in the order that createImageFromLayers expects, so the layers are
+     * painted in the same order they would be for the names.
+     * 
+     * @param showLayers Layer marker names, may be null.
+     * @return List of Layers, empty if nothing matches.
+     */
+    protected List<Layer> getLayersForNames(List<String> showLayers) {
+        List<Layer> ret = new ArrayList<Layer>();
+        if (showLayers != null && layers != null) {
+            for (String layerName : showLayers) {
+                for (Layer layer : layers) {
                     String prefix = layer.getPropertyPrefix();
                     if (prefix == null) {
                         // Just in case the PlugInLayer prefix didn't get set to
@@ -378,20 +437,12 @@ public class ImageServer
                     }
 
                     if (layerName.equals(prefix)) {
-                        layer.renderDataForProjection(proj, graphics);
-                        if (logger.isLoggable(Level.FINE)) {
-                            logger.fine("image request adding layer graphics from : " + layer.getName());
-                        }
+                        ret.add(layer);
                     }
                 }
             }
-        } else if (logger.isLoggable(Level.FINE)) {
-            logger.fine("no layers available for image");
         }
-
-        byte[] formattedImage = getFormattedImage(imageFormatter, scaledWidth, scaledHeight);
-        graphics.dispose();
-        return formattedImage;
+        return ret;
     }
 
     /**
@@ -410,6 +461,28 @@ public class ImageServer
 
         logger.fine("using the new ProjectionPainter interface!  createImage with layer list.");
 
+        return renderImage(proj, scaledWidth, scaledHeight, layers, background, getFormatter());
+    }
+
+    /**
+     * Render the layers into an image and format it. If there's a pool of
+     * layers, the layers are swapped for their copies in a set borrowed from
+     * the pool while the image is rendered.
+     * 
+     * @param proj projection of map.
+     * @param scaledWidth scaled pixel width of final image. If you don't want
+     *        it scaled, use -1.
+     * @param scaledHeight scaled pixel height of final image. If you don't want
+     *        it scaled, use -1.
+     * @param layers A set of layers to paint into the image.
+     * @param background the Paint to be used for the background of this image.
+     * @param formatter the ImageFormatter to use for the image, it will be
+     *        cloned.
+     * @return a byte[] representing the formatted image.
+     */
+    protected byte[] renderImage(Projection proj, int scaledWidth, int scaledHeight, List<Layer> layers, Paint background,
+                                 ImageFormatter formatter) {
+
         if (formatter == null) {
             logger.warning("no formatter set! Can't create image.");
             return new byte[0];
@@ -422,8 +495,59 @@ public class ImageServer
             return new byte[0];
         }
 
-        ((Proj) proj).drawBackground((Graphics2D) graphics, background);
+        long startTime = System.nanoTime();
+        long renderStartTime = startTime;
+        LayerStackPool pool = getLayerStackPool();
+        Layer[] stack = null;
+
+        try {
+            if (pool != null) {
+                stack = pool.borrow();
+                if (stack == null) {
+                    rejectedImageCount.incrementAndGet();
+                    logger.warning("too many image requests waiting for layers, can't create image");
+                    return new byte[0];
+                }
+                layers = pool.swap(layers, stack);
+                renderStartTime = System.nanoTime();
+            }
+
+            ((Proj) proj).drawBackground((Graphics2D) graphics, background);
+            renderLayers(proj, graphics, layers);
+        } finally {
+            graphics.dispose();
+            if (stack != null) {
+                pool.release(stack);
+            }
+        }
+
+        long encodeStartTime = System.nanoTime();
+        byte[] formattedImage = getFormattedImage(imageFormatter, scaledWidth, scaledHeight);
+        long endTime = System.nanoTime();
+
+        imageCount.incrementAndGet();
+        waitNanos.addAndGet(renderStartTime - startTime);
+        renderNanos.addAndGet(encodeStartTime - renderStartTime);
+        encodeNanos.addAndGet(endTime - encodeStartTime);
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("image " + proj.getWidth() + "x" + proj.getHeight() + ": waited "
+                    + (renderStartTime - startTime) / 1000000 + " ms, rendered "
+                    + (encodeStartTime - renderStartTime) / 1000000 + " ms, encoded "
+                    + (endTime - encodeStartTime) / 1000000 + " ms");
+        }
+
+        return formattedImage;
+    }
 
+    /**
+     * Paint the layers into a Graphics, last layer in the list first.
+     * 
+     * @param proj projection of map.
+     * @param graphics the Graphics to paint into.
+     * @param layers A set of layers to paint into the image.
+     */
+    protected void renderLayers(Projection proj, Graphics graphics, List<Layer> layers) {
         if (layers != null && !layers.isEmpty()) {
             for (int i = layers.size() - 1; i >= 0; i--) {
                 Layer layer = layers.get(i);
@@ -440,10 +564,6 @@ public class ImageServer
         } else if (logger.isLoggable(Level.FINE)) {
             logger.fine("no layers available for image");
         }
-
-        byte[] formattedImage = getFormattedImage(imageFormatter, scaledWidth, scaledHeight);
-        graphics.dispose();
-        return formattedImage;
     }
 
     /**
@@ -507,48 +627,15 @@ public class ImageServer
 
         logger.fine("using the new ProjectionPainter interface!  createImage with layer mask.");
 
-        if (formatter == null) {
-            logger.warning("no formatter set! Can't create image.");
-            return new byte[0];
-        }
-
-        ImageFormatter imageFormatter = formatter.makeClone();
-
-        Graphics graphics = createGraphics(imageFormatter, proj.getWidth(), proj.getHeight());
-
-        if (graphics == null) {
-            return new byte[0];
-        }
-
-        ((Proj) proj).drawBackground((Graphics2D) graphics, background);
-
-        if (logger.isLoggable(Level.FINE)) {
-            logger.fine("considering " + layers.length + " for image...");
-        }
-
-        if (layers != null) {
-            for (int i = layers.length - 1; i >= 0; i--) {
-                if ((includedLayerMask & (0x00000001 << i)) != 0) {
-                    if (logger.isLoggable(Level.FINE)) {
-                        logger.fine("image request adding layer graphics from : " + layers[i].getName());
-                    }
-
-                    layers[i].renderDataForProjection(proj, graphics);
-                } else {
-                    if (logger.isLoggable(Level.FINE)) {
-                        logger.fine("skipping layer graphics from : " + layers[i].getName());
-                    }
-                }
-            }
-        } else {
-            if (logger.isLoggable(Level.FINE)) {
-                logger.fine("no layers available");
-            }
+        Layer[] maskedLayers = getMaskedLayers(includedLayerMask);
+        List<Layer> layerList = new ArrayList<Layer>();
+        if (maskedLayers != null) {
+            layerList.addAll(Arrays.asList(maskedLayers));
+        } else if (logger.isLoggable(Level.FINE)) {
+            logger.fine("no layers available");
         }
 
-        byte[] formattedImage = getFormattedImage(imageFormatter, scaledWidth, scaledHeight);
-        graphics.dispose();
-        return formattedImage;
+        return renderImage(proj, scaledWidth, scaledHeight, layerList, background, getFormatter());
     }
 
     /**
@@ -635,8 +722,12 @@ public class ImageServer
         prefix = PropUtils.getScopedPropertyPrefix(prefix);
 
         layers = getLayers(props, instantiatedLayers);
+        layerProperties = props;
+        layerStackPool = null;
         formatter = getFormatters(props);
         doAntiAliasing = PropUtils.booleanFromProperties(props, prefix + AntiAliasingProperty, false);
+        renderPoolSize = PropUtils.intFromProperties(props, prefix + RenderPoolSizeProperty, renderPoolSize);
+        renderQueueSize = PropUtils.intFromProperties(props, prefix + RenderQueueSizeProperty, renderQueueSize);
 
         background = getBackground(props, prefix + BackgroundProperty);
     }
@@ -724,6 +815,8 @@ public class ImageServer
         props.put(prefix + ImageFormattersProperty, buf.toString().trim());
 
         props.put(prefix + AntiAliasingProperty, Boolean.toString(doAntiAliasing));
+        props.put(prefix + RenderPoolSizeProperty, Integer.toString(renderPoolSize));
+        props.put(prefix + RenderQueueSizeProperty, Integer.toString(renderQueueSize));
 
         if (background instanceof Color) {
             String colorString = Integer.toHexString(((Color) background).getRGB());
@@ -744,6 +837,8 @@ public class ImageServer
         list.put(ImageServerLayersProperty, "A list of marker names (space-separated) for layer definitions");
         list.put(ImageFormattersProperty, "A list of marker names (space-separated) for ImageFormatter definitions");
         list.put(AntiAliasingProperty, "Whether to use anti-aliasing for the image");
+        list.put(RenderPoolSizeProperty, "The number of copies of the layers used to render images at the same time");
+        list.put(RenderQueueSizeProperty, "The number of image requests that can wait for layers to render with");
         return list;
     }
 
@@ -1207,6 +1302,164 @@ public class ImageServer
         return transparent;
     }
 
+    /**
+     * Get the pool of layers used to render images, creating it if needed.
+     * 
+     * @return LayerStackPool, or null if images are rendered with the
+     *         ImageServer layers directly.
+     */
+    protected synchronized LayerStackPool getLayerStackPool() {
+        if (renderPoolSize <= 1 || layers == null) {
+            return null;
+        }
+
+        if (layerStackPool == null) {
+            List<Layer[]> stacks = new ArrayList<Layer[]>(renderPoolSize);
+            stacks.add(layers);
+
+            if (layerProperties == null) {
+                logger.warning("ImageServer wasn't configured with properties, can't copy layers for rendering more than one image at a time");
+            } else {
+                for (int i = 1; i < renderPoolSize; i++) {
+                    Layer[] copy = getLayers(layerProperties, (Map<String, Layer>) null);
+                    if (copy.length != layers.length) {
+                        logger.warning("copy of layers doesn't match the ImageServer layers, can't use it");
+                        break;
+                    }
+                    stacks.add(copy);
+                }
+            }
+
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("rendering images with " + stacks.size() + " sets of layers");
+            }
+
+            layerStackPool = new LayerStackPool(layers, stacks, renderQueueSize);
+        }
+
+        return layerStackPool;
+    }
+
+    public int getRenderPoolSize() {
+        return renderPoolSize;
+    }
+
+    /**
+     * Set the number of sets of layers used to render images at the same
+     * time. The copies of the layers are created from the properties the
+     * ImageServer was configured with.
+     * 
+     * @param renderPoolSize 1 to render with the ImageServer layers directly.
+     */
+    public synchronized void setRenderPoolSize(int renderPoolSize) {
+        this.renderPoolSize = renderPoolSize;
+        layerStackPool = null;
+    }
+
+    public int getRenderQueueSize() {
+        return renderQueueSize;
+    }
+
+    /**
+     * Set the number of image requests that can wait for a set of layers to
+     * free up before images aren't created.
+     */
+    public synchronized void setRenderQueueSize(int renderQueueSize) {
+        this.renderQueueSize = renderQueueSize;
+        layerStackPool = null;
+    }
+
+    /**
+     * @return a summary of the images created and the time spent waiting for
+     *         layers, rendering and encoding them.
+     */
+    public String getRenderStatistics() {
+        long count = imageCount.get();
+        StringBuilder sb = new StringBuilder();
+        sb.append(count).append(" images, ").append(rejectedImageCount.get()).append(" rejected");
+        if (count > 0) {
+            sb.append(", average wait ").append(waitNanos.get() / count / 1000000).append(" ms");
+            sb.append(", average render ").append(renderNanos.get() / count / 1000000).append(" ms");
+            sb.append(", average encode ").append(encodeNanos.get() / count / 1000000).append(" ms");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Hands out sets of layers for rendering images, one image at a time per
+     * set.
+     */
+    protected static class LayerStackPool {
+        /** The ImageServer layers, that the other sets are copies of. */
+        protected final Layer[] primary;
+        protected final BlockingQueue<Layer[]> idle;
+        protected final int maxWaiting;
+        protected final AtomicInteger waiting = new AtomicInteger();
+
+        public LayerStackPool(Layer[] primary, List<Layer[]> stacks, int maxWaiting) {
+            this.primary = primary;
+            this.idle = new LinkedBlockingQueue<Layer[]>(stacks);
+            this.maxWaiting = maxWaiting;
+        }
+
+        /**
+         * Get a set of layers, waiting for one if they are all in use.
+         * 
+         * @return Layer[], or null if too many requests are already waiting.
+         */
+        public Layer[] borrow() {
+            Layer[] stack = idle.poll();
+            if (stack != null) {
+                return stack;
+            }
+
+            if (waiting.incrementAndGet() > maxWaiting) {
+                waiting.decrementAndGet();
+                return null;
+            }
+
+            try {
+                return idle.take();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+
+        public void release(Layer[] stack) {
+            idle.offer(stack);
+        }
+
+        /**
+         * Replace the ImageServer layers in a list with their copies from a
+         * borrowed set. Layers that aren't ImageServer layers are left alone.
+         * 
+         * @param layers the layers to render.
+         * @param stack the borrowed set of layers.
+         * @return List of Layers from the set.
+         */
+        public List<Layer> swap(List<Layer> layers, Layer[] stack) {
+            if (stack == primary || layers == null) {
+                return layers;
+            }
+
+            List<Layer> ret = new ArrayList<Layer>(layers.size());
+            for (Layer layer : layers) {
+                Layer copy = layer;
+                for (int i = 0; i < primary.length; i++) {
+                    if (primary[i] == layer) {
+                        copy = stack[i];
+                        break;
+                    }
+                }
+                ret.add(copy);
+            }
+            return ret;
+        }
+    }
+
     /**
      * The ImageServer class main function will create a map image from a
      * modified openmap.properties file.
@@ -152,6 +152,11 @@ public class DynamicWmsRequestHandler
 
         // update map names
         createWmsLayers();
+
+        // the cached images are for the old layers
+        if (getGetMapCache() != null) {
+            getGetMapCache().clear();
+        }
     }
 
     /**
@@ -0,0 +1,697 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.image.wms;
+
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.Environment;
+import com.bbn.openmap.I18n;
+import com.bbn.openmap.PropertyConsumer;
+import com.bbn.openmap.image.WMTConstants;
+import com.bbn.openmap.util.PropUtils;
+import com.bbn.openmap.util.cacheHandler.CacheHandler;
+import com.bbn.openmap.util.cacheHandler.CacheObject;
+
+/**
+ * A cache of encoded GetMap responses, so a WmsRequestHandler can answer a
+ * request it has already seen without asking the layers to render again.
+ * Responses are held in memory, limited by count and by bytes, and can also be
+ * written to a directory so they survive a restart and so more of them can be
+ * kept than fit in memory. A response found on disk is moved back into memory.
+ * <P>
+ * Responses are looked up by a key made from the parsed request: the CRS, the
+ * bounding box, the image size, format and background, the layers and styles,
+ * and any vendor parameters the request has, since IWmsLayers may use those.
+ * Two requests that only differ in the order of their parameters, the case of
+ * their names or the spelling of their boolean values get the same response.
+ * <P>
+ * The WmsRequestHandler passes the properties of its layers to
+ * checkLayerConfiguration() when it creates them, and the responses for a
+ * layer are invalidated if its properties are different from the last ones
+ * the cache saw. The cache doesn't know when the data behind a layer changes,
+ * call invalidate(String) with the layer name when it does, or clear() to
+ * start over. A DynamicWmsRequestHandler clears its cache when it updates its
+ * layers.
+ * <P>
+ * A cache is usually shared by all of the WmsRequestHandlers created for a
+ * server, because some servers create one for every request. The properties
+ * for the cache are read with the WMS prefix:
+ *
+ * <pre>
+ * # Number of responses held in memory, caching is off if 0 and no dir is set.
+ * openmap.wms.getMapCache.size=500
+ * # Memory limit, in bytes
+ * openmap.wms.getMapCache.cacheMaxBytes=33554432
+ * # lru (default) or tinylfu
+ * openmap.wms.getMapCache.cachePolicy=lru
+ * # Optional directory for responses that don't fit in memory
+ * openmap.wms.getMapCache.dir=/var/cache/wms
+ * # Limit on the bytes held in the directory, no limit if not set or 0
+ * openmap.wms.getMapCache.dirMaxBytes=1073741824
+ * </pre>
+ */
+public class GetMapResponseCache extends CacheHandler implements PropertyConsumer {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.image.wms.GetMapResponseCache");
+
+    /** The property prefix used by WmsRequestHandler for the cache. */
+    public final static String GetMapCachePrefix = WmsRequestHandler.WMSPrefix + "getMapCache";
+
+    public final static String SizeProperty = "size";
+    public final static String DirProperty = "dir";
+    public final static String DirMaxBytesProperty = "dirMaxBytes";
+
+    public final static int DEFAULT_CACHE_SIZE = 200;
+    public final static long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    protected final static String FILE_SUFFIX = ".wms";
+
+    /**
+     * The file in the directory holding the layer configurations that the
+     * responses there were rendered with.
+     */
+    protected final static String LAYER_CONFIGURATIONS_FILE = "layers.properties";
+
+    /**
+     * The request parameters that make up the fixed part of the key, any
+     * others are vendor parameters and are added as is.
+     */
+    protected final static Set<String> STANDARD_PARAMETERS = new HashSet<String>(Arrays.asList(new String[] {
+            WMTConstants.REQUEST, WMTConstants.SERVICE, WMTConstants.VERSION, WMTConstants.WMTVER,
+            WMTConstants.LAYERS, WMTConstants.STYLES, WMTConstants.SRS, WMTConstants.CRS,
+            WMTConstants.BBOX, WMTConstants.WIDTH, WMTConstants.HEIGHT, WMTConstants.FORMAT,
+            WMTConstants.TRANSPARENT, WMTConstants.BGCOLOR, WMTConstants.EXCEPTIONS }));
+
+    protected String propertyPrefix;
+
+    protected File dir;
+    protected long dirMaxBytes;
+    /** Bytes used in dir, -1 until the directory has been scanned. */
+    protected final AtomicLong dirBytes = new AtomicLong(-1);
+    protected final AtomicLong dirHits = new AtomicLong();
+
+    /**
+     * A digest of the properties of each layer the responses were rendered
+     * with, by layer name, guarded by this.
+     */
+    protected final Map<String, String> layerConfigurations = new HashMap<String, String>();
+
+    public GetMapResponseCache() {
+        super(DEFAULT_CACHE_SIZE);
+        setMaxCacheWeight(DEFAULT_MAX_BYTES);
+    }
+
+    public GetMapResponseCache(int maxSize) {
+        super(maxSize);
+        setMaxCacheWeight(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Create a cache from the WMS properties, if they ask for one.
+     *
+     * @param props the server properties.
+     * @return GetMapResponseCache, or null if neither the size nor the
+     *         directory of the cache has been set.
+     */
+    public static GetMapResponseCache create(Properties props) {
+        String prefix = PropUtils.getScopedPropertyPrefix(GetMapCachePrefix);
+        int size = PropUtils.intFromProperties(props, prefix + SizeProperty, 0);
+        String dirName = props.getProperty(prefix + DirProperty);
+        if (size <= 0 && dirName == null) {
+            return null;
+        }
+        GetMapResponseCache cache = new GetMapResponseCache();
+        cache.setProperties(GetMapCachePrefix, props);
+        return cache;
+    }
+
+    /**
+     * Get the response for a key.
+     *
+     * @return the encoded image, null if it isn't cached.
+     */
+    public byte[] getResponse(Key key) {
+        return (byte[]) get(key);
+    }
+
+    /**
+     * Add a response to the cache, and to the directory if there is one.
+     */
+    public void putResponse(Key key, byte[] response) {
+        replaceLeastUsed(new CacheObject(key, response));
+        if (dir != null) {
+            writeFile(key, response);
+        }
+    }
+
+    /**
+     * Loads a response from the directory, if it's there. Responses that
+     * aren't on disk have to be rendered by the WmsRequestHandler, which will
+     * add them with putResponse.
+     */
+    public CacheObject load(Object key) {
+        if (dir == null || !(key instanceof Key)) {
+            return null;
+        }
+
+        File file = getFile((Key) key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                String storedKey = in.readUTF();
+                if (!storedKey.equals(((Key) key).key)) {
+                    return null;
+                }
+                in.readUTF(); // layers
+                byte[] response = new byte[in.readInt()];
+                in.readFully(response);
+                file.setLastModified(System.currentTimeMillis());
+                dirHits.incrementAndGet();
+                return new CacheObject(key, response);
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            logger.log(Level.FINE, "problem reading " + file, ioe);
+            deleteFile(file);
+            return null;
+        }
+    }
+
+    protected long weigh(CacheObject obj) {
+        return ((byte[]) obj.obj).length + 2 * ((Key) obj.id).key.length();
+    }
+
+    /**
+     * Remove every response, from memory and from the directory.
+     */
+    public void clear() {
+        super.clear();
+        if (dir != null) {
+            File[] files = listFiles();
+            for (File file : files) {
+                deleteFile(file);
+            }
+        }
+    }
+
+    /**
+     * Remove the responses that include a layer. The name can be the name of
+     * a top level layer, or the name of a nested layer.
+     *
+     * @param layerName WMS layer name.
+     */
+    public void invalidate(String layerName) {
+        for (ListIterator<CacheObject> it = listIterator(); it.hasNext();) {
+            CacheObject co = it.next();
+            if (((Key) co.id).layerNames.contains(layerName)) {
+                removeFromCache(co.id);
+            }
+        }
+
+        if (dir != null) {
+            for (File file : listFiles()) {
+                try {
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                    boolean remove;
+                    try {
+                        in.readUTF();
+                        remove = Arrays.asList(in.readUTF().split(",")).contains(layerName);
+                    } finally {
+                        in.close();
+                    }
+                    if (remove) {
+                        deleteFile(file);
+                    }
+                } catch (IOException ioe) {
+                    deleteFile(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tell the cache how a layer is configured. If the layer's properties
+     * aren't the same as the last time it was checked, the responses that
+     * include the layer are invalidated, since they were rendered with the
+     * old properties. The configurations are kept in the directory, so
+     * responses there can be used after a restart if the layers haven't
+     * changed.
+     *
+     * @param layerName WMS layer name.
+     * @param layerProperties the properties of the layer.
+     * @return true if the layer's responses were invalidated.
+     */
+    public boolean checkLayerConfiguration(String layerName, Properties layerProperties) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : new TreeMap<String, String>(toStrings(layerProperties)).entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        String configuration = digest(sb.toString());
+
+        synchronized (this) {
+            String previous = layerConfigurations.put(layerName, configuration);
+            if (configuration.equals(previous)) {
+                return false;
+            }
+
+            boolean changed = previous != null;
+            if (dir != null) {
+                // Responses on disk from before the configuration was kept.
+                changed = true;
+                writeLayerConfigurations();
+            }
+
+            if (changed) {
+                logger.fine("layer " + layerName + " changed, invalidating its responses");
+                invalidate(layerName);
+            }
+            return changed;
+        }
+    }
+
+    protected static Map<String, String> toStrings(Properties props) {
+        Map<String, String> ret = new HashMap<String, String>();
+        for (Map.Entry<Object, Object> entry : props.entrySet()) {
+            ret.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+        }
+        return ret;
+    }
+
+    /**
+     * Read the layer configurations the responses in the directory were
+     * rendered with. Called while holding the lock.
+     */
+    protected void readLayerConfigurations() {
+        layerConfigurations.clear();
+        File file = new File(dir, LAYER_CONFIGURATIONS_FILE);
+        if (!file.isFile()) {
+            return;
+        }
+
+        Properties props = new Properties();
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+            layerConfigurations.putAll(toStrings(props));
+        } catch (IOException ioe) {
+            logger.log(Level.FINE, "problem reading " + file, ioe);
+        }
+    }
+
+    /**
+     * Write the layer configurations to the directory. Called while holding
+     * the lock.
+     */
+    protected void writeLayerConfigurations() {
+        File file = new File(dir, LAYER_CONFIGURATIONS_FILE);
+        Properties props = new Properties();
+        props.putAll(layerConfigurations);
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                props.store(out, "GetMap cache layer configurations");
+            } finally {
+                out.close();
+            }
+        } catch (IOException ioe) {
+            logger.log(Level.FINE, "problem writing " + file, ioe);
+        }
+    }
+
+    /**
+     * @return a description of the cache use, for logging.
+     */
+    public String getCacheStatistics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getCacheCount()).append(" responses, ").append(getCacheWeight()).append(" bytes in memory, ").append(getStatistics());
+        if (dir != null) {
+            sb.append(", ").append(dirHits.get()).append(" read from ").append(dir);
+        }
+        return sb.toString();
+    }
+
+    protected File getFile(Key key) {
+        return new File(dir, key.getDigest() + FILE_SUFFIX);
+    }
+
+    protected File[] listFiles() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        List<File> ret = new ArrayList<File>(files.length);
+        for (File file : files) {
+            if (file.getName().endsWith(FILE_SUFFIX)) {
+                ret.add(file);
+            }
+        }
+        return ret.toArray(new File[ret.size()]);
+    }
+
+    /**
+     * Write the response to a temporary file and rename it, so readers never
+     * see a partial response.
+     */
+    protected void writeFile(Key key, byte[] response) {
+        File file = getFile(key);
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("getmap", ".tmp", dir);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeUTF(key.key);
+                out.writeUTF(key.getLayerList());
+                out.writeInt(response.length);
+                out.write(response);
+            } finally {
+                out.close();
+            }
+
+            long oldLength = file.length();
+            if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+                throw new IOException("can't rename " + tmp + " to " + file);
+            }
+            tmp = null;
+            addDirBytes(file.length() - oldLength);
+        } catch (IOException ioe) {
+            logger.log(Level.FINE, "problem writing " + file, ioe);
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    protected void deleteFile(File file) {
+        long length = file.length();
+        if (file.delete()) {
+            addDirBytes(-length);
+        }
+    }
+
+    /**
+     * Keep track of the bytes used by the directory, and remove the least
+     * recently used files when there are too many.
+     */
+    protected void addDirBytes(long delta) {
+        if (dirBytes.get() < 0) {
+            synchronized (dirBytes) {
+                if (dirBytes.get() < 0) {
+                    long total = 0;
+                    for (File file : listFiles()) {
+                        total += file.length();
+                    }
+                    dirBytes.set(total);
+                    // The delta is already counted.
+                    delta = 0;
+                }
+            }
+        }
+
+        if (dirBytes.addAndGet(delta) > dirMaxBytes && dirMaxBytes > 0) {
+            pruneDir();
+        }
+    }
+
+    /**
+     * Delete the oldest files from the directory until it's down to 90% of
+     * its limit.
+     */
+    protected synchronized void pruneDir() {
+        long target = dirMaxBytes * 9 / 10;
+        if (dirBytes.get() <= target) {
+            return;
+        }
+
+        File[] files = listFiles();
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return modified[a] < modified[b] ? -1 : (modified[a] == modified[b] ? 0 : 1);
+            }
+        });
+
+        for (int i = 0; i < order.length && dirBytes.get() > target; i++) {
+            deleteFile(files[order[i]]);
+        }
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Set the directory that responses are written to, null to only keep
+     * them in memory. The directory is created if needed.
+     */
+    public synchronized void setDir(File dir) {
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            logger.warning("can't create GetMap cache directory " + dir + ", only caching in memory");
+            dir = null;
+        }
+        this.dir = dir;
+        dirBytes.set(-1);
+        if (dir != null) {
+            readLayerConfigurations();
+        }
+    }
+
+    public long getDirMaxBytes() {
+        return dirMaxBytes;
+    }
+
+    /**
+     * @param dirMaxBytes limit on the bytes held in the directory, 0 or less
+     *        for no limit.
+     */
+    public void setDirMaxBytes(long dirMaxBytes) {
+        this.dirMaxBytes = dirMaxBytes;
+    }
+
+    public void setProperties(Properties props) {
+        setProperties(null, props);
+    }
+
+    public void setProperties(String prefix, Properties props) {
+        setPropertyPrefix(prefix);
+        prefix = PropUtils.getScopedPropertyPrefix(this);
+
+        resizeCache(PropUtils.intFromProperties(props, prefix + SizeProperty, getCacheSize()));
+        setCacheEngineProperties(prefix, props);
+
+        String dirName = props.getProperty(prefix + DirProperty);
+        setDir(dirName != null && dirName.trim().length() > 0 ? new File(dirName.trim()) : null);
+        setDirMaxBytes(PropUtils.longFromProperties(props, prefix + DirMaxBytesProperty, dirMaxBytes));
+    }
+
+    public Properties getProperties(Properties props) {
+        if (props == null) {
+            props = new Properties();
+        }
+
+        String prefix = PropUtils.getScopedPropertyPrefix(this);
+        props.put(prefix + SizeProperty, Integer.toString(getCacheSize()));
+        getCacheEngineProperties(prefix, props);
+        props.put(prefix + DirProperty, PropUtils.unnull(dir == null ? null : dir.getPath()));
+        props.put(prefix + DirMaxBytesProperty, Long.toString(dirMaxBytes));
+        return props;
+    }
+
+    public Properties getPropertyInfo(Properties props) {
+        if (props == null) {
+            props = new Properties();
+        }
+
+        I18n i18n = Environment.getI18n();
+        PropUtils.setI18NPropertyInfo(i18n, props, GetMapResponseCache.class, SizeProperty, "Cache Size", "Number of GetMap responses held in memory", null);
+        PropUtils.setI18NPropertyInfo(i18n, props, GetMapResponseCache.class, DirProperty, "Cache Directory", "Directory for GetMap responses that don't fit in memory", "com.bbn.openmap.util.propertyEditor.DirectoryPropertyEditor");
+        PropUtils.setI18NPropertyInfo(i18n, props, GetMapResponseCache.class, DirMaxBytesProperty, "Cache Directory Limit", "Maximum bytes held in the cache directory (0 for no limit)", null);
+        getCacheEnginePropertyInfo(props);
+        return props;
+    }
+
+    public void setPropertyPrefix(String prefix) {
+        propertyPrefix = prefix;
+    }
+
+    public String getPropertyPrefix() {
+        return propertyPrefix;
+    }
+
+    /**
+     * Create the key for a parsed GetMap request.
+     *
+     * @param requestProperties the request, used for the styles and vendor
+     *        parameters.
+     * @param parameters the parsed request.
+     * @return Key
+     */
+    static Key createKey(Properties requestProperties, GetMapRequestParameters parameters) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(parameters.crs == null ? "" : parameters.crs.getCode());
+        sb.append('|').append(parameters.bboxLatLonLowerLeft.getY()).append(',').append(parameters.bboxLatLonLowerLeft.getX());
+        sb.append(',').append(parameters.bboxLatLonUpperRight.getY()).append(',').append(parameters.bboxLatLonUpperRight.getX());
+        sb.append('|').append(parameters.width).append('x').append(parameters.height);
+        sb.append('|').append(parameters.formatter.getContentType());
+        sb.append('|').append(parameters.getTransparent());
+        sb.append('|');
+        if (parameters.background instanceof Color) {
+            sb.append(Integer.toHexString(((Color) parameters.background).getRGB()));
+        } else if (parameters.background != null) {
+            sb.append(parameters.background);
+        }
+        sb.append('|').append(join(parameters.layerNames));
+
+        // Fill in missing styles, so STYLES= and STYLES=,, are the same.
+        Map<String, String> upper = new TreeMap<String, String>();
+        for (Map.Entry<Object, Object> entry : requestProperties.entrySet()) {
+            upper.put(entry.getKey().toString().toUpperCase(), entry.getValue().toString());
+        }
+        String[] styles = new String[parameters.layerNames.size()];
+        String strStyles = upper.get(WMTConstants.STYLES);
+        if (strStyles != null) {
+            String[] requested = strStyles.split(",", -1);
+            System.arraycopy(requested, 0, styles, 0, Math.min(requested.length, styles.length));
+        }
+        sb.append('|');
+        for (int i = 0; i < styles.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(styles[i] == null ? "" : styles[i].trim());
+        }
+
+        for (Map.Entry<String, String> entry : upper.entrySet()) {
+            if (!STANDARD_PARAMETERS.contains(entry.getKey())) {
+                sb.append('|').append(entry.getKey()).append('=').append(entry.getValue());
+            }
+        }
+
+        Set<String> layerNames = new HashSet<String>(parameters.layerNames);
+        layerNames.addAll(parameters.topLayerNames);
+        return new Key(sb.toString(), layerNames);
+    }
+
+    /**
+     * @return a hex SHA-1 digest of a string.
+     */
+    static String digest(String string) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(string.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException nsae) {
+            return Integer.toHexString(string.hashCode());
+        } catch (java.io.UnsupportedEncodingException uee) {
+            return Integer.toHexString(string.hashCode());
+        }
+    }
+
+    static String join(Collection<String> strings) {
+        StringBuilder sb = new StringBuilder();
+        for (String s : strings) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The cache key for a GetMap request, with the names of the layers in it
+     * so the response can be found when a layer changes.
+     */
+    public static class Key {
+
+        protected final String key;
+        protected final Set<String> layerNames;
+
+        public Key(String key, Set<String> layerNames) {
+            this.key = key;
+            this.layerNames = Collections.unmodifiableSet(layerNames);
+        }
+
+        public Set<String> getLayerNames() {
+            return layerNames;
+        }
+
+        protected String getLayerList() {
+            return join(layerNames);
+        }
+
+        /**
+         * @return a hex SHA-1 digest of the key, used as the file name.
+         */
+        protected String getDigest() {
+            return digest(key);
+        }
+
+        public int hashCode() {
+            return key.hashCode();
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).key.equals(key);
+        }
+
+        public String toString() {
+            return key;
+        }
+    }
+}
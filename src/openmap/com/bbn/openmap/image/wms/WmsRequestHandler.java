@@ -56,6 +56,7 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
     private WmsLayerFactory wmsLayerFactory;
     private Map<String, ImageFormatter> imageFormatterByContentType = new HashMap<String, ImageFormatter>();
     private FeatureInfoResponse featureInfoResponse;
+    private GetMapResponseCache getMapCache;
     public static final String WMSPrefix = CapabilitiesSupport.WMSPrefix;
     private static final String FeatureInfoResponseClassNameProperty = "featureInfoResponse.class";
 
@@ -72,8 +73,28 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
      */
     public WmsRequestHandler(String wmsScheme, String wmsHostName, int wmsPort, String wmsUrlPath,
             Properties props) throws IOException, WMSException {
+        this(wmsScheme, wmsHostName, wmsPort, wmsUrlPath, props, GetMapResponseCache.create(props));
+    }
+
+    /**
+     * Creates a new WmsRequestHandler object that uses a GetMapResponseCache,
+     * which can be shared with other WmsRequestHandlers for the same
+     * properties.
+     * 
+     * @param wmsScheme for capabilities description
+     * @param wmsHostName for capabilities description
+     * @param wmsPort for capabilities description
+     * @param wmsUrlPath for capabilities description
+     * @param props openmap properties to configure layers
+     * @param getMapCache cache for GetMap responses, may be null.
+     * @throws IOException
+     * @throws WMSException
+     */
+    public WmsRequestHandler(String wmsScheme, String wmsHostName, int wmsPort, String wmsUrlPath,
+            Properties props, GetMapResponseCache getMapCache) throws IOException, WMSException {
 
         super(props);
+        this.getMapCache = getMapCache;
         setProperties(props);
 
         // separate antialias property for wms.
@@ -122,6 +143,36 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
             Layer layer = layers[i];
             createWmsLayers(wmsLayerFactory.createWmsLayer(layer));
         }
+        checkGetMapCache();
+    }
+
+    /**
+     * Set the layers from the properties, and create the IWmsLayers for them
+     * if the handler has already been set up.
+     */
+    public void setProperties(String prefix, Properties props, Map<String, Layer> instantiatedLayers) {
+        super.setProperties(prefix, props, instantiatedLayers);
+        if (wmsLayerFactory != null) {
+            createWmsLayers();
+        }
+    }
+
+    /**
+     * Give the GetMap cache the properties of the layers, so it can drop the
+     * responses of layers that have been reconfigured since they were
+     * cached.
+     */
+    protected void checkGetMapCache() {
+        GetMapResponseCache cache = getMapCache;
+        if (cache == null || wmsLayerFactory == null) {
+            return;
+        }
+        for (int i = 0; i < layers.length; i++) {
+            Layer layer = layers[i];
+            Properties layerProperties = layer.getProperties(new Properties());
+            layerProperties.put("class", layer.getClass().getName());
+            cache.checkLayerConfiguration(wmsLayerFactory.createWmsLayer(layer).getWmsName(), layerProperties);
+        }
     }
 
     private void createWmsLayers(IWmsLayer layer) {
@@ -236,11 +287,14 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
      */
     public void handleGetMapRequest(Properties requestProperties, IHttpResponse httpResponse)
             throws IOException, MapRequestFormatException, WMSException {
-        byte[] image = handleGetMapRequest(requestProperties);
+        GetMapRequestParameters parameters = new GetMapRequestParameters();
+        byte[] image = handleGetMapRequest(requestProperties, parameters);
         if (Debug.debugging("imageserver")) {
             Debug.output("OGCMRH: have completed image, size " + image.length);
         }
-        String contentType = getFormatter().getContentType();
+        // The formatter for this request, the handler's formatter might have
+        // been changed by another request in the meantime.
+        String contentType = parameters.formatter.getContentType();
         if (contentType == null) {
             contentType = HttpConnection.CONTENT_PLAIN;
         }
@@ -256,7 +310,11 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
      */
     public byte[] handleGetMapRequest(Properties requestProperties)
             throws IOException, MapRequestFormatException, WMSException {
-        GetMapRequestParameters parameters = new GetMapRequestParameters();
+        return handleGetMapRequest(requestProperties, new GetMapRequestParameters());
+    }
+
+    private byte[] handleGetMapRequest(Properties requestProperties, GetMapRequestParameters parameters)
+            throws IOException, MapRequestFormatException, WMSException {
 
         checkVersion(requestProperties, parameters);
         checkExceptions(requestProperties, parameters);
@@ -273,9 +331,46 @@ public class WmsRequestHandler extends ImageServer implements ImageServerConstan
 
         checkLayersAndStyles(requestProperties, parameters);
 
+        GetMapResponseCache cache = getMapCache;
+        GetMapResponseCache.Key key = null;
+        if (cache != null) {
+            key = GetMapResponseCache.createKey(requestProperties, parameters);
+            byte[] image = cache.getResponse(key);
+            if (image != null) {
+                Debug.message("ms", "handleGetMapRequest: cached image for " + key);
+                return image;
+            }
+        }
+
         Debug.message("ms", "handleGetMapRequest: createImage layers:"
                 + parameters.topLayerNames.toString());
-        return createImage(projection, parameters.width, parameters.height, parameters.topLayerNames, bgPaint);
+        byte[] image = renderImage(projection, parameters.width, parameters.height, getLayersForNames(parameters.topLayerNames), bgPaint, parameters.formatter);
+
+        // Empty images mean something went wrong, don't keep them.
+        if (key != null && image != null && image.length > 0) {
+            cache.putResponse(key, image);
+        }
+        return image;
+    }
+
+    /**
+     * @return the cache for GetMap responses, null if responses aren't
+     *         cached.
+     */
+    public GetMapResponseCache getGetMapCache() {
+        return getMapCache;
+    }
+
+    /**
+     * Set the cache for GetMap responses. The responses of layers that are
+     * set up differently than when they were cached are invalidated, here
+     * and whenever the layers are created again.
+     * 
+     * @param getMapCache cache, null to render every request.
+     */
+    public void setGetMapCache(GetMapResponseCache getMapCache) {
+        this.getMapCache = getMapCache;
+        checkGetMapCache();
     }
 
     public byte[] handleGetLegendGraphicRequest(Properties requestProperties)
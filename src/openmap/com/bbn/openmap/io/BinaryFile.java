@@ -48,6 +48,28 @@ public class BinaryFile {
 
    private InputReader inputReader = null;
 
+   /**
+    * Set if the inputReader is a MappedFileInputReader, so the multi-byte
+    * reads can be decoded straight out of the mapped file.
+    */
+   private MappedFileInputReader mappedReader = null;
+
+   /**
+    * Whether local files are memory mapped with a MappedFileInputReader
+    * instead of being read through a RandomAccessFile with a FileInputReader.
+    * True by default, can be turned off by setting the
+    * com.bbn.openmap.io.BinaryFile.mapped system property to false.
+    */
+   private static boolean useMappedFiles = true;
+
+   static {
+      try {
+         useMappedFiles = Boolean.valueOf(System.getProperty("com.bbn.openmap.io.BinaryFile.mapped", "true")).booleanValue();
+      } catch (SecurityException se) {
+         // Applets might not be allowed to see system properties.
+      }
+   }
+
    /**
     * The byte order of the underlying file. (<code>true</code>== MSB-First ==
     * big-endian)
@@ -66,7 +88,7 @@ public class BinaryFile {
     */
    public BinaryFile(File f)
          throws IOException {
-      inputReader = new FileInputReader(f);
+      setInputReader(createFileInputReader(f));
       classCount++;
       openCount++;
    }
@@ -77,7 +99,7 @@ public class BinaryFile {
     * @param inputReader the input reader to be opened for reading
     */
    private BinaryFile(InputReader inputReader) {
-      this.inputReader = inputReader;
+      setInputReader(inputReader);
       classCount++;
       openCount++;
    }
@@ -88,7 +110,8 @@ public class BinaryFile {
     * constructor looks for the file with the string given, and will call the
     * correct constructor as appropriate. If the string represents a file
     * available locally, then the BinaryFile will be accessed with a
-    * FileInputReader using a RandomAccessFile. If it's only available as a
+    * MappedFileInputReader, or a FileInputReader using a RandomAccessFile if
+    * memory mapping has been turned off. If it's only available as a
     * resource, then a StreamInputReader will be used. The name should be a path
     * to a file, or the name of a resource that can be found in the classpath,
     * or a URL.
@@ -118,7 +141,7 @@ public class BinaryFile {
          if (file != null && file.exists()) {
             // If the string represents a file, then we want to
             // use the RandomAccessFile aspect of the BinaryFile.
-            setInputReader(new FileInputReader(file));
+            setInputReader(createFileInputReader(file));
          } else {
             // see JNLP deploy tip here
             // http://java.sun.com/javase/6/docs/technotes/guides/jweb/deployment_advice.html#ClassLoader_and_Resources
@@ -163,7 +186,7 @@ public class BinaryFile {
                   if (file != null && file.exists()) {
                      // It's still a file, available directly.
                      // Access it with the RandomAccessFile
-                     setInputReader(new FileInputReader(file));
+                     setInputReader(createFileInputReader(file));
                   } else {
                      // Need to get it as a resource. Needs
                      // special handling if it's coming in a jar
@@ -376,6 +399,48 @@ public class BinaryFile {
       return null;
    }
 
+   /**
+    * Create the InputReader for a local file, a MappedFileInputReader unless
+    * memory mapping has been turned off or the file can't be mapped.
+    * 
+    * @param f the file to read.
+    * @return InputReader for the file.
+    * @throws IOException if the file can't be opened.
+    */
+   protected static InputReader createFileInputReader(File f)
+         throws IOException {
+      if (useMappedFiles) {
+         try {
+            return new MappedFileInputReader(f);
+         } catch (FileNotFoundException fnfe) {
+            throw fnfe;
+         } catch (IOException ioe) {
+            if (Debug.debugging("binaryfile")) {
+               Debug.output("BinaryFile: couldn't map " + f + ", reading it instead: " + ioe.getMessage());
+            }
+         }
+      }
+      return new FileInputReader(f);
+   }
+
+   /**
+    * @return true if local files are memory mapped when read.
+    */
+   public static boolean isUseMappedFiles() {
+      return useMappedFiles;
+   }
+
+   /**
+    * Set whether local files are memory mapped for BinaryFiles created after
+    * this call. Mapped files can't be deleted or overwritten on some platforms
+    * until the mapping is garbage collected.
+    * 
+    * @param useMappedFiles true to map files.
+    */
+   public static void setUseMappedFiles(boolean useMappedFiles) {
+      BinaryFile.useMappedFiles = useMappedFiles;
+   }
+
    /**
     * Get the inputReader used for accessing the file, for querying purposes.
     * Don't use it to get data, or the file pointers may get messed up.
@@ -393,6 +458,15 @@ public class BinaryFile {
          Debug.output("Setting inputReader");
       }
       inputReader = reader;
+      mappedReader = reader instanceof MappedFileInputReader ? (MappedFileInputReader) reader : null;
+   }
+
+   /**
+    * @return true if the InputReader is a MappedFileInputReader, and reads
+    *         come straight out of the mapped file.
+    */
+   protected boolean isMapped() {
+      return mappedReader != null;
    }
 
    /**
@@ -494,6 +568,7 @@ public class BinaryFile {
          throws IOException {
       close();
       inputReader = null;
+      mappedReader = null;
    }
 
    /**
@@ -603,9 +678,33 @@ public class BinaryFile {
    public short readShort()
          throws EOFException, FormatException {
       // MSBFirst must be set when we are called
+      if (mappedReader != null) {
+         return mappedReader.readShort(MSBFirst);
+      }
       return MoreMath.BuildShort(readBytes(2, false), MSBFirst);
    }
 
+   /**
+    * Reads an array of shorts.
+    * 
+    * @param vec the array to write the shorts into
+    * @param offset the first array index to write to
+    * @param len the number of shorts to read
+    * @exception EOFException there were fewer bytes than needed in the file
+    * @exception FormatException rethrow of IOExceptions encountered while
+    *            reading the bytes for the array
+    */
+   public void readShortArray(short vec[], int offset, int len)
+         throws EOFException, FormatException {
+      if (mappedReader != null) {
+         mappedReader.readShortArray(vec, offset, len, MSBFirst);
+         return;
+      }
+      for (int i = 0; i < len; i++) {
+         vec[offset++] = readShort();
+      }
+   }
+
    /**
     * Code for reading shorts that are two-byte integers, high order first, and
     * negatives are signed magnitude. Users may have to switch the bytes and
@@ -662,11 +761,18 @@ public class BinaryFile {
    public int readInteger()
          throws EOFException, FormatException {
       // MSBFirst must be set when we are called
+      if (mappedReader != null) {
+         return mappedReader.readInteger(MSBFirst);
+      }
       return MoreMath.BuildInteger(readBytes(4, false), MSBFirst);
    }
 
    public void readIntegerArray(int vec[], int offset, int len)
          throws EOFException, FormatException {
+      if (mappedReader != null) {
+         mappedReader.readIntegerArray(vec, offset, len, MSBFirst);
+         return;
+      }
       for (int i = 0; i < len; i++) {
          vec[offset++] = readInteger();
       }
@@ -684,6 +790,9 @@ public class BinaryFile {
     */
    public long readLong()
          throws EOFException, FormatException {
+      if (mappedReader != null) {
+         return mappedReader.readLong(MSBFirst);
+      }
       return MoreMath.BuildLong(readBytes(8, false), MSBFirst);
    }
 
@@ -704,6 +813,10 @@ public class BinaryFile {
 
    public void readFloatArray(float vec[], int offset, int len)
          throws EOFException, FormatException {
+      if (mappedReader != null) {
+         mappedReader.readFloatArray(vec, offset, len, MSBFirst);
+         return;
+      }
       for (int i = 0; i < len; i++) {
          vec[offset++] = readFloat();
       }
@@ -711,6 +824,10 @@ public class BinaryFile {
 
    public void readFloatArray(double vec[], int offset, int len)
          throws EOFException, FormatException {
+      if (mappedReader != null) {
+         mappedReader.readFloatArray(vec, offset, len, MSBFirst);
+         return;
+      }
       for (int i = 0; i < len; i++) {
          vec[offset++] = readFloat();
       }
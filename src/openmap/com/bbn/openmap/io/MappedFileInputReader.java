@@ -0,0 +1,508 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.bbn.openmap.MoreMath;
+import com.bbn.openmap.util.Debug;
+
+/**
+ * An InputReader for local files that maps the file into memory instead of
+ * reading it through a RandomAccessFile. Reads come straight out of the mapped
+ * region, and the array reading methods decode whole runs of shorts, ints and
+ * floats at once with the requested byte order, without copying the bytes
+ * through an intermediate buffer. The BinaryFile uses these methods when it
+ * has a MappedFileInputReader.
+ * <P>
+ * Files larger than 2GB are mapped in several chunks. The file descriptor is
+ * released as soon as the file is mapped, and the mapping is dropped when the
+ * reader is closed and recreated if it's read again.
+ *
+ * @see com.bbn.openmap.io.InputReader
+ * @see com.bbn.openmap.io.BinaryFile
+ */
+public class MappedFileInputReader implements InputReader {
+
+    /** The default size of the mapped chunks of a file, 1GB. */
+    public final static int DEFAULT_CHUNK_SIZE = 1 << 30;
+
+    /** The mapped chunks of the file, null if closed. */
+    protected MappedByteBuffer[] chunks = null;
+    /** The size of each chunk, except maybe the last one. */
+    protected final int chunkSize;
+    /** The length of the file. */
+    protected long length;
+    /** The position of the next byte to be read. */
+    protected long position = 0;
+    /**
+     * Needed for input reader interface.
+     */
+    protected String name = null;
+    /**
+     * Needed for remapping files that have been closed.
+     */
+    protected String absolutePath = null;
+
+    /**
+     * Constructs a new MappedFileInputReader for a file.
+     *
+     * @param f the file to be mapped for reading
+     * @exception IOException pass-through errors from opening and mapping the
+     *            file
+     */
+    public MappedFileInputReader(File f) throws IOException {
+        this(f, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a new MappedFileInputReader for a file.
+     *
+     * @param f the path to the file to be mapped for reading.
+     * @exception IOException pass-through errors from opening and mapping the
+     *            file
+     */
+    public MappedFileInputReader(String f) throws IOException {
+        this(new File(f), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs a new MappedFileInputReader for a file.
+     *
+     * @param f the file to be mapped for reading
+     * @param chunkSize the maximum number of bytes in each mapped region.
+     * @exception IOException pass-through errors from opening and mapping the
+     *            file
+     */
+    public MappedFileInputReader(File f, int chunkSize) throws IOException {
+        if (Debug.debugging("binaryfile")) {
+            Debug.output("MappedFileInputReader created from " + f.getAbsolutePath());
+        }
+        this.chunkSize = Math.max(8, chunkSize);
+        name = f.getName();
+        absolutePath = f.getAbsolutePath();
+        chunks = init(f);
+    }
+
+    /**
+     * Map the file. If it's found, but there are too many files open, it calls
+     * BinaryFile.closeClosable to try to get an open file pointer from the
+     * system, and then tries again.
+     *
+     * @param f a java.io.File
+     * @return the mapped chunks of the file.
+     * @throws IOException
+     */
+    protected MappedByteBuffer[] init(File f) throws IOException {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(f, "r");
+        } catch (IOException i) {
+            if (i instanceof FileNotFoundException) {
+                throw i;
+            }
+
+            if (f.canRead()) {
+                BinaryFile.closeClosable();
+                raf = new RandomAccessFile(f, "r");
+            } else {
+                throw i;
+            }
+        }
+
+        try {
+            FileChannel channel = raf.getChannel();
+            length = channel.size();
+            int numChunks = (int) ((length + chunkSize - 1) / chunkSize);
+            MappedByteBuffer[] ret = new MappedByteBuffer[numChunks];
+            for (int i = 0; i < numChunks; i++) {
+                long start = (long) i * chunkSize;
+                ret[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, length
+                        - start));
+            }
+            return ret;
+        } finally {
+            // The mapping stays valid after the file is closed.
+            raf.close();
+        }
+    }
+
+    protected MappedByteBuffer[] checkChunks() throws IOException {
+        if (chunks == null && absolutePath != null) {
+            chunks = init(new File(absolutePath));
+        }
+        return chunks;
+    }
+
+    /**
+     * Get the file name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the absolute path of the file.
+     */
+    public String getAbsolutePath() {
+        return absolutePath;
+    }
+
+    public long skipBytes(long n) throws IOException {
+        checkChunks();
+        long skipped = Math.max(0, Math.min(n, length - position));
+        position += skipped;
+        return skipped;
+    }
+
+    public long getFilePointer() throws IOException {
+        return position;
+    }
+
+    public void seek(long pos) throws IOException {
+        checkChunks();
+        position = pos;
+    }
+
+    public long length() throws IOException {
+        checkChunks();
+        return length;
+    }
+
+    public long available() throws IOException {
+        return length() - position;
+    }
+
+    /**
+     * Drops the mapping of the file. The file will be mapped again if it's
+     * read after this.
+     */
+    public void close() throws IOException {
+        if (Debug.debugging("binaryfile")) {
+            Debug.output("MappedFileInputReader.close()");
+        }
+        chunks = null;
+    }
+
+    public int read() throws IOException {
+        MappedByteBuffer[] c = checkChunks();
+        if (position >= length) {
+            return -1;
+        }
+        int ret = c[(int) (position / chunkSize)].get((int) (position % chunkSize)) & 0xff;
+        position++;
+        return ret;
+    }
+
+    public int read(byte b[], int off, int len) throws IOException {
+        MappedByteBuffer[] c = checkChunks();
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length) {
+            return -1;
+        }
+
+        int total = (int) Math.min(len, length - position);
+        int remaining = total;
+        while (remaining > 0) {
+            ByteBuffer chunk = c[(int) (position / chunkSize)].duplicate();
+            int inChunk = (int) (position % chunkSize);
+            int n = Math.min(remaining, chunk.limit() - inChunk);
+            chunk.position(inChunk);
+            chunk.get(b, off, n);
+            off += n;
+            remaining -= n;
+            position += n;
+        }
+        return total;
+    }
+
+    public int read(byte b[]) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    public byte[] readBytes(int howmany, boolean allowless) throws EOFException,
+            FormatException {
+        try {
+            checkChunks();
+            long left = length - position;
+            if (left < howmany) {
+                if (allowless) {
+                    howmany = (int) Math.max(0, left);
+                } else if (left <= 0) {
+                    throw new EOFException();
+                } else {
+                    throw new FormatException("EOF while reading data");
+                }
+            }
+
+            byte foo[] = new byte[howmany];
+            read(foo, 0, howmany);
+            return foo;
+        } catch (EOFException e) {
+            throw e;
+        } catch (FormatException e) {
+            throw e;
+        } catch (IOException i) {
+            throw new FormatException("MappedFileInputReader: readBytes IOException: "
+                    + i.getMessage());
+        }
+    }
+
+    /**
+     * Make sure the mapping is ready and there are enough bytes left for a
+     * read.
+     */
+    protected void assertAvailable(long needed) throws EOFException, FormatException {
+        try {
+            checkChunks();
+        } catch (IOException i) {
+            throw new FormatException("MappedFileInputReader: IOException: " + i.getMessage());
+        }
+
+        long left = length - position;
+        if (left < needed) {
+            if (left <= 0) {
+                throw new EOFException("MappedFileInputReader, no bytes at all, trying to read "
+                        + needed);
+            }
+            throw new FormatException("MappedFileInputReader: failed to read " + needed
+                    + " bytes, with " + left + " bytes left");
+        }
+    }
+
+    /**
+     * Return the chunk holding the current position, set to the byte order,
+     * if the next size bytes are all in that chunk. Returns null if the bytes
+     * cross into the next chunk.
+     */
+    protected ByteBuffer chunkFor(int size, boolean msbFirst) {
+        ByteBuffer chunk = chunks[(int) (position / chunkSize)];
+        if ((position % chunkSize) + size > chunk.limit()) {
+            return null;
+        }
+        chunk.order(msbFirst ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        return chunk;
+    }
+
+    /**
+     * Read bytes that cross a chunk boundary.
+     */
+    protected byte[] readStraddling(int size) throws FormatException {
+        byte[] b = new byte[size];
+        try {
+            read(b, 0, size);
+        } catch (IOException i) {
+            throw new FormatException("MappedFileInputReader: IOException: " + i.getMessage());
+        }
+        return b;
+    }
+
+    /**
+     * Read a short with the given byte order.
+     */
+    public short readShort(boolean msbFirst) throws EOFException, FormatException {
+        assertAvailable(2);
+        ByteBuffer chunk = chunkFor(2, msbFirst);
+        if (chunk == null) {
+            return MoreMath.BuildShort(readStraddling(2), msbFirst);
+        }
+        short ret = chunk.getShort((int) (position % chunkSize));
+        position += 2;
+        return ret;
+    }
+
+    /**
+     * Read an integer with the given byte order.
+     */
+    public int readInteger(boolean msbFirst) throws EOFException, FormatException {
+        assertAvailable(4);
+        ByteBuffer chunk = chunkFor(4, msbFirst);
+        if (chunk == null) {
+            return MoreMath.BuildInteger(readStraddling(4), msbFirst);
+        }
+        int ret = chunk.getInt((int) (position % chunkSize));
+        position += 4;
+        return ret;
+    }
+
+    /**
+     * Read a long with the given byte order.
+     */
+    public long readLong(boolean msbFirst) throws EOFException, FormatException {
+        assertAvailable(8);
+        ByteBuffer chunk = chunkFor(8, msbFirst);
+        if (chunk == null) {
+            return MoreMath.BuildLong(readStraddling(8), msbFirst);
+        }
+        long ret = chunk.getLong((int) (position % chunkSize));
+        position += 8;
+        return ret;
+    }
+
+    /**
+     * Return a view of the current chunk, starting at the current position, in
+     * the given byte order.
+     */
+    protected ByteBuffer view(boolean msbFirst) {
+        ByteBuffer view = chunks[(int) (position / chunkSize)].duplicate();
+        view.position((int) (position % chunkSize));
+        view.order(msbFirst ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        return view;
+    }
+
+    /**
+     * Read an array of shorts straight from the mapped file.
+     *
+     * @param vec the array to read into
+     * @param offset the first array index to write to
+     * @param len the number of shorts to read
+     * @param msbFirst the byte order of the shorts.
+     */
+    public void readShortArray(short vec[], int offset, int len, boolean msbFirst)
+            throws EOFException, FormatException {
+        assertAvailable(2L * len);
+        while (len > 0) {
+            ByteBuffer view = view(msbFirst);
+            int n = Math.min(len, view.remaining() / 2);
+            if (n == 0) {
+                vec[offset++] = MoreMath.BuildShort(readStraddling(2), msbFirst);
+                len--;
+                continue;
+            }
+            view.asShortBuffer().get(vec, offset, n);
+            offset += n;
+            len -= n;
+            position += 2L * n;
+        }
+    }
+
+    /**
+     * Read an array of integers straight from the mapped file.
+     *
+     * @param vec the array to read into
+     * @param offset the first array index to write to
+     * @param len the number of integers to read
+     * @param msbFirst the byte order of the integers.
+     */
+    public void readIntegerArray(int vec[], int offset, int len, boolean msbFirst)
+            throws EOFException, FormatException {
+        assertAvailable(4L * len);
+        while (len > 0) {
+            ByteBuffer view = view(msbFirst);
+            int n = Math.min(len, view.remaining() / 4);
+            if (n == 0) {
+                vec[offset++] = MoreMath.BuildInteger(readStraddling(4), msbFirst);
+                len--;
+                continue;
+            }
+            view.asIntBuffer().get(vec, offset, n);
+            offset += n;
+            len -= n;
+            position += 4L * n;
+        }
+    }
+
+    /**
+     * Read an array of floats straight from the mapped file.
+     *
+     * @param vec the array to read into
+     * @param offset the first array index to write to
+     * @param len the number of floats to read
+     * @param msbFirst the byte order of the floats.
+     */
+    public void readFloatArray(float vec[], int offset, int len, boolean msbFirst)
+            throws EOFException, FormatException {
+        assertAvailable(4L * len);
+        while (len > 0) {
+            ByteBuffer view = view(msbFirst);
+            int n = Math.min(len, view.remaining() / 4);
+            if (n == 0) {
+                vec[offset++] = Float.intBitsToFloat(MoreMath.BuildInteger(readStraddling(4), msbFirst));
+                len--;
+                continue;
+            }
+            view.asFloatBuffer().get(vec, offset, n);
+            offset += n;
+            len -= n;
+            position += 4L * n;
+        }
+    }
+
+    /**
+     * Read an array of floats straight from the mapped file, widening them to
+     * doubles.
+     *
+     * @param vec the array to read into
+     * @param offset the first array index to write to
+     * @param len the number of floats to read
+     * @param msbFirst the byte order of the floats.
+     */
+    public void readFloatArray(double vec[], int offset, int len, boolean msbFirst)
+            throws EOFException, FormatException {
+        assertAvailable(4L * len);
+        while (len > 0) {
+            ByteBuffer view = view(msbFirst);
+            int n = Math.min(len, view.remaining() / 4);
+            if (n == 0) {
+                vec[offset++] = Float.intBitsToFloat(MoreMath.BuildInteger(readStraddling(4), msbFirst));
+                len--;
+                continue;
+            }
+            FloatBuffer floats = view.asFloatBuffer();
+            for (int i = 0; i < n; i++) {
+                vec[offset++] = floats.get(i);
+            }
+            len -= n;
+            position += 4L * n;
+        }
+    }
+
+    /**
+     * Read an array of doubles straight from the mapped file.
+     *
+     * @param vec the array to read into
+     * @param offset the first array index to write to
+     * @param len the number of doubles to read
+     * @param msbFirst the byte order of the doubles.
+     */
+    public void readDoubleArray(double vec[], int offset, int len, boolean msbFirst)
+            throws EOFException, FormatException {
+        assertAvailable(8L * len);
+        while (len > 0) {
+            ByteBuffer view = view(msbFirst);
+            int n = Math.min(len, view.remaining() / 8);
+            if (n == 0) {
+                vec[offset++] = Double.longBitsToDouble(MoreMath.BuildLong(readStraddling(8), msbFirst));
+                len--;
+                continue;
+            }
+            view.asDoubleBuffer().get(vec, offset, n);
+            offset += n;
+            len -= n;
+            position += 8L * n;
+        }
+    }
+}
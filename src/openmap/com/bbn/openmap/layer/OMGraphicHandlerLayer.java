@@ -25,6 +25,7 @@ package com.bbn.openmap.layer;
 import java.awt.AlphaComposite;
 import java.awt.Component;
 import java.awt.Composite;
+import java.awt.Container;
 import java.awt.Graphics;
 import java.awt.Shape;
 import java.awt.event.ActionEvent;
@@ -48,6 +49,7 @@ import com.bbn.openmap.event.LayerStatusEvent;
 import com.bbn.openmap.event.MapMouseEvent;
 import com.bbn.openmap.event.MapMouseListener;
 import com.bbn.openmap.event.ProjectionEvent;
+import com.bbn.openmap.layer.policy.BackBufferRenderPolicy;
 import com.bbn.openmap.layer.policy.ProjectionChangePolicy;
 import com.bbn.openmap.layer.policy.RenderPolicy;
 import com.bbn.openmap.layer.policy.StandardPCPolicy;
@@ -66,6 +68,7 @@ import com.bbn.openmap.util.ISwingWorker;
 import com.bbn.openmap.util.PaletteHelper;
 import com.bbn.openmap.util.PooledSwingWorker;
 import com.bbn.openmap.util.PropUtils;
+import com.bbn.openmap.util.TaskService;
 
 /**
  * The OMGraphicHandlerLayer is a layer that provides OMGraphicHandler support.
@@ -221,12 +224,24 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
      * contacting servers. The default setting is, however, true.
      */
     public final static String InterruptableProperty = "interruptable";
+    /**
+     * The property to tell the layer to have its OMGraphicList keep a spatial
+     * index for mouse hit testing, if the list has at least this many
+     * OMGraphics. Not set, or -1, means the list is searched without an index.
+     */
+    public final static String SpatialIndexThresholdProperty = "spatialIndexThreshold";
 
     /**
      * Filter support that can be used to manage OMGraphics.
      */
     protected FilterSupport filter = new FilterSupport();
 
+    /**
+     * The number of OMGraphics a list set on this layer needs to have before
+     * it keeps a spatial index, -1 to leave the list alone.
+     */
+    protected int spatialIndexThreshold = -1;
+
     /**
      * The ProjectionChangePolicy object that determines how a layer reacts and
      * sets up the OMGraphicList to be rendered for the layer when the
@@ -351,9 +366,32 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
      * canSetGraphicList == true.
      */
     public void setList(OMGraphicList omgl) {
+        if (omgl != null && spatialIndexThreshold >= 0) {
+            omgl.setSpatialIndexThreshold(spatialIndexThreshold);
+        }
         filter.setList(omgl);
     }
 
+    /**
+     * Set the number of OMGraphics a list set on this layer needs to have
+     * before it keeps a spatial index, so the mouse interpreter can find the
+     * OMGraphics under the mouse without checking all of them.
+     * 
+     * @param threshold number of OMGraphics, -1 to not change the lists.
+     * @see OMGraphicList#setSpatialIndexThreshold(int)
+     */
+    public void setSpatialIndexThreshold(int threshold) {
+        spatialIndexThreshold = threshold;
+        OMGraphicList list = getList();
+        if (list != null && threshold >= 0) {
+            list.setSpatialIndexThreshold(threshold);
+        }
+    }
+
+    public int getSpatialIndexThreshold() {
+        return spatialIndexThreshold;
+    }
+
     /**
      * Remove all filters, and reset all graphics to be visible.
      */
@@ -534,6 +572,19 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
         getRenderPolicy().paint(g);
     }
 
+    /**
+     * Lets a BackBufferRenderPolicy know that the layer wants to be
+     * repainted, so a buffer rendered before OMGraphics were highlighted,
+     * selected or edited isn't painted over the changes.
+     */
+    public void repaint(long tm, int x, int y, int width, int height) {
+        RenderPolicy rp = renderPolicy;
+        if (rp instanceof BackBufferRenderPolicy) {
+            ((BackBufferRenderPolicy) rp).repaintRequested();
+        }
+        super.repaint(tm, x, y, width, height);
+    }
+
     /**
      * A method that will launch a LayerWorker thread to call the prepare
      * method. This method will set in motion all the steps needed to create and
@@ -637,14 +688,38 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
 
     /**
      * Check to see if it's likely the current thread will be replaced with
-     * another one.
+     * another one. Long prepare() methods can check this and return early.
      * 
-     * @return true if another layer worker is queued up.
+     * @return true if another layer worker is queued up, or the worker running
+     *         in the current thread has been cancelled.
      */
     public boolean isCancelled() {
         synchronized (LAYERWORKER_LOCK) {
-            return layerWorkerQueue;
+            if (layerWorkerQueue) {
+                return true;
+            }
+        }
+        return TaskService.isCurrentWorkerCancelled();
+    }
+
+    /**
+     * The priority of this layer's workers in the TaskService, so visible
+     * layers get their graphics before hidden ones, and layers on top before
+     * the ones underneath them.
+     * 
+     * @return priority, higher values run first.
+     */
+    protected int getWorkerPriority() {
+        int priority = isVisible() ? 1000 : 0;
+        Container parent = getParent();
+        if (parent != null) {
+            int zOrder = parent.getComponentZOrder(this);
+            if (zOrder >= 0) {
+                // Lower z-order is on top.
+                priority -= Math.min(zOrder, 999);
+            }
         }
+        return priority;
     }
 
     /**
@@ -733,6 +808,24 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
             }
         }
 
+        /**
+         * A layer only needs its latest worker to run.
+         */
+        protected Object getWorkerKey() {
+            return OMGraphicHandlerLayer.this;
+        }
+
+        /**
+         * Statistics are kept by layer name.
+         */
+        protected String getWorkerName() {
+            return getName();
+        }
+
+        protected int getWorkerPriority() {
+            return OMGraphicHandlerLayer.this.getWorkerPriority();
+        }
+
         public String toString() {
             return getName() + " LayerWorker";
         }
@@ -888,6 +981,8 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
         setTransparency(PropUtils.floatFromProperties(props, realPrefix + TransparencyProperty, getTransparency()));
 
         setInterruptable(PropUtils.booleanFromProperties(props, realPrefix + InterruptableProperty, isInterruptable()));
+
+        setSpatialIndexThreshold(PropUtils.intFromProperties(props, realPrefix + SpatialIndexThresholdProperty, spatialIndexThreshold));
     }
 
     /**
@@ -961,6 +1056,8 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
 
         props.put(prefix + InterruptableProperty, Boolean.toString(isInterruptable()));
 
+        props.put(prefix + SpatialIndexThresholdProperty, Integer.toString(spatialIndexThreshold));
+
         return props;
     }
 
@@ -1024,6 +1121,8 @@ public class OMGraphicHandlerLayer extends Layer implements GestureResponsePolic
 
         PropUtils.setI18NPropertyInfo(i18n, list, OMGraphicHandlerLayer.class, InterruptableProperty, "Interruptable", "Flat to set whether the layer should immediately stop performing current work when the projection changes.", "com.bbn.openmap.util.propertyEditor.YesNoPropertyEditor");
 
+        PropUtils.setI18NPropertyInfo(i18n, list, OMGraphicHandlerLayer.class, SpatialIndexThresholdProperty, "Spatial Index Threshold", "Number of OMGraphics a list needs before it keeps a spatial index for mouse events (-1 for never).", null);
+
         return list;
     }
 
@@ -23,6 +23,7 @@
 package com.bbn.openmap.layer.dted;
 
 import java.awt.geom.Point2D;
+import java.util.Iterator;
 import java.util.Properties;
 
 import com.bbn.openmap.PropertyConsumer;
@@ -229,54 +230,20 @@ public class DTEDFrameCache
             Debug.message("dted", "DTEDFrameCache: passive resizing");
         }
 
-        CacheObject[] oldObjs = objs;
+        if (destructive) {
+            for (Iterator<CacheObject> it = listIterator(); it.hasNext();) {
+                DTEDSubframedFrame frame = (DTEDSubframedFrame) it.next().obj;
 
-        if (max_size != objs.length && max_size > 0) {
-            objs = new CacheObject[max_size];
-        }
-
-        for (int i = 0; i < objs.length; i++) {
-
-            if (i >= oldObjs.length) {
-                break;
-            }
-
-            DTEDCacheObject dco = (DTEDCacheObject) oldObjs[i];
-
-            if (dco == null) {
-                // We load from the front to the back 0 -> length - 1;
-                // Once you hit a null, the rest should be null, too.
-                objs[i] = null;
-                continue;
-            }
-
-            DTEDSubframedFrame frame = (DTEDSubframedFrame) (dco.obj);
-            dco.cachedTime = 0;
-
-            if (frame == null) {
-                Debug.output("DTEDFrameCache: No Frame for key!");
-                continue;
-            }
-
-            if (destructive) {
-                frame.initSubframes(num_x_subframes, num_y_subframes);
-            } else {
-                // If it's not destructive, and the size didn't
-                // change, then just continue through the loop
-                // resetting the cachedTime for the CacheObjects.
-                if (oldObjs == objs) {
+                if (frame == null) {
+                    Debug.output("DTEDFrameCache: No Frame for key!");
                     continue;
                 }
-            }
 
-            if (i < oldObjs.length) {
-                objs[i] = oldObjs[i];
-            } else {
-                objs[i] = null;
+                frame.initSubframes(num_x_subframes, num_y_subframes);
             }
         }
 
-        oldObjs = null;
+        super.resizeCache(max_size);
     }
 
     /**
@@ -176,6 +176,7 @@ public class ImageTileLayer extends OMGraphicHandlerLayer {
         filePaths = PropUtils.parseMarkers(props.getProperty(prefix + ImageFilePathProperty), ";");
 
         imageCache.resetCache(PropUtils.intFromProperties(props, prefix + ImageCacheSizeProperty, imageCache.getCacheSize()));
+        imageCache.setCacheEngineProperties(prefix, props);
 
         imageCache.setCutoffScaleRatio(PropUtils.floatFromProperties(props, prefix
                 + ImageCutoffRatioProperty, imageCache.getCutoffScaleRatio()));
@@ -268,6 +269,7 @@ public class ImageTileLayer extends OMGraphicHandlerLayer {
         }
 
         props.put(prefix + ImageCacheSizeProperty, Integer.toString(imageCache.getCacheSize()));
+        imageCache.getCacheEngineProperties(prefix, props);
         props.put(prefix + ImageCutoffRatioProperty, Float.toString(imageCache.getCutoffScaleRatio()));
 
         return props;
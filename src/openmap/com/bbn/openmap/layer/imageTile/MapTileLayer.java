@@ -223,6 +223,12 @@ public class MapTileLayer extends OMGraphicHandlerLayer implements MapTileReques
                 newList.add(attrib);
             }
 
+            // Show the tiles as they are added to the list, along with any
+            // placeholders from other zoom levels the factory adds.
+            if (incrementalUpdates) {
+                setList(newList);
+            }
+
             return tileFactory.getTiles(projection, zoomLevel, newList);
         }
         return null;
@@ -193,7 +193,7 @@ public class BufferedLinkLayer extends LinkLayer {
                 proj.getHeight(),
                 proj.getWidth(),
                 boundingPolys,
-                args,
+                getRequestArgs(),
                 link);
 
         link.readAndParse(proj, currentGenerator);
@@ -25,7 +25,6 @@ package com.bbn.openmap.layer.link;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.io.InputStream;
@@ -54,6 +53,16 @@ import com.bbn.openmap.util.Debug;
  * connected until the client is finished. The server can request to
  * be disconnected, however, and the ClientLink provides a method for
  * the client to check if that request has been made.
+ * <P>
+ * 
+ * A client can ask for protocol extensions by listing them in the
+ * LPC_LINK_EXTENSIONS property of its map request. The server side Link
+ * picks them up when it reads the request, and the graphics written to the
+ * link use them from then on. EXTENSION_COMPACT sends poly coordinates and
+ * grid data as LinkCoordinates blocks, EXTENSION_DEFLATE deflates the larger
+ * blocks, and EXTENSION_STREAM flushes each section of a response when it
+ * ends, so a client can show the graphics from one section while the next is
+ * on the way. Clients that don't ask get the original protocol.
  */
 public class Link implements LinkConstants {
     /** The apparent maximum size of a header. */
@@ -61,7 +70,7 @@ public class Link implements LinkConstants {
     /** For outgoing traffic. */
     protected LinkOutputStream dos = null;
     /** For incoming traffic. */
-    protected DataInputStream dis = null;
+    protected LinkInputStream dis = null;
     /** Used to read/create strings from off the input stream. */
     protected char[] charArray = new char[MAX_HEADER_LENGTH];
     /**
@@ -117,6 +126,13 @@ public class Link implements LinkConstants {
      * default.
      */
     protected boolean obeyCommandToExit = false;
+    /**
+     * The protocol extensions the other side of the link asked for, space
+     * separated.
+     */
+    protected String extensions = "";
+    /** Whether sections should be flushed when they end. */
+    protected boolean streamSections = false;
 
     /**
      * Open up a link over a socket.
@@ -128,7 +144,7 @@ public class Link implements LinkConstants {
         this.socket = socket;
         InputStream is = socket.getInputStream();
         BufferedInputStream bis = new BufferedInputStream(is);
-        this.dis = new DataInputStream(bis);
+        this.dis = new LinkInputStream(bis);
 
         OutputStream os = socket.getOutputStream();
         BufferedOutputStream bos = new BufferedOutputStream(os);
@@ -176,11 +192,61 @@ public class Link implements LinkConstants {
      */
     public void end(String endType) throws IOException {
         dos.write(endType.getBytes());
-        if (END_TOTAL.equals(endType)) {
+        if (END_TOTAL.equals(endType) || streamSections) {
             dos.flush();
         }
     }
 
+    /**
+     * Set the protocol extensions used when writing to the link. Called by
+     * the server side when a map request is read, with the extensions the
+     * client asked for.
+     * 
+     * @param ext space separated extension names, EXTENSION_COMPACT,
+     *        EXTENSION_DEFLATE or EXTENSION_STREAM. Null or empty for the
+     *        original protocol.
+     */
+    public void setExtensions(String ext) {
+        boolean compact = false;
+        boolean deflate = false;
+        boolean stream = false;
+        StringBuilder sb = new StringBuilder();
+        if (ext != null) {
+            for (String name : ext.trim().split("\\s+")) {
+                if (EXTENSION_COMPACT.equals(name)) {
+                    compact = true;
+                } else if (EXTENSION_DEFLATE.equals(name)) {
+                    deflate = true;
+                } else if (EXTENSION_STREAM.equals(name)) {
+                    stream = true;
+                } else {
+                    continue;
+                }
+                sb.append(sb.length() > 0 ? " " : "").append(name);
+            }
+        }
+
+        extensions = sb.toString();
+        if (dos != null) {
+            dos.setCompactData(compact);
+            dos.setDeflateData(compact && deflate);
+        }
+        streamSections = stream;
+
+        if (Debug.debugging("link")) {
+            Debug.output("Link: using protocol extensions [" + extensions
+                    + "]");
+        }
+    }
+
+    /**
+     * @return the protocol extensions in use, space separated, or an empty
+     *         string.
+     */
+    public String getExtensions() {
+        return extensions;
+    }
+
     /**
      * Called to begin reading the information coming off the link.
      * Since the information can be coming in different sections, this
@@ -261,6 +327,10 @@ public class Link implements LinkConstants {
                     graphicList = new LinkGraphicList(this, graphics, proj, generator);
                 }
                 delimiter = graphicList.getLinkStatus();
+                if (delimiter == END_SECTION && layer instanceof LinkLayer) {
+                    // More is coming, let the layer show what it has.
+                    ((LinkLayer) layer).handleLinkGraphicSection(graphicList);
+                }
             } else if (delimiter == ACTIONS_HEADER) {
                 actionList = new LinkActionList(this, layer, proj, generator);
                 delimiter = actionList.getLinkStatus();
@@ -278,6 +348,7 @@ public class Link implements LinkConstants {
                 delimiter = readDelimiter(true);
             } else if (delimiter == MAP_REQUEST_HEADER) {
                 mapRequest = new LinkMapRequest(this);
+                setExtensions(mapRequest.getProperties().getProperty(LinkPropertiesConstants.LPC_LINK_EXTENSIONS));
                 delimiter = mapRequest.getLinkStatus();
             } else if (delimiter == ACTION_REQUEST_HEADER) {
                 actionRequest = new LinkActionRequest(this);
@@ -502,4 +573,20 @@ public class Link implements LinkConstants {
     public int clearBytesWritten() {
         return dos.clearWritten();
     }
+
+    /**
+     * Returns the number of bytes read since the last clearBytesRead() call.
+     */
+    public long getBytesRead() {
+        return dis.getRead();
+    }
+
+    /**
+     * Reset the bytes read count to 0.
+     * 
+     * @return the old byte count
+     */
+    public long clearBytesRead() {
+        return dis.clearRead();
+    }
 }
\ No newline at end of file
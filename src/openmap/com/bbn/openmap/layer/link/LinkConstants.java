@@ -61,6 +61,20 @@ public interface LinkConstants {
     /** Header to instruct the other other side to quit. */
     public static final String SHUTDOWN_HEADER = "<SDWN>";
 
+    /**
+     * Protocol extension for coordinate and grid data written in
+     * LinkCoordinates blocks.
+     */
+    public static final String EXTENSION_COMPACT = "compact";
+    /** Protocol extension for deflated LinkCoordinates blocks. */
+    public static final String EXTENSION_DEFLATE = "deflate";
+    /**
+     * Protocol extension asking the server to flush each section of a
+     * response as it's finished, so the client can show the graphics in a
+     * section while the next one is being written.
+     */
+    public static final String EXTENSION_STREAM = "stream";
+
     /** Bitmap graphic object header. */
     public static final String BITMAP_HEADER = "<B>";
     /** Text graphic object header. */
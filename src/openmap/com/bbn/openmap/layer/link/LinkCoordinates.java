@@ -0,0 +1,310 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.link;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes arrays of coordinates and grid data as one block, instead
+ * of one value at a time. The block is the compact data extension of the Link
+ * protocol, and it's only written to clients that asked for it in their map
+ * request (see Link.setExtensions()). Graphics written this way have
+ * COMPACT_DATA_MASK set in their render type.
+ * <P>
+ * A block starts with an encoding byte, a stride byte and the number of bytes
+ * that follow. The values are either written as four byte big-endian values,
+ * or as the zigzag varint difference between each value and the value stride
+ * places before it. Float differences are taken on their bits, so they are exact.
+ * Either can be deflated, in which case the number of bytes before they were
+ * deflated is written before the deflated bytes. The number of values isn't
+ * part of the block, the graphics write it before the block like they always
+ * have.
+ */
+public class LinkCoordinates {
+
+    /** Four byte big-endian values. */
+    public final static int ENCODING_RAW = 0;
+    /** Zigzag varint differences from the value stride places before. */
+    public final static int ENCODING_DELTA = 1;
+    /** Added to the encoding if the bytes are deflated. */
+    public final static int ENCODING_DEFLATED = 0x10;
+
+    /** Blocks smaller than this aren't worth deflating. */
+    public final static int MIN_DEFLATE_LENGTH = 512;
+
+    /**
+     * Deflate can't shrink bytes by more than this, a deflated block claiming
+     * more is bad data.
+     */
+    public final static int MAX_DEFLATE_RATIO = 1032;
+
+    /**
+     * @return true if the stream should get compact data blocks.
+     */
+    public static boolean isCompact(DataOutput dos) {
+        return dos instanceof LinkOutputStream
+                && ((LinkOutputStream) dos).isCompactData();
+    }
+
+    protected static boolean isDeflate(DataOutput dos) {
+        return dos instanceof LinkOutputStream
+                && ((LinkOutputStream) dos).isDeflateData();
+    }
+
+    /**
+     * Write float values as a block, using their differences.
+     *
+     * @param values the values, only the float precision is sent, like the
+     *        regular protocol.
+     * @param stride 2 for alternating lat/lon values, so each is compared to
+     *        the previous value of the same kind.
+     * @param dos the stream to write to.
+     */
+    public static void writeFloats(double[] values, int stride, DataOutput dos)
+            throws IOException {
+        int[] bits = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bits[i] = Float.floatToIntBits((float) values[i]);
+        }
+        writeBlock(bits, stride, true, dos);
+    }
+
+    /**
+     * Write interleaved float values as a block, using their differences.
+     */
+    public static void writeFloats(float[] first, float[] second, int length,
+                                   DataOutput dos) throws IOException {
+        int[] bits = new int[length * 2];
+        for (int i = 0; i < length; i++) {
+            bits[i * 2] = Float.floatToIntBits(first[i]);
+            bits[i * 2 + 1] = Float.floatToIntBits(second[i]);
+        }
+        writeBlock(bits, 2, true, dos);
+    }
+
+    /**
+     * Write int values as a block.
+     *
+     * @param values the values.
+     * @param stride the distance to the value each value is compared to.
+     * @param delta true to write differences, for coordinates and smooth
+     *        data, false to write the values.
+     * @param dos the stream to write to.
+     */
+    public static void writeInts(int[] values, int stride, boolean delta,
+                                 DataOutput dos) throws IOException {
+        writeBlock(values, stride, delta, dos);
+    }
+
+    /**
+     * Write interleaved int values as a block, using their differences.
+     */
+    public static void writeInts(int[] first, int[] second, int length,
+                                 DataOutput dos) throws IOException {
+        int[] values = new int[length * 2];
+        for (int i = 0; i < length; i++) {
+            values[i * 2] = first[i];
+            values[i * 2 + 1] = second[i];
+        }
+        writeBlock(values, 2, true, dos);
+    }
+
+    protected static void writeBlock(int[] values, int stride, boolean delta,
+                                     DataOutput dos) throws IOException {
+        int encoding = delta ? ENCODING_DELTA : ENCODING_RAW;
+        byte[] bytes;
+        int length;
+
+        if (delta) {
+            bytes = new byte[values.length * 5];
+            length = 0;
+            for (int i = 0; i < values.length; i++) {
+                int diff = i < stride ? values[i] : values[i]
+                        - values[i - stride];
+                int zigzag = (diff << 1) ^ (diff >> 31);
+                while ((zigzag & ~0x7F) != 0) {
+                    bytes[length++] = (byte) ((zigzag & 0x7F) | 0x80);
+                    zigzag >>>= 7;
+                }
+                bytes[length++] = (byte) zigzag;
+            }
+        } else {
+            ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+            buffer.asIntBuffer().put(values);
+            bytes = buffer.array();
+            length = bytes.length;
+        }
+
+        if (length >= MIN_DEFLATE_LENGTH && isDeflate(dos)) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            deflater.setInput(bytes, 0, length);
+            deflater.finish();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(length / 2);
+            byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                baos.write(buf, 0, n);
+            }
+            deflater.end();
+
+            if (baos.size() + 4 < length) {
+                dos.writeByte(encoding | ENCODING_DEFLATED);
+                dos.writeByte(stride);
+                dos.writeInt(baos.size() + 4);
+                dos.writeInt(length);
+                dos.write(baos.toByteArray(), 0, baos.size());
+                return;
+            }
+        }
+
+        dos.writeByte(encoding);
+        dos.writeByte(stride);
+        dos.writeInt(length);
+        dos.write(bytes, 0, length);
+    }
+
+    /**
+     * Read a block of float values.
+     *
+     * @param count the number of values in the block.
+     * @param dis the stream to read from.
+     * @return the values.
+     */
+    public static float[] readFloats(int count, DataInput dis)
+            throws IOException {
+        int[] bits = readInts(count, dis);
+        float[] values = new float[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = Float.intBitsToFloat(bits[i]);
+        }
+        return values;
+    }
+
+    /**
+     * Read a block of float values into a double array, the way
+     * latitude/longitude arrays are held by OMGraphics.
+     */
+    public static double[] readDoubles(int count, DataInput dis)
+            throws IOException {
+        int[] bits = readInts(count, dis);
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = Float.intBitsToFloat(bits[i]);
+        }
+        return values;
+    }
+
+    /**
+     * Read a block of int values, or the bits of float values.
+     *
+     * @param count the number of values in the block.
+     * @param dis the stream to read from.
+     * @return the values.
+     */
+    public static int[] readInts(int count, DataInput dis) throws IOException {
+        int encoding = dis.readUnsignedByte();
+        int stride = dis.readUnsignedByte();
+        int length = dis.readInt();
+        if (length < 0) {
+            throw new IOException("LinkCoordinates: bad block length " + length);
+        }
+
+        byte[] bytes = new byte[length];
+        dis.readFully(bytes);
+
+        if ((encoding & ENCODING_DEFLATED) != 0) {
+            bytes = inflate(bytes);
+            encoding &= ~ENCODING_DEFLATED;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int[] values = new int[count];
+        try {
+            if (encoding == ENCODING_RAW) {
+                buffer.asIntBuffer().get(values);
+            } else if (encoding == ENCODING_DELTA) {
+                decodeDelta(bytes, stride, values);
+            } else {
+                throw new IOException("LinkCoordinates: unknown encoding "
+                        + encoding);
+            }
+        } catch (RuntimeException re) {
+            // Underflows and bad varints.
+            throw new IOException("LinkCoordinates: block doesn't hold "
+                    + count + " values");
+        }
+        return values;
+    }
+
+    protected static byte[] inflate(byte[] bytes) throws IOException {
+        if (bytes.length < 4) {
+            throw new IOException("LinkCoordinates: bad deflated block");
+        }
+        byte[] raw;
+        Inflater inflater = new Inflater();
+        try {
+            // The length comes off the wire, check it before allocating.
+            int rawLength = ByteBuffer.wrap(bytes).getInt();
+            if (rawLength < 0
+                    || rawLength > (long) (bytes.length - 4) * MAX_DEFLATE_RATIO) {
+                throw new IOException("LinkCoordinates: bad deflated block length "
+                        + rawLength);
+            }
+            raw = new byte[rawLength];
+            inflater.setInput(bytes, 4, bytes.length - 4);
+            int n = 0;
+            while (n < rawLength && !inflater.finished()) {
+                int read = inflater.inflate(raw, n, rawLength - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != rawLength) {
+                throw new IOException("LinkCoordinates: deflated block is short");
+            }
+        } catch (DataFormatException dfe) {
+            throw new IOException("LinkCoordinates: bad deflated block: "
+                    + dfe.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    protected static void decodeDelta(byte[] bytes, int stride, int[] values) {
+        int pos = 0;
+        for (int i = 0; i < values.length; i++) {
+            int zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[pos++];
+                zigzag |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            int diff = (zigzag >>> 1) ^ -(zigzag & 1);
+            values[i] = i < stride ? diff : values[i - stride] + diff;
+        }
+    }
+}
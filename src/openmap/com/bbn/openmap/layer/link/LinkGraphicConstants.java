@@ -80,6 +80,13 @@ public interface LinkGraphicConstants {
      */
     public final static int RENDERTYPE_OFFSET = 3;
 
+    /**
+     * Added to the render type of a poly or grid that has its coordinates or
+     * data written as a LinkCoordinates block. Only written to clients that
+     * asked for the compact extension.
+     */
+    public final static int COMPACT_DATA_MASK = 0x40;
+
     /** The generic graphic type. */
     public final static int GRAPHICTYPE_GRAPHIC = 0;
     /** A bitmap type. */
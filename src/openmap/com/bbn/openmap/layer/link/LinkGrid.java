@@ -62,9 +62,11 @@ public class LinkGrid implements LinkGraphicConstants {
                              LinkProperties properties, DataOutputStream dos)
             throws IOException {
 
+        boolean compact = LinkCoordinates.isCompact(dos);
+
         dos.write(Link.GRID_HEADER.getBytes());
         dos.writeByte(GRAPHICTYPE_GRID);
-        dos.writeByte(RENDERTYPE_LATLON);
+        dos.writeByte(RENDERTYPE_LATLON | (compact ? COMPACT_DATA_MASK : 0));
         dos.writeFloat(lt);
         dos.writeFloat(ln);
         dos.writeInt(rows);
@@ -74,10 +76,7 @@ public class LinkGrid implements LinkGraphicConstants {
         dos.writeFloat(hResolution);
         dos.writeByte(major);
 
-        dos.writeInt(data.length);
-        for (int i = 0; i < data.length; i++) {
-            dos.writeInt(data[i]);
-        }
+        writeData(data, compact, dos);
 
         properties.write(dos);
     }
@@ -106,9 +105,11 @@ public class LinkGrid implements LinkGraphicConstants {
                              LinkProperties properties, DataOutputStream dos)
             throws IOException {
 
+        boolean compact = LinkCoordinates.isCompact(dos);
+
         dos.write(Link.GRID_HEADER.getBytes());
         dos.writeByte(GRAPHICTYPE_GRID);
-        dos.writeByte(RENDERTYPE_XY);
+        dos.writeByte(RENDERTYPE_XY | (compact ? COMPACT_DATA_MASK : 0));
         dos.writeInt(x1);
         dos.writeInt(y1);
 
@@ -119,10 +120,7 @@ public class LinkGrid implements LinkGraphicConstants {
         dos.writeFloat(hResolution);
         dos.writeByte(major);
 
-        dos.writeInt(data.length);
-        for (int i = 0; i < data.length; i++) {
-            dos.writeInt(data[i]);
-        }
+        writeData(data, compact, dos);
 
         properties.write(dos);
     }
@@ -153,9 +151,11 @@ public class LinkGrid implements LinkGraphicConstants {
                              int[] data, LinkProperties properties,
                              DataOutputStream dos) throws IOException {
 
+        boolean compact = LinkCoordinates.isCompact(dos);
+
         dos.write(Link.GRID_HEADER.getBytes());
         dos.writeByte(GRAPHICTYPE_GRID);
-        dos.writeByte(RENDERTYPE_OFFSET);
+        dos.writeByte(RENDERTYPE_OFFSET | (compact ? COMPACT_DATA_MASK : 0));
         dos.writeFloat(lt);
         dos.writeFloat(ln);
         dos.writeInt(offset_x1);
@@ -168,14 +168,27 @@ public class LinkGrid implements LinkGraphicConstants {
         dos.writeFloat(hResolution);
         dos.writeByte(major);
 
-        dos.writeInt(data.length);
-        for (int i = 0; i < data.length; i++) {
-            dos.writeInt(data[i]);
-        }
+        writeData(data, compact, dos);
 
         properties.write(dos);
     }
 
+    /**
+     * Write the grid data, as a block of differences between neighboring
+     * values if the stream takes compact data.
+     */
+    protected static void writeData(int[] data, boolean compact,
+                                    DataOutputStream dos) throws IOException {
+        dos.writeInt(data.length);
+        if (compact) {
+            LinkCoordinates.writeInts(data, 1, true, dos);
+        } else {
+            for (int i = 0; i < data.length; i++) {
+                dos.writeInt(data[i]);
+            }
+        }
+    }
+
     public static void write(OMGrid grid, Link link, LinkProperties props)
             throws IOException {
 
@@ -284,6 +297,8 @@ public class LinkGrid implements LinkGraphicConstants {
         int y = 0;
 
         int renderType = dis.readByte();
+        boolean compact = (renderType & COMPACT_DATA_MASK) != 0;
+        renderType &= ~COMPACT_DATA_MASK;
 
         switch (renderType) {
         case RENDERTYPE_OFFSET:
@@ -335,20 +350,32 @@ public class LinkGrid implements LinkGraphicConstants {
             data = new int[rows][columns];
         }
 
-        for (int i = 0; i < data.length; i++) {
-            for (int j = 0; j < data[0].length; j++) {
-                data[i][j] = dis.readInt();
+        if (compact) {
+            int[] values = LinkCoordinates.readInts(length, dis);
+            int dim = data.length == 0 ? 0 : data[0].length;
+            if (values.length < data.length * dim) {
+                throw new IOException("LinkGrid: expected " + (data.length * dim)
+                        + " data values, got " + values.length);
+            }
+            for (int i = 0; i < data.length; i++) {
+                System.arraycopy(values, i * dim, data[i], 0, dim);
+            }
+        } else {
+            for (int i = 0; i < data.length; i++) {
+                for (int j = 0; j < data[0].length; j++) {
+                    data[i][j] = dis.readInt();
+                    // Debug.message("linkdetail", "LinkGrid reading " +
+                    // (rows*i + j) + " " +
+                    // (major !=
+                    // LinkGraphicConstants.COLUMN_MAJOR?"column":"row")+
+                    // " " + j + " = " + Integer.toHexString(data[i][j]) +
+                    // " (" + data[i][j] + ")");
+                }
                 // Debug.message("linkdetail", "LinkGrid reading " +
-                // (rows*i + j) + " " +
-                // (major !=
+                // (major ==
                 // LinkGraphicConstants.COLUMN_MAJOR?"column":"row")+
-                // " " + j + " = " + Integer.toHexString(data[i][j]) +
-                // " (" + data[i][j] + ")");
+                // " " + i);
             }
-            // Debug.message("linkdetail", "LinkGrid reading " +
-            // (major ==
-            // LinkGraphicConstants.COLUMN_MAJOR?"column":"row")+
-            // " " + i);
         }
 
         Debug.message("linkdetail", "LinkGrid read all the data.");
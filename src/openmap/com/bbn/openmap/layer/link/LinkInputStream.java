@@ -0,0 +1,88 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.link;
+
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Extend DataInputStream so we can count the bytes read, the partner of
+ * LinkOutputStream.
+ *
+ * @see java.io.DataInputStream
+ */
+public class LinkInputStream extends DataInputStream {
+
+    /**
+     * Creates a new link input stream to read data from the specified
+     * underlying input stream.
+     *
+     * @param in the underlying input stream.
+     */
+    public LinkInputStream(InputStream in) {
+        super(new CountingInputStream(in));
+    }
+
+    /**
+     * @return the number of bytes read since the last clearRead() call.
+     */
+    public long getRead() {
+        return ((CountingInputStream) in).count;
+    }
+
+    /**
+     * Reset the read byte count back to 0.
+     *
+     * @return the previous count.
+     */
+    public long clearRead() {
+        CountingInputStream cis = (CountingInputStream) in;
+        long temp = cis.count;
+        cis.count = 0;
+        return temp;
+    }
+
+    protected static class CountingInputStream extends FilterInputStream {
+        protected long count;
+
+        protected CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
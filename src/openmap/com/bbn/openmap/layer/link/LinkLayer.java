@@ -79,6 +79,15 @@ import com.bbn.openmap.util.PropUtils;
  *       # but non-applicable properties are ignored.
  *       link.propertiesURL=http://location.of.properties.file.com
  * 
+ *       # Ask the server to send poly coordinates and grid data in compact
+ *       # blocks (true by default), to deflate the large ones (false by
+ *       # default), and to send each section of a response as soon as it's
+ *       # done, so graphics show up as they arrive (true by default). Servers
+ *       # that don't know about these use the original protocol.
+ *       link.compactData=true
+ *       link.deflateData=false
+ *       link.streamGraphics=true
+ * 
  * 
  * 
  * 
@@ -166,6 +175,32 @@ public class LinkLayer extends OMGraphicHandlerLayer implements
      */
     public final static String ExitOnCommandProperty = "exitOnCommand";
 
+    /**
+     * The property to ask the server for compact coordinate and grid data.
+     * True by default. "compactData"
+     */
+    public final static String CompactDataProperty = "compactData";
+    /**
+     * The property to ask the server to deflate large blocks of compact data.
+     * False by default. "deflateData"
+     */
+    public final static String DeflateDataProperty = "deflateData";
+    /**
+     * The property to ask the server to send each section of a response when
+     * it's done, and to show the graphics in it while the rest arrive. True by
+     * default. "streamGraphics"
+     */
+    public final static String StreamGraphicsProperty = "streamGraphics";
+
+    protected boolean compactData = true;
+    protected boolean deflateData = false;
+    protected boolean streamGraphics = true;
+
+    /** When the last map request was sent, for the response statistics. */
+    protected long requestTime;
+    /** When the first section of the response arrived. */
+    protected long firstSectionTime;
+
     /**
      * The default constructor for the Layer. All of the attributes are set to
      * their default values.
@@ -342,6 +377,13 @@ public class LinkLayer extends OMGraphicHandlerLayer implements
         distanceLimit = PropUtils.intFromProperties(properties, realPrefix
                 + DistanceLimitProperty, distanceLimit);
 
+        compactData = PropUtils.booleanFromProperties(properties, realPrefix
+                + CompactDataProperty, compactData);
+        deflateData = PropUtils.booleanFromProperties(properties, realPrefix
+                + DeflateDataProperty, deflateData);
+        streamGraphics = PropUtils.booleanFromProperties(properties,
+                realPrefix + StreamGraphicsProperty, streamGraphics);
+
         // listener = new LinkListener(linkManager, this,
         // currentGenerator);
     }
@@ -557,9 +599,11 @@ public class LinkLayer extends OMGraphicHandlerLayer implements
         }
 
         Point2D center = proj.getCenter();
+        requestTime = System.currentTimeMillis();
+        firstSectionTime = 0;
         LinkMapRequest.write((float) center.getY(), (float) center.getX(), proj
                 .getScale(), proj.getHeight(), proj.getWidth(), boundingPolys,
-                             args, link);
+                             getRequestArgs(), link);
 
         // ///////////////////////////////////////////////////
         // With asynchronous behavior, we don't listen to the reply
@@ -578,9 +622,82 @@ public class LinkLayer extends OMGraphicHandlerLayer implements
         // ///////////////////////////////////////////////////
     }
 
+    /**
+     * The protocol extensions asked for in map requests, from the
+     * compactData, deflateData and streamGraphics settings.
+     * 
+     * @return space separated extension names.
+     */
+    public String getLinkExtensions() {
+        StringBuilder sb = new StringBuilder();
+        if (compactData) {
+            sb.append(Link.EXTENSION_COMPACT);
+            if (deflateData) {
+                sb.append(' ').append(Link.EXTENSION_DEFLATE);
+            }
+        }
+        if (streamGraphics) {
+            sb.append(sb.length() > 0 ? " " : "").append(Link.EXTENSION_STREAM);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The properties sent with a map request, the args with the protocol
+     * extensions the layer wants added.
+     */
+    protected LinkProperties getRequestArgs() {
+        LinkProperties requestArgs = new LinkProperties(args);
+        String extensions = getLinkExtensions();
+        if (extensions.length() > 0) {
+            requestArgs.setProperty(LPC_LINK_EXTENSIONS, extensions);
+        }
+        return requestArgs;
+    }
+
+    /**
+     * Called by the link when a graphics section has been read and more
+     * sections are coming. If streamGraphics is set, the graphics received so
+     * far are put up on the map. The list keeps growing as the rest arrive,
+     * and handleLinkGraphicList is called with it when they have.
+     */
+    public void handleLinkGraphicSection(LinkGraphicList lgl) {
+        if (lgl == null) {
+            return;
+        }
+
+        if (firstSectionTime == 0) {
+            firstSectionTime = System.currentTimeMillis();
+        }
+
+        LinkOMGraphicList lomgl = lgl.getGraphics();
+        // The graphics were generated as they were read, unless the layer
+        // didn't have a projection.
+        if (streamGraphics && !lomgl.getNeedToRegenerate()) {
+            if (getList() != lomgl) {
+                setGraphicList(lomgl);
+            }
+            repaint();
+        }
+    }
+
     public void handleLinkGraphicList(LinkGraphicList lgl) {
         Debug.message("link", "LinkLayer.handleLinkGraphicList()");
 
+        if (lgl != null && Debug.debugging("link") && requestTime > 0) {
+            long now = System.currentTimeMillis();
+            long bytes = lgl.link.getBytesRead();
+            long millis = Math.max(1, now - requestTime);
+            Debug.output(getName() + "|LinkLayer received "
+                    + lgl.getGraphics().size() + " graphics, " + bytes
+                    + " bytes in " + millis + " ms (" + (bytes / millis)
+                    + " KB/s), first section after "
+                    + ((firstSectionTime > 0 ? firstSectionTime : now) - requestTime)
+                    + " ms, asked for extensions [" + getLinkExtensions()
+                    + "]");
+            requestTime = 0;
+        }
+
         if (lgl != null) {
             // Deal with all the messaging....
             handleMessages(lgl.getProperties());
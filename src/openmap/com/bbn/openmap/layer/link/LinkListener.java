@@ -136,6 +136,8 @@ public class LinkListener extends Thread implements LinkPropertiesConstants {
 
         while (link != null) {
             Debug.message("link", "LinkListener: listening...");
+            // Count the bytes of each response.
+            link.clearBytesRead();
             link.readAndParse(null, currentGenerator, layer);
             Debug.message("link", "LinkListener: received content from server");
 
@@ -26,11 +26,16 @@ import java.io.DataOutputStream;
 import java.io.OutputStream;
 
 /**
- * Extend DataOutputStream so we can reset the written byte count.
+ * Extend DataOutputStream so we can reset the written byte count. The stream
+ * also holds the protocol extensions the other side of the link has asked
+ * for, so the graphics written to it can find out how to write their data.
  * 
  * @see java.io.DataOutputStream
  */
 public class LinkOutputStream extends DataOutputStream {
+
+    protected boolean compactData = false;
+    protected boolean deflateData = false;
     /**
      * Creates a new link output stream to write data to the specified
      * underlying output stream.
@@ -52,4 +57,27 @@ public class LinkOutputStream extends DataOutputStream {
         written = 0;
         return temp;
     }
+
+    /**
+     * Set whether coordinate and grid data should be written in
+     * LinkCoordinates blocks.
+     */
+    public void setCompactData(boolean value) {
+        compactData = value;
+    }
+
+    public boolean isCompactData() {
+        return compactData;
+    }
+
+    /**
+     * Set whether large LinkCoordinates blocks should be deflated.
+     */
+    public void setDeflateData(boolean value) {
+        deflateData = value;
+    }
+
+    public boolean isDeflateData() {
+        return deflateData;
+    }
 }
\ No newline at end of file
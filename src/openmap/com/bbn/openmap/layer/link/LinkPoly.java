@@ -66,14 +66,20 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
                              LinkProperties properties, DataOutputStream dos)
             throws IOException {
 
+        boolean compact = LinkCoordinates.isCompact(dos);
+
         dos.write(Link.POLY_HEADER.getBytes());
         dos.writeByte(GRAPHICTYPE_POLY);
-        dos.writeByte(RENDERTYPE_LATLON);
+        dos.writeByte(RENDERTYPE_LATLON | (compact ? COMPACT_DATA_MASK : 0));
         dos.writeByte(lType);
         dos.writeInt(llpoints.length);
 
-        for (int i = 0; i < llpoints.length; i++) {
-            dos.writeFloat((float) llpoints[i]);
+        if (compact) {
+            LinkCoordinates.writeFloats(llpoints, 2, dos);
+        } else {
+            for (int i = 0; i < llpoints.length; i++) {
+                dos.writeFloat((float) llpoints[i]);
+            }
         }
 
         dos.writeByte(units);
@@ -98,9 +104,11 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
                              int lType, int nsegs, LinkProperties properties,
                              DataOutputStream dos) throws IOException {
 
+        boolean compact = LinkCoordinates.isCompact(dos);
+
         dos.write(Link.POLY_HEADER.getBytes());
         dos.writeByte(GRAPHICTYPE_POLY);
-        dos.writeByte(RENDERTYPE_LATLON);
+        dos.writeByte(RENDERTYPE_LATLON | (compact ? COMPACT_DATA_MASK : 0));
         dos.writeByte(lType);
 
         int length = latpoints.length;
@@ -110,11 +118,16 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
             length = lonpoints.length;
         }
 
-        dos.writeInt(length);
+        // The number of values, like the other lat/lon poly.
+        dos.writeInt(length * 2);
 
-        for (int i = 0; i < length; i++) {
-            dos.writeFloat(latpoints[i]);
-            dos.writeFloat(lonpoints[i]);
+        if (compact) {
+            LinkCoordinates.writeFloats(latpoints, lonpoints, length, dos);
+        } else {
+            for (int i = 0; i < length; i++) {
+                dos.writeFloat(latpoints[i]);
+                dos.writeFloat(lonpoints[i]);
+            }
         }
 
         dos.writeByte(units);
@@ -134,13 +147,19 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
     public static void write(int[] xypoints, LinkProperties properties,
                              DataOutputStream dos) throws IOException {
 
+        boolean compact = LinkCoordinates.isCompact(dos);
+
         dos.write(Link.POLY_HEADER.getBytes());
         dos.writeByte(GRAPHICTYPE_POLY);
-        dos.writeByte(RENDERTYPE_XY);
+        dos.writeByte(RENDERTYPE_XY | (compact ? COMPACT_DATA_MASK : 0));
         dos.writeInt(xypoints.length);
 
-        for (int i = 0; i < xypoints.length; i++) {
-            dos.writeInt(xypoints[i]);
+        if (compact) {
+            LinkCoordinates.writeInts(xypoints, 2, true, dos);
+        } else {
+            for (int i = 0; i < xypoints.length; i++) {
+                dos.writeInt(xypoints[i]);
+            }
         }
         properties.write(dos);
     }
@@ -158,15 +177,21 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
                              LinkProperties properties, DataOutputStream dos)
             throws IOException {
 
+        boolean compact = LinkCoordinates.isCompact(dos);
+
         dos.write(Link.POLY_HEADER.getBytes());
         dos.writeByte(GRAPHICTYPE_POLY);
-        dos.writeByte(RENDERTYPE_XY);
+        dos.writeByte(RENDERTYPE_XY | (compact ? COMPACT_DATA_MASK : 0));
         int numPoints = xpoints.length + ypoints.length;
         dos.writeInt(numPoints);
 
-        for (int i = 0; i < numPoints / 2; i++) {
-            dos.writeInt(xpoints[i]);
-            dos.writeInt(ypoints[i]);
+        if (compact) {
+            LinkCoordinates.writeInts(xpoints, ypoints, numPoints / 2, dos);
+        } else {
+            for (int i = 0; i < numPoints / 2; i++) {
+                dos.writeInt(xpoints[i]);
+                dos.writeInt(ypoints[i]);
+            }
         }
 
         properties.write(dos);
@@ -189,15 +214,21 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
                              int cMode, LinkProperties properties,
                              DataOutputStream dos) throws IOException {
 
+        boolean compact = LinkCoordinates.isCompact(dos);
+
         dos.write(Link.POLY_HEADER.getBytes());
         dos.writeByte(GRAPHICTYPE_POLY);
-        dos.writeByte(RENDERTYPE_OFFSET);
+        dos.writeByte(RENDERTYPE_OFFSET | (compact ? COMPACT_DATA_MASK : 0));
         dos.writeFloat(latPoint);
         dos.writeFloat(lonPoint);
         dos.writeInt(xypoints.length);
 
-        for (int i = 0; i < xypoints.length; i++) {
-            dos.writeInt(xypoints[i]);
+        if (compact) {
+            LinkCoordinates.writeInts(xypoints, 2, true, dos);
+        } else {
+            for (int i = 0; i < xypoints.length; i++) {
+                dos.writeInt(xypoints[i]);
+            }
         }
 
         dos.writeByte(cMode);
@@ -223,17 +254,23 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
                              LinkProperties properties, DataOutputStream dos)
             throws IOException {
 
+        boolean compact = LinkCoordinates.isCompact(dos);
+
         dos.write(Link.POLY_HEADER.getBytes());
         dos.writeByte(GRAPHICTYPE_POLY);
-        dos.writeByte(RENDERTYPE_OFFSET);
+        dos.writeByte(RENDERTYPE_OFFSET | (compact ? COMPACT_DATA_MASK : 0));
         dos.writeFloat(latPoint);
         dos.writeFloat(lonPoint);
         int numPoints = xpoints.length + ypoints.length;
         dos.writeInt(numPoints);
 
-        for (int i = 0; i < numPoints / 2; i++) {
-            dos.writeInt(xpoints[i]);
-            dos.writeInt(ypoints[i]);
+        if (compact) {
+            LinkCoordinates.writeInts(xpoints, ypoints, numPoints / 2, dos);
+        } else {
+            for (int i = 0; i < numPoints / 2; i++) {
+                dos.writeInt(xpoints[i]);
+                dos.writeInt(ypoints[i]);
+            }
         }
         dos.writeByte(cMode);
         properties.write(dos);
@@ -304,15 +341,22 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
         int[] xpoints, ypoints;
 
         int renderType = dis.readByte();
+        boolean compact = (renderType & COMPACT_DATA_MASK) != 0;
+        renderType &= ~COMPACT_DATA_MASK;
 
         switch (renderType) {
         case RENDERTYPE_LATLON:
             int lineType = dis.readByte();
             numPoints = dis.readInt();
 
-            double[] llpoints = new double[numPoints];
-            for (int i = 0; i < numPoints; i++) {
-                llpoints[i] = dis.readFloat();
+            double[] llpoints;
+            if (compact) {
+                llpoints = LinkCoordinates.readDoubles(numPoints, dis);
+            } else {
+                llpoints = new double[numPoints];
+                for (int i = 0; i < numPoints; i++) {
+                    llpoints[i] = dis.readFloat();
+                }
             }
             int units = dis.readByte();
             int nsegs = dis.readInt();
@@ -335,11 +379,7 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
             numPoints = dis.readInt();
             xpoints = new int[numPoints / 2];
             ypoints = new int[numPoints / 2];
-
-            for (int i = 0; i < numPoints / 2; i += 1) {
-                xpoints[i] = dis.readInt();
-                ypoints[i] = dis.readInt();
-            }
+            readXY(dis, numPoints, compact, xpoints, ypoints);
 
             if (Debug.debugging("linkdetail")) {
                 System.out.println("  X/Y LinkPoly:");
@@ -359,11 +399,7 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
 
             xpoints = new int[numPoints / 2];
             ypoints = new int[numPoints / 2];
-
-            for (int i = 0; i < numPoints / 2; i += 1) {
-                xpoints[i] = dis.readInt();
-                ypoints[i] = dis.readInt();
-            }
+            readXY(dis, numPoints, compact, xpoints, ypoints);
             int cMode = dis.readByte();
 
             if (Debug.debugging("linkdetail")) {
@@ -389,4 +425,24 @@ public class LinkPoly implements LinkGraphicConstants, LinkPropertiesConstants {
 
         return poly;
     }
-}
\ No newline at end of file
+
+    /**
+     * Read alternating x and y values into separate arrays.
+     */
+    protected static void readXY(DataInputStream dis, int numPoints,
+                                 boolean compact, int[] xpoints, int[] ypoints)
+            throws IOException {
+        if (compact) {
+            int[] xypoints = LinkCoordinates.readInts(numPoints, dis);
+            for (int i = 0; i < numPoints / 2; i++) {
+                xpoints[i] = xypoints[i * 2];
+                ypoints[i] = xypoints[i * 2 + 1];
+            }
+        } else {
+            for (int i = 0; i < numPoints / 2; i += 1) {
+                xpoints[i] = dis.readInt();
+                ypoints[i] = dis.readInt();
+            }
+        }
+    }
+}
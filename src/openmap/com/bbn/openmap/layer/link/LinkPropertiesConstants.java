@@ -106,6 +106,11 @@ public interface LinkPropertiesConstants {
     public final static String LPC_LATMAX = "latmax";
     /** The upper right longitude */
     public final static String LPC_LONMAX = "lonmax";
+    /**
+     * The space separated protocol extensions a client understands, sent with
+     * a map request.
+     */
+    public final static String LPC_LINK_EXTENSIONS = "ext";
 
     // Constants that can fire a information delegator action.
 
@@ -25,6 +25,7 @@ package com.bbn.openmap.layer.link;
 import java.io.IOException;
 import java.net.Socket;
 import java.util.Iterator;
+import java.util.Random;
 import java.util.Vector;
 
 import com.bbn.openmap.omGraphics.OMAction;
@@ -39,6 +40,17 @@ public class TestLinkServer extends LinkServer implements LinkActionConstants,
 
     int newGraphicCounter = 0;
 
+    /**
+     * The number of test polylines sent with each map response, to measure
+     * the protocol with. None are sent unless the TestServerStarter is started
+     * with the -testPolys option. They are sent in sections of
+     * graphicsPerSection, so a client asking for the stream extension can draw
+     * them as they arrive.
+     */
+    int numTestPolys = 0;
+    int pointsPerTestPoly = 200;
+    int graphicsPerSection = 50;
+
     LinkOMGraphicList clientCreatedGraphics = new LinkOMGraphicList();
 
     /**
@@ -50,6 +62,17 @@ public class TestLinkServer extends LinkServer implements LinkActionConstants,
         super(s);
     }
 
+    /**
+     * Set the number of test polylines sent with each map response.
+     */
+    public void setNumTestPolys(int numTestPolys) {
+        this.numTestPolys = numTestPolys;
+    }
+
+    public int getNumTestPolys() {
+        return numTestPolys;
+    }
+
     /**
      * handleClient is a method that listens to the link to a client,
      * and responds to requests that are made.
@@ -137,6 +160,9 @@ public class TestLinkServer extends LinkServer implements LinkActionConstants,
         //      lineProperties.setProperty(LPC_URL,
         // "http://blatz.bbn.com/users/dietrick/LinkProtocol.html");
 
+        long startTime = System.currentTimeMillis();
+        link.clearBytesWritten();
+
         int count = 0;
         LinkGraphicList gr = new LinkGraphicList(link, new LinkProperties());
 
@@ -192,8 +218,15 @@ public class TestLinkServer extends LinkServer implements LinkActionConstants,
 
         gr.end(Link.END_SECTION);
 
-        System.out.println("TestLinkServer: Wrote " + count
-                + " graphics to output stream");
+        if (numTestPolys > 0) {
+            count += writeTestPolys(bounds, link);
+        }
+
+        System.out.println("TestLinkServer: Wrote " + count + " graphics, "
+                + link.getBytesWritten() + " bytes in "
+                + (System.currentTimeMillis() - startTime)
+                + " ms to output stream, extensions [" + link.getExtensions()
+                + "]");
 
         int des = LinkUtil.setMask(0, MOUSE_CLICKED_MASK);
         //      des = LinkUtil.setMask(des, MOUSE_MOVED_MASK);
@@ -203,6 +236,59 @@ public class TestLinkServer extends LinkServer implements LinkActionConstants,
 
     }
 
+    /**
+     * Write the test polylines, wandering across the bounding polys, in
+     * sections of graphicsPerSection graphics.
+     * 
+     * @return the number of polylines written.
+     */
+    protected int writeTestPolys(LinkBoundingPoly[] bounds, Link link)
+            throws IOException {
+        LinkProperties polyProperties = new LinkProperties(LPC_LINECOLOR, "FF0000FF");
+        Random random = new Random(numTestPolys);
+        int count = 0;
+        LinkGraphicList gr = null;
+
+        for (int i = 0; i < bounds.length; i++) {
+            LinkBoundingPoly bound = bounds[i];
+            double height = bound.maxY - bound.minY;
+            double width = bound.maxX - bound.minX;
+
+            for (int j = 0; j < numTestPolys / bounds.length; j++) {
+                if (gr == null) {
+                    gr = new LinkGraphicList(link, new LinkProperties());
+                }
+
+                double[] llpoints = new double[pointsPerTestPoly * 2];
+                double lat = bound.minY + random.nextDouble() * height;
+                double lon = bound.minX + random.nextDouble() * width;
+                for (int k = 0; k < llpoints.length; k += 2) {
+                    lat = Math.max(bound.minY, Math.min(bound.maxY, lat
+                            + (random.nextDouble() - .5) * height / 100));
+                    lon = Math.max(bound.minX, Math.min(bound.maxX, lon
+                            + (random.nextDouble() - .5) * width / 100));
+                    llpoints[k] = lat;
+                    llpoints[k + 1] = lon;
+                }
+
+                gr.addPoly(llpoints,
+                        LinkGraphicConstants.DECIMAL_DEGREES,
+                        LinkGraphicConstants.LINETYPE_STRAIGHT,
+                        polyProperties);
+
+                if (++count % graphicsPerSection == 0) {
+                    gr.end(Link.END_SECTION);
+                    gr = null;
+                }
+            }
+        }
+
+        if (gr != null) {
+            gr.end(Link.END_SECTION);
+        }
+        return count;
+    }
+
     /**
      * An example of how to handle LinkActionRequest.
      * 
@@ -36,11 +36,25 @@ import java.net.Socket;
  */
 public class TestServerStarter extends LinkServerStarter {
 
+    /**
+     * The number of test polylines the TestLinkServers send with each map
+     * response.
+     */
+    int numTestPolys = 0;
+
     /** Starts the LinkServerStarter listening to the specified port. */
     public TestServerStarter(int port) {
         super(port);
     }
 
+    public void setNumTestPolys(int numTestPolys) {
+        this.numTestPolys = numTestPolys;
+    }
+
+    public int getNumTestPolys() {
+        return numTestPolys;
+    }
+
     /**
      * From the LinkServerFactory interface, starts up a new
      * LinkServer to handle a client.
@@ -48,7 +62,9 @@ public class TestServerStarter extends LinkServerStarter {
      * @param socket socket to use to communicate to the client.
      */
     public Thread startNewServer(Socket socket) {
-        return (new TestLinkServer(socket));
+        TestLinkServer server = new TestLinkServer(socket);
+        server.setNumTestPolys(numTestPolys);
+        return server;
     }
 
     /**
@@ -58,21 +74,28 @@ public class TestServerStarter extends LinkServerStarter {
      */
     public static void main(String[] argv) {
         int pnumber = -1;
+        int numTestPolys = 0;
 
         for (int i = 0; i < argv.length; i++) {
             if (argv[i].equals("-port") && argv.length > i + 1) {
                 try {
                     pnumber = Integer.parseInt(argv[i + 1]);
-                    break;
                 } catch (NumberFormatException e) {
                     pnumber = -1;
                 }
+            } else if (argv[i].equals("-testPolys") && argv.length > i + 1) {
+                // Extra polylines to measure the protocol with.
+                try {
+                    numTestPolys = Integer.parseInt(argv[i + 1]);
+                } catch (NumberFormatException e) {
+                    numTestPolys = 0;
+                }
             }
         }
 
         if (pnumber < 0) {
             System.out.println("Need to start the server with a port number.");
-            System.out.println("Usage: java com.bbn.openmap.layer.link.TestServerStarter -port <port number>");
+            System.out.println("Usage: java com.bbn.openmap.layer.link.TestServerStarter -port <port number> [-testPolys <number of polylines>]");
             System.exit(0);
         }
 
@@ -80,6 +103,7 @@ public class TestServerStarter extends LinkServerStarter {
                 + ".");
 
         TestServerStarter serverStarter = new TestServerStarter(pnumber);
+        serverStarter.setNumTestPolys(numTestPolys);
         while (true) {
             serverStarter.run();
         }
@@ -0,0 +1,270 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.policy;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.logging.Level;
+
+import com.bbn.openmap.layer.OMGraphicHandlerLayer;
+import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.omGraphics.OMScalingRaster;
+import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.util.TaskService;
+
+/**
+ * The BackBufferRenderPolicy is a RenderPolicy that renders the layer's
+ * OMGraphicList into an image buffer on the layer's worker thread, right after
+ * prepare() returns, so paint() only has to draw a finished image on the Swing
+ * thread. A layer with a lot of OMGraphics doesn't hold up the painting of the
+ * other layers on the map. Two images are kept, the one being painted and the
+ * one being rendered, and they are swapped when rendering is done.
+ * <P>
+ * The buffer is only used if the layer's list is the one returned by
+ * prepare(), for the current projection. If the layer sets a different list,
+ * the list is painted like the StandardRenderPolicy does until the next
+ * prepare(). When an OMGraphicHandlerLayer asks for a repaint() outside of
+ * the repaint that follows prepare(), like after highlighting, selecting or
+ * editing OMGraphics, the buffer is dropped and the list is painted directly
+ * until the next prepare(), so those changes show up. While a projection
+ * change is being worked on, the last buffer is scaled to the new projection
+ * for Cylindrical projections, the way the BufferedImageRenderPolicy does it.
+ * <P>
+ * The time spent rendering and painting is kept in a RenderStatistics object.
+ * The BackBufferMapBeanRepaintPolicy can set this policy on all of the layers
+ * on a MapBean.
+ */
+public class BackBufferRenderPolicy extends BufferedImageRenderPolicy {
+
+    protected final RenderStatistics statistics = new RenderStatistics();
+
+    /**
+     * The finished buffer painted by paint(), guarded by this.
+     */
+    protected Frame front;
+
+    /**
+     * The image the next buffer is rendered into, guarded by this.
+     */
+    protected BufferedImage spare;
+
+    /**
+     * True from the time a buffer is rendered until the repaint that shows it,
+     * guarded by this.
+     */
+    protected boolean fresh = false;
+
+    /**
+     * Set the layer at some point before use.
+     */
+    public BackBufferRenderPolicy() {
+        super();
+    }
+
+    /**
+     * Don't pass in a null layer.
+     */
+    public BackBufferRenderPolicy(OMGraphicHandlerLayer layer) {
+        super(layer);
+    }
+
+    /**
+     * @return the frame times for the layer.
+     */
+    public RenderStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Stop using the current buffer, so the layer's list is painted directly
+     * until the next prepare(). Called from repaintRequested(), layers that
+     * aren't OMGraphicHandlerLayers should call this before repaint() if the
+     * OMGraphics in the list were changed outside of prepare().
+     */
+    public synchronized void invalidate() {
+        if (front != null) {
+            spare = front.image;
+            front = null;
+        }
+        fresh = false;
+        getImageBuffer().setImageRaster(null);
+    }
+
+    /**
+     * Called by the OMGraphicHandlerLayer when it asks for a repaint. The
+     * first request after a buffer is rendered is the one that shows it, any
+     * other request for the same projection means the OMGraphics may have
+     * changed since the buffer was rendered, so the buffer is invalidated.
+     * Requests made while a new projection is being worked on leave the buffer
+     * alone so it can be scaled.
+     */
+    public synchronized void repaintRequested() {
+        if (fresh) {
+            fresh = false;
+            return;
+        }
+
+        if (front != null && layer != null && front.projection.equals(layer.getProjection())) {
+            invalidate();
+        }
+    }
+
+    public synchronized void prePrepare(Projection newProj) {
+        super.prePrepare(newProj);
+    }
+
+    public OMGraphicList prepare() {
+        if (layer == null) {
+            logger.warning("NULL layer, can't do anything.");
+            return null;
+        }
+
+        Projection proj = layer.getProjection();
+        OMGraphicList list = layer.prepare();
+
+        // A newer projection is coming, the next worker will render it.
+        if (proj != null && !TaskService.isCurrentWorkerCancelled()) {
+            try {
+                render(list, proj);
+            } catch (NullPointerException npe) {
+                logger.fine("Caught NPE creating the image buffer for layer: " + layer.getName());
+                if (logger.isLoggable(Level.FINE)) {
+                    npe.printStackTrace();
+                }
+                invalidate();
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Render the list into the spare image and make it the buffer that gets
+     * painted.
+     *
+     * @param list the list returned by the layer's prepare().
+     * @param proj the projection the list was prepared for.
+     */
+    protected void render(OMGraphicList list, Projection proj) {
+        int w = proj.getWidth();
+        int h = proj.getHeight();
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+
+        BufferedImage image;
+        synchronized (this) {
+            image = spare;
+            spare = null;
+        }
+
+        long start = System.nanoTime();
+
+        if (image == null || image.getWidth() != w || image.getHeight() != h) {
+            if (image != null) {
+                image.flush();
+            }
+            image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        }
+
+        Graphics2D g2 = image.createGraphics();
+        try {
+            g2.setComposite(AlphaComposite.Clear);
+            g2.fillRect(0, 0, w, h);
+            g2.setComposite(AlphaComposite.SrcOver);
+            setRenderingHints(g2);
+            if (list != null) {
+                list.render(g2);
+            }
+        } finally {
+            g2.dispose();
+        }
+
+        statistics.recordRender(System.nanoTime() - start);
+
+        synchronized (this) {
+            if (front != null) {
+                spare = front.image;
+            }
+            front = new Frame(image, proj, list);
+            fresh = true;
+
+            ImageBuffer imageBuffer = getImageBuffer();
+            imageBuffer.setImageRaster(imageBuffer.updateRaster(image, proj));
+            imageBuffer.currentProjection = proj;
+        }
+    }
+
+    public void paint(Graphics g) {
+        if (layer == null) {
+            logger.warning("NULL layer, skipping...");
+            return;
+        }
+
+        Projection proj = layer.getProjection();
+
+        if (!layer.isProjectionOK(proj)) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(layer.getName() + ".paint(): skipping due to projection.");
+            }
+            return;
+        }
+
+        long start = System.nanoTime();
+        Graphics2D g2 = (Graphics2D) g.create();
+        setCompositeOnGraphics(g2);
+        OMGraphicList list = layer.getList();
+        boolean missed = false;
+
+        synchronized (this) {
+            Frame frame = front;
+            OMScalingRaster raster = getImageBuffer().getImageRaster();
+
+            if (frame == null || frame.list != list) {
+                missed = true;
+            } else if (proj.equals(frame.projection)) {
+                g2.drawImage(frame.image, 0, 0, null);
+            } else if (raster != null) {
+                raster.render(g2);
+            } else {
+                missed = true;
+            }
+        }
+
+        if (missed && list != null) {
+            setRenderingHints(g2);
+            list.render(g2);
+        }
+
+        g2.dispose();
+        statistics.recordPaint(System.nanoTime() - start, missed);
+    }
+
+    /**
+     * A rendered buffer and what it was rendered from.
+     */
+    protected static class Frame {
+        protected final BufferedImage image;
+        protected final Projection projection;
+        protected final OMGraphicList list;
+
+        protected Frame(BufferedImage image, Projection projection, OMGraphicList list) {
+            this.image = image;
+            this.projection = projection;
+            this.list = list;
+        }
+    }
+}
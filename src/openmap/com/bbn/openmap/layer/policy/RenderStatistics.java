@@ -0,0 +1,129 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.policy;
+
+/**
+ * The frame times for a layer, kept by the BackBufferRenderPolicy. Render
+ * times are the time spent drawing the OMGraphicList into the back buffer on
+ * the layer's worker thread, paint times are the time spent in paint() on the
+ * Swing thread. Paints that couldn't use a finished buffer, because the layer
+ * changed its list or the projection changed, are counted as missed.
+ */
+public class RenderStatistics {
+    protected long renderCount;
+    protected long totalRenderNanos;
+    protected long maxRenderNanos;
+    protected long lastRenderNanos;
+    protected long paintCount;
+    protected long totalPaintNanos;
+    protected long maxPaintNanos;
+    protected long lastPaintNanos;
+    protected long missedCount;
+
+    protected synchronized void recordRender(long nanos) {
+        renderCount++;
+        totalRenderNanos += nanos;
+        maxRenderNanos = Math.max(maxRenderNanos, nanos);
+        lastRenderNanos = nanos;
+    }
+
+    protected synchronized void recordPaint(long nanos, boolean missed) {
+        paintCount++;
+        totalPaintNanos += nanos;
+        maxPaintNanos = Math.max(maxPaintNanos, nanos);
+        lastPaintNanos = nanos;
+        if (missed) {
+            missedCount++;
+        }
+    }
+
+    /**
+     * @return a snapshot of these statistics.
+     */
+    public synchronized RenderStatistics copy() {
+        RenderStatistics ret = new RenderStatistics();
+        ret.renderCount = renderCount;
+        ret.totalRenderNanos = totalRenderNanos;
+        ret.maxRenderNanos = maxRenderNanos;
+        ret.lastRenderNanos = lastRenderNanos;
+        ret.paintCount = paintCount;
+        ret.totalPaintNanos = totalPaintNanos;
+        ret.maxPaintNanos = maxPaintNanos;
+        ret.lastPaintNanos = lastPaintNanos;
+        ret.missedCount = missedCount;
+        return ret;
+    }
+
+    public synchronized void reset() {
+        renderCount = 0;
+        totalRenderNanos = 0;
+        maxRenderNanos = 0;
+        lastRenderNanos = 0;
+        paintCount = 0;
+        totalPaintNanos = 0;
+        maxPaintNanos = 0;
+        lastPaintNanos = 0;
+        missedCount = 0;
+    }
+
+    /** @return the number of buffers rendered. */
+    public synchronized long getRenderCount() {
+        return renderCount;
+    }
+
+    /** @return the average time to render a buffer, in ms. */
+    public synchronized double getAverageRenderMillis() {
+        return renderCount == 0 ? 0 : totalRenderNanos / 1e6 / renderCount;
+    }
+
+    /** @return the longest time to render a buffer, in ms. */
+    public synchronized double getMaxRenderMillis() {
+        return maxRenderNanos / 1e6;
+    }
+
+    /** @return the time to render the last buffer, in ms. */
+    public synchronized double getLastRenderMillis() {
+        return lastRenderNanos / 1e6;
+    }
+
+    /** @return the number of paints. */
+    public synchronized long getPaintCount() {
+        return paintCount;
+    }
+
+    /** @return the number of paints that didn't have a finished buffer. */
+    public synchronized long getMissedCount() {
+        return missedCount;
+    }
+
+    /** @return the average time to paint, in ms. */
+    public synchronized double getAveragePaintMillis() {
+        return paintCount == 0 ? 0 : totalPaintNanos / 1e6 / paintCount;
+    }
+
+    /** @return the longest time to paint, in ms. */
+    public synchronized double getMaxPaintMillis() {
+        return maxPaintNanos / 1e6;
+    }
+
+    /** @return the time of the last paint, in ms. */
+    public synchronized double getLastPaintMillis() {
+        return lastPaintNanos / 1e6;
+    }
+
+    public String toString() {
+        return String.format("%d renders, average %.1f ms, max %.1f ms, last %.1f ms; %d paints (%d missed), average %.2f ms, max %.2f ms, last %.2f ms", getRenderCount(), getAverageRenderMillis(), getMaxRenderMillis(), getLastRenderMillis(), getPaintCount(), getMissedCount(), getAveragePaintMillis(), getMaxPaintMillis(), getLastPaintMillis());
+    }
+}
@@ -40,6 +40,8 @@ package com.bbn.openmap.layer.rpf;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
 
 import com.bbn.openmap.omGraphics.OMGraphic;
@@ -114,6 +116,20 @@ public class RpfCacheHandler {
      * the matrix.
      */
     protected int subframeBuffer = DEFAULT_SUBFRAMEBUFFER;
+    /**
+     * The number of rows or columns of subframes past the edge of the map to
+     * decompress ahead of time, in the direction the map is moving. Only used
+     * with a RpfFrameCacheHandler frame provider. 0 turns prefetching off.
+     */
+    protected int prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+    public static final int DEFAULT_PREFETCH_DEPTH = 1;
+    /**
+     * The RpfCoverageBox and subframes shown the last time, to figure out
+     * which way the map is moving.
+     */
+    protected RpfCoverageBox lastBox;
+    protected Point lastStart = new Point();
+    protected Point lastEnd = new Point();
 
     /**
      * Used in setCache to see if new coverage is needed with a projection
@@ -363,9 +379,81 @@ public class RpfCacheHandler {
             }
         }
 
+        prefetch();
+
         return omGraphics;
     }
 
+    /**
+     * Compare the subframes on the map with the ones from the last time, and
+     * have the frame provider decompress the subframes past the edge of the
+     * map in the direction it moved.
+     */
+    protected void prefetch() {
+        RpfCoverageBox currentBox = goodData && !coverageBoxes.isEmpty() ? coverageBoxes.elementAt(0) : null;
+        RpfCoverageBox previousBox = lastBox;
+        Point previousStart = lastStart;
+        Point previousEnd = lastEnd;
+
+        lastBox = currentBox;
+        lastStart = new Point(start);
+        lastEnd = new Point(end);
+
+        if (currentBox == null || previousBox == null || prefetchDepth <= 0
+                || !(frameProvider instanceof RpfFrameCacheHandler)
+                || currentBox.tocNumber != previousBox.tocNumber
+                || currentBox.entryNumber != previousBox.entryNumber) {
+            return;
+        }
+
+        // Twice the movement of the center, in subframes.
+        int dx = Integer.signum((start.x + end.x) - (previousStart.x + previousEnd.x));
+        int dy = Integer.signum((start.y + end.y) - (previousStart.y + previousEnd.y));
+        if (dx == 0 && dy == 0) {
+            return;
+        }
+
+        List<Point> subframes = new ArrayList<Point>();
+        for (int i = 1; i <= prefetchDepth; i++) {
+            int col = dx > 0 ? end.x + i : start.x - i;
+            int row = dy > 0 ? end.y + i : start.y - i;
+
+            if (dx != 0) {
+                for (int suby = start.y; suby <= end.y; suby++) {
+                    subframes.add(new Point(col, suby));
+                }
+            }
+            if (dy != 0) {
+                for (int subx = start.x; subx <= end.x; subx++) {
+                    subframes.add(new Point(subx, row));
+                }
+            }
+            if (dx != 0 && dy != 0) {
+                subframes.add(new Point(col, row));
+            }
+        }
+
+        if (DEBUG_RPF) {
+            Debug.output("RpfCacheHandler: prefetching " + subframes.size() + " subframes, moving " + dx + ", " + dy);
+        }
+
+        ((RpfFrameCacheHandler) frameProvider).prefetchSubframes(currentBox.tocNumber, currentBox.entryNumber, subframes);
+    }
+
+    /**
+     * Set the number of rows or columns of subframes past the edge of the map
+     * that are decompressed ahead of time, in the direction the map is moving.
+     * 
+     * @param depth 0 to turn prefetching off.
+     */
+    public void setPrefetchDepth(int depth) {
+        prefetchDepth = depth;
+    }
+
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
     /**
      * Resets the indicators in the subframe cache, so that none of the current
      * contents will be used - they'll have to be loaded with data first. The
@@ -29,11 +29,16 @@
 
 package com.bbn.openmap.layer.rpf;
 
+import java.awt.Color;
+import java.awt.Point;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.util.Debug;
+import com.bbn.openmap.util.TaskService;
 import com.bbn.openmap.util.cacheHandler.CacheHandler;
 import com.bbn.openmap.util.cacheHandler.CacheObject;
 
@@ -43,6 +48,10 @@ import com.bbn.openmap.util.cacheHandler.CacheObject;
  * RpfFrameProvider. You create one of these with the paths to the RPF
  * directories, and then hand it to something that needs a RpfFrameProvider, or
  * that acts like one.
+ * <P>
+ * The decompressed subframes are kept in the shared RpfSubframeCache, so
+ * frames only need to be read and subframes decompressed the first time they
+ * are needed by any RpfFrameCacheHandler.
  */
 public class RpfFrameCacheHandler
       extends CacheHandler
@@ -61,6 +70,10 @@ public class RpfFrameCacheHandler
    protected RpfTocHandler[] tocs;
    /** View and display attributes for the data. */
    protected RpfViewAttributes viewAttributes = new RpfViewAttributes();
+   /** The decompressed subframes, shared with other RpfFrameCacheHandlers. */
+   protected RpfSubframeCache subframeCache = RpfSubframeCache.getSharedCache();
+   /** Incremented for each prefetch request, so older ones can quit. */
+   protected final AtomicInteger prefetchCount = new AtomicInteger();
 
    /**
     * The default constructor.
@@ -508,39 +521,55 @@ public class RpfFrameCacheHandler
     * @return integer pixel data.
     */
    public int[] getSubframeData(int tocNumber, int entryNumber, int x, int y) {
-
-      if (!tocs[tocNumber].isValid()) {
+      RpfSubframeCache.Subframe subframe = getSubframe(tocNumber, entryNumber, x, y);
+      if (subframe == null || subframe.pixels == null) {
          return null;
       }
 
       RpfTocEntry entry = tocs[tocNumber].entries[entryNumber];
+      checkColortable(subframe.colortable, entry, tocNumber, entryNumber);
 
-      /* If beyond the image boundary, forget it */
-      if (y < 0 || x < 0 || entry == null || y >= entry.vertFrames * 6 || x >= entry.horizFrames * 6) {
-         return null;
+      Color[] colors = colortable.colors;
+      int[] argb = new int[colors.length];
+      for (int i = 0; i < argb.length; i++) {
+         argb[i] = colors[i].getRGB();
       }
 
-      if (!entry.isFramesLoaded()) {
-         tocs[tocNumber].loadFrameInformation(entry);
+      byte[] indexes = subframe.pixels;
+      int[] pixels = new int[indexes.length];
+      for (int i = 0; i < pixels.length; i++) {
+         pixels[i] = argb[indexes[i] & 0xff];
       }
-      RpfFrameEntry frameEntry = entry.getFrame(y / 6, x / 6);
-
-      /* Get the right frame from the frame cache */
-      RpfFrame frame = (RpfFrame) get(frameEntry);
+      return pixels;
+   }
 
-      if (frame == null) {
+   public RpfIndexedImageData getRawSubframeData(int tocNumber, int entryNumber, int x, int y) {
+      RpfSubframeCache.Subframe subframe = getSubframe(tocNumber, entryNumber, x, y);
+      if (subframe == null) {
          return null;
       }
 
-      checkColortable(frame, frameEntry, entry, tocNumber, entryNumber);
+      RpfTocEntry entry = tocs[tocNumber].entries[entryNumber];
+      checkColortable(subframe.colortable, entry, tocNumber, entryNumber);
 
-      /*
-       * This should never fail, since all subframes should be present
-       */
-      return frame.decompressSubframe(x, y, colortable);
+      RpfIndexedImageData riid = new RpfIndexedImageData();
+      // The cached pixels are shared, the subframe gets its own copy.
+      riid.imageData = subframe.pixels != null ? subframe.pixels.clone() : null;
+      riid.colortable = colortable.colors;
+      return riid;
    }
 
-   public RpfIndexedImageData getRawSubframeData(int tocNumber, int entryNumber, int x, int y) {
+   /**
+    * Get a decompressed subframe from the shared RpfSubframeCache. The frame
+    * is only read if the subframe isn't already in the cache.
+    * 
+    * @param tocNumber the toc id for a RpfTocHandler.
+    * @param entryNumber the RpfTocEntry id for the RpfTocHandler.
+    * @param x the horizontal subframe index, from the left side of the entry.
+    * @param y the vertical subframe index, from the top side of the entry.
+    * @return RpfSubframeCache.Subframe, null if the frame isn't available.
+    */
+   protected RpfSubframeCache.Subframe getSubframe(int tocNumber, int entryNumber, int x, int y) {
       if (!tocs[tocNumber].isValid()) {
          return null;
       }
@@ -549,26 +578,85 @@ public class RpfFrameCacheHandler
 
       /* If beyond the image boundary, forget it */
       if (y < 0 || x < 0 || entry == null || y >= entry.vertFrames * 6 || x >= entry.horizFrames * 6) {
-
          return null;
       }
+
       if (!entry.isFramesLoaded()) {
          tocs[tocNumber].loadFrameInformation(entry);
       }
       RpfFrameEntry frameEntry = entry.getFrame(y / 6, x / 6);
+      if (frameEntry == null) {
+         return null;
+      }
+
+      RpfSubframeCache.Subframe subframe = subframeCache.getCached(frameEntry.framePath, x, y);
+      if (subframe != null) {
+         return subframe;
+      }
 
       /* Get the right frame from the frame cache */
       RpfFrame frame = (RpfFrame) get(frameEntry);
-
-      if (frame == null)
+      if (frame == null) {
          return null;
+      }
 
-      checkColortable(frame, frameEntry, entry, tocNumber, entryNumber);
+      return subframeCache.get(frame, frameEntry.framePath, x, y);
+   }
 
-      RpfIndexedImageData riid = new RpfIndexedImageData();
-      riid.imageData = frame.decompressSubframe(x, y);
-      riid.colortable = colortable.colors;
-      return riid;
+   /**
+    * Decompress subframes into the shared RpfSubframeCache on another thread,
+    * so they are ready if the map moves over them. Subframes still waiting
+    * from an earlier call are dropped.
+    * 
+    * @param tocNumber the toc id for a RpfTocHandler.
+    * @param entryNumber the RpfTocEntry id for the RpfTocHandler.
+    * @param subframes the x, y subframe indexes within the entry.
+    */
+   public void prefetchSubframes(final int tocNumber, final int entryNumber, List<Point> subframes) {
+      if (subframes == null || subframes.isEmpty() || tocNumber < 0 || tocNumber >= tocs.length) {
+         return;
+      }
+
+      RpfTocEntry entry = tocs[tocNumber].isValid() ? tocs[tocNumber].entries[entryNumber] : null;
+      // The frames for the entry are loaded when the entry is on the screen,
+      // which is where the prefetched subframes should be next to.
+      if (entry == null || !entry.isFramesLoaded()) {
+         return;
+      }
+
+      final int prefetch = prefetchCount.incrementAndGet();
+      final List<Point> points = new ArrayList<Point>(subframes);
+      TaskService.singleton().spawn(new Runnable() {
+         public void run() {
+            int count = 0;
+            for (Point pnt : points) {
+               if (prefetchCount.get() != prefetch) {
+                  break;
+               }
+               getSubframe(tocNumber, entryNumber, pnt.x, pnt.y);
+               count++;
+            }
+
+            if (Debug.debugging("rpf")) {
+               Debug.output("RpfFrameCacheHandler: prefetched " + count + " of " + points.size() + " subframes");
+            }
+         }
+      });
+   }
+
+   /**
+    * @return the cache of decompressed subframes used by this handler.
+    */
+   public RpfSubframeCache getSubframeCache() {
+      return subframeCache;
+   }
+
+   /**
+    * Set the cache of decompressed subframes, if this handler shouldn't use
+    * the shared one.
+    */
+   public void setSubframeCache(RpfSubframeCache subframeCache) {
+      this.subframeCache = subframeCache;
    }
 
    /**
@@ -582,6 +670,15 @@ public class RpfFrameCacheHandler
     * case.
     */
    protected void checkColortable(RpfFrame frame, RpfFrameEntry frameEntry, RpfTocEntry entry, int tocNumber, int entryNumber) {
+      checkColortable(frame.getColortable(), entry, tocNumber, entryNumber);
+   }
+
+   /**
+    * Load the colortable with the colors from a frame's colortable, and set
+    * the opaqueness. The colors are copied, the frame's colortable isn't
+    * modified.
+    */
+   protected void checkColortable(RpfColortable frameColortable, RpfTocEntry entry, int tocNumber, int entryNumber) {
       // Colortables are constant across chart types and zones. If
       // the current chart type and zone don't match the colortable,
       // read the proper one from the frame. All the frames inside
@@ -602,7 +699,10 @@ public class RpfFrameCacheHandler
             Debug.output("RpfFrameCacheHandler: getting CIB colors = " + entry.Cib);
          }
          // Seems like there ought to be a better way to do this.
-         colortable.setFrom(frame.getColortable());
+         colortable.setFrom(frameColortable);
+         if (colortable.colors != null) {
+            colortable.colors = colortable.colors.clone();
+         }
          colortable.setCib(entry.Cib);
          colortable.setATOCIndexes(tocNumber, entryNumber);
          colortable.zone = entry.zone;
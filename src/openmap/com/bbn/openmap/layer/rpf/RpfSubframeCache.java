@@ -0,0 +1,189 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.rpf;
+
+import java.awt.Color;
+
+import com.bbn.openmap.util.Debug;
+import com.bbn.openmap.util.cacheHandler.CacheHandler;
+import com.bbn.openmap.util.cacheHandler.CacheObject;
+
+/**
+ * A cache of decompressed RPF subframes, shared by all of the
+ * RpfFrameCacheHandlers in the application. The subframes are held as the
+ * 256x256 colortable indexes the RpfFrame decompresses them into, with a copy
+ * of the frame's colortable, so they don't depend on the opaqueness or color
+ * model a layer is using. Two RpfLayers showing the same charts, like a map
+ * and an overview map, only decompress a subframe once, and subframes that
+ * were on the screen a little while ago don't have to be decompressed again.
+ * <P>
+ * The cache is keyed by the frame file path and the subframe's position in the
+ * frame, and is limited by the number of bytes it holds, DEFAULT_MAX_BYTES to
+ * start with. The shared cache can be resized with setMaxCacheWeight().
+ */
+public class RpfSubframeCache extends CacheHandler {
+
+    /**
+     * The most subframes held, if they are small. The cache is really limited
+     * by the weight.
+     */
+    public final static int DEFAULT_CACHE_SIZE = 4096;
+    /** 64MB, a little under a thousand subframes. */
+    public final static long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static RpfSubframeCache sharedCache;
+
+    public RpfSubframeCache() {
+        this(DEFAULT_CACHE_SIZE, DEFAULT_MAX_BYTES);
+    }
+
+    public RpfSubframeCache(int maxSize, long maxBytes) {
+        super(maxSize);
+        setMaxCacheWeight(maxBytes);
+    }
+
+    /**
+     * @return the RpfSubframeCache used by all of the RpfFrameCacheHandlers.
+     */
+    public synchronized static RpfSubframeCache getSharedCache() {
+        if (sharedCache == null) {
+            sharedCache = new RpfSubframeCache();
+        }
+        return sharedCache;
+    }
+
+    /**
+     * Get a subframe from the cache, without decompressing it.
+     *
+     * @param framePath the path to the frame file.
+     * @param x the horizontal subframe index, from the left of the entry or
+     *        the frame.
+     * @param y the vertical subframe index, from the top of the entry or the
+     *        frame.
+     * @return Subframe, or null if it hasn't been decompressed.
+     */
+    public Subframe getCached(String framePath, int x, int y) {
+        CacheObject co = searchCache(new Key(framePath, x, y));
+        return co != null ? (Subframe) co.obj : null;
+    }
+
+    /**
+     * Get a subframe from the cache, decompressing it from the frame if it
+     * isn't there.
+     *
+     * @param frame the frame holding the subframe.
+     * @param framePath the path to the frame file.
+     * @param x the horizontal subframe index, from the left of the entry or
+     *        the frame.
+     * @param y the vertical subframe index, from the top of the entry or the
+     *        frame.
+     * @return Subframe, with null pixels if the subframe is masked in the
+     *         frame.
+     */
+    public Subframe get(RpfFrame frame, String framePath, int x, int y) {
+        Key key = new Key(framePath, x, y);
+        CacheObject co = searchCache(key);
+        if (co != null) {
+            return (Subframe) co.obj;
+        }
+
+        long start = System.nanoTime();
+        co = new CacheObject(key, new Subframe(frame.decompressSubframe(x, y), frame.getColortable()));
+        recordLoad(start, true);
+        replaceLeastUsed(co);
+
+        if (Debug.debugging("rpfdetail")) {
+            Debug.output("RpfSubframeCache: decompressed " + key);
+        }
+        return (Subframe) co.obj;
+    }
+
+    /**
+     * Subframes are decompressed with get(RpfFrame, String, int, int), there
+     * isn't enough information in the key to load them.
+     */
+    public CacheObject load(Object key) {
+        return null;
+    }
+
+    /**
+     * The weight of a subframe is the number of bytes in its pixels and
+     * colors.
+     */
+    protected long weigh(CacheObject obj) {
+        if (obj.obj instanceof Subframe) {
+            byte[] pixels = ((Subframe) obj.obj).pixels;
+            return (pixels != null ? pixels.length : 0) + 4L * RpfColortable.CADRG_COLORS;
+        }
+        return 1;
+    }
+
+    /**
+     * A decompressed subframe.
+     */
+    public static class Subframe {
+        /**
+         * Indexes into the colortable, 256x256, null if the subframe is masked
+         * in the frame. Shared, don't modify.
+         */
+        public final byte[] pixels;
+        /**
+         * A copy of the colortable of the frame the subframe came from. Shared,
+         * don't modify - copy the colors before changing the opaqueness.
+         */
+        public final RpfColortable colortable;
+
+        protected Subframe(byte[] pixels, RpfColortable frameColortable) {
+            this.pixels = pixels;
+            colortable = new RpfColortable();
+            if (frameColortable != null) {
+                colortable.setFrom(frameColortable);
+                if (frameColortable.colors != null) {
+                    colortable.colors = frameColortable.colors.clone();
+                }
+            }
+        }
+    }
+
+    /**
+     * The cache key for a subframe, the frame path and the subframe position
+     * within the frame.
+     */
+    public static class Key {
+        protected final String framePath;
+        protected final int index;
+
+        public Key(String framePath, int x, int y) {
+            this.framePath = framePath;
+            index = (y % 6) * 6 + (x % 6);
+        }
+
+        public int hashCode() {
+            return framePath.hashCode() * 31 + index;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return index == other.index && framePath.equals(other.framePath);
+        }
+
+        public String toString() {
+            return framePath + " subframe " + (index % 6) + ", " + (index / 6);
+        }
+    }
+}
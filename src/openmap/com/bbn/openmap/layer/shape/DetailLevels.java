@@ -0,0 +1,442 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.shape;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.omGraphics.OMGraphic;
+import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.omGraphics.OMPoly;
+import com.bbn.openmap.proj.GeoProj;
+import com.bbn.openmap.proj.Projection;
+
+/**
+ * Multi-resolution versions of the polygons and polylines in a shape file, so
+ * the SpatialIndex doesn't create OMGraphics with thousands of vertices that
+ * all fall in the same few pixels when the map is zoomed out.
+ * <P>
+ * The Douglas-Peucker algorithm is run once over each part of a record, and
+ * every vertex is given the distance (in radians) at which the algorithm would
+ * drop it. A vertex is never given a larger distance than the vertex that
+ * split the segment it's on, so keeping the vertices with a distance over a
+ * tolerance gives the same line Douglas-Peucker would give for that tolerance.
+ * All of the levels of detail come from the one array of distances, and the
+ * tolerance for a projection is figured from the size of a pixel.
+ * <P>
+ * The distances are kept for each record by byte offset, and can be saved
+ * next to the shape file (file.lod for file.shp) with the size and
+ * modification time of the shape file so stale distances can be detected.
+ */
+public class DetailLevels {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.layer.shape.DetailLevels");
+
+    /** The default tolerance, in pixels. */
+    public final static float DEFAULT_TOLERANCE = 0.5f;
+
+    /** Magic number at the start of a saved file. */
+    protected final static int MAGIC = 0x4f4d4c44; // OMLD
+    protected final static int VERSION = 1;
+    protected final static int HEADER_LENGTH = 28;
+
+    /** The distances for the parts of each record, by record byte offset. */
+    protected final Map<Integer, float[][]> records = new ConcurrentHashMap<Integer, float[][]>();
+
+    /** Set when records are added, cleared when they are saved. */
+    protected volatile boolean dirty = false;
+
+    public DetailLevels() {
+    }
+
+    /**
+     * @return the number of records the distances are known for.
+     */
+    public int size() {
+        return records.size();
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public void clear() {
+        records.clear();
+        dirty = false;
+    }
+
+    /**
+     * Figure out the simplification tolerance for a projection.
+     *
+     * @param proj the map projection.
+     * @param pixels the tolerance in pixels.
+     * @return the tolerance in radians, or 0 if the projection isn't a
+     *         GeoProj, or the tolerance couldn't be figured out.
+     */
+    public static double getTolerance(Projection proj, float pixels) {
+        if (!(proj instanceof GeoProj) || pixels <= 0) {
+            return 0;
+        }
+
+        double x = proj.getWidth() / 2.0;
+        double y = proj.getHeight() / 2.0;
+        Point2D pnt1 = proj.inverse(x, y);
+        Point2D pnt2 = proj.inverse(x, y + 1);
+        double tolerance = Math.toRadians(Math.abs(pnt1.getY() - pnt2.getY())) * pixels;
+        return Double.isNaN(tolerance) || Double.isInfinite(tolerance) ? 0 : tolerance;
+    }
+
+    /**
+     * Simplify the OMPolys created for a record, or an OMGraphicList holding
+     * the OMPolys for the record's parts. Other OMGraphics are returned
+     * untouched.
+     *
+     * @param byteOffset the byte offset of the record in the shape file.
+     * @param omg the OMGraphic created for the record, with all of its
+     *        vertices, in radians.
+     * @param tolerance the tolerance in radians, from getTolerance().
+     * @return omg, with the vertices it doesn't need removed.
+     */
+    public OMGraphic simplify(int byteOffset, OMGraphic omg, double tolerance) {
+        if (tolerance <= 0) {
+            return omg;
+        }
+
+        OMPoly[] polys = getPolys(omg);
+        if (polys == null) {
+            return omg;
+        }
+
+        Integer key = Integer.valueOf(byteOffset);
+        float[][] distances = records.get(key);
+        if (distances == null || distances.length != polys.length) {
+            distances = new float[polys.length][];
+            for (int i = 0; i < polys.length; i++) {
+                distances[i] = computeDistances(polys[i].getLatLonArray());
+            }
+            records.put(key, distances);
+            dirty = true;
+        }
+
+        for (int i = 0; i < polys.length; i++) {
+            double[] coords = polys[i].getLatLonArray();
+            if (distances[i].length * 2 != coords.length) {
+                continue;
+            }
+            double[] simple = simplify(coords, distances[i], tolerance, isClosed(coords) ? 2 : 0);
+            if (simple != coords) {
+                polys[i].setLocation(simple, OMGraphic.RADIANS);
+            }
+        }
+        return omg;
+    }
+
+    /**
+     * @return the lat/lon OMPolys for a record, or null if it isn't made of
+     *         them.
+     */
+    protected OMPoly[] getPolys(OMGraphic omg) {
+        if (omg instanceof OMPoly) {
+            OMPoly poly = (OMPoly) omg;
+            return poly.getRenderType() == OMGraphic.RENDERTYPE_LATLON ? new OMPoly[] { poly }
+                    : null;
+        }
+
+        if (omg instanceof OMGraphicList) {
+            OMGraphicList list = (OMGraphicList) omg;
+            OMPoly[] polys = new OMPoly[list.size()];
+            int i = 0;
+            for (OMGraphic part : list) {
+                if (!(part instanceof OMPoly)
+                        || part.getRenderType() != OMGraphic.RENDERTYPE_LATLON) {
+                    return null;
+                }
+                polys[i++] = (OMPoly) part;
+            }
+            return polys;
+        }
+
+        return null;
+    }
+
+    protected static boolean isClosed(double[] coords) {
+        int n = coords.length;
+        return n >= 8 && coords[0] == coords[n - 2] && coords[1] == coords[n - 1];
+    }
+
+    /**
+     * Run Douglas-Peucker over the coordinates, figuring out the distance
+     * each vertex is dropped at. The end points are never dropped.
+     *
+     * @param coords lat, lon, lat, lon in radians.
+     * @return a distance in radians for each vertex.
+     */
+    public static float[] computeDistances(double[] coords) {
+        int numPoints = coords.length / 2;
+        float[] distances = new float[numPoints];
+        if (numPoints == 0) {
+            return distances;
+        }
+
+        distances[0] = Float.MAX_VALUE;
+        distances[numPoints - 1] = Float.MAX_VALUE;
+
+        // Longitudes are scaled so distances are about the same in any
+        // direction.
+        double cosLat = Math.cos(coords[0]);
+
+        // Segments waiting to be split, with the distance of the vertex that
+        // split off each one.
+        int[] stack = new int[64];
+        float[] limits = new float[32];
+        stack[0] = 0;
+        stack[1] = numPoints - 1;
+        limits[0] = Float.MAX_VALUE;
+        int top = 1;
+
+        while (top > 0) {
+            top--;
+            int first = stack[top * 2];
+            int last = stack[top * 2 + 1];
+            float limit = limits[top];
+
+            if (last - first < 2) {
+                continue;
+            }
+
+            double ay = coords[first * 2];
+            double ax = coords[first * 2 + 1] * cosLat;
+            double dy = coords[last * 2] - ay;
+            double dx = coords[last * 2 + 1] * cosLat - ax;
+            double lengthSq = dx * dx + dy * dy;
+
+            int index = first + 1;
+            double maxDistSq = -1;
+            for (int i = first + 1; i < last; i++) {
+                double py = coords[i * 2] - ay;
+                double px = coords[i * 2 + 1] * cosLat - ax;
+                double distSq;
+                if (lengthSq == 0) {
+                    distSq = px * px + py * py;
+                } else {
+                    double cross = px * dy - py * dx;
+                    distSq = cross * cross / lengthSq;
+                }
+                if (distSq > maxDistSq) {
+                    maxDistSq = distSq;
+                    index = i;
+                }
+            }
+
+            float distance = (float) Math.min(Math.sqrt(maxDistSq), limit);
+            distances[index] = distance;
+
+            if (top + 2 > limits.length) {
+                int[] newStack = new int[stack.length * 2];
+                System.arraycopy(stack, 0, newStack, 0, stack.length);
+                stack = newStack;
+                float[] newLimits = new float[limits.length * 2];
+                System.arraycopy(limits, 0, newLimits, 0, limits.length);
+                limits = newLimits;
+            }
+
+            stack[top * 2] = first;
+            stack[top * 2 + 1] = index;
+            limits[top++] = distance;
+            stack[top * 2] = index;
+            stack[top * 2 + 1] = last;
+            limits[top++] = distance;
+        }
+
+        return distances;
+    }
+
+    /**
+     * Keep the vertices with distances at or over the tolerance.
+     *
+     * @param coords lat, lon, lat, lon in radians.
+     * @param distances from computeDistances().
+     * @param tolerance in radians.
+     * @param minInterior the number of vertices besides the end points to keep
+     *        no matter what, 2 for polygons so they keep an area.
+     * @return the simplified coordinates, or coords if nothing was removed.
+     */
+    public static double[] simplify(double[] coords, float[] distances, double tolerance,
+                                    int minInterior) {
+        int numPoints = distances.length;
+
+        if (minInterior > 0) {
+            // Lower the tolerance so the biggest interior distances are kept.
+            float[] biggest = new float[minInterior];
+            for (int i = 1; i < numPoints - 1; i++) {
+                float d = distances[i];
+                for (int j = 0; j < minInterior; j++) {
+                    if (d > biggest[j]) {
+                        float tmp = biggest[j];
+                        biggest[j] = d;
+                        d = tmp;
+                    }
+                }
+            }
+            if (biggest[minInterior - 1] > 0) {
+                tolerance = Math.min(tolerance, biggest[minInterior - 1]);
+            }
+        }
+
+        int count = 0;
+        for (int i = 0; i < numPoints; i++) {
+            if (distances[i] >= tolerance) {
+                count++;
+            }
+        }
+
+        if (count == numPoints) {
+            return coords;
+        }
+
+        double[] ret = new double[count * 2];
+        int j = 0;
+        for (int i = 0; i < numPoints; i++) {
+            if (distances[i] >= tolerance) {
+                ret[j++] = coords[i * 2];
+                ret[j++] = coords[i * 2 + 1];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Save the distances to a file.
+     *
+     * @param file the file to write.
+     * @param sourceLength the length of the shape file.
+     * @param sourceModified the modification time of the shape file.
+     * @throws IOException
+     */
+    public void write(File file, long sourceLength, long sourceModified) throws IOException {
+        Map<Integer, float[][]> sorted = new TreeMap<Integer, float[][]>(records);
+        int length = HEADER_LENGTH;
+        for (float[][] parts : sorted.values()) {
+            length += 8;
+            for (float[] part : parts) {
+                length += 4 + part.length * 4;
+            }
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        buf.order(ByteOrder.BIG_ENDIAN);
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putLong(sourceLength);
+        buf.putLong(sourceModified);
+        buf.putInt(sorted.size());
+        for (Map.Entry<Integer, float[][]> entry : sorted.entrySet()) {
+            float[][] parts = entry.getValue();
+            buf.putInt(entry.getKey().intValue());
+            buf.putInt(parts.length);
+            for (float[] part : parts) {
+                buf.putInt(part.length);
+                buf.asFloatBuffer().put(part);
+                buf.position(buf.position() + part.length * 4);
+            }
+        }
+        buf.flip();
+
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            FileChannel channel = fos.getChannel();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        } finally {
+            fos.close();
+        }
+        dirty = false;
+    }
+
+    /**
+     * Read saved distances from a file.
+     *
+     * @param file the file to read.
+     * @param sourceLength the length of the shape file, to check that the
+     *        distances are current.
+     * @param sourceModified the modification time of the shape file.
+     * @return the DetailLevels, or null if the file doesn't exist, isn't a
+     *         saved file, or was created for a different version of the shape
+     *         file.
+     */
+    public static DetailLevels read(File file, long sourceLength, long sourceModified) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            FileInputStream fis = new FileInputStream(file);
+            try {
+                FileChannel channel = fis.getChannel();
+                long size = channel.size();
+                if (size < HEADER_LENGTH || size > Integer.MAX_VALUE) {
+                    return null;
+                }
+
+                ByteBuffer buf = ByteBuffer.allocate((int) size);
+                while (buf.hasRemaining() && channel.read(buf) >= 0) {
+                }
+                buf.flip();
+
+                if (buf.getInt() != MAGIC || buf.getInt() != VERSION
+                        || buf.getLong() != sourceLength || buf.getLong() != sourceModified) {
+                    logger.fine("out of date or unknown detail level file " + file);
+                    return null;
+                }
+
+                DetailLevels levels = new DetailLevels();
+                int numRecords = buf.getInt();
+                for (int i = 0; i < numRecords; i++) {
+                    int byteOffset = buf.getInt();
+                    float[][] parts = new float[buf.getInt()][];
+                    for (int j = 0; j < parts.length; j++) {
+                        parts[j] = new float[buf.getInt()];
+                        buf.asFloatBuffer().get(parts[j]);
+                        buf.position(buf.position() + parts[j].length * 4);
+                    }
+                    levels.records.put(Integer.valueOf(byteOffset), parts);
+                }
+                return levels;
+            } finally {
+                fis.close();
+            }
+        } catch (IOException ioe) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("problem reading detail level file " + file + ": " + ioe.getMessage());
+            }
+        } catch (RuntimeException re) {
+            // Buffer underflows, negative sizes.
+            logger.fine("truncated detail level file " + file);
+        }
+        return null;
+    }
+}
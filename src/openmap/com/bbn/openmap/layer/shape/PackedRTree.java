@@ -0,0 +1,444 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.layer.shape;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A static, bulk-loaded R-tree over the bounding boxes of shape file records,
+ * used by the SpatialIndex so it doesn't have to scan every index entry for
+ * every query. The tree is packed with the Sort-Tile-Recursive algorithm and
+ * stored in primitive arrays, leaves first and the root last, so it has no
+ * per-node objects and can be written to and read from a file in bulk.
+ * <P>
+ * A node at one level covers a run of up to nodeSize consecutive nodes at the
+ * level below it, so no child pointers are needed. Queries return the byte
+ * offsets of the matching records in the shp file, in file order.
+ * <P>
+ * The tree can be saved next to the shape file (file.rtx for file.shp), along
+ * with the size and modification time of the shape file so a stale tree can be
+ * detected and rebuilt.
+ *
+ * @author dietrick
+ */
+public class PackedRTree {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.layer.shape.PackedRTree");
+
+    /** Default number of children per node. */
+    public final static int DEFAULT_NODE_SIZE = 16;
+
+    /** Magic number at the start of a saved tree file. */
+    protected final static int MAGIC = 0x4f4d5254; // OMRT
+    protected final static int VERSION = 1;
+    protected final static int HEADER_LENGTH = 40;
+
+    protected final int nodeSize;
+    protected final int numItems;
+    /** The end index (exclusive) of each level, leaves are level 0. */
+    protected final int[] levelBounds;
+    protected final double[] minX;
+    protected final double[] minY;
+    protected final double[] maxX;
+    protected final double[] maxY;
+    /** The shp byte offsets of the leaves, in tree order. */
+    protected final int[] byteOffsets;
+
+    protected PackedRTree(int nodeSize, int numItems, int[] levelBounds, double[] minX,
+            double[] minY, double[] maxX, double[] maxY, int[] byteOffsets) {
+        this.nodeSize = nodeSize;
+        this.numItems = numItems;
+        this.levelBounds = levelBounds;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.byteOffsets = byteOffsets;
+    }
+
+    /**
+     * Build a tree from SpatialIndex entries.
+     */
+    public static PackedRTree create(List<SpatialIndex.Entry> entries) {
+        return create(entries, DEFAULT_NODE_SIZE);
+    }
+
+    /**
+     * Build a tree from SpatialIndex entries.
+     *
+     * @param entries the entries to index.
+     * @param nodeSize the number of children per node, at least 2.
+     */
+    public static PackedRTree create(List<SpatialIndex.Entry> entries, int nodeSize) {
+        int n = entries.size();
+        double[] xmin = new double[n];
+        double[] ymin = new double[n];
+        double[] xmax = new double[n];
+        double[] ymax = new double[n];
+        int[] offsets = new int[n];
+        int i = 0;
+        for (SpatialIndex.Entry entry : entries) {
+            xmin[i] = entry.xMin;
+            ymin[i] = entry.yMin;
+            xmax[i] = entry.xMax;
+            ymax[i] = entry.yMax;
+            offsets[i] = entry.byteOffset;
+            i++;
+        }
+        return create(xmin, ymin, xmax, ymax, offsets, nodeSize);
+    }
+
+    /**
+     * Build a tree from parallel arrays of record bounds and byte offsets. The
+     * arrays are not modified.
+     */
+    public static PackedRTree create(double[] xmin, double[] ymin, double[] xmax, double[] ymax,
+                                     int[] offsets, int nodeSize) {
+        nodeSize = Math.max(2, nodeSize);
+        int n = offsets.length;
+
+        // Figure out how many nodes there are at each level.
+        int levels = n == 0 ? 0 : 1;
+        for (int count = n; count > 1; count = (count + nodeSize - 1) / nodeSize) {
+            levels++;
+        }
+
+        int[] levelBounds = new int[levels];
+        int count = n;
+        int numNodes = 0;
+        for (int l = 0; l < levels; l++) {
+            numNodes += count;
+            levelBounds[l] = numNodes;
+            count = (count + nodeSize - 1) / nodeSize;
+        }
+
+        double[] minX = new double[numNodes];
+        double[] minY = new double[numNodes];
+        double[] maxX = new double[numNodes];
+        double[] maxY = new double[numNodes];
+        int[] byteOffsets = new int[n];
+
+        // Sort-Tile-Recursive: sort by x center, cut into vertical slices,
+        // sort each slice by y center, then pack runs into leaves.
+        int[] order = new int[n];
+        double[] keys = new double[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            keys[i] = (xmin[i] + xmax[i]) / 2;
+        }
+        sort(order, keys, 0, n - 1);
+
+        int numLeaves = (n + nodeSize - 1) / nodeSize;
+        int numSlices = (int) Math.ceil(Math.sqrt(numLeaves));
+        int sliceSize = numSlices == 0 ? n : numSlices * nodeSize;
+        for (int start = 0; start < n; start += sliceSize) {
+            int end = Math.min(n, start + sliceSize) - 1;
+            for (int i = start; i <= end; i++) {
+                keys[order[i]] = (ymin[order[i]] + ymax[order[i]]) / 2;
+            }
+            sort(order, keys, start, end);
+        }
+
+        for (int i = 0; i < n; i++) {
+            int item = order[i];
+            minX[i] = xmin[item];
+            minY[i] = ymin[item];
+            maxX[i] = xmax[item];
+            maxY[i] = ymax[item];
+            byteOffsets[i] = offsets[item];
+        }
+
+        // Build the upper levels from the one below.
+        int childStart = 0;
+        for (int l = 1; l < levels; l++) {
+            int childEnd = levelBounds[l - 1];
+            int node = childEnd;
+            for (int c = childStart; c < childEnd; c += nodeSize, node++) {
+                double nxmin = Double.POSITIVE_INFINITY;
+                double nymin = Double.POSITIVE_INFINITY;
+                double nxmax = Double.NEGATIVE_INFINITY;
+                double nymax = Double.NEGATIVE_INFINITY;
+                int last = Math.min(c + nodeSize, childEnd);
+                for (int j = c; j < last; j++) {
+                    nxmin = Math.min(nxmin, minX[j]);
+                    nymin = Math.min(nymin, minY[j]);
+                    nxmax = Math.max(nxmax, maxX[j]);
+                    nymax = Math.max(nymax, maxY[j]);
+                }
+                minX[node] = nxmin;
+                minY[node] = nymin;
+                maxX[node] = nxmax;
+                maxY[node] = nymax;
+            }
+            childStart = childEnd;
+        }
+
+        return new PackedRTree(nodeSize, n, levelBounds, minX, minY, maxX, maxY, byteOffsets);
+    }
+
+    /**
+     * @return the number of records indexed.
+     */
+    public int size() {
+        return numItems;
+    }
+
+    /**
+     * @return the bounds of all of the records, or null if the tree is empty.
+     */
+    public ESRIBoundingBox getBounds() {
+        if (numItems == 0) {
+            return null;
+        }
+        int root = minX.length - 1;
+        ESRIBoundingBox bounds = new ESRIBoundingBox(minX[root], minY[root]);
+        bounds.addPoint(maxX[root], maxY[root]);
+        return bounds;
+    }
+
+    /**
+     * Find the records whose bounds intersect the given rectangle, using the
+     * same test as SpatialIndex.intersects, where rectangles that only touch
+     * don't intersect.
+     *
+     * @return the shp byte offsets of the records, in file order.
+     */
+    public int[] search(double xmin, double ymin, double xmax, double ymax) {
+        if (numItems == 0) {
+            return new int[0];
+        }
+
+        int[] results = new int[64];
+        int numResults = 0;
+
+        // Stack of (node index, level) pairs.
+        int[] stack = new int[levelBounds.length * nodeSize * 2 + 2];
+        int top = 0;
+        stack[top++] = minX.length - 1;
+        stack[top++] = levelBounds.length - 1;
+
+        while (top > 0) {
+            int level = stack[--top];
+            int node = stack[--top];
+
+            if (level == 0) {
+                if (SpatialIndex.intersects(xmin, ymin, xmax, ymax, minX[node], minY[node], maxX[node], maxY[node])) {
+                    if (numResults == results.length) {
+                        results = Arrays.copyOf(results, numResults * 2);
+                    }
+                    results[numResults++] = byteOffsets[node];
+                }
+                continue;
+            }
+
+            int levelStart = level == 1 ? 0 : levelBounds[level - 2];
+            int childStart = levelStart + (node - levelBounds[level - 1]) * nodeSize;
+            int childEnd = Math.min(childStart + nodeSize, levelBounds[level - 1]);
+
+            for (int c = childStart; c < childEnd; c++) {
+                if (level - 1 == 0
+                        || !(xmax < minX[c] || ymax < minY[c] || xmin > maxX[c] || ymin > maxY[c])) {
+                    stack[top++] = c;
+                    stack[top++] = level - 1;
+                }
+            }
+        }
+
+        int[] ret = Arrays.copyOf(results, numResults);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    /**
+     * Save the tree to a file.
+     *
+     * @param file the file to write.
+     * @param sourceLength the length of the shape file the tree was built for.
+     * @param sourceModified the modification time of the shape file.
+     * @throws IOException
+     */
+    public void write(File file, long sourceLength, long sourceModified) throws IOException {
+        int numNodes = minX.length;
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_LENGTH + levelBounds.length * 4
+                + numNodes * 32 + numItems * 4);
+        buf.order(ByteOrder.BIG_ENDIAN);
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putLong(sourceLength);
+        buf.putLong(sourceModified);
+        buf.putInt(nodeSize);
+        buf.putInt(numItems);
+        buf.putInt(numNodes);
+        buf.putInt(levelBounds.length);
+        buf.asIntBuffer().put(levelBounds);
+        buf.position(buf.position() + levelBounds.length * 4);
+        buf.asDoubleBuffer().put(minX);
+        buf.position(buf.position() + numNodes * 8);
+        buf.asDoubleBuffer().put(minY);
+        buf.position(buf.position() + numNodes * 8);
+        buf.asDoubleBuffer().put(maxX);
+        buf.position(buf.position() + numNodes * 8);
+        buf.asDoubleBuffer().put(maxY);
+        buf.position(buf.position() + numNodes * 8);
+        buf.asIntBuffer().put(byteOffsets);
+        buf.position(buf.limit());
+        buf.flip();
+
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            FileChannel channel = fos.getChannel();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Read a saved tree from a file.
+     *
+     * @param file the file to read.
+     * @param sourceLength the length of the shape file, to check that the tree
+     *        is current.
+     * @param sourceModified the modification time of the shape file.
+     * @return the PackedRTree, or null if the file doesn't exist, isn't a
+     *         saved tree, or was created for a different version of the shape
+     *         file.
+     */
+    public static PackedRTree read(File file, long sourceLength, long sourceModified) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            FileInputStream fis = new FileInputStream(file);
+            try {
+                FileChannel channel = fis.getChannel();
+                long size = channel.size();
+                if (size < HEADER_LENGTH || size > Integer.MAX_VALUE) {
+                    return null;
+                }
+
+                ByteBuffer buf = ByteBuffer.allocate((int) size);
+                while (buf.hasRemaining() && channel.read(buf) >= 0) {
+                }
+                buf.flip();
+
+                if (buf.getInt() != MAGIC || buf.getInt() != VERSION
+                        || buf.getLong() != sourceLength || buf.getLong() != sourceModified) {
+                    logger.fine("out of date or unknown tree file " + file);
+                    return null;
+                }
+
+                int nodeSize = buf.getInt();
+                int numItems = buf.getInt();
+                int numNodes = buf.getInt();
+                int numLevels = buf.getInt();
+
+                if (buf.remaining() != numLevels * 4 + numNodes * 32 + numItems * 4) {
+                    logger.fine("truncated tree file " + file);
+                    return null;
+                }
+
+                int[] levelBounds = new int[numLevels];
+                buf.asIntBuffer().get(levelBounds);
+                buf.position(buf.position() + numLevels * 4);
+                double[] minX = readDoubles(buf, numNodes);
+                double[] minY = readDoubles(buf, numNodes);
+                double[] maxX = readDoubles(buf, numNodes);
+                double[] maxY = readDoubles(buf, numNodes);
+                int[] byteOffsets = new int[numItems];
+                buf.asIntBuffer().get(byteOffsets);
+
+                return new PackedRTree(nodeSize, numItems, levelBounds, minX, minY, maxX, maxY, byteOffsets);
+            } finally {
+                fis.close();
+            }
+        } catch (IOException ioe) {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("problem reading tree file " + file + ": " + ioe.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private static double[] readDoubles(ByteBuffer buf, int count) {
+        double[] ret = new double[count];
+        buf.asDoubleBuffer().get(ret);
+        buf.position(buf.position() + count * 8);
+        return ret;
+    }
+
+    /**
+     * Sort a range of the index array by the keys of the indexes.
+     */
+    private static void sort(int[] order, double[] keys, int lo, int hi) {
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            double pivot = median(keys[order[lo]], keys[order[mid]], keys[order[hi]]);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (keys[order[i]] < pivot) {
+                    i++;
+                }
+                while (keys[order[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse on the smaller part, loop on the larger.
+            if (j - lo < hi - i) {
+                sort(order, keys, lo, j);
+                lo = i;
+            } else {
+                sort(order, keys, i, hi);
+                hi = j;
+            }
+        }
+
+        for (int i = lo + 1; i <= hi; i++) {
+            int item = order[i];
+            double key = keys[item];
+            int j = i - 1;
+            while (j >= lo && keys[order[j]] > key) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = item;
+        }
+    }
+
+    private static double median(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+}
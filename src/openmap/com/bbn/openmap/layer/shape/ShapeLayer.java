@@ -75,6 +75,12 @@ import com.bbn.openmap.util.PropUtils;
  * shapeLayer.fillColor=ff000000
  * # plus any other properties used by the DrawingAttributes object.
  * shapeLayer.pointImageURL=&amp;ltURL for image to use for point objects&amp;gt
+ * # Save the spatial index R-tree next to the shape file for faster startup (false by default)
+ * shapeLayer.persistSpatialTree=true
+ * # Leave out polygon and polyline vertices within this many pixels of the simplified line (0.5 by default, 0 to draw them all)
+ * shapeLayer.simplifyTolerance=0.5
+ * # Save the simplification levels next to the shape file (false by default)
+ * shapeLayer.persistDetailLevels=true
  *        
  *        
  * # Optionally, Rule marker names specified in space-separated list
@@ -132,6 +138,25 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
     /** The URL of an image to use for point objects. */
     public final static String pointImageURLProperty = "pointImageURL";
 
+    /**
+     * Whether the in-memory R-tree for the shape file should be saved next to
+     * the shape file (.rtx) so it doesn't have to be rebuilt.
+     */
+    public final static String persistSpatialTreeProperty = "persistSpatialTree";
+
+    /**
+     * The distance in pixels polygon and polyline vertices can be from the
+     * simplified line drawn for them at the current scale. 0 draws every
+     * vertex.
+     */
+    public final static String simplifyToleranceProperty = "simplifyTolerance";
+
+    /**
+     * Whether the simplification levels for the shape file should be saved
+     * next to the shape file (.lod) so they don't have to be figured again.
+     */
+    public final static String persistDetailLevelsProperty = "persistDetailLevels";
+
     // Note that shadows are really in the eye of the beholder
     // The X,Y shadow offset just pushes the resulting picture in the
     // direction of the offset and draws it there. By setting the
@@ -210,6 +235,14 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
         if (shapeFileName != null && shapeFileName.length() > 0) {
 
             spatialIndex = SpatialIndex.locateAndSetShapeData(shapeFileName);
+            if (spatialIndex != null) {
+                spatialIndex.setPersistSpatialTree(PropUtils.booleanFromProperties(props, realPrefix
+                        + persistSpatialTreeProperty, false));
+                spatialIndex.setSimplifyTolerance(PropUtils.floatFromProperties(props, realPrefix
+                        + simplifyToleranceProperty, DetailLevels.DEFAULT_TOLERANCE));
+                spatialIndex.setPersistDetailLevels(PropUtils.booleanFromProperties(props, realPrefix
+                        + persistDetailLevelsProperty, false));
+            }
             String dbfFileName = SpatialIndex.dbf(shapeFileName);
 
             try {
@@ -283,6 +316,12 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
         props.put(prefix + shadowXProperty, Integer.toString(shadowX));
         props.put(prefix + shadowYProperty, Integer.toString(shadowY));
 
+        if (spatialIndex != null) {
+            props.put(prefix + persistSpatialTreeProperty, Boolean.toString(spatialIndex.isPersistSpatialTree()));
+            props.put(prefix + simplifyToleranceProperty, Float.toString(spatialIndex.getSimplifyTolerance()));
+            props.put(prefix + persistDetailLevelsProperty, Boolean.toString(spatialIndex.isPersistDetailLevels()));
+        }
+
         if (drawingAttributes != null) {
             drawingAttributes.setPropertyPrefix(getPropertyPrefix());
             drawingAttributes.getProperties(props);
@@ -325,7 +364,7 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
         PropUtils.setI18NPropertyInfo(i18n, list, ShapeLayer.class, dummyMarker, "Rendering Attributes", "Attributes that determine how the shapes will be drawn.", "com.bbn.openmap.omGraphics.DrawingAttributesPropertyEditor");
 
         list.put(initPropertiesProperty, shapeFileProperty + " " + " " + pointImageURLProperty
-                + " " + shadowXProperty + " " + shadowYProperty + " " + dummyMarker + " "
+                + " " + shadowXProperty + " " + shadowYProperty + " " + simplifyToleranceProperty + " " + dummyMarker + " "
                 + AddToBeanContextProperty + " " + MinScaleProperty + " " + MaxScaleProperty);
 
         PropUtils.setI18NPropertyInfo(i18n, list, ShapeLayer.class, shapeFileProperty, shapeFileProperty, "Location of Shape file - .shp (File, CURL or relative file path).", "com.bbn.openmap.util.propertyEditor.FUPropertyEditor");
@@ -336,6 +375,8 @@ public class ShapeLayer extends OMGraphicHandlerLayer implements ActionListener,
 
         PropUtils.setI18NPropertyInfo(i18n, list, ShapeLayer.class, shadowYProperty, shadowYProperty, "Vertical pixel offset for shadow image for shapes.", null);
 
+        PropUtils.setI18NPropertyInfo(i18n, list, ShapeLayer.class, simplifyToleranceProperty, simplifyToleranceProperty, "Pixel distance polygon and polyline vertices can be from the simplified line drawn for them (0 draws every vertex).", null);
+
         return list;
     }
 
@@ -191,6 +191,42 @@ public class SpatialIndex extends ShapeUtils {
      */
     protected List<Entry> entries;
 
+    /**
+     * The in-memory R-tree built from the index entries, used to find the
+     * records for a query without scanning every entry.
+     */
+    protected PackedRTree spatialTree;
+
+    /**
+     * Whether the R-tree should be saved next to the shape file (as a .rtx
+     * file) so it can be read back quickly the next time the shape file is
+     * used.
+     */
+    protected boolean persistSpatialTree = false;
+
+    /**
+     * The Douglas-Peucker distances for the polygon and polyline records, used
+     * to leave out the vertices that don't show at the current scale.
+     */
+    protected DetailLevels detailLevels;
+
+    /**
+     * The data transformation the detail levels were figured for.
+     */
+    protected GeoCoordTransformation detailLevelsTransform;
+
+    /**
+     * The distance in pixels a vertex can be from the simplified line before
+     * it has to be kept. 0 turns simplification off.
+     */
+    protected float simplifyTolerance = DetailLevels.DEFAULT_TOLERANCE;
+
+    /**
+     * Whether the detail levels should be saved next to the shape file (as a
+     * .lod file) when the SpatialIndex is closed.
+     */
+    protected boolean persistDetailLevels = false;
+
     /**
      * A factory object to use to create OMGraphics from the shp file.
      */
@@ -236,6 +272,34 @@ public class SpatialIndex extends ShapeUtils {
         return ret;
     }
 
+    /**
+     * Figures out the saved R-tree file name from the shp file name.
+     * 
+     * @param shpFileName
+     * @return rtx file name from shape file name
+     */
+    public static String rtx(String shpFileName) {
+        String ret = null;
+        if (shpFileName != null) {
+            ret = shpFileName.substring(0, shpFileName.indexOf(".shp")) + ".rtx";
+        }
+        return ret;
+    }
+
+    /**
+     * Figures out the saved detail level file name from the shp file name.
+     * 
+     * @param shpFileName
+     * @return lod file name from shape file name
+     */
+    public static String lod(String shpFileName) {
+        String ret = null;
+        if (shpFileName != null) {
+            ret = shpFileName.substring(0, shpFileName.indexOf(".shp")) + ".lod";
+        }
+        return ret;
+    }
+
     /**
      * Figures out the dbf file name from the shp file name.
      * 
@@ -369,8 +433,6 @@ public class SpatialIndex extends ShapeUtils {
                     + "; ymax: " + ymax);
         }
 
-        byte ixRecord[] = new byte[SPATIAL_INDEX_RECORD_LENGTH];
-        int recNum = 0;
         Vector<ESRIRecord> v = new Vector<ESRIRecord>();
         int sRecordSize = DEFAULT_SHAPE_RECORD_SIZE;
         byte sRecord[] = new byte[sRecordSize];
@@ -379,97 +441,70 @@ public class SpatialIndex extends ShapeUtils {
             return null;
         }
 
-        BinaryBufferedFile ssx = new BinaryBufferedFile(ssx(shpFileName));
+        PackedRTree tree = getSpatialTree(null);
+        if (gatherBounds) {
+            bounds = tree.getBounds();
+        }
+
         if (shp == null) {
             shp = getShpFile(shpFileName);
         }
 
         // Need to figure out what the shape type is...
-        ssx.seek(32);
+        shp.seek(32);
+        shp.byteOrder(false);
+        int shapeType = shp.readInteger();
+        shp.byteOrder(true);
 
-        // int shapeType = readLEInt(ssx);
-        // /
-        ssx.byteOrder(false);
-        int shapeType = ssx.readInteger();
-        // /
-        ssx.seek(100); // skip the file header
+        int[] byteOffsets = tree.search(xmin, ymin, xmax, ymax);
 
-        while (true) {
-            int result = ssx.read(ixRecord, 0, SPATIAL_INDEX_RECORD_LENGTH);
-            // if (result == -1) {
-            if (result <= 0) {
-                break;// EOF
-            } else {
-                recNum++;
-                double xmin2 = readLEDouble(ixRecord, 8);
-                double ymin2 = readLEDouble(ixRecord, 16);
-                double xmax2 = readLEDouble(ixRecord, 24);
-                double ymax2 = readLEDouble(ixRecord, 32);
-                if (logger.isLoggable(Level.FINER)) {
-                    logger.finer("Looking at rec num " + recNum);
-                    logger.finer("  " + xmin2 + ", " + ymin2 + "\n  " + xmax2 + ", " + ymax2);
-                }
+        for (int byteOffset : byteOffsets) {
+            try {
+                // The record header holds the content length of the record.
+                shp.seek(byteOffset + 4);
+                int contentLength = shp.readInteger();
+                int recordSize = (contentLength * 2) + 8;
 
-                if (gatherBounds) {
-                    bounds.addPoint(xmin2, ymin2);
-                    bounds.addPoint(xmax2, ymax2);
+                if (recordSize < 0) {
+                    logger.warning("SpatialIndex: supposed to read record size of " + recordSize);
+                    break;
                 }
 
-                if (intersects(xmin, ymin, xmax, ymax, xmin2, ymin2, xmax2, ymax2)) {
-
-                    int offset = readBEInt(ixRecord, 0);
-                    int byteOffset = offset * 2;
-                    int contentLength = readBEInt(ixRecord, 4);
-                    int recordSize = (contentLength * 2) + 8;
-                    // System.out.print(".");
-                    // System.out.flush();
-
-                    if (recordSize < 0) {
-                        logger.warning("SpatialIndex: supposed to read record size of "
-                                + recordSize);
-                        break;
-                    }
-
-                    if (recordSize > sRecordSize) {
-                        sRecordSize = recordSize;
-                        if (logger.isLoggable(Level.FINER)) {
-                            logger.finer("Shapefile SpatialIndex record size: " + sRecordSize);
-                        }
-                        sRecord = new byte[sRecordSize];
-                    }
-
-                    if (logger.isLoggable(Level.FINE)) {
-                        logger.fine("going to shp byteOffset = " + byteOffset
-                                + " for record size = " + recordSize + ", offset = " + offset
-                                + ", shape type = " + shapeType);
+                if (recordSize > sRecordSize) {
+                    sRecordSize = recordSize;
+                    if (logger.isLoggable(Level.FINER)) {
+                        logger.finer("Shapefile SpatialIndex record size: " + sRecordSize);
                     }
+                    sRecord = new byte[sRecordSize];
+                }
 
-                    try {
-                        shp.seek(byteOffset);
-                        int nBytes = shp.read(sRecord, 0, recordSize);
-                        if (nBytes < recordSize) {
-                            logger.warning("Shapefile SpatialIndex expected " + recordSize
-                                    + " bytes, but got " + nBytes + " bytes instead.");
-                        }
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("going to shp byteOffset = " + byteOffset + " for record size = "
+                            + recordSize + ", shape type = " + shapeType);
+                }
 
-                        ESRIRecord record = makeESRIRecord(shapeType, sRecord, 0);
-                        v.addElement(record);
-                    } catch (IOException ioe) {
-                        logger.warning("SpatialIndex.locateRecords: IOException. ");
-                        ioe.printStackTrace();
-                        break;
-                    }
+                shp.seek(byteOffset);
+                int nBytes = shp.read(sRecord, 0, recordSize);
+                if (nBytes < recordSize) {
+                    logger.warning("Shapefile SpatialIndex expected " + recordSize
+                            + " bytes, but got " + nBytes + " bytes instead.");
                 }
+
+                ESRIRecord record = makeESRIRecord(shapeType, sRecord, 0);
+                v.addElement(record);
+            } catch (IOException ioe) {
+                logger.warning("SpatialIndex.locateRecords: IOException. ");
+                ioe.printStackTrace();
+                break;
             }
         }
 
         if (logger.isLoggable(Level.FINE)) {
-            logger.fine("Processed " + recNum + " records");
+            logger.fine("Processed " + tree.size() + " records");
             logger.fine("Selected " + v.size() + " records");
         }
         int nRecords = v.size();
 
-        ssx.close();
         shp.close();
         shp = null;
         ESRIRecord result[] = new ESRIRecord[nRecords];
@@ -555,37 +590,42 @@ public class SpatialIndex extends ShapeUtils {
         OMGraphicList labels = new OMGraphicList();
         list.add(labels);
 
-        for (Iterator<?> it = entryIterator(dataProj); it.hasNext();) {
-            Entry entry = (Entry) it.next();
+        int[] byteOffsets = getSpatialTree(dataProj).search(xmin, ymin, xmax, ymax);
 
-            if (entry.intersects(xmin, ymin, xmax, ymax)) {
+        double tolerance = DetailLevels.getTolerance(mapProj, simplifyTolerance);
+        DetailLevels levels = tolerance > 0 ? getDetailLevels(dataProj) : null;
 
-                try {
+        for (int byteOffset : byteOffsets) {
 
-                    OMGraphic omg = (OMGraphic) factory.makeEsriGraphicFromRecord(entry.getByteOffset(), shpFile, drawingAttributes, pointIcon, byteTracker);
+            try {
 
-                    if (omg != null) {
+                OMGraphic omg = (OMGraphic) factory.makeEsriGraphicFromRecord(byteOffset, shpFile, drawingAttributes, pointIcon, byteTracker);
 
-                        if (dbfFile != null) {
-                            omg = dbfFile.evaluate(omg, labels, mapProj);
+                if (omg != null) {
 
-                            if (omg == null) {
-                                // Failed dbf test, should be ignored.
-                                continue;
-                            }
-                        }
+                    if (levels != null) {
+                        omg = levels.simplify(byteOffset, omg, tolerance);
+                    }
 
-                        if (mapProj != null) {
-                            omg.generate(mapProj);
+                    if (dbfFile != null) {
+                        omg = dbfFile.evaluate(omg, labels, mapProj);
+
+                        if (omg == null) {
+                            // Failed dbf test, should be ignored.
+                            continue;
                         }
-                        list.add(omg);
                     }
 
-                } catch (IOException ioe) {
-                    logger.warning("IOException message: " + ioe.getMessage());
-                    ioe.printStackTrace();
-                    break;
+                    if (mapProj != null) {
+                        omg.generate(mapProj);
+                    }
+                    list.add(omg);
                 }
+
+            } catch (IOException ioe) {
+                logger.warning("IOException message: " + ioe.getMessage());
+                ioe.printStackTrace();
+                break;
             }
         }
 
@@ -751,6 +791,135 @@ public class SpatialIndex extends ShapeUtils {
         return new ArrayList<Entry>(entriesHandle).iterator();
     }
 
+    /**
+     * Get the R-tree for the index entries, building it the first time it's
+     * needed. If the data isn't being transformed, a tree saved next to the
+     * shape file is used if it's up to date with the shape file, and the tree
+     * is saved there after it's built if persistSpatialTree is set.
+     * 
+     * @param dataTransform GeoCoordTransform for pre-projected data.
+     * @return PackedRTree
+     * @throws IOException
+     * @throws FormatException
+     */
+    public PackedRTree getSpatialTree(GeoCoordTransformation dataTransform) throws IOException,
+            FormatException {
+        PackedRTree tree = spatialTree;
+        if (tree == null) {
+            File shpFile = shpFileName != null ? new File(shpFileName) : null;
+            boolean localFile = dataTransform == null && shpFile != null && shpFile.isFile();
+            File rtxFile = localFile ? new File(rtx(shpFileName)) : null;
+
+            if (localFile) {
+                tree = PackedRTree.read(rtxFile, shpFile.length(), shpFile.lastModified());
+            }
+
+            if (tree == null) {
+                List<Entry> entriesHandle = entries;
+                if (entriesHandle == null) {
+                    entriesHandle = readIndexFile(null, dataTransform);
+                }
+                tree = PackedRTree.create(entriesHandle);
+
+                if (localFile && persistSpatialTree) {
+                    try {
+                        tree.write(rtxFile, shpFile.length(), shpFile.lastModified());
+                    } catch (IOException ioe) {
+                        logger.warning("Couldn't save spatial tree " + rtxFile + ": "
+                                + ioe.getMessage());
+                    }
+                }
+            }
+
+            if (bounds == null) {
+                bounds = tree.getBounds();
+            }
+
+            spatialTree = tree;
+        }
+        return tree;
+    }
+
+    public boolean isPersistSpatialTree() {
+        return persistSpatialTree;
+    }
+
+    /**
+     * Set whether the R-tree should be saved next to the shape file when it's
+     * built, so it can be read quickly the next time.
+     */
+    public void setPersistSpatialTree(boolean persistSpatialTree) {
+        this.persistSpatialTree = persistSpatialTree;
+    }
+
+    /**
+     * Get the detail levels for the records, reading them from the .lod file
+     * next to the shape file if they've been saved and are current.
+     * 
+     * @param dataTransform GeoCoordTransform for pre-projected data.
+     * @return DetailLevels
+     */
+    public synchronized DetailLevels getDetailLevels(GeoCoordTransformation dataTransform) {
+        DetailLevels levels = detailLevels;
+        if (levels == null || dataTransform != detailLevelsTransform) {
+            levels = null;
+            File shpFile = shpFileName != null ? new File(shpFileName) : null;
+            if (dataTransform == null && shpFile != null && shpFile.isFile()) {
+                levels = DetailLevels.read(new File(lod(shpFileName)), shpFile.length(), shpFile.lastModified());
+            }
+
+            if (levels == null) {
+                levels = new DetailLevels();
+            }
+
+            detailLevels = levels;
+            detailLevelsTransform = dataTransform;
+        }
+        return levels;
+    }
+
+    /**
+     * Save the detail levels next to the shape file, if there are new ones
+     * and they were figured for the shape file coordinates.
+     */
+    public synchronized void saveDetailLevels() {
+        DetailLevels levels = detailLevels;
+        File shpFile = shpFileName != null ? new File(shpFileName) : null;
+        if (levels != null && levels.isDirty() && detailLevelsTransform == null
+                && shpFile != null && shpFile.isFile()) {
+            File lodFile = new File(lod(shpFileName));
+            try {
+                levels.write(lodFile, shpFile.length(), shpFile.lastModified());
+            } catch (IOException ioe) {
+                logger.warning("Couldn't save detail levels " + lodFile + ": " + ioe.getMessage());
+            }
+        }
+    }
+
+    public float getSimplifyTolerance() {
+        return simplifyTolerance;
+    }
+
+    /**
+     * Set how far, in pixels, polygon and polyline vertices can be from the
+     * simplified line drawn for them. Set to 0 to draw every vertex.
+     */
+    public void setSimplifyTolerance(float simplifyTolerance) {
+        this.simplifyTolerance = simplifyTolerance;
+    }
+
+    public boolean isPersistDetailLevels() {
+        return persistDetailLevels;
+    }
+
+    /**
+     * Set whether the detail levels should be saved next to the shape file
+     * when the SpatialIndex is closed, so they can be read the next time.
+     */
+    public void setPersistDetailLevels(boolean persistDetailLevels) {
+        this.persistDetailLevels = persistDetailLevels;
+    }
+
     /**
      * 
      * @param bounds if not null, add min/max values to them.
@@ -914,6 +1083,9 @@ public class SpatialIndex extends ShapeUtils {
         out.println("java " + className + " -c file.shp");
         out.println("Creates spatial index <file.ssx> from " + "shape file <file.shp>.");
         out.println();
+        out.println("java " + className + " -t file.shp");
+        out.println("Creates packed R-tree <file.rtx> from " + "shape file <file.shp>.");
+        out.println();
         out.println("java " + className + " -d file.shp");
         out.println("Dumps spatial index information, excluding "
                 + "bounding boxes to stdout.  Useful for " + "comparing to a shape index.");
@@ -1038,6 +1210,14 @@ public class SpatialIndex extends ShapeUtils {
         } else if ((argc == 2) && argv[0].equals("-c")) {
             String shapeFile = argv[1];
             SpatialIndex.FileIndex.create(shapeFile);
+        } else if ((argc == 2) && argv[0].equals("-t")) {
+            SpatialIndex si = new SpatialIndex(argv[1]);
+            si.setPersistSpatialTree(true);
+            try {
+                si.getSpatialTree(null);
+            } catch (FormatException fe) {
+                logger.warning(fe.getMessage());
+            }
         } else {
             printUsage(System.err);
             System.exit(1);
@@ -1082,6 +1262,18 @@ public class SpatialIndex extends ShapeUtils {
                 entries = null;
             }
 
+            if (done) {
+                spatialTree = null;
+            }
+
+            if (persistDetailLevels) {
+                saveDetailLevels();
+            }
+
+            if (done) {
+                detailLevels = null;
+            }
+
             return true;
         } catch (IOException ioe) {
 
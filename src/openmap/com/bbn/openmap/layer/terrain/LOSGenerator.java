@@ -24,21 +24,20 @@ package com.bbn.openmap.layer.terrain;
 
 import java.awt.Color;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
+import java.util.Collections;
 
-import com.bbn.openmap.MoreMath;
-import com.bbn.openmap.dataAccess.dted.DTEDFrameCache;
 import com.bbn.openmap.event.LayerStatusEvent;
-import com.bbn.openmap.event.ProgressEvent;
 import com.bbn.openmap.event.ProgressListener;
 import com.bbn.openmap.event.ProgressSupport;
 import com.bbn.openmap.gui.ProgressListenerGauge;
 import com.bbn.openmap.omGraphics.OMCircle;
 import com.bbn.openmap.omGraphics.OMGraphicList;
 import com.bbn.openmap.omGraphics.OMRaster;
-import com.bbn.openmap.proj.Planet;
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.proj.coords.LatLonPoint;
+import com.bbn.openmap.tools.terrain.ViewshedGenerator;
 import com.bbn.openmap.util.Debug;
 import com.bbn.openmap.util.SwingWorker;
 import com.bbn.openmap.util.stateMachine.State;
@@ -49,6 +48,10 @@ import com.bbn.openmap.util.stateMachine.State;
  * sight of the center of the circle. Additional height can be added
  * to the center of the circle via the TerrainLayer palette, to
  * represent a tower, building, or aircraft.
+ * <P>
+ * The mask is calculated by a ViewshedGenerator, which gathers the
+ * elevations for the circle at once and sweeps the lines of sight out
+ * from the center on several threads.
  */
 public class LOSGenerator implements TerrainTool {
 
@@ -100,6 +103,9 @@ public class LOSGenerator implements TerrainTool {
 
     protected ProgressSupport progressSupport;
 
+    /** Calculates the visible pixels for the mask. */
+    protected ViewshedGenerator viewshedGenerator;
+
     class LOSWorker extends SwingWorker {
         /** Constructor used to create a worker thread. */
         public LOSWorker() {}
@@ -154,6 +160,7 @@ public class LOSGenerator implements TerrainTool {
 
     public void init() {
         progressSupport = new ProgressSupport(this);
+        viewshedGenerator = new ViewshedGenerator();
         addProgressListener(new ProgressListenerGauge("LOS Mask Creation"));
 
         // colortable
@@ -177,6 +184,7 @@ public class LOSGenerator implements TerrainTool {
         // a thread working on this, then set the cancelled flag
         // in the layer.
         if (currentWorker == null) {
+            setCancelled(false);
             currentWorker = new LOSWorker();
             currentWorker.execute();
         } else
@@ -207,6 +215,12 @@ public class LOSGenerator implements TerrainTool {
      */
     public synchronized void setCancelled(boolean set) {
         cancelled = set;
+        // The ViewshedGenerator is reset here, when a new worker is
+        // started, so a cancel that comes before the worker gets to
+        // the viewshed isn't lost.
+        if (viewshedGenerator != null) {
+            viewshedGenerator.setCancelled(set);
+        }
     }
 
     /** Check to see if the cancelled flag has been set. */
@@ -253,15 +267,13 @@ public class LOSGenerator implements TerrainTool {
 
     /**
      * Takes the member settings and manages the creation of the
-     * image. A large vector of slope values are created, depending on
-     * the size of the circle, and how many pixels are around it. Each
-     * entry in the vector is the value of the largest slope value in
-     * that direction. The image is created from the inside out, pixel
-     * by pixel. The slope from the pixel to the center is calculated,
-     * and then compared with the value for that direction (in the
-     * vector). If the pixel's slope is larger, the point is visible,
-     * and is colored that way. The vector is updated, and the cycle
-     * continues.
+     * image. The ViewshedGenerator figures out which pixels in the
+     * circle can be seen from the center, at the center height, by
+     * following lines of sight out from the center. Along each line,
+     * a pixel is visible if the slope from it to the center is larger
+     * than the slope of any pixel closer to the center. The visible
+     * pixels are colored in the image, and the edge of the circle and
+     * the pixels right around the center are marked as maybe visible.
      */
     public synchronized void createLOSImage() {
         if (Debug.debugging("los")) {
@@ -273,236 +285,49 @@ public class LOSGenerator implements TerrainTool {
             return;
         }
 
-        int squareRadius = LOSedge / 2 + 1;
-        int[] newPixels = new int[LOSedge * LOSedge];
-        float[] azimuthVals = new float[8 * (squareRadius - 1)];
-        // center point of raster
-        newPixels[((LOSedge / 2) * LOSedge) + squareRadius] = MAYBEVISIBLE;
-
-        if (Debug.debugging("los")) {
-            Debug.output("createLOSimage: size of azimuth array = "
-                    + azimuthVals.length);
-        }
+        int radius = LOSedge / 2;
+        Rectangle bounds = new Rectangle(LOScenterP.x - radius, LOScenterP.y - radius, LOSedge, LOSedge);
+        viewshedGenerator.setDtedCache(layer.frameCache);
+        // The observer height is above the ground, the ViewshedGenerator
+        // adds the ground elevation at the center.
+        ViewshedGenerator.Observer observer = new ViewshedGenerator.Observer(LOScenterLLP, LOSobjectHeight, radius);
+        ViewshedGenerator.Viewshed viewshed = viewshedGenerator.createViewshed(proj, Collections.singletonList(observer), bounds);
 
-        fireProgressUpdate(ProgressEvent.START,
-                "Building LOS Image Mask...",
-                0,
-                100);
-        int x, y;
-        boolean mark = false;
-        int markColor = colortable[INVISIBLE];
-        int range;
-        float pix_arc_interval = (float) (2 * Math.PI / azimuthVals.length);
-        //  Do this in a spiral, around the center point.
-        for (int round = 1; round < squareRadius; round++) {
+        if (viewshed == null) {
             if (Debug.debugging("los")) {
-                Debug.output("createLOSimage: round " + round);
-            }
-            y = LOScenterP.y - round;
-            x = LOScenterP.x - round;
-
-            if (round == 1) {
-                mark = true;
-                markColor = colortable[MAYBEVISIBLE];
+                Debug.output("createLOSimage: cancelled");
             }
+            return;
+        }
 
-            else
-                mark = false;
-
-            if (LOSprecision == AZIMUTH) { // As of now, this is the
-                // only option
-                range = ((LOSedge * 4) - 4) / (round * 16);
-                for (; x < LOScenterP.x + round; x++)
-                    // top
-                    resolveImagePoint(x,
-                            y,
-                            newPixels,
-                            azimuthVals,
-                            range,
-                            pix_arc_interval,
-                            mark,
-                            markColor);
-                for (; y < LOScenterP.y + round; y++)
-                    // right
-                    resolveImagePoint(x,
-                            y,
-                            newPixels,
-                            azimuthVals,
-                            range,
-                            pix_arc_interval,
-                            mark,
-                            markColor);
-                for (; x > LOScenterP.x - round; x--)
-                    // bottom
-                    resolveImagePoint(x,
-                            y,
-                            newPixels,
-                            azimuthVals,
-                            range,
-                            pix_arc_interval,
-                            mark,
-                            markColor);
-                for (; y > LOScenterP.y - round; y--)
-                    // left
-                    resolveImagePoint(x,
-                            y,
-                            newPixels,
-                            azimuthVals,
-                            range,
-                            pix_arc_interval,
-                            mark,
-                            markColor);
+        int[] newPixels = new int[LOSedge * LOSedge];
+        int edge = (LOSedge - 1) / 2;
+        for (int y = 0; y < LOSedge; y++) {
+            for (int x = 0; x < LOSedge; x++) {
+                int dx = x - radius;
+                int dy = y - radius;
+                int dist = TerrainLayer.numPixelsBetween(0, 0, dx, dy);
+                int index = x + y * LOSedge;
+                if (dist > edge) {
+                    newPixels[index] = colortable[INVISIBLE];
+                } else if (dist == edge || (Math.abs(dx) <= 1 && Math.abs(dy) <= 1)) {
+                    newPixels[index] = colortable[MAYBEVISIBLE];
+                } else {
+                    newPixels[index] = colortable[viewshed.counts[index] > 0 ? VISIBLE : INVISIBLE];
+                }
             }
-
-            int whereWeAre = (int) (100f * ((float) round / (float) squareRadius));
-            fireProgressUpdate(ProgressEvent.UPDATE,
-                    "Analyzing data...",
-                    whereWeAre,
-                    100);
-
         }
 
-        fireProgressUpdate(ProgressEvent.UPDATE, "Creating Mask", 100, 100);
-
-        LOSimage = new OMRaster(LOScenterLLP.getLatitude(), LOScenterLLP.getLongitude(), (-1 - LOSedge / 2), (-1 - LOSedge / 2), LOSedge, LOSedge, newPixels);
+        LOSimage = new OMRaster(LOScenterLLP.getLatitude(), LOScenterLLP.getLongitude(), -radius, -radius, LOSedge, LOSedge, newPixels);
         LOSimage.generate(proj);
         graphics.clear();
         graphics.add(LOSimage);
 
-        fireProgressUpdate(ProgressEvent.DONE, "LOS mask complete", 100, 100);
-
         if (Debug.debugging("los")) {
             Debug.output("createLOSimage: Done...");
         }
     }
 
-    /**
-     * Calculates the color for each pixel. After is gets the slope
-     * value for that pixel, it manages the comparison to get the
-     * pixel colored correctly.
-     */
-    protected void resolveImagePoint(int x, int y, int[] newPixels,
-                                     float[] azimuthVals, int range,
-                                     float pix_arc_interval, boolean mark,
-                                     int colorForMark) {
-
-        int ox = LOScenterP.x - LOSedge / 2;
-        int oy = LOScenterP.y - LOSedge / 2;
-        int dist = TerrainLayer.numPixelsBetween(LOScenterP.x,
-                LOScenterP.y,
-                x,
-                y);
-        if (dist > (LOSedge - 1) / 2) {
-            mark = true;
-            colorForMark = INVISIBLE;
-        }
-        if (dist == (LOSedge - 1) / 2) {
-            mark = true;
-            colorForMark = MAYBEVISIBLE;
-        }
-
-        // This needs to be before the next two lines after this
-        LatLonPoint cord = proj.inverse(x, y, new LatLonPoint.Double());
-        x -= ox;
-        y -= oy;
-
-        if (Debug.debugging("losdetail")) {
-            Debug.output("resolveImagePoint x = " + x + ", y = " + y);
-        }
-
-        if (mark == true) {
-            newPixels[x + y * LOSedge] = colorForMark;
-            mark = false;
-            return;
-        }
-
-        double arc_dist = LOScenterLLP.distance(cord);
-        double arc_angle = LOScenterLLP.azimuth(cord);
-
-        double slope = calculateLOSslope(cord, arc_dist);
-
-        int index = (int) Math.round(arc_angle / pix_arc_interval);
-        int maxIndex = (LOSedge * 4) - 4; // 4 corners out for
-        // redundancy
-        if (index < 0)
-            index += maxIndex;
-        else if (index >= maxIndex)
-            index -= maxIndex;
-
-        if (Debug.debugging("losdetail")) {
-            Debug.output(" angle = " + arc_angle + ", index/maxIndex = "
-                    + index + "/" + maxIndex + ", slope = " + slope
-                    + " compared to slope[index]=" + azimuthVals[index]);
-        }
-        int color = colortable[INVISIBLE];
-        if (azimuthVals[index] < slope) {
-            for (int i = (index - range); i < index + range - 1; i++) {
-                if (i < 0)
-                    azimuthVals[maxIndex + i] = (float)slope;
-                else if (i >= maxIndex)
-                    azimuthVals[i - maxIndex] = (float)slope;
-                else
-                    azimuthVals[i] = (float)slope;
-            }
-            color = colortable[VISIBLE];
-        }
-        if (Debug.debugging("losdetail")) {
-            Debug.output(" color = " + color);
-        }
-        newPixels[x + y * LOSedge] = color;
-    }
-
-    /**
-     * CalculateLOSslope figures out the slope from the pixel to the
-     * center, in radians. The arc_dist is in radians, and is the
-     * radian arc distance of the point from the center point of the
-     * image, on the earth. This slope calculation does take the
-     * earth's curvature into account, based on the spherical model.
-     */
-    protected double calculateLOSslope(LatLonPoint cord, double arc_dist) {
-        DTEDFrameCache frameCache = layer.frameCache;
-
-        if (frameCache == null) {
-            return 0;
-        }
-
-        int xyheight = frameCache.getElevation(cord.getLatitude(),
-                cord.getLongitude());
-        double ret = 0;
-        double P = Math.sin(arc_dist)
-                * (xyheight + Planet.wgs84_earthEquatorialRadiusMeters);
-
-        double xPrime = Math.cos(arc_dist)
-                * (xyheight + Planet.wgs84_earthEquatorialRadiusMeters);
-
-        double bottom;
-        double cutoff = LOScenterHeight
-                + Planet.wgs84_earthEquatorialRadiusMeters;
-
-        // Suggested changes, submitted by Mark Wigmore. Introduces
-        // use of doubles, and avoidance of PI/2 tan() calculations.
-
-        bottom = cutoff - xPrime;
-        ret = MoreMath.HALF_PI_D - Math.atan(bottom / P);
-        return ret;
-
-        // Old way...
-        //      if (xPrime < cutoff) {
-        //          bottom = cutoff - xPrime;
-        //          ret = Math.atan(P/bottom);
-
-        //      } else if (xPrime == cutoff) {
-        //          ret = MoreMath.HALF_PI_D;
-
-        //      } else if (xPrime > cutoff) {
-        //          double C = xPrime - cutoff;
-        //          double gamma = Math.atan(P/C);
-        //          ret = Math.PI - gamma;
-        //      }
-
-        //      return ret;
-    }
-
     /**
      * Called when the circle is started. It starts the circle to be
      * drawn, and sets the parameters that will be needed to figure
@@ -563,6 +388,7 @@ public class LOSGenerator implements TerrainTool {
      */
     public void addProgressListener(ProgressListener list) {
         progressSupport.add(list);
+        viewshedGenerator.addProgressListener(list);
     }
 
     /**
@@ -570,6 +396,7 @@ public class LOSGenerator implements TerrainTool {
      */
     public void removeProgressListener(ProgressListener list) {
         progressSupport.remove(list);
+        viewshedGenerator.removeProgressListener(list);
     }
 
     /**
@@ -577,6 +404,7 @@ public class LOSGenerator implements TerrainTool {
      */
     public void clearProgressListeners() {
         progressSupport.clear();
+        viewshedGenerator.clearProgressListeners();
     }
 
     /**
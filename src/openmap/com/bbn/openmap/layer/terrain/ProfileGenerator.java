@@ -216,13 +216,17 @@ public class ProfileGenerator implements TerrainTool {
 
         int tmp = 0;
         int max = 0;
-        int[] heights = new int[xypoints.size()];
-        // Go through the points and get the heights
-        for (int i = 0; i < heights.length; i++) {
+        float[] lats = new float[xypoints.size()];
+        float[] lons = new float[lats.length];
+        for (int i = 0; i < lats.length; i++) {
             LatLonPoint llp = ((LatLonPoint) coords.elementAt(i));
-            // Ask the cache for the elevation
-            tmp = layer.frameCache.getElevation(llp.getLatitude(),
-                    llp.getLongitude());
+            lats[i] = llp.getLatitude();
+            lons[i] = llp.getLongitude();
+        }
+        // Ask the cache for all of the elevations at once
+        int[] heights = layer.frameCache.getElevations(lats, lons, null);
+        for (int i = 0; i < heights.length; i++) {
+            tmp = heights[i];
 
             if (tmp == DTEDFrameCache.NO_DATA)
                 tmp = -1;
@@ -124,6 +124,7 @@ public class LibraryBean
 
       int cacheSize = PropUtils.intFromProperties(setList, realPrefix + cacheSizeProperty, featureCache.getCacheSize());
       featureCache.resetCache(cacheSize);
+      featureCache.setCacheEngineProperties(realPrefix, setList);
    }
 
    /**
@@ -144,6 +145,7 @@ public class LibraryBean
       String prefix = PropUtils.getScopedPropertyPrefix(this);
       getList.put(prefix + nameProperty, beanName);
       getList.put(prefix + cacheSizeProperty, Integer.toString(featureCache.getCacheSize()));
+      featureCache.getCacheEngineProperties(prefix, getList);
       return getList;
    }
 
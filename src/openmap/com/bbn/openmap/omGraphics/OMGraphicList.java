@@ -122,6 +122,7 @@ public class OMGraphicList extends OMList<OMGraphic> implements Serializable {
      */
     public boolean add(OMGraphic g) {
         checkForDuplicate(g);
+        invalidateSpatialIndex();
         return graphics.add(g);
     }
 
@@ -134,6 +135,7 @@ public class OMGraphicList extends OMList<OMGraphic> implements Serializable {
      * @exception ArrayIndexOutOfBoundsException if index is out-of-bounds
      */
     public void setOMGraphicAt(OMGraphic graphic, int index) {
+        invalidateSpatialIndex();
         graphics.set(index, graphic);
     }
 
@@ -309,6 +311,7 @@ public class OMGraphicList extends OMList<OMGraphic> implements Serializable {
      */
     public void setTargets(List<OMGraphic> list) {
         graphics = Collections.synchronizedList(new ArrayList<OMGraphic>(list));
+        invalidateSpatialIndex();
     }
 
     /**
@@ -424,6 +427,7 @@ public class OMGraphicList extends OMList<OMGraphic> implements Serializable {
      */
     public Object clone() {
         OMGraphicList omgl = (OMGraphicList) super.clone();        
+        omgl.invalidateSpatialIndex();
         synchronized(graphics){
         for (OMGraphic omg : graphics) {
             // If the OMGraphic doesn't provide a copy (providing a
@@ -455,16 +459,19 @@ public class OMGraphicList extends OMList<OMGraphic> implements Serializable {
 
     public boolean addAll(Collection<? extends OMGraphic> c) {
         setNeedToRegenerate(true);
+        invalidateSpatialIndex();
         return graphics.addAll(c);
     }
 
     public boolean addAll(int index, Collection<? extends OMGraphic> c) {
         setNeedToRegenerate(true);
+        invalidateSpatialIndex();
         return graphics.addAll(index, c);
     }
 
     public OMGraphic set(int index, OMGraphic element) {
         setNeedToRegenerate(true);
+        invalidateSpatialIndex();
         return graphics.set(index, element);
     }
 
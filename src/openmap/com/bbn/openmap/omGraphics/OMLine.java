@@ -28,15 +28,14 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.geom.GeneralPath;
-import java.awt.geom.Point2D;
 import java.io.Serializable;
-import java.util.ArrayList;
 
 import com.bbn.openmap.omGraphics.geom.NonRegional;
 import com.bbn.openmap.omGraphics.util.ArcCalc;
 import com.bbn.openmap.proj.GeoProj;
+import com.bbn.openmap.proj.PolyBuffer;
+import com.bbn.openmap.proj.ProjMath;
 import com.bbn.openmap.proj.Projection;
-import com.bbn.openmap.proj.coords.LatLonPoint;
 import com.bbn.openmap.util.Debug;
 import com.bbn.openmap.util.DeepCopyUtil;
 
@@ -64,6 +63,12 @@ public class OMLine
      */
     protected transient boolean isPolyline = false;
 
+    /**
+     * Holds the projected coordinate arrays between generates, so they can be
+     * reused instead of reallocated every time the map changes.
+     */
+    protected transient PolyBuffer polyBuffer = null;
+
     /** latlons is a array of 4 doubles - lat1, lon1, lat2, lon2. */
     protected double[] latlons = null;
 
@@ -366,28 +371,25 @@ public class OMLine
                     isPolyline = true;
 
                 } else {
-                    ArrayList<float[]> lines = null;
+                    PolyBuffer lines = polyBuffer;
                     if (proj instanceof GeoProj) {
-                        lines =
-                                ((GeoProj) proj).forwardLine(new LatLonPoint.Double(latlons[0], latlons[1]),
-                                                             new LatLonPoint.Double(latlons[2], latlons[3]), lineType, nsegs);
+                        double[] rawllpts = {
+                                ProjMath.degToRad(latlons[0]), ProjMath.degToRad(latlons[1]),
+                                ProjMath.degToRad(latlons[2]), ProjMath.degToRad(latlons[3]) };
+                        lines = ((GeoProj) proj).forwardPoly(rawllpts, lineType, nsegs, false, lines);
                     } else {
-                        lines =
-                                proj.forwardLine(new Point2D.Double(latlons[1], latlons[0]), new Point2D.Double(latlons[3],
-                                                                                                                latlons[2]));
+                        lines = proj.forwardPoly(latlons, false, lines);
                     }
+                    polyBuffer = lines;
 
                     int size = lines.size();
 
-                    xpoints = new float[(int) (size / 2)][0];
-                    ypoints = new float[xpoints.length][0];
+                    xpoints = lines.getXPoints();
+                    ypoints = lines.getYPoints();
                     
-                    for (int i = 0, j = 0; i < size; i += 2, j++) {
-                        float[] xps = (float[]) lines.get(i);
-                        float[] yps = (float[]) lines.get(i + 1);
-
-                        xpoints[j] = xps;
-                        ypoints[j] = yps;
+                    for (int j = 0; j < size; j++) {
+                        float[] xps = xpoints[j];
+                        float[] yps = ypoints[j];
 
                         GeneralPath gp = createShape(xps, yps, false);
 
@@ -479,6 +481,18 @@ public class OMLine
         }
     }
 
+    /**
+     * Clones don't share the buffer holding the projected coordinates, or
+     * they'd be writing over each other's points.
+     */
+    public Object clone() {
+        Object clone = super.clone();
+        if (clone instanceof OMLine) {
+            ((OMLine) clone).polyBuffer = null;
+        }
+        return clone;
+    }
+
     public void restore(OMGeometry source) {
         super.restore(source);
         if (source instanceof OMLine) {
@@ -29,10 +29,16 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.util.ComponentFactory;
 import com.bbn.openmap.util.Debug;
+import com.bbn.openmap.util.TaskService;
 
 /**
  * This class encapsulates a List of OMGraphics.
@@ -111,6 +117,46 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
      */
     protected List<T> graphics;
 
+    /**
+     * Lists with at least this many graphics keep a spatial index of their
+     * projected graphics, which findClosest, findAll and getContains use to
+     * only measure the graphics near the pixel being tested. -1, the default,
+     * means the list never keeps an index.
+     */
+    protected int spatialIndexThreshold = -1;
+
+    /**
+     * The spatial index for the current projection, null if it has to be
+     * built.
+     */
+    protected transient volatile OMListIndex spatialIndex;
+
+    /**
+     * Lists with at least this many graphics generate them on several
+     * threads. -1, the default, means the list always generates its graphics
+     * in the calling thread.
+     */
+    protected int parallelGenerateThreshold = -1;
+
+    /**
+     * The number of graphics each thread takes at a time when the list is
+     * generated on several threads, and the number generated between checks
+     * for cancellation.
+     */
+    public final static int GENERATE_CHUNK_SIZE = 512;
+
+    /**
+     * How long the last generate took, in nanoseconds.
+     */
+    protected transient long lastGenerateNanos;
+
+    /**
+     * Whether the list has been rendered since it was generated. Graphics
+     * like OMText only know their bounds after they are rendered, so an
+     * incomplete index is rebuilt after the first render.
+     */
+    protected transient boolean renderedSinceGenerate = false;
+
     /**
      * Construct an OMGraphicList.
      */
@@ -213,6 +259,7 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
 
     public void clear() {
         graphics.clear();
+        invalidateSpatialIndex();
     }
 
     public int indexOf(Object o) {
@@ -277,11 +324,13 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
      */
     public boolean add(T g) {
         checkForDuplicate(g);
+        invalidateSpatialIndex();
         return graphics.add(g);
     }
 
     public void add(int index, T g) {
         checkForDuplicate(g);
+        invalidateSpatialIndex();
         graphics.add(index, g);
     }
 
@@ -328,6 +377,7 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
 
         synchronized (graphics) {
             found = graphics.remove(geometry);
+            invalidateSpatialIndex();
 
             if (!found && !isVague()) {
                 for (OMGeometry graphic : graphics) {
@@ -342,6 +392,7 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
     }
 
     public T remove(int index) {
+        invalidateSpatialIndex();
         return graphics.remove(index);
     }
 
@@ -437,6 +488,7 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
     public void moveIndexedToFirst(int location) {
         int listSize = size();
         if (location > 0 && location < listSize) {
+            invalidateSpatialIndex();
             T tmpGraphic = get(location);
             for (int i = location; i > 0; i--) {
                 set(i, get(i - 1));
@@ -455,6 +507,7 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
     public void moveIndexedOneToFront(int location) {
         int listSize = size();
         if (location > 0 && location < listSize) {
+            invalidateSpatialIndex();
             T tmpGraphic = get(location);
             graphics.set(location, get(location - 1));
             graphics.set(location - 1, tmpGraphic);
@@ -473,6 +526,7 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
     public void moveIndexedToLast(int location) {
         int listSize = size();
         if (location < listSize - 1 && location >= 0) {
+            invalidateSpatialIndex();
             T tmpGraphic = get(location);
             for (int i = location; i < listSize - 1; i++) {
                 set(i, get(i + 1));
@@ -491,6 +545,7 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
     public void moveIndexedOneToBack(int location) {
         int listSize = size();
         if (location < listSize - 1 && location >= 0) {
+            invalidateSpatialIndex();
             T tmpGraphic = get(location);
             graphics.set(location, get(location + 1));
             graphics.set(location + 1, tmpGraphic);
@@ -552,23 +607,236 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
      */
     public boolean generate(Projection p, boolean forceProjectAll) {
         boolean ret = true;
+        long start = System.nanoTime();
         synchronized (graphics) {
-            Iterator<T> iterator = iterator();
-            // Check forceProjectAll outside the loop for slight
-            // performance improvement.
-            if (forceProjectAll) {
-                while (iterator.hasNext()) {
-                    ret &= iterator.next().generate(p);
-                }
+            if (isGeneratingInParallel()) {
+                ret = generateInParallel(p, forceProjectAll);
             } else {
-                while (iterator.hasNext()) {
-                    ret &= iterator.next().regenerate(p);
+                Iterator<T> iterator = iterator();
+                // Check forceProjectAll outside the loop for slight
+                // performance improvement.
+                if (forceProjectAll) {
+                    while (iterator.hasNext()) {
+                        ret &= iterator.next().generate(p);
+                    }
+                } else {
+                    while (iterator.hasNext()) {
+                        ret &= iterator.next().regenerate(p);
+                    }
                 }
             }
+
+            spatialIndex = null;
+            renderedSinceGenerate = false;
+            if (spatialIndexThreshold >= 0 && graphics.size() >= spatialIndexThreshold) {
+                spatialIndex = OMListIndex.create(graphics);
+            }
         }
+        lastGenerateNanos = System.nanoTime() - start;
         return ret;
     }
 
+    /**
+     * @return true if the list has enough graphics to be generated on several
+     *         threads.
+     */
+    protected boolean isGeneratingInParallel() {
+        int size = graphics.size();
+        return parallelGenerateThreshold >= 0 && size >= parallelGenerateThreshold
+                && size > GENERATE_CHUNK_SIZE;
+    }
+
+    /**
+     * Generate the graphics in chunks, on several threads, the same way
+     * generate(Projection, boolean) does it. Called while holding the graphics
+     * lock.
+     * 
+     * @return true if generation was successful for all objects on list.
+     */
+    protected boolean generateInParallel(final Projection p, final boolean forceProjectAll) {
+        return generateInParallel(new GeometryGenerator() {
+            public boolean generate(OMGeometry geometry) {
+                return forceProjectAll ? geometry.generate(p) : geometry.regenerate(p);
+            }
+        });
+    }
+
+    /**
+     * Generate the graphics in chunks, on as many threads as there are
+     * processors, with the calling thread taking chunks too. The graphics
+     * have to be independent of each other. If the calling thread is a layer
+     * worker that gets cancelled, or is interrupted, the rest of the chunks
+     * are skipped and false is returned, since the graphics are going to be
+     * generated again for a newer projection. Called while holding the
+     * graphics lock.
+     * 
+     * @param geometryGenerator generates each graphic.
+     * @return true if generation was successful for all objects on list.
+     */
+    protected boolean generateInParallel(final GeometryGenerator geometryGenerator) {
+        final Object[] array = graphics.toArray();
+        final int numChunks = (array.length + GENERATE_CHUNK_SIZE - 1) / GENERATE_CHUNK_SIZE;
+        final AtomicInteger nextChunk = new AtomicInteger();
+
+        class Generator implements Callable<Boolean> {
+            public Boolean call() {
+                boolean ret = true;
+                int chunk;
+                while ((chunk = nextChunk.getAndIncrement()) < numChunks) {
+                    int end = Math.min(array.length, (chunk + 1) * GENERATE_CHUNK_SIZE);
+                    for (int i = chunk * GENERATE_CHUNK_SIZE; i < end; i++) {
+                        ret &= geometryGenerator.generate((OMGeometry) array[i]);
+                    }
+                }
+                return ret;
+            }
+        }
+
+        Generator generator = new Generator();
+        int numThreads = Math.min(numChunks, Runtime.getRuntime().availableProcessors());
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(numThreads);
+        for (int i = 1; i < numThreads; i++) {
+            futures.add(TaskService.singleton().spawn(generator));
+        }
+
+        // The calling thread checks for cancellation, since it's the one the
+        // layer worker owns, and stops the other threads by using up the
+        // chunks.
+        boolean ret = true;
+        int chunk;
+        while ((chunk = nextChunk.getAndIncrement()) < numChunks) {
+            if (TaskService.isCurrentWorkerCancelled() || Thread.currentThread().isInterrupted()) {
+                nextChunk.set(numChunks);
+                ret = false;
+                break;
+            }
+            int end = Math.min(array.length, (chunk + 1) * GENERATE_CHUNK_SIZE);
+            for (int i = chunk * GENERATE_CHUNK_SIZE; i < end; i++) {
+                ret &= geometryGenerator.generate((OMGeometry) array[i]);
+            }
+        }
+
+        for (Future<Boolean> future : futures) {
+            try {
+                ret &= future.get().booleanValue();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                ret = false;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                ret = false;
+            }
+        }
+
+        if (Debug.debugging("omgraphics")) {
+            Debug.output(getClass().getName() + "(" + array.length + ") generated on "
+                    + numThreads + " threads" + (ret ? "" : ", not all graphics generated"));
+        }
+        return ret;
+    }
+
+    /**
+     * Generates one graphic for generateInParallel.
+     */
+    protected interface GeometryGenerator {
+        /**
+         * @return true if the geometry was generated.
+         */
+        boolean generate(OMGeometry geometry);
+    }
+
+    /**
+     * Set the number of graphics a list needs before its graphics are
+     * generated on several threads. Only use this for lists of graphics that
+     * don't share anything that changes when they are generated, like most
+     * OMPolys, OMPoints and OMTexts. A list generated this way can be
+     * cancelled between chunks of graphics if it's generated in a layer
+     * worker.
+     * 
+     * @param threshold the minimum number of graphics, -1 to always generate
+     *        in the calling thread.
+     */
+    public void setParallelGenerateThreshold(int threshold) {
+        parallelGenerateThreshold = threshold;
+    }
+
+    public int getParallelGenerateThreshold() {
+        return parallelGenerateThreshold;
+    }
+
+    /**
+     * @return how long the last call to generate took, in milliseconds, for
+     *         profiling.
+     */
+    public double getLastGenerateMillis() {
+        return lastGenerateNanos / 1e6;
+    }
+
+    /**
+     * Set the number of graphics a list needs before it keeps a spatial index
+     * of them for hit testing. The index is built when the list is generated,
+     * or when it's first needed after the list changes, and is used by
+     * findClosest, findAll and getContains when they don't have to deselect
+     * the graphics they pass over. It relies on the graphics being projected
+     * by the list, so a graphic that is generated by itself with a different
+     * projection needs the list to be generated again, or
+     * invalidateSpatialIndex() to be called.
+     * 
+     * @param threshold the minimum number of graphics for an index, -1 for
+     *        no index.
+     */
+    public void setSpatialIndexThreshold(int threshold) {
+        spatialIndexThreshold = threshold;
+        if (threshold < 0) {
+            spatialIndex = null;
+        }
+    }
+
+    public int getSpatialIndexThreshold() {
+        return spatialIndexThreshold;
+    }
+
+    /**
+     * Drop the spatial index, so it gets rebuilt the next time it's needed.
+     * Call this if graphics on the list are changed or generated without the
+     * list.
+     */
+    public void invalidateSpatialIndex() {
+        spatialIndex = null;
+    }
+
+    /**
+     * Get the positions of the graphics that might be within limit pixels of
+     * a point, from the spatial index. Should be called while holding the
+     * graphics lock.
+     * 
+     * @return ascending positions on the list, or null if the list doesn't
+     *         have an index or the limit is too big to use it, and every
+     *         graphic should be tested.
+     */
+    protected int[] getSpatialIndexCandidates(double x, double y, float limit) {
+        if (spatialIndexThreshold < 0 || limit >= Float.MAX_VALUE || !(graphics instanceof RandomAccess)) {
+            return null;
+        }
+
+        int size = graphics.size();
+        if (size < spatialIndexThreshold) {
+            return null;
+        }
+
+        OMListIndex index = spatialIndex;
+        if (index == null || index.size() != size) {
+            index = OMListIndex.create(graphics);
+            spatialIndex = index;
+        }
+        return index.search(x, y, limit);
+    }
+
     /**
      * Renders all the objects in the list a graphics context. This is the same
      * as <code>paint()</code> for AWT components. The graphics are rendered in
@@ -601,6 +869,14 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
                     }
                 }
             }
+
+            if (!renderedSinceGenerate) {
+                renderedSinceGenerate = true;
+                OMListIndex index = spatialIndex;
+                if (index != null && !index.isComplete()) {
+                    spatialIndex = null;
+                }
+            }
         }
 
         renderLabel(gr);
@@ -723,7 +999,24 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
         int i;
 
         synchronized (graphics) {
-            if (!isEmpty()) {
+            int[] candidates = null;
+            if (!isEmpty() && !resetSelect) {
+                candidates = getSpatialIndexCandidates(x, y, limit);
+            }
+
+            if (candidates != null) {
+                boolean firstOnTop = traverseMode == FIRST_ADDED_ON_TOP;
+                for (int c = 0; c < candidates.length; c++) {
+                    int pos = candidates[firstOnTop ? c : candidates.length - 1 - c];
+                    // Same index as the iterator loops below report.
+                    tomd = findClosestTest(omd, firstOnTop ? pos : pos + 1, graphics.get(pos), x, y, limit, resetSelect);
+                    if (tomd == null)
+                        continue;
+                    omd = tomd; // for style
+                    if (omd.d == 0)
+                        break;
+                }
+            } else if (!isEmpty()) {
                 if (traverseMode == FIRST_ADDED_ON_TOP) {
                     i = 0;
                     ListIterator<T> iterator = graphics.listIterator();
@@ -883,7 +1176,16 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
         if (!isEmpty()) {
             synchronized (graphics) {
 
-                if (traverseMode == FIRST_ADDED_ON_TOP) {
+                int[] candidates = resetSelect ? null : getSpatialIndexCandidates(x, y, limit);
+                if (candidates != null) {
+                    boolean firstOnTop = traverseMode == FIRST_ADDED_ON_TOP;
+                    for (int c = 0; c < candidates.length; c++) {
+                        int pos = candidates[firstOnTop ? c : candidates.length - 1 - c];
+                        if (!findAllTest(x, y, limit, resetSelect, addTo, graphics.get(pos), omd)) {
+                            break;
+                        }
+                    }
+                } else if (traverseMode == FIRST_ADDED_ON_TOP) {
                     ListIterator<? extends OMGeometry> iterator = graphics.listIterator();
                     while (iterator.hasNext()) {
                         if (!findAllTest(x, y, limit, resetSelect, addTo, iterator.next(), omd)) {
@@ -1165,51 +1467,21 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
         synchronized (graphics) {
 
             if (!isEmpty()) {
-                if (traverseMode == FIRST_ADDED_ON_TOP) {
+                int[] candidates = getSpatialIndexCandidates(x, y, 0);
+                if (candidates != null) {
+                    boolean firstOnTop = traverseMode == FIRST_ADDED_ON_TOP;
+                    for (int c = 0; c < candidates.length && ret == null; c++) {
+                        ret = getContainsTest(graphics.get(candidates[firstOnTop ? c : candidates.length - 1 - c]), x, y);
+                    }
+                } else if (traverseMode == FIRST_ADDED_ON_TOP) {
                     ListIterator<? extends OMGeometry> iterator = graphics.listIterator();
-                    while (iterator.hasNext()) {
-                        OMGeometry graphic = iterator.next();
-
-                        // cannot select a graphic which isn't visible
-                        if (!shouldProcess(graphic))
-                            continue;
-
-                        if (graphic instanceof OMList<?>) {
-                            OMList<? extends OMGeometry> tomgl = (OMList<? extends OMGeometry>) graphic;
-                            ret = (T) tomgl.getContains(x, y);
-                            if (ret != null) {
-                                if (tomgl.isVague()) {
-                                    ret = (T) graphic;
-                                }
-                                break;
-                            }
-                        } else if (graphic.contains(x, y)) {
-                            ret = (T) graphic;
-                            break;
-                        }
+                    while (iterator.hasNext() && ret == null) {
+                        ret = getContainsTest(iterator.next(), x, y);
                     }
                 } else {
                     ListIterator<? extends OMGeometry> iterator = graphics.listIterator(size());
-                    while (iterator.hasPrevious()) {
-                        OMGeometry graphic = iterator.previous();
-
-                        // cannot select a graphic which isn't visible
-                        if (!shouldProcess(graphic))
-                            continue;
-
-                        if (graphic instanceof OMList<?>) {
-                            OMList<? extends OMGeometry> tomgl = (OMList<? extends OMGeometry>) graphic;
-                            ret = (T) tomgl.getContains(x, y);
-                            if (ret != null) {
-                                if (tomgl.isVague()) {
-                                    ret = (T) graphic;
-                                }
-                                break;
-                            }
-                        } else if (graphic.contains(x, y)) {
-                            ret = (T) graphic;
-                            break;
-                        }
+                    while (iterator.hasPrevious() && ret == null) {
+                        ret = getContainsTest(iterator.previous(), x, y);
                     }
                 }
             }
@@ -1221,6 +1493,35 @@ public abstract class OMList<T extends OMGeometry> extends OMGraphicAdapter impl
         return ret;
     }
 
+    /**
+     * Test if a graphic on this list contains a pixel.
+     * 
+     * @param graphic the graphic to test.
+     * @param x the horizontal pixel position of the window.
+     * @param y the vertical pixel position of the window.
+     * @return the graphic, the OMGraphic in it that contains the pixel if the
+     *         graphic is a list that isn't vague, or null if the pixel isn't
+     *         contained.
+     */
+    protected T getContainsTest(OMGeometry graphic, int x, int y) {
+        // cannot select a graphic which isn't visible
+        if (!shouldProcess(graphic)) {
+            return null;
+        }
+
+        if (graphic instanceof OMList<?>) {
+            OMList<? extends OMGeometry> tomgl = (OMList<? extends OMGeometry>) graphic;
+            T ret = (T) tomgl.getContains(x, y);
+            if (ret != null && tomgl.isVague()) {
+                ret = (T) graphic;
+            }
+            return ret;
+        } else if (graphic.contains(x, y)) {
+            return (T) graphic;
+        }
+        return null;
+    }
+
     /**
      * If you call deselect() on an OMGraphicList, it calls deselect() all the
      * graphics it contains, as well as the deselect method on it's super class.
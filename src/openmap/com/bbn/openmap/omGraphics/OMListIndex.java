@@ -0,0 +1,190 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.omGraphics;
+
+import java.awt.BasicStroke;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.List;
+
+import com.bbn.openmap.layer.shape.PackedRTree;
+
+/**
+ * A screen space index of the graphics on an OMList, so the list can find the
+ * graphics near a pixel without measuring the distance to every one of them.
+ * The index holds the projected bounds of the graphics, grown by half their
+ * line width, in a PackedRTree, and answers with the positions of the
+ * graphics on the list that might be near a point, in list order.
+ * <P>
+ * Graphics that don't have a projected shape, have a label that doesn't, or
+ * are lists themselves aren't put in the tree. Their distances can't be
+ * bounded by their shapes, so they're returned for every query. Some graphics,
+ * like OMText, only get their shapes when they are rendered, so an index
+ * built before then can be rebuilt to include them.
+ * <P>
+ * The index is only good for the projection and list contents it was built
+ * with. The OMList rebuilds it when it is generated and drops it when graphics
+ * are added, removed or moved.
+ *
+ * @see OMList#setSpatialIndexThreshold(int)
+ */
+public class OMListIndex {
+
+    /** Extra pixels added to queries, the tree doesn't match touching bounds. */
+    protected final static double SLOP = 1;
+
+    protected final PackedRTree tree;
+    /** Positions of graphics that are always candidates, ascending. */
+    protected final int[] unindexed;
+    /** Number of graphics on the list when the index was built. */
+    protected final int size;
+    /** Whether every graphic that isn't a list had a shape. */
+    protected final boolean complete;
+
+    protected OMListIndex(PackedRTree tree, int[] unindexed, int size, boolean complete) {
+        this.tree = tree;
+        this.unindexed = unindexed;
+        this.size = size;
+        this.complete = complete;
+    }
+
+    /**
+     * Build an index for a list of projected graphics. The caller should hold
+     * the lock on the list.
+     *
+     * @param graphics the list contents.
+     * @return OMListIndex
+     */
+    public static OMListIndex create(List<? extends OMGeometry> graphics) {
+        int n = graphics.size();
+        double[] xmin = new double[n];
+        double[] ymin = new double[n];
+        double[] xmax = new double[n];
+        double[] ymax = new double[n];
+        int[] positions = new int[n];
+        int[] unindexed = new int[16];
+        int numIndexed = 0;
+        int numUnindexed = 0;
+        boolean complete = true;
+
+        for (int i = 0; i < n; i++) {
+            OMGeometry geometry = graphics.get(i);
+            Rectangle2D bounds = getIndexBounds(geometry);
+            if (bounds == null) {
+                complete &= geometry instanceof OMList<?>;
+                if (numUnindexed == unindexed.length) {
+                    unindexed = Arrays.copyOf(unindexed, numUnindexed * 2);
+                }
+                unindexed[numUnindexed++] = i;
+                continue;
+            }
+
+            xmin[numIndexed] = bounds.getMinX();
+            ymin[numIndexed] = bounds.getMinY();
+            xmax[numIndexed] = bounds.getMaxX();
+            ymax[numIndexed] = bounds.getMaxY();
+            positions[numIndexed] = i;
+            numIndexed++;
+        }
+
+        PackedRTree tree = PackedRTree.create(Arrays.copyOf(xmin, numIndexed), Arrays.copyOf(ymin, numIndexed), Arrays.copyOf(xmax, numIndexed), Arrays.copyOf(ymax, numIndexed), Arrays.copyOf(positions, numIndexed), PackedRTree.DEFAULT_NODE_SIZE);
+        return new OMListIndex(tree, Arrays.copyOf(unindexed, numUnindexed), n, complete);
+    }
+
+    /**
+     * Get the pixel bounds that contain every point the geometry's distance
+     * method could return a distance of zero for.
+     *
+     * @return the bounds, or null if the geometry can't be indexed.
+     */
+    protected static Rectangle2D getIndexBounds(OMGeometry geometry) {
+        if (geometry instanceof OMList<?>) {
+            return null;
+        }
+
+        Shape shape = geometry.getShape();
+        if (shape == null) {
+            return null;
+        }
+
+        Rectangle2D bounds = shape.getBounds2D();
+        if (geometry instanceof OMGraphic) {
+            OMGraphic omg = (OMGraphic) geometry;
+            Stroke stroke = omg.getStroke();
+            if (stroke instanceof BasicStroke) {
+                double pad = ((BasicStroke) stroke).getLineWidth() / 2;
+                bounds.setRect(bounds.getX() - pad, bounds.getY() - pad, bounds.getWidth() + 2 * pad, bounds.getHeight()
+                        + 2 * pad);
+            }
+
+            Object label = omg.getAttribute(OMGraphicConstants.LABEL);
+            if (label != null) {
+                Shape labelShape = label instanceof OMGeometry ? ((OMGeometry) label).getShape() : null;
+                if (labelShape == null) {
+                    return null;
+                }
+                bounds.add(labelShape.getBounds2D());
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * @return the number of graphics on the list when the index was built.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return false if some graphics weren't indexed because they didn't
+     *         have shapes yet.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Find the graphics that might be within limit pixels of a point.
+     *
+     * @param x pixel x.
+     * @param y pixel y.
+     * @param limit the distance limit, in pixels.
+     * @return the positions of the graphics on the list, ascending.
+     */
+    public int[] search(double x, double y, double limit) {
+        double d = limit + SLOP;
+        int[] found = tree.search(x - d, y - d, x + d, y + d);
+        if (unindexed.length == 0) {
+            return found;
+        }
+
+        // Merge the two sorted lists.
+        int[] ret = new int[found.length + unindexed.length];
+        int i = 0, j = 0, k = 0;
+        while (i < found.length && j < unindexed.length) {
+            ret[k++] = found[i] < unindexed[j] ? found[i++] : unindexed[j++];
+        }
+        while (i < found.length) {
+            ret[k++] = found[i++];
+        }
+        while (j < unindexed.length) {
+            ret[k++] = unindexed[j++];
+        }
+        return ret;
+    }
+}
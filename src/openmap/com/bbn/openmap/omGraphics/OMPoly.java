@@ -31,13 +31,13 @@ import java.awt.Shape;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Line2D;
 import java.io.Serializable;
-import java.util.ArrayList;
 
 import com.bbn.openmap.MoreMath;
 import com.bbn.openmap.geo.Geo;
 import com.bbn.openmap.geo.Intersection;
 import com.bbn.openmap.proj.DrawUtil;
 import com.bbn.openmap.proj.GeoProj;
+import com.bbn.openmap.proj.PolyBuffer;
 import com.bbn.openmap.proj.ProjMath;
 import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.util.Debug;
@@ -157,6 +157,12 @@ public class OMPoly extends OMAbstractLine implements Serializable {
      */
     protected boolean doShapes = false;
 
+    /**
+     * Holds the projected coordinate arrays between generates, so they can be
+     * reused instead of reallocated every time the map changes.
+     */
+    protected transient PolyBuffer polyBuffer = null;
+
     /**
      * Construct a default OMPoly.
      */
@@ -670,35 +676,33 @@ public class OMPoly extends OMAbstractLine implements Serializable {
         case RENDERTYPE_LATLON:
             // polygon/polyline project the polygon/polyline.
             // Vertices should already be in radians.
-            ArrayList<float[]> vector;
+            // The projected arrays are kept in the polyBuffer and reused
+            // the next time the poly is generated.
+            PolyBuffer buffer = polyBuffer;
             if (proj instanceof GeoProj) {
                 if (units == DECIMAL_DEGREES) {
                     ProjMath.arrayDegToRad(rawllpts);
                     units = RADIANS;
                 }
-                vector = ((GeoProj) proj).forwardPoly(rawllpts, lineType, nsegs, isPolygon);
+                buffer = ((GeoProj) proj).forwardPoly(rawllpts, lineType, nsegs, isPolygon, buffer);
             } else {
                 if (units == RADIANS) {
                     ProjMath.arrayRadToDeg(rawllpts);
                     units = DECIMAL_DEGREES;
                 }
-                vector = proj.forwardPoly(rawllpts, isPolygon);
+                buffer = proj.forwardPoly(rawllpts, isPolygon, buffer);
             }
+            polyBuffer = buffer;
 
-            int size = vector.size();
+            int size = buffer.size();
 
-            float[][] loc_xpoints = new float[(int) (size / 2)][0];
-            float[][] loc_ypoints = new float[loc_xpoints.length][0];
+            float[][] loc_xpoints = buffer.getXPoints();
+            float[][] loc_ypoints = buffer.getYPoints();
             xpoints = loc_xpoints;
             ypoints = loc_ypoints;
 
-            for (int i = 0, j = 0; i < size; i += 2, j++) {
-                loc_xpoints[j] = vector.get(i);
-                loc_ypoints[j] = vector.get(i + 1);
-            }
-
             if (!doShapes) {
-                if (size > 1) {
+                if (size > 0) {
                     if (arrowhead != null) {
                         arrowhead.generate(this);
                     }
@@ -1251,6 +1255,18 @@ public class OMPoly extends OMAbstractLine implements Serializable {
 
     }
 
+    /**
+     * Clones don't share the buffer holding the projected coordinates, or
+     * they'd be writing over each other's points.
+     */
+    public Object clone() {
+        Object clone = super.clone();
+        if (clone instanceof OMPoly) {
+            ((OMPoly) clone).polyBuffer = null;
+        }
+        return clone;
+    }
+
     /*
      * (non-Javadoc)
      * 
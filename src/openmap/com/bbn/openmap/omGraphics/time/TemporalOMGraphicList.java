@@ -26,6 +26,7 @@ package com.bbn.openmap.omGraphics.time;
 
 import java.util.List;
 
+import com.bbn.openmap.omGraphics.OMGeometry;
 import com.bbn.openmap.omGraphics.OMGraphic;
 import com.bbn.openmap.omGraphics.OMGraphicList;
 import com.bbn.openmap.proj.Projection;
@@ -67,17 +68,37 @@ public class TemporalOMGraphicList extends OMGraphicList implements
 
     /**
      * Calls generate(proj, time) on temporal geometries, regular generate(proj)
-     * on non-temporal OMGeometries.
+     * on non-temporal OMGeometries. The graphics are generated on several
+     * threads if the list has at least the parallel generate threshold of
+     * them, see setParallelGenerateThreshold().
      */
-    public void generate(Projection proj, long time) {
-        for (OMGraphic geom : this) {
-            if (geom instanceof TemporalOMGraphic) {
-                ((TemporalOMGraphic) geom).generate(proj, time);
+    public void generate(final Projection proj, final long time) {
+        synchronized (graphics) {
+            if (isGeneratingInParallel()) {
+                generateInParallel(new GeometryGenerator() {
+                    public boolean generate(OMGeometry geometry) {
+                        TemporalOMGraphicList.this.generate((OMGraphic) geometry, proj, time);
+                        return true;
+                    }
+                });
             } else {
-                geom.generate(proj);
+                for (OMGraphic geom : this) {
+                    generate(geom, proj, time);
+                }
             }
         }
     }
+
+    /**
+     * Generate one of the graphics on the list for a time.
+     */
+    protected void generate(OMGraphic geom, Projection proj, long time) {
+        if (geom instanceof TemporalOMGraphic) {
+            ((TemporalOMGraphic) geom).generate(proj, time);
+        } else {
+            geom.generate(proj);
+        }
+    }
     
     /**
      * Add a location at a time to every TemporalGeometry contained within.
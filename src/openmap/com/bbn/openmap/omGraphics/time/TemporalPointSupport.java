@@ -53,6 +53,69 @@ public class TemporalPointSupport extends TemporalSupport {
         return (Iterator<TemporalPoint>) temporals.iterator();
     }
 
+    /**
+     * TemporalPointSupport doesn't use updateForTemporal, subclasses that do
+     * should override this to return true.
+     */
+    @Override
+    protected boolean isUpdatingForTemporals() {
+        return false;
+    }
+
+    /**
+     * Keeps the locations of lat/lon records in radians, for interpolation.
+     */
+    @Override
+    protected TemporalIndex createIndex(TemporalRecord[] records) {
+        if (renderType == OMGraphic.RENDERTYPE_XY) {
+            return super.createIndex(records);
+        }
+        return new TemporalPointIndex(records);
+    }
+
+    /**
+     * Finds the point along the great circle between the records, the same
+     * point interpolate(time, previous, next) picks, without creating the
+     * rest of the great circle.
+     */
+    @Override
+    protected TemporalRecord interpolate(long time, TemporalIndex index, int previous) {
+        if (!(index instanceof TemporalPointIndex)) {
+            return super.interpolate(time, index, previous);
+        }
+
+        TemporalPointIndex tpi = (TemporalPointIndex) index;
+        double top = time - tpi.getTime(previous);
+        double bottom = tpi.getTime(previous + 1) - tpi.getTime(previous);
+        int segment = (int) Math.floor(100 * (top / bottom));
+
+        double phi1 = tpi.lats[previous];
+        double lambda0 = tpi.lons[previous];
+        if (segment <= 0) {
+            return new TemporalPoint(new LatLonPoint.Double(phi1, lambda0, true), time);
+        }
+
+        double phi = tpi.lats[previous + 1];
+        double lambda = tpi.lons[previous + 1];
+        double cosphi = Math.cos(phi);
+        double cosphi1 = Math.cos(phi1);
+        double sinphi1 = Math.sin(phi1);
+        double ldiff = lambda - lambda0;
+        double p2diff = Math.sin(((phi - phi1) / 2));
+        double l2diff = Math.sin((ldiff) / 2);
+        double c = 2.0 * Math.asin(Math.sqrt(p2diff * p2diff + cosphi1 * cosphi * l2diff * l2diff));
+        double az = Math.atan2(cosphi * Math.sin(ldiff), (cosphi1 * Math.sin(phi) - sinphi1 * cosphi * Math.cos(ldiff)));
+
+        c = c / 100 * segment;
+        double sinc = Math.sin(c);
+        double cosc = Math.cos(c);
+        double cosAz = Math.cos(az);
+        double lat = Math.asin(sinphi1 * cosc + cosphi1 * sinc * cosAz);
+        double lon = Math.atan2(sinc * Math.sin(az), cosphi1 * cosc - sinphi1 * sinc * cosAz) + lambda0;
+
+        return new TemporalPoint(new LatLonPoint.Double(lat, lon, true), time);
+    }
+
     /**
      * Just returns the TemporalRecord that is closes to the current time.
      * Assumes neither previous or next are null.
@@ -106,4 +169,25 @@ public class TemporalPointSupport extends TemporalSupport {
 
         return ret;
     }
+
+    /**
+     * A TemporalIndex with the record locations in radians.
+     */
+    public static class TemporalPointIndex
+            extends TemporalIndex {
+        protected final double[] lats;
+        protected final double[] lons;
+
+        public TemporalPointIndex(TemporalRecord[] records) {
+            super(records);
+            lats = new double[records.length];
+            lons = new double[records.length];
+            for (int i = 0; i < records.length; i++) {
+                Point2D pt = ((TemporalPoint) records[i]).getLocation();
+                LatLonPoint ll = pt instanceof LatLonPoint ? (LatLonPoint) pt : new LatLonPoint.Double(pt);
+                lats[i] = ll.getRadLat();
+                lons[i] = ll.getRadLon();
+            }
+        }
+    }
 }
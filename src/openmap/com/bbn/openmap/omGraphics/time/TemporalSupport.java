@@ -38,6 +38,13 @@ import java.util.logging.Logger;
  * object from the start of time, so that an object's status can be observed and
  * calculated based on everything that might have changed in the TemporalRecord
  * list before a given time.
+ * <P>
+ * The records are indexed in arrays sorted by time, so getPosition finds the
+ * records around a time with a binary search, or without one if the time is
+ * at or just after the last time asked for, as it is during playback. The
+ * index is rebuilt after records are added or removed through this object. If
+ * the TreeSet from getTemporals() is modified directly, call
+ * invalidateIndex() afterward.
  */
 public abstract class TemporalSupport {
 
@@ -45,6 +52,16 @@ public abstract class TemporalSupport {
 
     protected TreeSet<? extends TemporalRecord> temporals;
 
+    /**
+     * The temporals sorted by time, rebuilt when it's null.
+     */
+    protected volatile TemporalIndex index;
+
+    /**
+     * The index of the first record at or after the last time asked for.
+     */
+    protected volatile int cursor;
+
     /**
      * 
      * @param time in milliseconds
@@ -53,43 +70,39 @@ public abstract class TemporalSupport {
      *        between Temporal objects.
      */
     public <T extends TemporalRecord> T getPosition(long time, boolean interpolate) {
-        T previous = null;
-        T next = null;
+        TemporalIndex index = getIndex();
+        if (index == null) {
+            return null;
+        }
 
         // Find out where the timestamp is in relation to the reported
         // positions
-        synchronized (temporals) {
-
-            Iterator<T> it = iterator();
-            while (it.hasNext()) {
-                T temporal = it.next();
-                long recTimeStamp = temporal.getTime();
-
+        int position = index.find(time, cursor);
+        cursor = position;
+        int size = index.size();
+        boolean hit = position < size && index.times[position] == time;
+
+        if (isUpdatingForTemporals()) {
+            int last = hit ? position : position - 1;
+            for (int i = 0; i <= last; i++) {
                 if (logger.isLoggable(Level.FINER)) {
-                    logger.finer("evaluating: " + temporal + " vs " + time);
-                }
-
-                if (recTimeStamp < time) {
-                    previous = temporal;
-                    updateForTemporal(time, temporal);
-                } else if (recTimeStamp > time) {
-                    next = temporal;
-                    break;
-                } else {
-                    // Hit a time right at a position.
-                    updateForTemporal(time, temporal);
-                    return temporal;
+                    logger.finer("evaluating: " + index.records[i] + " vs " + time);
                 }
+                updateForTemporal(time, index.records[i]);
             }
         }
 
-        T pos = null;
+        TemporalRecord previous = position > 0 ? index.records[position - 1] : null;
+        TemporalRecord next = position < size ? index.records[position] : null;
+        TemporalRecord pos = null;
 
-        // OK, now's the opportunity to leave if
-        // interpolation is not wanted.
-
-        if (previous != null && !interpolate) {
-            return previous;
+        if (hit) {
+            // Hit a time right at a position.
+            pos = next;
+        } else if (previous != null && !interpolate) {
+            // OK, now's the opportunity to leave if
+            // interpolation is not wanted.
+            pos = previous;
         } else if (previous == null) {
             // time is before MissionFeature is placed.
             // Don't want to set pos here, should be null to set
@@ -125,15 +138,16 @@ public abstract class TemporalSupport {
             // Need to interpolate between the two, previous and next.
             // This may not be exact, but it's close.
 
-            pos = (T) interpolate(time, previous, next);
+            pos = interpolate(time, index, position - 1);
         }
 
-        return pos;
+        return (T) pos;
     }
 
     /**
      * Override this method to use the TemporalRecord's contents to affect the
-     * status of whatever you like.
+     * status of whatever you like. getPosition calls it for every record up
+     * to the time, in order, unless isUpdatingForTemporals() returns false.
      * 
      * @param time milliseconds reflecting the current time.
      * @param temporal record that reflects something that has happened.
@@ -142,6 +156,31 @@ public abstract class TemporalSupport {
 
     }
 
+    /**
+     * Subclasses that don't override updateForTemporal should override this
+     * to return false, so getPosition doesn't have to go through every record
+     * up to the time.
+     * 
+     * @return true if getPosition should call updateForTemporal.
+     */
+    protected boolean isUpdatingForTemporals() {
+        return true;
+    }
+
+    /**
+     * Interpolate between the record at a position in the index and the
+     * next one. Calls interpolate(time, previous, next) by default, subclasses
+     * can use the arrays they put in the index.
+     * 
+     * @param time the current time.
+     * @param index the index.
+     * @param previous the position of the record before the time.
+     * @return TemporalRecord for the time.
+     */
+    protected TemporalRecord interpolate(long time, TemporalIndex index, int previous) {
+        return interpolate(time, index.records[previous], index.records[previous + 1]);
+    }
+
     /**
      * Just returns the TemporalRecord that is closes to the current time.
      * Assumes neither previous or next are null.
@@ -161,6 +200,47 @@ public abstract class TemporalSupport {
         return next;
     }
 
+    /**
+     * Get the index of the temporals, building it if the temporals have
+     * changed.
+     * 
+     * @return TemporalIndex, or null if there aren't any temporals.
+     */
+    protected TemporalIndex getIndex() {
+        TreeSet<? extends TemporalRecord> temporals = this.temporals;
+        if (temporals == null) {
+            return null;
+        }
+        TemporalIndex ret = index;
+        // The size check catches most changes made to the TreeSet directly.
+        if (ret == null || ret.size() != temporals.size()) {
+            synchronized (temporals) {
+                ret = createIndex(temporals.toArray(new TemporalRecord[temporals.size()]));
+            }
+            index = ret;
+        }
+        return ret;
+    }
+
+    /**
+     * Create the index for the temporals. Subclasses can extend TemporalIndex
+     * to keep other information from the records in arrays.
+     * 
+     * @param records the temporals, sorted by time.
+     * @return TemporalIndex
+     */
+    protected TemporalIndex createIndex(TemporalRecord[] records) {
+        return new TemporalIndex(records);
+    }
+
+    /**
+     * Tell the TemporalSupport that the temporals have changed, so the index
+     * gets rebuilt.
+     */
+    public void invalidateIndex() {
+        index = null;
+    }
+
     public <T extends TemporalRecord> TreeSet<T> getTemporals() {
         if (temporals == null) {
             temporals = createTemporalSet();
@@ -170,6 +250,7 @@ public abstract class TemporalSupport {
 
     public <T extends TemporalRecord> void setTemporals(TreeSet<T> temporals) {
         this.temporals = temporals;
+        invalidateIndex();
     }
 
     public abstract <T extends TemporalRecord> TreeSet<T> createTemporalSet();
@@ -178,6 +259,7 @@ public abstract class TemporalSupport {
 
     public void add(TemporalRecord tr) {
         getTemporals().add(tr);
+        invalidateIndex();
     }
 
     /**
@@ -187,10 +269,71 @@ public abstract class TemporalSupport {
      * @return true if removal was successful.
      */
     public boolean remove(TemporalRecord tr) {
-        return getTemporals().remove(tr);
+        boolean ret = getTemporals().remove(tr);
+        invalidateIndex();
+        return ret;
     }
 
     public void clear() {
         temporals.clear();
+        invalidateIndex();
+    }
+
+    /**
+     * The temporals in time order, with their times in an array for searching.
+     */
+    public static class TemporalIndex {
+        protected final TemporalRecord[] records;
+        protected final long[] times;
+
+        public TemporalIndex(TemporalRecord[] records) {
+            this.records = records;
+            times = new long[records.length];
+            for (int i = 0; i < records.length; i++) {
+                times[i] = records[i].getTime();
+            }
+        }
+
+        public int size() {
+            return records.length;
+        }
+
+        public TemporalRecord get(int i) {
+            return records[i];
+        }
+
+        public long getTime(int i) {
+            return times[i];
+        }
+
+        /**
+         * Find the position of the first record at or after a time. The hint
+         * is checked first, and the position after it, before searching.
+         * 
+         * @param time the time.
+         * @param hint a likely position, like the last one found.
+         * @return the position, the size of the index if all of the records
+         *         are before the time.
+         */
+        public int find(long time, int hint) {
+            int n = times.length;
+            for (int i = hint; i <= hint + 1; i++) {
+                if (i >= 0 && i <= n && (i == 0 || times[i - 1] < time) && (i == n || times[i] >= time)) {
+                    return i;
+                }
+            }
+
+            int low = 0;
+            int high = n - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (times[mid] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
     }
 }
@@ -30,6 +30,12 @@ import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
 import java.awt.image.PixelGrabber;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,12 +45,32 @@ import com.bbn.openmap.proj.Projection;
 import com.bbn.openmap.proj.coords.GeoCoordTransformation;
 import com.bbn.openmap.proj.coords.LatLonGCT;
 import com.bbn.openmap.proj.coords.LatLonPoint;
+import com.bbn.openmap.proj.coords.MultiGCT;
 import com.bbn.openmap.util.DataBounds;
 import com.bbn.openmap.util.Debug;
+import com.bbn.openmap.util.TaskService;
 
 /**
  * The ImageTranslator is the object that takes a BufferedImage and creates an
  * OMRaster from it based on a Projection object.
+ * <p>
+ * The map pixels aren't all run back through the projection and the
+ * GeoCoordTransformation. The source image location is calculated on a grid
+ * of map pixels, gridSpacing apart, and interpolated for the pixels in
+ * between. Each grid cell is checked by comparing the interpolated and
+ * calculated locations of its center, and cells where they are more than
+ * maxError source pixels apart are split up until they are small enough to
+ * calculate every pixel. The rows of cells are divided up between TaskService
+ * threads, if the GeoCoordTransformation is one known to be safe to use from
+ * several threads at once.
+ * <p>
+ * If reuseLastWarp is set, the last warped image is kept. If the next
+ * projection is the same as the last one, just moved a whole number of pixels
+ * - a pan without a zoom on a cylindrical projection - the part of the image
+ * that was already warped is shifted into place and only the newly uncovered
+ * pixels are calculated. It's off by default, since the kept image uses as
+ * much memory as the warped image, and caches holding ImageWarps don't count
+ * it.
  */
 public class ImageWarp {
 
@@ -97,6 +123,30 @@ public class ImageWarp {
      */
     protected DataBounds projectedImageBounds;
 
+    /** The default distance between grid points, in map pixels. */
+    public final static int DEFAULT_GRID_SPACING = 16;
+    /**
+     * The default largest difference between interpolated and calculated
+     * source image locations, in source image pixels.
+     */
+    public final static double DEFAULT_MAX_ERROR = 0.25;
+
+    /**
+     * The distance between the map pixels the source image location is
+     * calculated for. 1 calculates every pixel.
+     */
+    protected int gridSpacing = DEFAULT_GRID_SPACING;
+    /**
+     * The largest difference between the interpolated and calculated source
+     * image location of a pixel, in source image pixels, before a grid cell is
+     * split up.
+     */
+    protected double maxError = DEFAULT_MAX_ERROR;
+    /** Whether the last warped image is kept to shift when the map pans. */
+    protected boolean reuseLastWarp = false;
+    /** The last warped image. */
+    protected volatile Warp lastWarp;
+
     /**
      * Create an image warp for an image assumed to be world wide coverage, with
      * the top at 90 degrees, the bottom at -90, the left side at -180 and the
@@ -254,21 +304,6 @@ public class ImageWarp {
                 return null;
             }
 
-            int projHeight = (int) Math.ceil(projectedImageBounds.getHeight());
-            int projWidth = (int) Math.ceil(projectedImageBounds.getWidth());
-
-            // See if we can reuse the pixel array we have.
-
-            int[] tmpPixels = new int[projWidth * projHeight];
-            int numTmpPixels = tmpPixels.length;
-            logger.fine("tmpPixels[" + numTmpPixels + "]");
-            int clear = 0x00000000;
-
-            Point2D ctp = new Point2D.Double();
-            Point2D ddll = new Point2D.Double();
-            Point2D imageCoord = new Point2D.Double();
-            Point2D center = p.getCenter();
-
             if (logger.isLoggable(Level.FINE)) {
                 logger.fine(projectedImageBounds.toString());
             }
@@ -278,75 +313,400 @@ public class ImageWarp {
             int maxx = (int) Math.ceil(projectedImageBounds.getMax().getX());
             int maxy = (int) Math.ceil(projectedImageBounds.getMax().getY());
 
-            // i and j are map window pixel values.
-            for (int i = minx; i < maxx; i++) {
-                for (int j = miny; j < maxy; j++) {
+            int projHeight = (int) Math.ceil(projectedImageBounds.getHeight());
+            int projWidth = (int) Math.ceil(projectedImageBounds.getWidth());
 
-                    // ix and iy are pixel coordinates of the destination image.
-                    int ix = i - minx;
-                    int iy = j - miny;
+            int[] tmpPixels = new int[projWidth * projHeight];
+            logger.fine("tmpPixels[" + tmpPixels.length + "]");
 
-                    // index into the OMRaster pixel array
-                    int tmpIndex = (ix + (iy * projWidth));
+            Rectangle bounds = new Rectangle(minx, miny, Math.min(maxx - minx, projWidth), Math.min(maxy
+                    - miny, projHeight));
+            Warp warp = new Warp(p, bounds, projWidth, tmpPixels);
+            warp.setReuse(lastWarp);
+            warp.run();
 
-                    if (tmpIndex >= numTmpPixels) {
-                        continue;
-                    }
+            if (reuseLastWarp) {
+                // Kept apart from the pixels handed to the raster.
+                lastWarp = new Warp(p.makeClone(), bounds, projWidth, tmpPixels.clone());
+            }
 
-                    ddll = p.inverse(i, j, ddll);
-
-                    // If the llp calculated isn't on the map,
-                    // don't bother drawing it. Could be a space
-                    // point in Orthographic projection, for
-                    // instance.
-                    if (ddll.equals(center)) {
-                        p.forward(ddll, ctp);
-                        if (ctp.getX() != i || ctp.getY() != j) {
-                            tmpPixels[tmpIndex] = clear;
-                            continue;
-                        }
-                    }
+            logger.fine("finished creating image");
+            return tmpPixels;
+        }
 
-                    if (geoTrans != null) {
-                        geoTrans.forward(ddll.getY(), ddll.getX(), imageCoord);
-                    } else {
-                        imageCoord = ddll;
-                    }
+        logger.warning("problem creating image, no pixels: " + (pixels == null ? "true" : "false")
+                + ", no projection:" + (p == null ? "true" : "false"));
 
-                    if (!sourceImageBounds.contains(imageCoord)) {
-                        tmpPixels[tmpIndex] = clear;
-                        continue;
-                    }
+        // If you get here, something's not right.
+        return null;
+    }
 
-                    // Find the corresponding pixel location in
-                    // the source image.
-                    int horIndex = (int) Math.round(horOrigin + (imageCoord.getX() / hor_upp));
-                    int verIndex = (int) Math.round(verOrigin + (imageCoord.getY() / ver_upp));
+    /**
+     * An image warped for a projection.
+     */
+    protected class Warp {
+        protected final Projection proj;
+        /** The map pixels covered by the image. */
+        protected final Rectangle bounds;
+        /** The width of a row of pixels in the image. */
+        protected final int scanWidth;
+        protected final int[] warped;
+
+        /** The last warp, and where its pixels are in this one. */
+        protected Warp reuse;
+        protected int shiftX;
+        protected int shiftY;
+        protected Rectangle reuseBounds;
+
+        protected Warp(Projection proj, Rectangle bounds, int scanWidth, int[] warped) {
+            this.proj = proj;
+            this.bounds = bounds;
+            this.scanWidth = scanWidth;
+            this.warped = warped;
+        }
+
+        /**
+         * Use the pixels from another warp, if this warp's projection is just
+         * the other warp's projection shifted a whole number of pixels.
+         */
+        protected void setReuse(Warp last) {
+            reuse = null;
+            if (last == null || last.proj.getClass() != proj.getClass()
+                    || last.proj.getScale() != proj.getScale() || sourceImageBounds == null) {
+                return;
+            }
 
-                    if (horIndex < 0 || horIndex >= iwidth || verIndex < 0 || verIndex >= iheight) {
-                        // pixel not on the source image. This
-                        // happens if the image doesn't cover the
-                        // entire earth.
-                        continue;
+            // Check that the corners of the image moved the same amount.
+            Point2D min = sourceImageBounds.getMin();
+            Point2D max = sourceImageBounds.getMax();
+            double[][] corners = new double[][] { { min.getX(), min.getY() },
+                    { max.getX(), min.getY() }, { min.getX(), max.getY() },
+                    { max.getX(), max.getY() } };
+            LatLonPoint llp = new LatLonPoint.Double();
+            Point2D lastPnt = new Point2D.Double();
+            Point2D pnt = new Point2D.Double();
+            double dx = Double.NaN;
+            double dy = Double.NaN;
+            for (double[] corner : corners) {
+                // Without a GeoCoordTransformation the image coordinates are
+                // decimal degrees, the way the Mapper treats them.
+                if (geoTrans != null) {
+                    geoTrans.inverse(corner[0], corner[1], llp);
+                } else {
+                    llp.setLatLon(corner[1], corner[0]);
+                }
+                last.proj.forward(llp, lastPnt);
+                proj.forward(llp, pnt);
+                double cdx = pnt.getX() - lastPnt.getX();
+                double cdy = pnt.getY() - lastPnt.getY();
+                if (Double.isNaN(dx)) {
+                    dx = cdx;
+                    dy = cdy;
+                }
+                if (Math.abs(cdx - dx) > 0.001 || Math.abs(cdy - dy) > 0.001
+                        || Math.abs(cdx - Math.rint(cdx)) > 0.001
+                        || Math.abs(cdy - Math.rint(cdy)) > 0.001) {
+                    return;
+                }
+            }
+
+            shiftX = (int) Math.rint(dx);
+            shiftY = (int) Math.rint(dy);
+            Rectangle shifted = new Rectangle(last.bounds);
+            shifted.translate(shiftX, shiftY);
+            reuseBounds = shifted.intersection(bounds);
+            if (!reuseBounds.isEmpty()) {
+                reuse = last;
+            }
+        }
+
+        /**
+         * Fill in the warped pixels, a row of grid cells at a time, on as many
+         * threads as there are processors.
+         */
+        protected void run() {
+            final int spacing = Math.max(1, gridSpacing);
+            final int numBands = (bounds.height + spacing - 1) / spacing;
+            final AtomicInteger nextBand = new AtomicInteger();
+
+            class BandWarper implements Callable<Boolean> {
+                public Boolean call() {
+                    Mapper mapper = new Mapper(proj);
+                    int band;
+                    while ((band = nextBand.getAndIncrement()) < numBands) {
+                        warpBand(mapper, bounds.y + band * spacing, spacing);
                     }
+                    return Boolean.TRUE;
+                }
+            }
+
+            BandWarper warper = new BandWarper();
+            int numThreads = 1;
+            if (isReentrant(geoTrans)) {
+                numThreads = Math.min(numBands, Runtime.getRuntime().availableProcessors());
+            }
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(numThreads);
+            for (int i = 1; i < numThreads; i++) {
+                futures.add(TaskService.singleton().spawn(warper));
+            }
+
+            warper.call();
+
+            for (Future<Boolean> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    logger.warning("problem warping image: " + e.getCause());
+                }
+            }
+        }
+
+        /**
+         * Warp the cells in a row of the grid.
+         */
+        protected void warpBand(Mapper mapper, int y0, int spacing) {
+            int numCells = (bounds.width + spacing - 1) / spacing;
+            double[] top = new double[(numCells + 1) * 2];
+            double[] bottom = new double[(numCells + 1) * 2];
+            int y1 = y0 + spacing;
+            for (int k = 0; k <= numCells; k++) {
+                int x = bounds.x + k * spacing;
+                mapper.map(x, y0, top, k * 2);
+                mapper.map(x, y1, bottom, k * 2);
+            }
+
+            double[] corners = new double[8];
+            int h = Math.min(spacing, bounds.y + bounds.height - y0);
+            for (int k = 0; k < numCells; k++) {
+                int x0 = bounds.x + k * spacing;
+                int w = Math.min(spacing, bounds.x + bounds.width - x0);
+
+                if (copyFromReuse(x0, y0, w, h)) {
+                    continue;
+                }
+
+                System.arraycopy(top, k * 2, corners, 0, 4);
+                System.arraycopy(bottom, k * 2, corners, 4, 4);
+                warpCell(mapper, x0, y0, spacing, spacing, w, h, corners);
+            }
+        }
+
+        /**
+         * Copy the pixels of a cell from the last warp, if they're all there.
+         * 
+         * @return true if they were copied.
+         */
+        protected boolean copyFromReuse(int x0, int y0, int w, int h) {
+            if (reuse == null || !reuseBounds.contains(x0, y0, w, h)) {
+                return false;
+            }
 
-                    int imageIndex = horIndex + (verIndex * iwidth);
+            int lastX = x0 - shiftX - reuse.bounds.x;
+            int lastY = y0 - shiftY - reuse.bounds.y;
+            for (int j = 0; j < h; j++) {
+                System.arraycopy(reuse.warped, lastX + (lastY + j) * reuse.scanWidth, warped, (x0 - bounds.x)
+                        + (y0 - bounds.y + j) * scanWidth, w);
+            }
+            return true;
+        }
 
-                    if (imageIndex >= 0 && imageIndex < pixels.length) {
-                        tmpPixels[tmpIndex] = pixels[imageIndex];
+        /**
+         * Warp a cell of the grid, interpolating the source image locations
+         * from the corners if the center is close enough, and splitting the
+         * cell up if it isn't.
+         * 
+         * @param x0 left map pixel of the cell.
+         * @param y0 top map pixel of the cell.
+         * @param cw the distance to the right corners.
+         * @param ch the distance to the bottom corners.
+         * @param w the number of pixels to fill across, cw or less at the edge
+         *        of the image.
+         * @param h the number of pixels to fill down.
+         * @param c the source image locations of the upper left, upper right,
+         *        lower left and lower right corners, x and y for each.
+         */
+        protected void warpCell(Mapper mapper, int x0, int y0, int cw, int ch, int w, int h,
+                                double[] c) {
+            if (w <= 0 || h <= 0) {
+                return;
+            }
+
+            boolean cornersOnImage = !Double.isNaN(c[0]) && !Double.isNaN(c[2]) && !Double.isNaN(c[4])
+                    && !Double.isNaN(c[6]);
+
+            if (cw <= 2 || ch <= 2) {
+                if (!cornersOnImage) {
+                    for (int j = 0; j < h; j++) {
+                        for (int i = 0; i < w; i++) {
+                            setPixel(x0 + i, y0 + j, mapper.map(x0 + i, y0 + j));
+                        }
                     }
+                    return;
+                }
+            } else {
+                int hw = cw / 2;
+                int hh = ch / 2;
+                double[] mid = new double[10];
+                // center, top, left, right, bottom
+                mapper.map(x0 + hw, y0 + hh, mid, 0);
+                boolean split = !cornersOnImage || Double.isNaN(mid[0]);
+                if (!split) {
+                    double ix = interpolate(c, 0, 0.5, 0.5);
+                    double iy = interpolate(c, 1, 0.5, 0.5);
+                    split = Math.abs(ix - mid[0]) > maxError || Math.abs(iy - mid[1]) > maxError;
+                }
+
+                if (split) {
+                    mapper.map(x0 + hw, y0, mid, 2);
+                    mapper.map(x0, y0 + hh, mid, 4);
+                    mapper.map(x0 + cw, y0 + hh, mid, 6);
+                    mapper.map(x0 + hw, y0 + ch, mid, 8);
+
+                    double[] q = new double[8];
+                    // upper left
+                    setCorners(q, c[0], c[1], mid[2], mid[3], mid[4], mid[5], mid[0], mid[1]);
+                    warpCell(mapper, x0, y0, hw, hh, Math.min(w, hw), Math.min(h, hh), q);
+                    // upper right
+                    setCorners(q, mid[2], mid[3], c[2], c[3], mid[0], mid[1], mid[6], mid[7]);
+                    warpCell(mapper, x0 + hw, y0, cw - hw, hh, Math.min(w - hw, cw - hw), Math.min(h, hh), q);
+                    // lower left
+                    setCorners(q, mid[4], mid[5], mid[0], mid[1], c[4], c[5], mid[8], mid[9]);
+                    warpCell(mapper, x0, y0 + hh, hw, ch - hh, Math.min(w, hw), Math.min(h - hh, ch - hh), q);
+                    // lower right
+                    setCorners(q, mid[0], mid[1], mid[6], mid[7], mid[8], mid[9], c[6], c[7]);
+                    warpCell(mapper, x0 + hw, y0 + hh, cw - hw, ch - hh, Math.min(w - hw, cw - hw), Math.min(h
+                            - hh, ch - hh), q);
+                    return;
                 }
             }
 
-            logger.fine("finished creating image");
-            return tmpPixels;
+            for (int j = 0; j < h; j++) {
+                double fy = (double) j / ch;
+                for (int i = 0; i < w; i++) {
+                    double fx = (double) i / cw;
+                    setPixel(x0 + i, y0 + j, getSourcePixel(interpolate(c, 0, fx, fy), interpolate(c, 1, fx, fy)));
+                }
+            }
         }
 
-        logger.warning("problem creating image, no pixels: " + (pixels == null ? "true" : "false")
-                + ", no projection:" + (p == null ? "true" : "false"));
+        protected void setPixel(int x, int y, int pixel) {
+            int ix = x - bounds.x;
+            int iy = y - bounds.y;
+            if (ix < bounds.width && iy < bounds.height) {
+                warped[ix + iy * scanWidth] = pixel;
+            }
+        }
+    }
 
-        // If you get here, something's not right.
-        return null;
+    private static void setCorners(double[] q, double ulx, double uly, double urx, double ury,
+                                   double llx, double lly, double lrx, double lry) {
+        q[0] = ulx;
+        q[1] = uly;
+        q[2] = urx;
+        q[3] = ury;
+        q[4] = llx;
+        q[5] = lly;
+        q[6] = lrx;
+        q[7] = lry;
+    }
+
+    /**
+     * Bilinear interpolation between the corners of a cell.
+     * 
+     * @param c the corners, upper left, upper right, lower left, lower right.
+     * @param off 0 for x, 1 for y.
+     * @param fx fraction across the cell.
+     * @param fy fraction down the cell.
+     */
+    private static double interpolate(double[] c, int off, double fx, double fy) {
+        double top = c[off] + (c[2 + off] - c[off]) * fx;
+        double bottom = c[4 + off] + (c[6 + off] - c[4 + off]) * fx;
+        return top + (bottom - top) * fy;
+    }
+
+    /**
+     * @return the source image pixel at a location in the source image, clear
+     *         if it's not on the image.
+     */
+    protected int getSourcePixel(double sx, double sy) {
+        if (Double.isNaN(sx)) {
+            return 0;
+        }
+
+        int horIndex = (int) Math.round(sx);
+        int verIndex = (int) Math.round(sy);
+
+        if (horIndex < 0 || horIndex >= iwidth || verIndex < 0 || verIndex >= iheight) {
+            // pixel not on the source image. This happens if the image doesn't
+            // cover the entire earth.
+            return 0;
+        }
+
+        int imageIndex = horIndex + (verIndex * iwidth);
+        return imageIndex < pixels.length ? pixels[imageIndex] : 0;
+    }
+
+    /**
+     * Finds the source image location for map pixels. Holds the points reused
+     * for the calculations, so each thread needs its own.
+     */
+    protected class Mapper {
+        protected final Projection p;
+        protected final Point2D center;
+        protected final Point2D ctp = new Point2D.Double();
+        protected final Point2D ddll = new Point2D.Double();
+        protected final Point2D imageCoord = new Point2D.Double();
+        protected final double[] tmp = new double[2];
+
+        protected Mapper(Projection p) {
+            this.p = p;
+            center = p.getCenter();
+        }
+
+        /**
+         * Find the source image location for a map pixel.
+         * 
+         * @param ret filled with the x and y source image pixel location, NaN
+         *        if the map pixel isn't on the image.
+         * @param off where to put x in ret.
+         */
+        protected void map(int i, int j, double[] ret, int off) {
+            ret[off] = Double.NaN;
+            ret[off + 1] = Double.NaN;
+
+            p.inverse(i, j, ddll);
+
+            // If the llp calculated isn't on the map, don't bother drawing it.
+            // Could be a space point in Orthographic projection, for instance.
+            if (ddll.equals(center)) {
+                p.forward(ddll, ctp);
+                if (ctp.getX() != i || ctp.getY() != j) {
+                    return;
+                }
+            }
+
+            Point2D coord = ddll;
+            if (geoTrans != null) {
+                coord = geoTrans.forward(ddll.getY(), ddll.getX(), imageCoord);
+            }
+
+            if (!sourceImageBounds.contains(coord)) {
+                return;
+            }
+
+            ret[off] = horOrigin + (coord.getX() / hor_upp);
+            ret[off + 1] = verOrigin + (coord.getY() / ver_upp);
+        }
+
+        /**
+         * @return the source image pixel for a map pixel.
+         */
+        protected int map(int i, int j) {
+            map(i, j, tmp, 0);
+            return getSourcePixel(tmp[0], tmp[1]);
+        }
     }
 
     /**
@@ -462,6 +822,7 @@ public class ImageWarp {
 
     public void setIwidth(int iwidth) {
         this.iwidth = iwidth;
+        lastWarp = null;
     }
 
     public int getIheight() {
@@ -470,6 +831,7 @@ public class ImageWarp {
 
     public void setIheight(int iheight) {
         this.iheight = iheight;
+        lastWarp = null;
     }
 
     public double getHor_dpp() {
@@ -478,6 +840,7 @@ public class ImageWarp {
 
     public void setHor_dpp(double hor_dpp) {
         this.hor_upp = hor_dpp;
+        lastWarp = null;
     }
 
     public double getVer_dpp() {
@@ -486,6 +849,7 @@ public class ImageWarp {
 
     public void setVer_dpp(double ver_dpp) {
         this.ver_upp = ver_dpp;
+        lastWarp = null;
     }
 
     public double getVerOrigin() {
@@ -494,6 +858,7 @@ public class ImageWarp {
 
     public void setVerOrigin(double verOrigin) {
         this.verOrigin = verOrigin;
+        lastWarp = null;
     }
 
     public double getHorOrigin() {
@@ -502,6 +867,7 @@ public class ImageWarp {
 
     public void setHorOrigin(double horOrigin) {
         this.horOrigin = horOrigin;
+        lastWarp = null;
     }
 
     public GeoCoordTransformation getGeoTrans() {
@@ -510,6 +876,7 @@ public class ImageWarp {
 
     public void setGeoTrans(GeoCoordTransformation geoTrans) {
         this.geoTrans = geoTrans;
+        lastWarp = null;
     }
 
     public DataBounds getImageBounds() {
@@ -518,6 +885,7 @@ public class ImageWarp {
 
     public void setImageBounds(DataBounds imageBounds) {
         this.sourceImageBounds = imageBounds;
+        lastWarp = null;
 
         hor_upp = imageBounds.getWidth() / iwidth;
         // need the negative sign because latitudes increase in the opposite
@@ -547,6 +915,7 @@ public class ImageWarp {
     }
 
     public void setImageBounds(WorldFile worldFile) {
+        lastWarp = null;
         hor_upp = worldFile.getXDim();
         // world file dimensions have direction, negative for going down
         ver_upp = worldFile.getYDim();
@@ -569,6 +938,73 @@ public class ImageWarp {
         }
     }
 
+    public int getGridSpacing() {
+        return gridSpacing;
+    }
+
+    /**
+     * @param gridSpacing the distance between the map pixels the source image
+     *        location is calculated for, 1 to calculate every pixel.
+     */
+    public void setGridSpacing(int gridSpacing) {
+        this.gridSpacing = gridSpacing;
+        lastWarp = null;
+    }
+
+    public double getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * @param maxError the largest difference between the interpolated and
+     *        calculated source image location of a pixel, in source image
+     *        pixels.
+     */
+    public void setMaxError(double maxError) {
+        this.maxError = maxError;
+        lastWarp = null;
+    }
+
+    /**
+     * Check if a GeoCoordTransformation can be used from several threads at
+     * once. The transformations in the com.bbn.openmap.proj.coords package
+     * can, others might keep state between calls and are only used from one
+     * thread.
+     * 
+     * @param gct the transformation, null for decimal degree images.
+     * @return true if the image can be warped on several threads.
+     */
+    protected boolean isReentrant(GeoCoordTransformation gct) {
+        if (gct == null) {
+            return true;
+        }
+        if (gct.getClass().getPackage() != GeoCoordTransformation.class.getPackage()) {
+            return false;
+        }
+        if (gct instanceof MultiGCT) {
+            for (GeoCoordTransformation t : ((MultiGCT) gct).getTransformations()) {
+                if (!isReentrant(t)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public boolean isReuseLastWarp() {
+        return reuseLastWarp;
+    }
+
+    /**
+     * @param reuseLastWarp whether the last warped image is kept, to shift
+     *        when the map pans. The kept image isn't counted by caches that
+     *        weigh the ImageWarp by its source image.
+     */
+    public void setReuseLastWarp(boolean reuseLastWarp) {
+        this.reuseLastWarp = reuseLastWarp;
+        lastWarp = null;
+    }
+
     public static void main(String[] args) {
         new ImageWarp(new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB), LatLonGCT.INSTANCE, new DataBounds(25, -90, 180, 90));
     }
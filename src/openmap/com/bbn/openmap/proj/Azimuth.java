@@ -858,6 +858,96 @@ public abstract class Azimuth extends GeoProj {
         return ret_val;
     }// _forwardPoly()
 
+    /**
+     * Forward project a lat/lon Poly into a PolyBuffer. Polys that are
+     * completely inside the visible hemisphere, which are most of them, are
+     * projected straight into the buffer's arrays. Polys that cross the
+     * horizon are handed to the ArrayList version of _forwardPoly, which knows
+     * how to cut them up.
+     * 
+     * @param rawllpts float[] of lat,lon,lat,lon,... in RADIANS!
+     * @param ltype line type (straight, rhumbline, greatcircle)
+     * @param nsegs number of segment points (only for greatcircle or rhumbline
+     *        line types, and if &lt; 1, this value is generated internally)
+     * @param isFilled filled poly?
+     * @param buffer the cleared PolyBuffer to fill.
+     */
+    protected void _forwardPoly(float[] rawllpts, int ltype, int nsegs, boolean isFilled,
+                                PolyBuffer buffer) {
+        int len = rawllpts.length >>> 1;
+        if (len < 2)
+            return;
+
+        // handle complicated line in specific routines
+        if (isComplicatedLineType(ltype)) {
+            buffer.set(doPolyDispatch(rawllpts, ltype, nsegs, isFilled));
+            return;
+        }
+
+        Point temp = buffer.intPoint;
+        AzimuthVar azVar = new AzimuthVar();
+        int part = buffer.addPart(len);
+        float[] xs = buffer.getXPoints(part);
+        float[] ys = buffer.getYPoints(part);
+
+        for (int i = 0, j = 0; i < len; i++, j += 2) {
+            azVar.invalid_forward = false;
+            _forward(rawllpts[j], rawllpts[j + 1], temp, azVar);
+            if (azVar.invalid_forward) {
+                // partially or completely outside the hemisphere
+                buffer.set(_forwardPoly(rawllpts, ltype, nsegs, isFilled));
+                return;
+            }
+            xs[i] = temp.x;
+            ys[i] = temp.y;
+        }
+    }
+
+    /**
+     * Forward project a lat/lon Poly into a PolyBuffer. Polys that are
+     * completely inside the visible hemisphere, which are most of them, are
+     * projected straight into the buffer's arrays. Polys that cross the
+     * horizon are handed to the ArrayList version of _forwardPoly, which knows
+     * how to cut them up.
+     * 
+     * @param rawllpts double[] of lat,lon,lat,lon,... in RADIANS!
+     * @param ltype line type (straight, rhumbline, greatcircle)
+     * @param nsegs number of segment points (only for greatcircle or rhumbline
+     *        line types, and if &lt; 1, this value is generated internally)
+     * @param isFilled filled poly?
+     * @param buffer the cleared PolyBuffer to fill.
+     */
+    protected void _forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled,
+                                PolyBuffer buffer) {
+        int len = rawllpts.length >>> 1;
+        if (len < 2)
+            return;
+
+        // handle complicated line in specific routines
+        if (isComplicatedLineType(ltype)) {
+            buffer.set(doPolyDispatch(rawllpts, ltype, nsegs, isFilled));
+            return;
+        }
+
+        Point temp = buffer.intPoint;
+        AzimuthVar azVar = new AzimuthVar();
+        int part = buffer.addPart(len);
+        float[] xs = buffer.getXPoints(part);
+        float[] ys = buffer.getYPoints(part);
+
+        for (int i = 0, j = 0; i < len; i++, j += 2) {
+            azVar.invalid_forward = false;
+            _forward(rawllpts[j], rawllpts[j + 1], temp, azVar);
+            if (azVar.invalid_forward) {
+                // partially or completely outside the hemisphere
+                buffer.set(_forwardPoly(rawllpts, ltype, nsegs, isFilled));
+                return;
+            }
+            xs[i] = temp.x;
+            ys[i] = temp.y;
+        }
+    }
+
     // This is meant to be called from _forwardPoly() after
     // determining that a FILLED polygon straddles the edge of the
     // projection/hemisphere.
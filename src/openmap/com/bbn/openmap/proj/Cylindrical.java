@@ -457,6 +457,156 @@ public abstract class Cylindrical
         return ret_val;
     }// _forwardPoly()
 
+    /**
+     * Forward project a raw float[] Poly into a PolyBuffer, reusing its
+     * arrays. Does the same thing as the ArrayList version of _forwardPoly.
+     * 
+     * @param rawllpts float[] of lat,lon,lat,lon,... in RADIANS!
+     * @param ltype line type (straight, rhumbline, greatcircle)
+     * @param nsegs number of segments between vertices (or if &lt; 0, generate
+     *        this value internally)
+     * @param isFilled filled poly? this is currently ignored for cylindrical
+     *        projections.
+     * @param buffer the cleared PolyBuffer to fill.
+     */
+    protected void _forwardPoly(float[] rawllpts, int ltype, int nsegs, boolean isFilled,
+                                PolyBuffer buffer) {
+        int n, k, flag = 0, min = 0, max = 0;
+        float xp, xadj = 0;
+
+        // determine length of pairs list
+        int len = rawllpts.length >> 1; // len/2, chop off extra
+        if (len < 2)
+            return;
+
+        // handle complicated line in specific routines
+        if (isComplicatedLineType(ltype)) {
+            buffer.set(doPolyDispatch(rawllpts, ltype, nsegs, isFilled));
+            return;
+        }
+
+        Point2D temp = buffer.floatPoint;
+        int part = buffer.addPart(len);
+        float[] xs = buffer.getXPoints(part);
+        float[] ys = buffer.getYPoints(part);
+
+        // forward project the first point
+        forward(rawllpts[0], rawllpts[1], temp, true);
+        xp = (float) temp.getX();
+        xs[0] = (float) temp.getX();
+        ys[0] = (float) temp.getY();
+        // forward project the other points
+        for (n = 1, k = 2; n < len; n++, k += 2) {
+            forward(rawllpts[k], rawllpts[k + 1], temp, true);
+            xs[n] = (float) temp.getX();
+            ys[n] = (float) temp.getY();
+            // segment crosses longitude along screen edge
+            if (Math.abs(xp - xs[n]) >= half_world) {
+                flag += (xp < xs[n]) ? -1 : 1;// inc/dec the wrap count
+                min = (flag < min) ? flag : min;// left wrap count
+                max = (flag > max) ? flag : max;// right wrap count
+                xadj = flag * world.x;// adjustment to x coordinates
+            }
+            xp = (float) temp.getX();// save previous unshifted x coordinate
+            if (flag != 0) {
+                xs[n] += xadj;// adjust x coordinates
+            }
+        }
+
+        addWrappedParts(buffer, part, -min, max);
+    }
+
+    /**
+     * Forward project a raw double[] Poly into a PolyBuffer, reusing its
+     * arrays. Does the same thing as the ArrayList version of _forwardPoly.
+     * 
+     * @param rawllpts double[] of lat,lon,lat,lon,... in RADIANS!
+     * @param ltype line type (straight, rhumbline, greatcircle)
+     * @param nsegs number of segments between vertices (or if &lt; 0, generate
+     *        this value internally)
+     * @param isFilled filled poly? this is currently ignored for cylindrical
+     *        projections.
+     * @param buffer the cleared PolyBuffer to fill.
+     */
+    protected void _forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled,
+                                PolyBuffer buffer) {
+        int n, k, flag = 0, min = 0, max = 0;
+        float xp, xadj = 0;
+
+        // determine length of pairs list
+        int len = rawllpts.length >> 1; // len/2, chop off extra
+        if (len < 2)
+            return;
+
+        // handle complicated line in specific routines
+        if (isComplicatedLineType(ltype)) {
+            buffer.set(doPolyDispatch(rawllpts, ltype, nsegs, isFilled));
+            return;
+        }
+
+        Point2D temp = buffer.floatPoint;
+        int part = buffer.addPart(len);
+        float[] xs = buffer.getXPoints(part);
+        float[] ys = buffer.getYPoints(part);
+
+        // forward project the first point
+        forward(rawllpts[0], rawllpts[1], temp, true);
+        xp = (float) temp.getX();
+        xs[0] = (float) temp.getX();
+        ys[0] = (float) temp.getY();
+        // forward project the other points
+        for (n = 1, k = 2; n < len; n++, k += 2) {
+            forward(rawllpts[k], rawllpts[k + 1], temp, true);
+            xs[n] = (float) temp.getX();
+            ys[n] = (float) temp.getY();
+            // segment crosses longitude along screen edge
+            if (Math.abs(xp - xs[n]) >= half_world) {
+                flag += (xp < xs[n]) ? -1 : 1;// inc/dec the wrap count
+                min = (flag < min) ? flag : min;// left wrap count
+                max = (flag > max) ? flag : max;// right wrap count
+                xadj = flag * world.x;// adjustment to x coordinates
+            }
+            xp = (float) temp.getX();// save previous unshifted x coordinate
+            if (flag != 0) {
+                xs[n] += xadj;// adjust x coordinates
+            }
+        }
+
+        addWrappedParts(buffer, part, -min, max);
+    }
+
+    /**
+     * Add the shifted copies of a projected poly that has wrapped around the
+     * edge of the world to a PolyBuffer. The copies share the y coordinates of
+     * the original.
+     * 
+     * @param buffer the PolyBuffer holding the poly.
+     * @param part the index of the projected poly in the buffer.
+     * @param left the number of times the poly wrapped off the left side.
+     * @param right the number of times the poly wrapped off the right side.
+     */
+    protected void addWrappedParts(PolyBuffer buffer, int part, int left, int right) {
+        float[] xs = buffer.getXPoints(part);
+
+        // add the extra left-wrap polys
+        for (int i = 1; i <= left; i++) {
+            float[] altx = buffer.getXPoints(buffer.addPart(xs.length, part));
+            float xadj = i * world.x;// shift opposite
+            for (int j = 0; j < altx.length; j++) {
+                altx[j] = xs[j] + xadj;
+            }
+        }
+
+        // add the extra right-wrap polys
+        for (int i = 1; i <= right; i++) {
+            float[] altx = buffer.getXPoints(buffer.addPart(xs.length, part));
+            float xadj = -i * world.x;// shift opposite
+            for (int j = 0; j < altx.length; j++) {
+                altx[j] = xs[j] + xadj;
+            }
+        }
+    }
+
     // print out polygon
     public static final void dumpPoly(float[] rawllpts, float[] xs, float[] ys) {
         Debug.output("poly:");
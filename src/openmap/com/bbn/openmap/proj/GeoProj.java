@@ -1496,6 +1496,130 @@ public abstract class GeoProj extends Proj {
         return forwardPoly(rawllpts, ltype, nsegs, isFilled);
     }
 
+    /**
+     * Forward project a lat/lon Poly into a reusable PolyBuffer. Does the same
+     * thing as forwardPoly, but the projected x[], y[] arrays are reused from
+     * the last time the buffer was filled when possible. Remember to specify
+     * vertices in radians!
+     * 
+     * @param rawllpts float[] of lat,lon,lat,lon,... in RADIANS!
+     * @param ltype line type (straight, rhumbline, greatcircle)
+     * @param nsegs number of segment points (only for greatcircle or rhumbline
+     *        line types, and if &lt; 1, this value is generated internally)
+     * @param isFilled filled poly?
+     * @param buffer the PolyBuffer to fill, a new one is created if null.
+     * @return the PolyBuffer holding x[], y[], x[], y[], ... projected poly
+     * @see #forwardPoly(float[], int, int, boolean)
+     */
+    public PolyBuffer forwardPoly(float[] rawllpts, int ltype, int nsegs, boolean isFilled,
+                                  PolyBuffer buffer) {
+        if (buffer == null) {
+            buffer = new PolyBuffer();
+        }
+        buffer.clear();
+        _forwardPoly(rawllpts, ltype, nsegs, isFilled, buffer);
+        clipForXWindows(buffer);
+        return buffer;
+    }
+
+    /**
+     * Forward project a lat/lon Poly into a reusable PolyBuffer. Does the same
+     * thing as forwardPoly, but the projected x[], y[] arrays are reused from
+     * the last time the buffer was filled when possible. Remember to specify
+     * vertices in radians!
+     * 
+     * @param rawllpts double[] of lat,lon,lat,lon,... in RADIANS!
+     * @param ltype line type (straight, rhumbline, greatcircle)
+     * @param nsegs number of segment points (only for greatcircle or rhumbline
+     *        line types, and if &lt; 1, this value is generated internally)
+     * @param isFilled filled poly?
+     * @param buffer the PolyBuffer to fill, a new one is created if null.
+     * @return the PolyBuffer holding x[], y[], x[], y[], ... projected poly
+     * @see #forwardPoly(double[], int, int, boolean)
+     */
+    public PolyBuffer forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled,
+                                  PolyBuffer buffer) {
+        if (buffer == null) {
+            buffer = new PolyBuffer();
+        }
+        buffer.clear();
+        _forwardPoly(rawllpts, ltype, nsegs, isFilled, buffer);
+        clipForXWindows(buffer);
+        return buffer;
+    }
+
+    /**
+     * Forward project a lat/lon Line into a reusable PolyBuffer.
+     * 
+     * @see #forwardLine(LatLonPoint, LatLonPoint, int, int)
+     */
+    public PolyBuffer forwardLine(LatLonPoint ll1, LatLonPoint ll2, int ltype, int nsegs,
+                                  PolyBuffer buffer) {
+        double[] rawllpts = { ll1.getRadLat(), ll1.getRadLon(), ll2.getRadLat(), ll2.getRadLon() };
+        return forwardPoly(rawllpts, ltype, nsegs, false, buffer);
+    }
+
+    /**
+     * @HACK: workaround XWindows bug, the PolyBuffer version of what
+     * forwardPoly does.
+     */
+    protected void clipForXWindows(PolyBuffer buffer) {
+        if (Environment.doingXWindowsWorkaround && (scale <= XSCALE_THRESHOLD)) {
+            for (int i = 0; i < buffer.size(); i++) {
+                float[] xpts = buffer.getXPoints(i);
+                float[] ypts = buffer.getYPoints(i);
+                for (int j = 0; j < xpts.length; j++) {
+                    if (xpts[j] <= -XTHRESHOLD) {
+                        xpts[j] = -XTHRESHOLD;
+                    } else if (xpts[j] >= XTHRESHOLD) {
+                        xpts[j] = XTHRESHOLD;
+                    }
+                    if (ypts[j] <= -XTHRESHOLD) {
+                        ypts[j] = -XTHRESHOLD;
+                    } else if (ypts[j] >= XTHRESHOLD) {
+                        ypts[j] = XTHRESHOLD;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Forward project a lat/lon Poly into a PolyBuffer, which has been
+     * cleared. This default implementation calls the ArrayList version of
+     * _forwardPoly and hands its arrays to the buffer. Projections override it
+     * to project straight into the buffer's arrays.
+     * 
+     * @param rawllpts float[] of lat,lon,lat,lon,... in RADIANS!
+     * @param ltype line type (straight, rhumbline, greatcircle)
+     * @param nsegs number of segment points (only for greatcircle or rhumbline
+     *        line types, and if &lt; 1, this value is generated internally)
+     * @param isFilled filled poly?
+     * @param buffer the PolyBuffer to fill.
+     */
+    protected void _forwardPoly(float[] rawllpts, int ltype, int nsegs, boolean isFilled,
+                                PolyBuffer buffer) {
+        buffer.set(_forwardPoly(rawllpts, ltype, nsegs, isFilled));
+    }
+
+    /**
+     * Forward project a lat/lon Poly into a PolyBuffer, which has been
+     * cleared. This default implementation calls the ArrayList version of
+     * _forwardPoly and hands its arrays to the buffer. Projections override it
+     * to project straight into the buffer's arrays.
+     * 
+     * @param rawllpts double[] of lat,lon,lat,lon,... in RADIANS!
+     * @param ltype line type (straight, rhumbline, greatcircle)
+     * @param nsegs number of segment points (only for greatcircle or rhumbline
+     *        line types, and if &lt; 1, this value is generated internally)
+     * @param isFilled filled poly?
+     * @param buffer the PolyBuffer to fill.
+     */
+    protected void _forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled,
+                                PolyBuffer buffer) {
+        buffer.set(_forwardPoly(rawllpts, ltype, nsegs, isFilled));
+    }
+
     /**
      * Forward project a lat/lon Poly. Remember to specify vertices in radians!
      * 
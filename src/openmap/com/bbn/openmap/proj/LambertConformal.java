@@ -739,6 +739,97 @@ public class LambertConformal
         return ret_val;
     }
 
+    /**
+     * Forward project a lat/lon Poly into a PolyBuffer, reusing its arrays.
+     * The points are projected into the buffer's scratch space first, since
+     * the poly gets split wherever it crosses the longitude opposite the
+     * central meridian.
+     * 
+     * @param rawllpts double[] of lat,lon,lat,lon,... in RADIANS!
+     * @param ltype line type (straight, rhumbline, greatcircle)
+     * @param nsegs number of segment points (only for greatcircle or rhumbline
+     *        line types, and if &lt; 1, this value is generated internally)
+     * @param isFilled filled poly?
+     * @param buffer the cleared PolyBuffer to fill.
+     */
+    protected void _forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled,
+                                PolyBuffer buffer) {
+
+        int i, j, k;
+
+        // determine length of pairs
+        int len = rawllpts.length >> 1; // len/2, chop off extra
+        if (len < 2)
+            return;
+
+        // Not concerned with any polygons that are completely below
+        // 60S
+        double minlat = ProjMath.degToRad(-60f);
+        boolean allBelowMinLat = true;
+        for (i = 0, j = 0; i < len && allBelowMinLat; i++, j += 2) {
+            if (rawllpts[j] > minlat) {
+                allBelowMinLat = false;
+            }
+        }
+        if (allBelowMinLat) {
+            return;
+        }
+
+        // handle complicated line in specific routines
+        if (isComplicatedLineType(ltype)) {
+            buffer.set(doPolyDispatch(rawllpts, ltype, nsegs, isFilled));
+            return;
+        }
+
+        Point temp = buffer.intPoint;
+        int[] xa = buffer.getScratchIndex(len + 1);
+        float[] xs = buffer.getScratchX(len);
+        float[] ys = buffer.getScratchY(len);
+        double dlamda1, dlamda2;
+
+        // forward project the points
+        k = 0;
+        xa[k] = 0;
+        dlamda1 = _forward(rawllpts[0], rawllpts[1], temp, true);
+        xs[0] = temp.x;
+        ys[0] = temp.y;
+        for (i = 1, j = 2; i < len; i++, j += 2) {
+            dlamda2 = _forward(rawllpts[j], rawllpts[j + 1], temp, true);
+            if (Math.abs(dlamda2 - dlamda1) >= Math.PI) {
+                xa[++k] = i;
+            }
+            xs[i] = temp.x;
+            ys[i] = temp.y;
+            dlamda1 = dlamda2;
+        }
+
+        if (xa[k] < len)
+            xa[++k] = len;
+
+        int first = 0;
+        if (k > 1 && xs[0] == xs[len - 1] && ys[0] == ys[len - 1]) {
+            // A closed poly, the last section joins up with the first one.
+            int lastLen = xa[k] - xa[k - 1];
+            int firstLen = xa[1] - xa[0];
+            int part = buffer.addPart(lastLen + firstLen);
+            System.arraycopy(xs, xa[k - 1], buffer.getXPoints(part), 0, lastLen);
+            System.arraycopy(ys, xa[k - 1], buffer.getYPoints(part), 0, lastLen);
+            System.arraycopy(xs, xa[0], buffer.getXPoints(part), lastLen, firstLen);
+            System.arraycopy(ys, xa[0], buffer.getYPoints(part), lastLen, firstLen);
+            first = 1;
+            k--;
+        }
+
+        for (i = first; i < k; i++) {
+            int l = xa[i + 1] - xa[i];
+            if (l > 0) {
+                int part = buffer.addPart(l);
+                System.arraycopy(xs, xa[i], buffer.getXPoints(part), 0, l);
+                System.arraycopy(ys, xa[i], buffer.getYPoints(part), 0, l);
+            }
+        }
+    }
+
     /**
      * Given a couple of points representing a bounding box, find out what the
      * scale should be in order to make those points appear at the corners of
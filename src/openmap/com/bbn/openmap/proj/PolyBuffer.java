@@ -0,0 +1,238 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.proj;
+
+import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.util.List;
+
+/**
+ * A reusable holder for the results of forward projecting a poly. The
+ * forwardPoly methods that take a PolyBuffer fill it with the same x[], y[]
+ * coordinate arrays that the ArrayList versions return, but the arrays are
+ * kept and refilled the next time the buffer is used. An OMGraphic that keeps
+ * its own PolyBuffer and projects the same coordinates over and over, as it
+ * does every time the map moves, only allocates new arrays when the number of
+ * projected points changes.
+ * <P>
+ * The arrays handed out by a PolyBuffer get overwritten the next time it's
+ * filled, so copy them if they need to outlive that. A PolyBuffer isn't thread
+ * safe, it should only be filled by one thread at a time.
+ *
+ * @see Projection#forwardPoly(double[], boolean, PolyBuffer)
+ * @see GeoProj#forwardPoly(double[], int, int, boolean, PolyBuffer)
+ */
+public class PolyBuffer {
+
+    private final static float[][] EMPTY = new float[0][];
+
+    /** The x coordinate arrays, the first size entries are valid. */
+    protected float[][] xpoints = EMPTY;
+    /** The y coordinate arrays, the first size entries are valid. */
+    protected float[][] ypoints = EMPTY;
+    /** The number of projected parts. */
+    protected int size = 0;
+
+    /** Scratch space for projections that need to look at all points first. */
+    protected float[] scratchX;
+    protected float[] scratchY;
+    protected int[] scratchIndex;
+    /** Scratch points for projecting single coordinates. */
+    protected final Point2D.Float floatPoint = new Point2D.Float();
+    protected final Point intPoint = new Point();
+
+    public PolyBuffer() {
+    }
+
+    /**
+     * Mark the buffer as empty. The arrays are kept for reuse.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the number of projected parts, each having an x and y array.
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param part the index of the part.
+     * @return the x coordinates of the part.
+     */
+    public float[] getXPoints(int part) {
+        return xpoints[part];
+    }
+
+    /**
+     * @param part the index of the part.
+     * @return the y coordinates of the part.
+     */
+    public float[] getYPoints(int part) {
+        return ypoints[part];
+    }
+
+    /**
+     * Get all of the x coordinate arrays. The returned array is size() long,
+     * and it's the same array every time the buffer is filled with the same
+     * number of parts.
+     */
+    public float[][] getXPoints() {
+        trim();
+        return xpoints;
+    }
+
+    /**
+     * Get all of the y coordinate arrays. The returned array is size() long,
+     * and it's the same array every time the buffer is filled with the same
+     * number of parts.
+     */
+    public float[][] getYPoints() {
+        trim();
+        return ypoints;
+    }
+
+    /**
+     * Add a part with len points to the buffer. The x and y arrays for the
+     * part are exactly len long, and are the ones used the last time the
+     * buffer had a part at this index, if they were the same length.
+     *
+     * @param len the number of points in the part.
+     * @return the index of the new part.
+     */
+    public int addPart(int len) {
+        ensureCapacity(size + 1);
+        xpoints[size] = reuse(xpoints, len);
+        ypoints[size] = reuse(ypoints, len);
+        return size++;
+    }
+
+    /**
+     * Add a part with len points that uses the y coordinates of another part,
+     * which is how wrapped copies of a poly are stored.
+     *
+     * @param len the number of points in the part.
+     * @param yPart the index of the part whose y array will be shared.
+     * @return the index of the new part.
+     */
+    public int addPart(int len, int yPart) {
+        ensureCapacity(size + 1);
+        xpoints[size] = reuse(xpoints, len);
+        ypoints[size] = ypoints[yPart];
+        return size++;
+    }
+
+    /**
+     * Add a part, using the arrays provided.
+     */
+    public int addPart(float[] xs, float[] ys) {
+        ensureCapacity(size + 1);
+        xpoints[size] = xs;
+        ypoints[size] = ys;
+        return size++;
+    }
+
+    /**
+     * Replace the contents of the buffer with the contents of a list returned
+     * by one of the ArrayList forwardPoly methods. The arrays aren't copied.
+     *
+     * @param list containing x[], y[], x[], y[], ...
+     * @return this buffer.
+     */
+    public PolyBuffer set(List<float[]> list) {
+        clear();
+        if (list != null) {
+            for (int i = 0; i + 1 < list.size(); i += 2) {
+                addPart(list.get(i), list.get(i + 1));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Get scratch arrays at least len long, for projections that have to
+     * project all of the points before they know how to split them into
+     * parts. The contents are garbage.
+     */
+    protected float[] getScratchX(int len) {
+        if (scratchX == null || scratchX.length < len) {
+            scratchX = new float[len];
+        }
+        return scratchX;
+    }
+
+    protected float[] getScratchY(int len) {
+        if (scratchY == null || scratchY.length < len) {
+            scratchY = new float[len];
+        }
+        return scratchY;
+    }
+
+    protected int[] getScratchIndex(int len) {
+        if (scratchIndex == null || scratchIndex.length < len) {
+            scratchIndex = new int[len];
+        }
+        return scratchIndex;
+    }
+
+    protected void ensureCapacity(int capacity) {
+        if (xpoints.length < capacity) {
+            int newCapacity = Math.max(capacity, xpoints.length * 2);
+            float[][] xp = new float[newCapacity][];
+            float[][] yp = new float[newCapacity][];
+            System.arraycopy(xpoints, 0, xp, 0, xpoints.length);
+            System.arraycopy(ypoints, 0, yp, 0, ypoints.length);
+            xpoints = xp;
+            ypoints = yp;
+        }
+    }
+
+    /**
+     * Shrink the part arrays down to size, so they can be handed out.
+     */
+    protected void trim() {
+        if (xpoints.length != size) {
+            float[][] xp = new float[size][];
+            float[][] yp = new float[size][];
+            System.arraycopy(xpoints, 0, xp, 0, size);
+            System.arraycopy(ypoints, 0, yp, 0, size);
+            xpoints = xp;
+            ypoints = yp;
+        }
+    }
+
+    /**
+     * Return the array in the next slot if it's the right length and isn't
+     * shared with one of the parts already added, otherwise a new array.
+     */
+    private float[] reuse(float[][] slots, int len) {
+        float[] old = slots[size];
+        if (old == null || old.length != len) {
+            return new float[len];
+        }
+        for (int i = 0; i < size; i++) {
+            if (slots[i] == old) {
+                return new float[len];
+            }
+        }
+        return old;
+    }
+}
@@ -715,6 +715,52 @@ public abstract class Proj implements Projection, Cloneable, Serializable {
         return ret_val;
     }
 
+    public PolyBuffer forwardPoly(float[] rawllpts, boolean isFilled, PolyBuffer buffer) {
+        if (buffer == null) {
+            buffer = new PolyBuffer();
+        }
+        buffer.clear();
+
+        int len = rawllpts.length >> 1; // len/2, chop off extra
+        if (len < 2)
+            return buffer;
+
+        Point temp = buffer.intPoint;
+        int part = buffer.addPart(len);
+        float[] xs = buffer.getXPoints(part);
+        float[] ys = buffer.getYPoints(part);
+
+        for (int n = 0, k = 0; n < len; n++, k += 2) {
+            forward(rawllpts[k], rawllpts[k + 1], temp);
+            xs[n] = temp.x;
+            ys[n] = temp.y;
+        }
+        return buffer;
+    }
+
+    public PolyBuffer forwardPoly(double[] rawllpts, boolean isFilled, PolyBuffer buffer) {
+        if (buffer == null) {
+            buffer = new PolyBuffer();
+        }
+        buffer.clear();
+
+        int len = rawllpts.length >> 1; // len/2, chop off extra
+        if (len < 2)
+            return buffer;
+
+        Point temp = buffer.intPoint;
+        int part = buffer.addPart(len);
+        float[] xs = buffer.getXPoints(part);
+        float[] ys = buffer.getYPoints(part);
+
+        for (int n = 0, k = 0; n < len; n++, k += 2) {
+            forward(rawllpts[k], rawllpts[k + 1], temp);
+            xs[n] = temp.x;
+            ys[n] = temp.y;
+        }
+        return buffer;
+    }
+
     /**
      * Pan the map/projection.
      * <p>
@@ -375,6 +375,34 @@ public interface Projection extends java.io.Serializable {
      */
     public ArrayList<float[]> forwardPoly(double[] rawllpts, boolean isFilled);
 
+    /**
+     * Forward project a polygon defined by the coordinates into a reusable
+     * PolyBuffer. The buffer holds the same x[], y[] arrays that the ArrayList
+     * version returns, but reuses them every time it's filled, so projecting
+     * the same poly over and over doesn't create new arrays.
+     *
+     * @param rawllpts a set of y, x coordinates.
+     * @param isFilled true of is important to note the area of the poly,
+     *        instead of just the edge.
+     * @param buffer the PolyBuffer to fill, a new one is created if null.
+     * @return the PolyBuffer containing the projected x[], y[] arrays.
+     */
+    public PolyBuffer forwardPoly(float[] rawllpts, boolean isFilled, PolyBuffer buffer);
+
+    /**
+     * Forward project a polygon defined by the coordinates into a reusable
+     * PolyBuffer. The buffer holds the same x[], y[] arrays that the ArrayList
+     * version returns, but reuses them every time it's filled, so projecting
+     * the same poly over and over doesn't create new arrays.
+     *
+     * @param rawllpts a set of y, x coordinates.
+     * @param isFilled true of is important to note the area of the poly,
+     *        instead of just the edge.
+     * @param buffer the PolyBuffer to fill, a new one is created if null.
+     * @return the PolyBuffer containing the projected x[], y[] arrays.
+     */
+    public PolyBuffer forwardPoly(double[] rawllpts, boolean isFilled, PolyBuffer buffer);
+
     /**
      * Forward project a raw array of world coordinates. This assumes nothing
      * about the array of coordinates. In no way does it assume the points are
@@ -360,6 +360,150 @@ public class UTMProjection extends GeoProj {
         return ret_val;
     }
 
+    /**
+     * Forward project a lat/lon Poly into a PolyBuffer, reusing its arrays.
+     * Does the same thing as the ArrayList version of _forwardPoly.
+     */
+    protected void _forwardPoly(float[] rawllpts, int ltype, int nsegs, boolean isFilled,
+                                PolyBuffer buffer) {
+        int n, k, flag = 0, min = 0, max = 0, xp, xadj = 0;
+
+        // determine length of pairs list
+        int len = rawllpts.length >> 1; // len/2, chop off extra
+        if (len < 2)
+            return;
+
+        // handle complicated line in specific routines
+        if (isComplicatedLineType(ltype)) {
+            buffer.set(doPolyDispatch(rawllpts, ltype, nsegs, isFilled));
+            return;
+        }
+
+        Point temp = buffer.intPoint;
+        int part = buffer.addPart(len);
+        float[] xs = buffer.getXPoints(part);
+        float[] ys = buffer.getYPoints(part);
+
+        UTMPoint tempUtm = new UTMPoint();
+        LatLonPoint tempLL = new LatLonPoint.Double();
+
+        // forward project the first point
+        tempLL.setLatLon(rawllpts[0], rawllpts[1], true);
+        forward(tempLL, temp, tempUtm);
+        xp = temp.x;
+        xs[0] = temp.x;
+        ys[0] = temp.y;
+        // forward project the other points
+        for (n = 1, k = 2; n < len; n++, k += 2) {
+            tempLL.setLatLon(rawllpts[k], rawllpts[k + 1], true);
+            forward(tempLL, temp, tempUtm);
+            xs[n] = temp.x;
+            ys[n] = temp.y;
+            // segment crosses longitude along screen edge
+            if (Math.abs(xp - xs[n]) >= half_world) {
+                flag += (xp < xs[n]) ? -1 : 1;// inc/dec the wrap count
+                min = (flag < min) ? flag : min;// left wrap count
+                max = (flag > max) ? flag : max;// right wrap count
+                xadj = flag * world.x;// adjustment to x coordinates
+            }
+            xp = temp.x;// save previous unshifted x coordinate
+            if (flag != 0) {
+                xs[n] += xadj;// adjust x coordinates
+            }
+        }
+        min *= -1;// positive magnitude
+
+        // add the extra left-wrap polys
+        for (int i = 1; i <= min; i++) {
+            float[] altx = buffer.getXPoints(buffer.addPart(len, part));
+            xadj = i * world.x;// shift opposite
+            for (int j = 0; j < altx.length; j++) {
+                altx[j] = xs[j] + xadj;
+            }
+        }
+
+        // add the extra right-wrap polys
+        for (int i = 1; i <= max; i++) {
+            float[] altx = buffer.getXPoints(buffer.addPart(len, part));
+            xadj = -i * world.x;// shift opposite
+            for (int j = 0; j < altx.length; j++) {
+                altx[j] = xs[j] + xadj;
+            }
+        }
+    }
+
+    /**
+     * Forward project a lat/lon Poly into a PolyBuffer, reusing its arrays.
+     * Does the same thing as the ArrayList version of _forwardPoly.
+     */
+    protected void _forwardPoly(double[] rawllpts, int ltype, int nsegs, boolean isFilled,
+                                PolyBuffer buffer) {
+        int n, k, flag = 0, min = 0, max = 0, xp, xadj = 0;
+
+        // determine length of pairs list
+        int len = rawllpts.length >> 1; // len/2, chop off extra
+        if (len < 2)
+            return;
+
+        // handle complicated line in specific routines
+        if (isComplicatedLineType(ltype)) {
+            buffer.set(doPolyDispatch(rawllpts, ltype, nsegs, isFilled));
+            return;
+        }
+
+        Point temp = buffer.intPoint;
+        int part = buffer.addPart(len);
+        float[] xs = buffer.getXPoints(part);
+        float[] ys = buffer.getYPoints(part);
+
+        UTMPoint tempUtm = new UTMPoint();
+        LatLonPoint tempLL = new LatLonPoint.Double();
+
+        // forward project the first point
+        tempLL.setLatLon(rawllpts[0], rawllpts[1], true);
+        forward(tempLL, temp, tempUtm);
+        xp = temp.x;
+        xs[0] = temp.x;
+        ys[0] = temp.y;
+        // forward project the other points
+        for (n = 1, k = 2; n < len; n++, k += 2) {
+            tempLL.setLatLon(rawllpts[k], rawllpts[k + 1], true);
+            forward(tempLL, temp, tempUtm);
+            xs[n] = temp.x;
+            ys[n] = temp.y;
+            // segment crosses longitude along screen edge
+            if (Math.abs(xp - xs[n]) >= half_world) {
+                flag += (xp < xs[n]) ? -1 : 1;// inc/dec the wrap count
+                min = (flag < min) ? flag : min;// left wrap count
+                max = (flag > max) ? flag : max;// right wrap count
+                xadj = flag * world.x;// adjustment to x coordinates
+            }
+            xp = temp.x;// save previous unshifted x coordinate
+            if (flag != 0) {
+                xs[n] += xadj;// adjust x coordinates
+            }
+        }
+        min *= -1;// positive magnitude
+
+        // add the extra left-wrap polys
+        for (int i = 1; i <= min; i++) {
+            float[] altx = buffer.getXPoints(buffer.addPart(len, part));
+            xadj = i * world.x;// shift opposite
+            for (int j = 0; j < altx.length; j++) {
+                altx[j] = xs[j] + xadj;
+            }
+        }
+
+        // add the extra right-wrap polys
+        for (int i = 1; i <= max; i++) {
+            float[] altx = buffer.getXPoints(buffer.addPart(len, part));
+            xadj = -i * world.x;// shift opposite
+            for (int j = 0; j < altx.length; j++) {
+                altx[j] = xs[j] + xadj;
+            }
+        }
+    }
+
     /**
      * Draw the background for the projection.
      * 
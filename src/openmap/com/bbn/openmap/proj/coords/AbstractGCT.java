@@ -25,11 +25,39 @@
 package com.bbn.openmap.proj.coords;
 
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
 
 import com.bbn.openmap.OMComponent;
+import com.bbn.openmap.util.TaskService;
 
+/**
+ * The base class for GeoCoordTransformations. The array methods convert each
+ * pair with the single coordinate methods, reusing one point for the whole
+ * array, and subclasses with simple math can override them to work on the
+ * arrays directly.
+ * <p>
+ * The subclasses don't keep any state between calls, so one instance can be
+ * used by several threads at once, once it's configured.
+ * forwardInParallel() and inverseInParallel() split large arrays up between
+ * TaskService threads.
+ */
 public abstract class AbstractGCT extends OMComponent implements GeoCoordTransformation {
 
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.proj.coords.AbstractGCT");
+
+    /**
+     * The number of coordinate pairs handed to a thread at a time by the
+     * parallel methods. Arrays smaller than this are converted on the calling
+     * thread.
+     */
+    public final static int PARALLEL_CHUNK_SIZE = 8192;
+
     public Point2D forward(double lat, double lon) {
         return forward(lat, lon, new Point2D.Double());
     }
@@ -42,4 +70,114 @@ public abstract class AbstractGCT extends OMComponent implements GeoCoordTransfo
 
     public abstract LatLonPoint inverse(double x, double y, LatLonPoint ret);
 
+    public void forward(double[] src, double[] dst) {
+        forward(src, 0, dst, 0, src.length / 2);
+    }
+
+    public void forward(double[] src, int srcOff, double[] dst, int dstOff, int numPts) {
+        Point2D ret = new Point2D.Double();
+        for (int i = 0; i < numPts; i++) {
+            int s = srcOff + i * 2;
+            int d = dstOff + i * 2;
+            ret = forward(src[s], src[s + 1], ret);
+            dst[d] = ret.getX();
+            dst[d + 1] = ret.getY();
+        }
+    }
+
+    public void inverse(double[] src, double[] dst) {
+        inverse(src, 0, dst, 0, src.length / 2);
+    }
+
+    public void inverse(double[] src, int srcOff, double[] dst, int dstOff, int numPts) {
+        LatLonPoint ret = new LatLonPoint.Double();
+        for (int i = 0; i < numPts; i++) {
+            int s = srcOff + i * 2;
+            int d = dstOff + i * 2;
+            ret = inverse(src[s], src[s + 1], ret);
+            dst[d] = ret.getY();
+            dst[d + 1] = ret.getX();
+        }
+    }
+
+    /**
+     * Convert decimal degree coordinates with a GeoCoordTransformation, on as
+     * many threads as there are processors. The calling thread converts
+     * coordinates too. The transformation has to be safe to use from several
+     * threads.
+     * 
+     * @param gct the transformation.
+     * @param src lat, lon pairs.
+     * @param dst filled with x, y pairs, at least as long as src. Can be src.
+     */
+    public static void forwardInParallel(final GeoCoordTransformation gct, final double[] src,
+                                         final double[] dst) {
+        convertInParallel(gct, src, dst, true);
+    }
+
+    /**
+     * Convert coordinates to decimal degrees with a GeoCoordTransformation, on
+     * as many threads as there are processors. The calling thread converts
+     * coordinates too. The transformation has to be safe to use from several
+     * threads.
+     * 
+     * @param gct the transformation.
+     * @param src x, y pairs.
+     * @param dst filled with lat, lon pairs, at least as long as src. Can be
+     *        src.
+     */
+    public static void inverseInParallel(final GeoCoordTransformation gct, final double[] src,
+                                         final double[] dst) {
+        convertInParallel(gct, src, dst, false);
+    }
+
+    protected static void convertInParallel(final GeoCoordTransformation gct, final double[] src,
+                                            final double[] dst, final boolean forward) {
+        final int numPts = src.length / 2;
+        final int numChunks = (numPts + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+        final AtomicInteger nextChunk = new AtomicInteger();
+
+        class Converter implements Callable<Boolean> {
+            public Boolean call() {
+                int chunk;
+                while ((chunk = nextChunk.getAndIncrement()) < numChunks) {
+                    int off = chunk * PARALLEL_CHUNK_SIZE * 2;
+                    int num = Math.min(PARALLEL_CHUNK_SIZE, numPts - chunk * PARALLEL_CHUNK_SIZE);
+                    if (forward) {
+                        gct.forward(src, off, dst, off, num);
+                    } else {
+                        gct.inverse(src, off, dst, off, num);
+                    }
+                }
+                return Boolean.TRUE;
+            }
+        }
+
+        Converter converter = new Converter();
+        int numThreads = Math.min(numChunks, Runtime.getRuntime().availableProcessors());
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(numThreads);
+        for (int i = 1; i < numThreads; i++) {
+            futures.add(TaskService.singleton().spawn(converter));
+        }
+
+        converter.call();
+
+        for (Future<Boolean> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                logger.warning("problem converting coordinates: " + cause);
+            }
+        }
+    }
+
 }
@@ -12,15 +12,16 @@ import com.bbn.openmap.proj.Ellipsoid;
  * the other {@link Ellipsoid} given by the constructor.
  * <p>
  * Datum shifting is performed using {@link ECEFPoint}
+ * <p>
+ * The DatumShiftGCT doesn't change after it's created, so it can be used by
+ * several threads at once.
  */
 public class DatumShiftGCT extends AbstractGCT {
 
-	private Ellipsoid ellip;
-
-	private HelmertTransformation eceftransf;
-	private HelmertTransformation eceftransfInverse;
+	private final Ellipsoid ellip;
 
-	private ECEFPoint ecef = new ECEFPoint();
+	private final HelmertTransformation eceftransf;
+	private final HelmertTransformation eceftransfInverse;
 
 	public DatumShiftGCT(Ellipsoid ellip) {
 		this.ellip = ellip;
@@ -32,7 +33,8 @@ public class DatumShiftGCT extends AbstractGCT {
 	/**
 	 * Convert from a latlon in wgs84 to the {@link Ellipsoid} of this instance
 	 */
-	public synchronized Point2D forward(double lat, double lon, Point2D ret) {
+	public Point2D forward(double lat, double lon, Point2D ret) {
+		ECEFPoint ecef = new ECEFPoint();
 		ecef.setLatLon(lat, lon, Ellipsoid.WGS_84);
 		eceftransf.apply(ecef);
 		return ecef.getLatLon(ellip, ret);
@@ -41,12 +43,41 @@ public class DatumShiftGCT extends AbstractGCT {
 	/**
 	 * Convert from a latlon in the {@link Ellipsoid} of this instance to wgs84
 	 */
-	public synchronized LatLonPoint inverse(double x, double y, LatLonPoint ret) {
+	public LatLonPoint inverse(double x, double y, LatLonPoint ret) {
+		ECEFPoint ecef = new ECEFPoint();
 		ecef.setLatLon(y, x, ellip);
 		eceftransfInverse.apply(ecef);
 		return ecef.getLatLon(ret);
 	}
 
+	public void forward(double[] src, int srcOff, double[] dst, int dstOff, int numPts) {
+		ECEFPoint ecef = new ECEFPoint();
+		Point2D ret = new Point2D.Double();
+		for (int i = 0; i < numPts; i++) {
+			int s = srcOff + i * 2;
+			int d = dstOff + i * 2;
+			ecef.setLatLon(src[s], src[s + 1], Ellipsoid.WGS_84);
+			eceftransf.apply(ecef);
+			ecef.getLatLon(ellip, ret);
+			dst[d] = ret.getX();
+			dst[d + 1] = ret.getY();
+		}
+	}
+
+	public void inverse(double[] src, int srcOff, double[] dst, int dstOff, int numPts) {
+		ECEFPoint ecef = new ECEFPoint();
+		LatLonPoint ret = new LatLonPoint.Double();
+		for (int i = 0; i < numPts; i++) {
+			int s = srcOff + i * 2;
+			int d = dstOff + i * 2;
+			ecef.setLatLon(src[s + 1], src[s], ellip);
+			eceftransfInverse.apply(ecef);
+			ecef.getLatLon(ret);
+			dst[d] = ret.getY();
+			dst[d + 1] = ret.getX();
+		}
+	}
+
 	public String toString() {
 		return getClass().getSimpleName() + "(" + ellip.name + ")";
 	}
@@ -30,6 +30,14 @@ import java.awt.geom.Point2D;
  * A GeoCoordTransformation is an object that knows how to translate a set of
  * coordinates from one coordinate system definition to/from a set of decimal
  * degree coordinates.
+ * <p>
+ * The array methods convert many coordinates at once, without creating a
+ * Point2D or LatLonPoint for each one. The coordinates are held in pairs,
+ * lat/lon for decimal degree coordinates and x/y for the other coordinate
+ * system, and the source and destination arrays can be the same array.
+ * Implementations should be safe to use from several threads at once, so large
+ * arrays can be split up and converted in parallel - see
+ * AbstractGCT.forwardInParallel().
  * 
  * @author dietrick
  */
@@ -41,4 +49,43 @@ public interface GeoCoordTransformation {
     LatLonPoint inverse(double x, double y);
 
     LatLonPoint inverse(double x, double y, LatLonPoint ret);
+
+    /**
+     * Convert decimal degree coordinates to the other coordinate system.
+     * 
+     * @param src lat, lon pairs.
+     * @param dst filled with x, y pairs, at least as long as src. Can be src.
+     */
+    void forward(double[] src, double[] dst);
+
+    /**
+     * Convert decimal degree coordinates to the other coordinate system.
+     * 
+     * @param src lat, lon pairs.
+     * @param srcOff the index of the first lat in src.
+     * @param dst filled with x, y pairs. Can be src.
+     * @param dstOff the index in dst for the first x.
+     * @param numPts the number of coordinate pairs to convert.
+     */
+    void forward(double[] src, int srcOff, double[] dst, int dstOff, int numPts);
+
+    /**
+     * Convert coordinates in the other coordinate system to decimal degrees.
+     * 
+     * @param src x, y pairs.
+     * @param dst filled with lat, lon pairs, at least as long as src. Can be
+     *        src.
+     */
+    void inverse(double[] src, double[] dst);
+
+    /**
+     * Convert coordinates in the other coordinate system to decimal degrees.
+     * 
+     * @param src x, y pairs.
+     * @param srcOff the index of the first x in src.
+     * @param dst filled with lat, lon pairs. Can be src.
+     * @param dstOff the index in dst for the first lat.
+     * @param numPts the number of coordinate pairs to convert.
+     */
+    void inverse(double[] src, int srcOff, double[] dst, int dstOff, int numPts);
 }
@@ -6,12 +6,22 @@ import java.util.Properties;
 import com.bbn.openmap.proj.LambertConformal;
 import com.bbn.openmap.proj.LambertConformalLoader;
 
+/**
+ * Converts between decimal degrees and the world coordinates of a
+ * LambertConformal projection. The conversions only read the projection
+ * parameters, so the LambertConformalGCT can be used by several threads at
+ * once.
+ */
 public class LambertConformalGCT extends AbstractGCT {
 
-    private LambertConformal lcc = null;
+    private final LambertConformal lcc;
 
+    /**
+     * @param lcc the projection, copied so later changes to it don't affect
+     *        conversions in progress.
+     */
     public LambertConformalGCT(LambertConformal lcc) {
-        this.lcc = lcc;
+        this.lcc = (LambertConformal) lcc.makeClone();
     }
 
     public LambertConformalGCT(Properties props) {
@@ -19,11 +29,11 @@ public class LambertConformalGCT extends AbstractGCT {
         lcc = (LambertConformal) loader.create(props);
     }
 
-    public synchronized Point2D forward(double lat, double lon, Point2D ret) {
+    public Point2D forward(double lat, double lon, Point2D ret) {
         return lcc.LLToWorld(lat, lon, ret);
     }
 
-    public synchronized LatLonPoint inverse(double x, double y, LatLonPoint ret) {
+    public LatLonPoint inverse(double x, double y, LatLonPoint ret) {
         return (LatLonPoint) lcc.worldToLL(x, y, ret);
     }
 
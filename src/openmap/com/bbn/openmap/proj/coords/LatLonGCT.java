@@ -48,4 +48,33 @@ public class LatLonGCT implements GeoCoordTransformation {
         return ret;
     }
 
+    public void forward(double[] src, double[] dst) {
+        forward(src, 0, dst, 0, src.length / 2);
+    }
+
+    public void forward(double[] src, int srcOff, double[] dst, int dstOff, int numPts) {
+        for (int i = 0; i < numPts; i++) {
+            int s = srcOff + i * 2;
+            int d = dstOff + i * 2;
+            double lat = src[s];
+            dst[d] = src[s + 1];
+            dst[d + 1] = lat;
+        }
+    }
+
+    public void inverse(double[] src, double[] dst) {
+        inverse(src, 0, dst, 0, src.length / 2);
+    }
+
+    public void inverse(double[] src, int srcOff, double[] dst, int dstOff, int numPts) {
+        for (int i = 0; i < numPts; i++) {
+            int s = srcOff + i * 2;
+            int d = dstOff + i * 2;
+            double x = src[s];
+            // Matches the float precision of the single point version.
+            dst[d] = LatLonPoint.normalizeLatitude((float) src[s + 1]);
+            dst[d + 1] = LatLonPoint.wrapLongitude((float) x);
+        }
+    }
+
 }
@@ -10,6 +10,9 @@ import com.bbn.openmap.proj.Planet;
  * 
  * http://johndeck.blogspot.com/2005_09_01_johndeck_archive.html
  * http://search.cpan.org/src/RRWO/GPS-Lowrance-0.31/lib/Geo/Coordinates/MercatorMeters.pm
+ * <p>
+ * The factors are fixed when it's created, so a MercatorMeterGCT can be used by
+ * several threads at once.
  */
 public class MercatorMeterGCT extends AbstractGCT implements
         GeoCoordTransformation {
@@ -17,8 +20,8 @@ public class MercatorMeterGCT extends AbstractGCT implements
     public final static MercatorMeterGCT INSTANCE = new MercatorMeterGCT();
     
     // TODO: better names?
-    private double latfac;
-    private double lonfac;
+    private final double latfac;
+    private final double lonfac;
     
     public MercatorMeterGCT() {
         latfac = Planet.wgs84_earthPolarRadiusMeters_D;
@@ -63,4 +66,26 @@ public class MercatorMeterGCT extends AbstractGCT implements
         return ret;
     }
 
+    public void forward(double[] src, int srcOff, double[] dst, int dstOff, int numPts) {
+        for (int i = 0; i < numPts; i++) {
+            int s = srcOff + i * 2;
+            int d = dstOff + i * 2;
+            double latrad = Math.toRadians(LatLonPoint.normalizeLatitude(src[s]));
+            double lonrad = Math.toRadians(LatLonPoint.wrapLongitude(src[s + 1]));
+            dst[d] = lonfac * lonrad;
+            dst[d + 1] = latfac * Math.log(Math.tan(((latrad + MoreMath.HALF_PI_D) / 2d)));
+        }
+    }
+
+    public void inverse(double[] src, int srcOff, double[] dst, int dstOff, int numPts) {
+        for (int i = 0; i < numPts; i++) {
+            int s = srcOff + i * 2;
+            int d = dstOff + i * 2;
+            double latrad = (2d * Math.atan(Math.exp(src[s + 1] / latfac))) - MoreMath.HALF_PI_D;
+            double lonrad = src[s] / lonfac;
+            dst[d] = LatLonPoint.normalizeLatitude(Math.toDegrees(latrad));
+            dst[d + 1] = LatLonPoint.wrapLongitude(Math.toDegrees(lonrad));
+        }
+    }
+
 }
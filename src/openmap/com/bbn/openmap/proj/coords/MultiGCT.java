@@ -8,13 +8,24 @@ import java.awt.geom.Point2D;
  * <p>
  * The forward methods perform the {@link GeoCoordTransformation}s in the given
  * order. The inverse methods in the opposite order.
+ * <p>
+ * The list can't be changed after the MultiGCT is created, so it's as safe to
+ * use from several threads as the transformations in it. The array methods
+ * pass the whole array through each transformation in turn.
  */
 public class MultiGCT extends AbstractGCT {
 
-	private GeoCoordTransformation[] gcts;
+	private final GeoCoordTransformation[] gcts;
 
 	public MultiGCT(GeoCoordTransformation[] gcts) {
-		this.gcts = gcts;
+		this.gcts = gcts.clone();
+	}
+
+	/**
+	 * @return a copy of the transformations, in forward order.
+	 */
+	public GeoCoordTransformation[] getTransformations() {
+		return gcts.clone();
 	}
 
 	public Point2D forward(double lat, double lon, Point2D ret) {
@@ -35,4 +46,37 @@ public class MultiGCT extends AbstractGCT {
 		return ret;
 	}
 
+	public void forward(double[] src, int srcOff, double[] dst, int dstOff, int numPts) {
+		for (int i = 0; i < gcts.length; i++) {
+			gcts[i].forward(src, srcOff, dst, dstOff, numPts);
+			// The x, y results are the lon, lat input of the next one.
+			if (i < gcts.length - 1) {
+				swapPairs(dst, dstOff, numPts);
+			}
+			src = dst;
+			srcOff = dstOff;
+		}
+	}
+
+	public void inverse(double[] src, int srcOff, double[] dst, int dstOff, int numPts) {
+		for (int i = gcts.length - 1; i >= 0; i--) {
+			gcts[i].inverse(src, srcOff, dst, dstOff, numPts);
+			// The lat, lon results are the y, x input of the next one.
+			if (i > 0) {
+				swapPairs(dst, dstOff, numPts);
+			}
+			src = dst;
+			srcOff = dstOff;
+		}
+	}
+
+	private static void swapPairs(double[] coords, int off, int numPts) {
+		for (int i = 0; i < numPts; i++) {
+			int c = off + i * 2;
+			double tmp = coords[c];
+			coords[c] = coords[c + 1];
+			coords[c + 1] = tmp;
+		}
+	}
+
 }
@@ -30,19 +30,24 @@ import java.util.Properties;
 import com.bbn.openmap.proj.Ellipsoid;
 import com.bbn.openmap.util.PropUtils;
 
+/**
+ * Converts between decimal degrees and UTM eastings and northings in one zone.
+ * The conversions don't change the UTMGCT, so one can be used by several
+ * threads at once.
+ */
 public class UTMGCT extends AbstractGCT implements GeoCoordTransformation {
 
     public final static String ZoneProperty = "zone";
     public final static String HemiProperty = "hemi";
     public final static String ElliposoidProperty = "ellipsoid";
 
-    protected Ellipsoid ellipsoid = Ellipsoid.WGS_84;
+    protected volatile Ellipsoid ellipsoid = Ellipsoid.WGS_84;
 
-    protected LatLonPoint tmpLL = new LatLonPoint.Double();
+    /** The UTMPoint set with setUtm(), for its zone. */
     protected UTMPoint tmpUTM = new UTMPoint();
 
-    protected int zone_number;
-    protected char zone_letter;
+    protected volatile int zone_number;
+    protected volatile char zone_letter;
 
     /**
      * Make sure you call setProperties() or set the UTM before trying to use
@@ -70,10 +75,9 @@ public class UTMGCT extends AbstractGCT implements GeoCoordTransformation {
         this.zone_letter = utm.zone_letter;
     }
 
-    public synchronized Point2D forward(double lat, double lon, Point2D ret) {
-        tmpLL.setLatLon(lat, lon);
-        UTMPoint.LLtoUTM(tmpLL, ellipsoid, tmpUTM, zone_number, zone_letter == 'N');
-        ret.setLocation(tmpUTM.easting, tmpUTM.northing);
+    public Point2D forward(double lat, double lon, Point2D ret) {
+        UTMPoint utm = UTMPoint.LLtoUTM(new LatLonPoint.Double(lat, lon), ellipsoid, new UTMPoint(), zone_number, zone_letter == 'N');
+        ret.setLocation(utm.easting, utm.northing);
         return ret;
     }
 
@@ -82,6 +86,22 @@ public class UTMGCT extends AbstractGCT implements GeoCoordTransformation {
         return ret;
     }
 
+    public void forward(double[] src, int srcOff, double[] dst, int dstOff, int numPts) {
+        Ellipsoid ellip = ellipsoid;
+        int zone = zone_number;
+        boolean isNorthern = zone_letter == 'N';
+        LatLonPoint llp = new LatLonPoint.Double();
+        UTMPoint utm = new UTMPoint();
+        for (int i = 0; i < numPts; i++) {
+            int s = srcOff + i * 2;
+            int d = dstOff + i * 2;
+            llp.setLatLon(src[s], src[s + 1]);
+            UTMPoint.LLtoUTM(llp, ellip, utm, zone, isNorthern);
+            dst[d] = utm.easting;
+            dst[d + 1] = utm.northing;
+        }
+    }
+
     public void setProperties(String propertyPrefix, Properties props) {
         super.setProperties(propertyPrefix, props);
 
@@ -415,7 +415,11 @@ public class VHTransform implements GeoCoordTransformation {
         return forward(lat, lon, null);
     }
 
-    public Point2D forward(double lat, double lon, Point2D ret) {
+    // The VHTransform holds the results of each conversion, so the
+    // GeoCoordTransformation methods lock it while they convert and read the
+    // results, and the array methods lock it for the whole array.
+
+    public synchronized Point2D forward(double lat, double lon, Point2D ret) {
         if (ret == null) {
             ret = new Point2D.Double();
         }
@@ -429,7 +433,7 @@ public class VHTransform implements GeoCoordTransformation {
         return inverse(v, h, null);
     }
 
-    public LatLonPoint inverse(double v, double h, LatLonPoint ret) {
+    public synchronized LatLonPoint inverse(double v, double h, LatLonPoint ret) {
         if (ret == null) {
             ret = new LatLonPoint.Double();
         }
@@ -438,6 +442,35 @@ public class VHTransform implements GeoCoordTransformation {
         return ret;
     }
 
+    public void forward(double[] src, double[] dst) {
+        forward(src, 0, dst, 0, src.length / 2);
+    }
+
+    public synchronized void forward(double[] src, int srcOff, double[] dst, int dstOff, int numPts) {
+        for (int i = 0; i < numPts; i++) {
+            int s = srcOff + i * 2;
+            int d = dstOff + i * 2;
+            toVH(src[s], src[s + 1]);
+            dst[d] = getV();
+            dst[d + 1] = getH();
+        }
+    }
+
+    public void inverse(double[] src, double[] dst) {
+        inverse(src, 0, dst, 0, src.length / 2);
+    }
+
+    public synchronized void inverse(double[] src, int srcOff, double[] dst, int dstOff, int numPts) {
+        LatLonPoint ret = new LatLonPoint.Double();
+        for (int i = 0; i < numPts; i++) {
+            int s = srcOff + i * 2;
+            int d = dstOff + i * 2;
+            inverse(src[s], src[s + 1], ret);
+            dst[d] = ret.getY();
+            dst[d + 1] = ret.getX();
+        }
+    }
+
     public static void main(String[] args) {
         if (args.length < 2) {
             System.out.println("Usage: VHTransform lat lon");
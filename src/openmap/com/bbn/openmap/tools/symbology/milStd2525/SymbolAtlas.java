@@ -0,0 +1,146 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.tools.symbology.milStd2525;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.ImageIcon;
+
+/**
+ * One image holding the images for a set of symbols of the same size, laid out
+ * in a grid. Drawing symbols from an atlas copies part of one image that's
+ * already been prepared for the screen, instead of drawing a separate image
+ * for every symbol. Symbols are added with add(), and the image is created
+ * when pack() is called. An atlas can be created with
+ * SymbolReferenceLibrary.createAtlas().
+ */
+public class SymbolAtlas {
+
+    protected final Dimension cellSize;
+    protected Map<String, ImageIcon> icons = new LinkedHashMap<String, ImageIcon>();
+    protected Map<String, Rectangle> bounds = new LinkedHashMap<String, Rectangle>();
+    protected BufferedImage image;
+
+    /**
+     * @param cellSize the size of the symbol images in the atlas.
+     */
+    public SymbolAtlas(Dimension cellSize) {
+        this.cellSize = new Dimension(Math.max(1, cellSize.width), Math.max(1, cellSize.height));
+    }
+
+    /**
+     * Add a symbol image to the atlas. Null icons are ignored. The atlas image
+     * has to be created again with pack() after symbols are added.
+     */
+    public synchronized void add(String code, ImageIcon icon) {
+        if (code != null && icon != null && icon.getIconWidth() > 0) {
+            icons.put(code, icon);
+            image = null;
+        }
+    }
+
+    /**
+     * Create the atlas image from the symbol images that have been added.
+     */
+    public synchronized void pack() {
+        bounds.clear();
+        int count = icons.size();
+        if (count == 0) {
+            image = null;
+            return;
+        }
+
+        int columns = (int) Math.ceil(Math.sqrt(count));
+        int rows = (count + columns - 1) / columns;
+        BufferedImage bi = new BufferedImage(columns * cellSize.width, rows * cellSize.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = bi.createGraphics();
+
+        int i = 0;
+        for (Map.Entry<String, ImageIcon> entry : icons.entrySet()) {
+            ImageIcon icon = entry.getValue();
+            int w = Math.min(icon.getIconWidth(), cellSize.width);
+            int h = Math.min(icon.getIconHeight(), cellSize.height);
+            int x = (i % columns) * cellSize.width;
+            int y = (i / columns) * cellSize.height;
+            g.drawImage(icon.getImage(), x, y, x + w, y + h, 0, 0, w, h, null);
+            bounds.put(entry.getKey(), new Rectangle(x, y, w, h));
+            i++;
+        }
+
+        g.dispose();
+        image = bi;
+    }
+
+    /**
+     * @return the atlas image, null if pack() hasn't been called since symbols
+     *         were added.
+     */
+    public synchronized BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * @return the part of the atlas image holding the symbol, null if it isn't
+     *         in the atlas.
+     */
+    public synchronized Rectangle getBounds(String code) {
+        Rectangle rect = image == null ? null : bounds.get(code);
+        return rect == null ? null : new Rectangle(rect);
+    }
+
+    public synchronized boolean contains(String code) {
+        return image != null && bounds.containsKey(code);
+    }
+
+    public Dimension getCellSize() {
+        return new Dimension(cellSize);
+    }
+
+    /**
+     * @return the number of symbols in the atlas image.
+     */
+    public synchronized int size() {
+        return bounds.size();
+    }
+
+    /**
+     * Draw a symbol from the atlas.
+     *
+     * @param g the Graphics2D to draw into.
+     * @param code the symbol code.
+     * @param x the pixel x of the upper left corner of the symbol.
+     * @param y the pixel y of the upper left corner of the symbol.
+     * @return false if the symbol isn't in the atlas, and wasn't drawn.
+     */
+    public boolean draw(Graphics2D g, String code, int x, int y) {
+        BufferedImage bi;
+        Rectangle rect;
+        synchronized (this) {
+            bi = image;
+            rect = bi == null ? null : bounds.get(code);
+        }
+        if (rect == null) {
+            return false;
+        }
+        g.drawImage(bi, x, y, x + rect.width, y + rect.height, rect.x, rect.y, rect.x + rect.width, rect.y
+                + rect.height, null);
+        return true;
+    }
+}
@@ -0,0 +1,224 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.tools.symbology.milStd2525;
+
+import java.awt.Dimension;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.ImageIcon;
+
+import com.bbn.openmap.util.TaskService;
+import com.bbn.openmap.util.cacheHandler.CacheHandler;
+import com.bbn.openmap.util.cacheHandler.CacheObject;
+
+/**
+ * A cache of the symbol images a SymbolImageMaker creates, so the same symbol
+ * at the same size isn't decoded and scaled every time it's asked for. The
+ * cache is limited by the number of images, and by the bytes they hold if
+ * setMaxCacheWeight() is used. Codes the image maker doesn't have an image for
+ * are remembered too, so they aren't looked up over and over.
+ * <P>
+ * The images are shared with everything that asks for them, and shouldn't be
+ * modified.
+ */
+public class SymbolImageCache extends CacheHandler {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.tools.symbology.milStd2525.SymbolImageCache");
+
+    public final static int DEFAULT_CACHE_SIZE = 1000;
+    public final static long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    /**
+     * Held in the cache for codes that don't have an image.
+     */
+    protected final static Object NO_IMAGE = new Object();
+
+    protected SymbolImageMaker symbolImageMaker;
+
+    public SymbolImageCache(SymbolImageMaker sim) {
+        this(sim, DEFAULT_CACHE_SIZE);
+    }
+
+    public SymbolImageCache(SymbolImageMaker sim, int maxSize) {
+        super(maxSize);
+        symbolImageMaker = sim;
+        setMaxCacheWeight(DEFAULT_MAX_BYTES);
+    }
+
+    public SymbolImageMaker getSymbolImageMaker() {
+        return symbolImageMaker;
+    }
+
+    /**
+     * Set the SymbolImageMaker used to create images, clearing the cache.
+     */
+    public void setSymbolImageMaker(SymbolImageMaker sim) {
+        symbolImageMaker = sim;
+        clear();
+    }
+
+    /**
+     * Get the image for a symbol code, creating it if it isn't in the cache.
+     *
+     * @param code the symbol code.
+     * @param di the size of the image.
+     * @return ImageIcon, null if there isn't an image for the code.
+     */
+    public ImageIcon getIcon(String code, Dimension di) {
+        if (code == null || di == null) {
+            return null;
+        }
+        Object obj = get(new Key(code, di.width, di.height));
+        return obj instanceof ImageIcon ? (ImageIcon) obj : null;
+    }
+
+    public CacheObject load(Object key) {
+        SymbolImageMaker sim = symbolImageMaker;
+        if (!(key instanceof Key) || sim == null) {
+            return null;
+        }
+
+        Key symbolKey = (Key) key;
+        ImageIcon icon = sim.getIcon(symbolKey.code, new Dimension(symbolKey.width, symbolKey.height));
+        if (icon == null || icon.getIconWidth() <= 0) {
+            return new CacheObject(key, NO_IMAGE);
+        }
+        return new CacheObject(key, icon);
+    }
+
+    /**
+     * The weight of an image is its size in bytes, assuming four bytes a
+     * pixel.
+     */
+    protected long weigh(CacheObject obj) {
+        if (obj.obj instanceof ImageIcon) {
+            ImageIcon icon = (ImageIcon) obj.obj;
+            return Math.max(1, 4L * icon.getIconWidth() * icon.getIconHeight());
+        }
+        return 1;
+    }
+
+    /**
+     * Create the images for a set of codes at a size, on several threads, so
+     * they are in the cache when they are needed. Returns when all of the
+     * images have been created. The cache should be large enough to hold them.
+     *
+     * @param codes the symbol codes.
+     * @param di the size of the images.
+     * @return the number of codes that have images.
+     */
+    public int prerender(Collection<String> codes, final Dimension di) {
+        final Iterator<String> it = new ArrayList<String>(codes).iterator();
+        final AtomicInteger count = new AtomicInteger();
+        class Renderer implements Callable<Void> {
+            public Void call() {
+                while (true) {
+                    String code;
+                    synchronized (it) {
+                        if (!it.hasNext()) {
+                            return null;
+                        }
+                        code = it.next();
+                    }
+                    if (getIcon(code, di) != null) {
+                        count.incrementAndGet();
+                    }
+                }
+            }
+        }
+
+        Renderer renderer = new Renderer();
+        int numThreads = Math.min(codes.size(), Runtime.getRuntime().availableProcessors());
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 1; i < numThreads; i++) {
+            futures.add(TaskService.singleton().spawn(renderer));
+        }
+        renderer.call();
+
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                logger.log(Level.WARNING, "problem creating symbol images", e.getCause());
+            }
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("created " + count.get() + " of " + codes.size() + " symbol images at " + di);
+        }
+        return count.get();
+    }
+
+    /**
+     * Create a SymbolAtlas holding the images for a set of codes, so they can
+     * be drawn from one image.
+     *
+     * @param codes the symbol codes, codes without images are left out.
+     * @param di the size of the images.
+     * @return SymbolAtlas
+     */
+    public SymbolAtlas createAtlas(Collection<String> codes, Dimension di) {
+        prerender(codes, di);
+        SymbolAtlas atlas = new SymbolAtlas(di);
+        for (String code : codes) {
+            atlas.add(code, getIcon(code, di));
+        }
+        atlas.pack();
+        return atlas;
+    }
+
+    /**
+     * The cache key for a symbol image.
+     */
+    public static class Key {
+        protected final String code;
+        protected final int width;
+        protected final int height;
+
+        public Key(String code, int width, int height) {
+            this.code = code;
+            this.width = width;
+            this.height = height;
+        }
+
+        public int hashCode() {
+            return (code.hashCode() * 31 + width) * 31 + height;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return width == other.width && height == other.height && code.equals(other.code);
+        }
+
+        public String toString() {
+            return code + " " + width + "x" + height;
+        }
+    }
+}
@@ -24,6 +24,7 @@ package com.bbn.openmap.tools.symbology.milStd2525;
 
 import java.awt.Dimension;
 import java.net.URL;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
@@ -67,18 +68,32 @@ import com.bbn.openmap.util.PropUtils;
  *   symbolreferencelibrary.path=&lt;path to image data file directory&gt;
  *   # optional background color for icons if you want something other than clear.
  *   symbolreferencelibrary.background=AAGGRRBB
+ *   
+ *   # optional number of symbol images to keep in the image cache, 0 to turn it off.
+ *   symbolreferencelibrary.cacheSize=1000
+ *   # optional limit on the bytes held in the image cache, 0 for no limit.
+ *   symbolreferencelibrary.cacheMaxBytes=16777216
  *  
  * </pre>
+ * 
+ * The images created by the SymbolImageMaker are kept in a SymbolImageCache,
+ * so they are shared by everything that asks for them and shouldn't be
+ * modified. The prerender method can be used to create the images for a set
+ * of symbols ahead of time, and createAtlas can be used to put them in one
+ * image.
  */
 public class SymbolReferenceLibrary extends OMComponent {
 
     public final static String SymbolImageMakerClassProperty = "imageMakerClass";
+    public final static String CacheSizeProperty = "cacheSize";
 
     protected SymbolPart head;
     protected CodePositionTree positionTree;
     protected static SymbolReferenceLibrary library = null;
     protected CodeOptions symbolAttributes;
     protected SymbolImageMaker symbolImageMaker;
+    protected SymbolImageCache imageCache;
+    protected int imageCacheSize = SymbolImageCache.DEFAULT_CACHE_SIZE;
 
     /**
      * A constructor used when the SymbolImageMaker will be set later,
@@ -98,6 +113,7 @@ public class SymbolReferenceLibrary extends OMComponent {
      * @param sim
      */
     public SymbolReferenceLibrary(SymbolImageMaker sim) {
+        imageCache = new SymbolImageCache(sim, imageCacheSize);
         Properties props = findAndLoadProperties("hierarchy.properties");
         if (props != null) {
             initialize(props, sim);
@@ -122,7 +138,7 @@ public class SymbolReferenceLibrary extends OMComponent {
     }
 
     protected void initialize(Properties props, SymbolImageMaker sim) {
-        symbolImageMaker = sim;
+        setSymbolImageMaker(sim);
 
         if (Debug.debugging("symbology")) {
             Debug.output("SRL: loading");
@@ -152,6 +168,47 @@ public class SymbolReferenceLibrary extends OMComponent {
                 symbolImageMaker.setProperties(prefix, props);
             }
         }
+
+        int cacheSize = PropUtils.intFromProperties(props, realPrefix
+                + CacheSizeProperty, getImageCacheSize());
+        setImageCacheSize(cacheSize);
+        imageCache.setCacheEngineProperties(realPrefix, props);
+        // The image maker settings may have changed.
+        clearImageCache();
+    }
+
+    public Properties getProperties(Properties props) {
+        props = super.getProperties(props);
+        String prefix = PropUtils.getScopedPropertyPrefix(this);
+
+        if (symbolImageMaker != null) {
+            props.put(prefix + SymbolImageMakerClassProperty,
+                    symbolImageMaker.getClass().getName());
+        }
+        props.put(prefix + CacheSizeProperty,
+                Integer.toString(getImageCacheSize()));
+        imageCache.getCacheEngineProperties(prefix, props);
+        return props;
+    }
+
+    public Properties getPropertyInfo(Properties list) {
+        list = super.getPropertyInfo(list);
+        PropUtils.setI18NPropertyInfo(i18n,
+                list,
+                SymbolReferenceLibrary.class,
+                SymbolImageMakerClassProperty,
+                "Image Maker Class",
+                "Class name of the SymbolImageMaker that creates symbol images",
+                null);
+        PropUtils.setI18NPropertyInfo(i18n,
+                list,
+                SymbolReferenceLibrary.class,
+                CacheSizeProperty,
+                "Image Cache Size",
+                "Number of symbol images to keep in the cache (0 to turn it off)",
+                null);
+        imageCache.getCacheEnginePropertyInfo(list);
+        return list;
     }
 
     public SymbolImageMaker setSymbolImageMaker(String classname) {
@@ -196,12 +253,76 @@ public class SymbolReferenceLibrary extends OMComponent {
             Debug.output("SymbolReferenceLibrary asked to create: "
                     + symbolCode + " at " + di);
         }
+        if (imageCacheSize > 0) {
+            return imageCache.getIcon(symbolCode, di);
+        }
         if (symbolImageMaker != null) {
             return symbolImageMaker.getIcon(symbolCode, di);
         }
         return null;
     }
 
+    /**
+     * Create the images for a set of symbol codes ahead of time, using
+     * several threads, so they are ready in the image cache when they are
+     * asked for. Returns when the images have been created.
+     * 
+     * @param symbolCodes the codes to create images for.
+     * @param di the size of the images.
+     * @return the number of codes images were created for.
+     */
+    public int prerender(Collection<String> symbolCodes, Dimension di) {
+        if (imageCacheSize < symbolCodes.size()) {
+            Debug.output("SymbolReferenceLibrary image cache is smaller than the "
+                    + symbolCodes.size() + " symbols being created");
+        }
+        return imageCache.prerender(symbolCodes, di);
+    }
+
+    /**
+     * Create an atlas image holding the images for a set of symbol codes, so
+     * they can be drawn from one image.
+     * 
+     * @param symbolCodes the codes to put in the atlas.
+     * @param di the size of the images.
+     * @return SymbolAtlas
+     */
+    public SymbolAtlas createAtlas(Collection<String> symbolCodes, Dimension di) {
+        return imageCache.createAtlas(symbolCodes, di);
+    }
+
+    /**
+     * @return the cache holding the symbol images.
+     */
+    public SymbolImageCache getImageCache() {
+        return imageCache;
+    }
+
+    /**
+     * Set the number of symbol images kept in the cache, 0 turns the cache
+     * off.
+     */
+    public void setImageCacheSize(int cacheSize) {
+        imageCacheSize = Math.max(0, cacheSize);
+        if (imageCacheSize > 0) {
+            imageCache.resizeCache(imageCacheSize);
+        } else {
+            imageCache.clear();
+        }
+    }
+
+    public int getImageCacheSize() {
+        return imageCacheSize;
+    }
+
+    /**
+     * Clear the image cache. Should be called if the SymbolImageMaker is
+     * changed in a way that changes its images, like a new background color.
+     */
+    public void clearImageCache() {
+        imageCache.clear();
+    }
+
     /**
      * Return an image for a particular SymbolPart, its options and
      * dimensions. Not implemented.
@@ -307,6 +428,7 @@ public class SymbolReferenceLibrary extends OMComponent {
      */
     public void setSymbolImageMaker(SymbolImageMaker symbolImageMaker) {
         this.symbolImageMaker = symbolImageMaker;
+        imageCache.setSymbolImageMaker(symbolImageMaker);
     }
 
 }
\ No newline at end of file
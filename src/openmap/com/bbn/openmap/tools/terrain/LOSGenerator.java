@@ -119,6 +119,8 @@ public class LOSGenerator {
                         : 0);
 
         double[] llpoints = GreatCircle.greatCircle(startLLP.getRadLat(), startLLP.getRadLon(), endLLP.getRadLat(), endLLP.getRadLon(), numPoints, true);
+        // Look up the ground elevations of the whole path at once.
+        int[] elevations = dtedCache.getElevations(llpoints, null);
         LatLonPoint llp = new LatLonPoint.Double();
         int gcPointListSize = llpoints.length;
         double smallestSlopeValue = -Math.PI;
@@ -130,7 +132,8 @@ public class LOSGenerator {
             if (i >= gcPointListSize - 2) {
                 heightAboveGround = endObjHeight;
             }
-            double slopeOfCurrentPoint = calculateLOSSlope(startLLP, startTotalHeight, llp, heightAboveGround);
+            double slopeOfCurrentPoint = calculateLOSSlope(startTotalHeight, heightAboveGround
+                    + elevations[i / 2], startLLP.distance(llp));
 
             // if the slope is smaller than the max slope yet seen, it is
             // visible.
@@ -0,0 +1,542 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.tools.terrain;
+
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.bbn.openmap.dataAccess.dted.DTEDFrameCache;
+import com.bbn.openmap.event.ProgressEvent;
+import com.bbn.openmap.event.ProgressListener;
+import com.bbn.openmap.event.ProgressSupport;
+import com.bbn.openmap.proj.GreatCircle;
+import com.bbn.openmap.proj.Projection;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+import com.bbn.openmap.util.TaskService;
+
+/**
+ * The ViewshedGenerator figures out which pixels of a map area can be seen
+ * from one or more observers, using elevations from a DTEDFrameCache. The
+ * elevations for the whole area are gathered first, as one block from
+ * DTEDFrameCache.getElevations(), into primitive arrays indexed by pixel. Then
+ * rays are swept out from each observer to the edge of its circle of interest,
+ * and a pixel is visible along a ray if the slope to it from the observer is
+ * larger than the slope to any pixel before it on the ray. The rays don't
+ * depend on each other, so they are handed out in chunks to TaskService
+ * threads, with the calling thread taking chunks too.
+ * <P>
+ * The result is the number of observers that can see each pixel, so several
+ * observers make a cumulative viewshed. Progress is reported to
+ * ProgressListeners, and a viewshed being calculated can be stopped with
+ * cancel(), or by interrupting the calling thread. A cancelled generator
+ * stays cancelled until setCancelled(false) is called, so the caller should
+ * do that before starting a new calculation.
+ */
+public class ViewshedGenerator {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.tools.terrain.ViewshedGenerator");
+
+    /** The number of rays handed out to a thread at a time. */
+    public final static int RAY_CHUNK_SIZE = 32;
+
+    protected DTEDFrameCache dtedCache;
+    protected ProgressSupport progressSupport;
+    protected volatile boolean cancelled = false;
+
+    public ViewshedGenerator() {
+        progressSupport = new ProgressSupport(this);
+    }
+
+    public ViewshedGenerator(DTEDFrameCache cache) {
+        this();
+        setDtedCache(cache);
+    }
+
+    public void setDtedCache(DTEDFrameCache cache) {
+        dtedCache = cache;
+    }
+
+    public DTEDFrameCache getDtedCache() {
+        return dtedCache;
+    }
+
+    /**
+     * A location the viewshed is calculated from.
+     */
+    public static class Observer {
+        /** The location of the observer. */
+        public final LatLonPoint location;
+        /** The height of the observer above the ground, in meters. */
+        public final int height;
+        /** The radius of the area the observer looks over, in pixels. */
+        public final int radius;
+
+        public Observer(LatLonPoint location, int height, int radius) {
+            this.location = location;
+            this.height = height;
+            this.radius = radius;
+        }
+    }
+
+    /**
+     * Calculate the viewshed for one observer.
+     *
+     * @param proj the projection of the map.
+     * @param observer the observer.
+     * @return the viewshed for the square around the observer's circle, or
+     *         null if the calculation was cancelled.
+     */
+    public Viewshed createViewshed(Projection proj, Observer observer) {
+        List<Observer> observers = new ArrayList<Observer>(1);
+        observers.add(observer);
+        return createViewshed(proj, observers);
+    }
+
+    /**
+     * Calculate the cumulative viewshed for several observers, over the pixel
+     * area that covers all of their circles.
+     *
+     * @param proj the projection of the map.
+     * @param observers the observers.
+     * @return the viewshed, or null if the calculation was cancelled or there
+     *         weren't any observers.
+     */
+    public Viewshed createViewshed(Projection proj, List<Observer> observers) {
+        Rectangle bounds = null;
+        for (Observer observer : observers) {
+            Point2D pnt = proj.forward(observer.location);
+            int r = Math.max(observer.radius, 0);
+            Rectangle rect = new Rectangle((int) Math.round(pnt.getX()) - r, (int) Math.round(pnt.getY())
+                    - r, 2 * r + 1, 2 * r + 1);
+            if (bounds == null) {
+                bounds = rect;
+            } else {
+                bounds.add(rect);
+            }
+        }
+
+        if (bounds == null) {
+            return null;
+        }
+        return createViewshed(proj, observers, bounds);
+    }
+
+    /**
+     * Calculate the cumulative viewshed for several observers, over a pixel
+     * area of the map.
+     *
+     * @param proj the projection of the map.
+     * @param observers the observers.
+     * @param bounds the pixel area the viewshed covers.
+     * @return the viewshed, or null if the calculation was cancelled.
+     */
+    public Viewshed createViewshed(Projection proj, List<Observer> observers, Rectangle bounds) {
+        long start = System.nanoTime();
+
+        fireProgressUpdate(ProgressEvent.START, "Gathering elevations...", 0, 100);
+
+        Viewshed viewshed = new Viewshed(bounds);
+        float[] lats = new float[viewshed.counts.length];
+        float[] lons = new float[viewshed.counts.length];
+        short[] elevations = new short[viewshed.counts.length];
+        if (!gatherElevations(proj, bounds, lats, lons, elevations)) {
+            fireProgressUpdate(ProgressEvent.DONE, "Viewshed cancelled", 100, 100);
+            return null;
+        }
+
+        byte[] visible = new byte[viewshed.counts.length];
+        for (int i = 0; i < observers.size(); i++) {
+            Observer observer = observers.get(i);
+            Arrays.fill(visible, (byte) 0);
+            if (!sweep(proj, observer, viewshed, lats, lons, elevations, visible, i, observers.size())) {
+                fireProgressUpdate(ProgressEvent.DONE, "Viewshed cancelled", 100, 100);
+                return null;
+            }
+
+            int[] counts = viewshed.counts;
+            for (int j = 0; j < counts.length; j++) {
+                counts[j] += visible[j];
+            }
+        }
+
+        fireProgressUpdate(ProgressEvent.DONE, "Viewshed complete", 100, 100);
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("viewshed of " + bounds.width + "x" + bounds.height + " pixels for "
+                    + observers.size() + " observer(s) took "
+                    + ((System.nanoTime() - start) / 1000000) + " ms");
+        }
+        return viewshed;
+    }
+
+    /**
+     * Fill in the coordinates and elevations of the pixels in the bounds. The
+     * elevations come from one block of DTED posts covering the area, at the
+     * DTED level closest to the pixel size. If the block can't be gathered,
+     * the elevations of the pixels are looked up frame by frame.
+     *
+     * @return false if cancelled.
+     */
+    protected boolean gatherElevations(final Projection proj, final Rectangle bounds,
+                                       final float[] lats, final float[] lons,
+                                       final short[] elevations) {
+        // Pixel coordinates, a row of pixels at a time.
+        boolean ok = runInChunks(bounds.height, new Chunk() {
+            public void run(int start, int end) {
+                LatLonPoint llp = new LatLonPoint.Double();
+                for (int y = start; y < end; y++) {
+                    int index = y * bounds.width;
+                    for (int x = 0; x < bounds.width; x++, index++) {
+                        proj.inverse(bounds.x + x, bounds.y + y, llp);
+                        lats[index] = (float) llp.getY();
+                        lons[index] = (float) llp.getX();
+                    }
+                }
+            }
+        }, 1, 0f, 0f);
+
+        if (!ok) {
+            return false;
+        }
+
+        DTEDFrameCache cache = dtedCache;
+        if (cache == null) {
+            return true;
+        }
+
+        float minLat = Float.MAX_VALUE;
+        float maxLat = -Float.MAX_VALUE;
+        float minLon = Float.MAX_VALUE;
+        float maxLon = -Float.MAX_VALUE;
+        for (int i = 0; i < lats.length; i++) {
+            minLat = Math.min(minLat, lats[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+            minLon = Math.min(minLon, lons[i]);
+            maxLon = Math.max(maxLon, lons[i]);
+        }
+
+        // Use the coarsest level with posts at least as close as the pixels.
+        double pixelSize = Math.max(maxLat - minLat, maxLon - minLon)
+                / Math.max(1, Math.max(bounds.width, bounds.height));
+        int level = 0;
+        while (level < cache.getHighestResLevel()
+                && DTEDFrameCache.getPostSpacing(level) > pixelSize) {
+            level++;
+        }
+
+        short[][] block = null;
+        try {
+            block = cache.getElevations(maxLat, minLon, minLat, maxLon, level);
+        } catch (RuntimeException e) {
+            logger.fine("couldn't gather elevation block: " + e.getMessage());
+        }
+
+        if (block != null && block.length > 1 && block[0].length > 1) {
+            // The block columns go from west to east, the rows from south to
+            // north.
+            final short[][] posts = block;
+            final float south = minLat;
+            final float west = minLon;
+            final float latScale = (block[0].length - 1) / Math.max(maxLat - minLat, Float.MIN_VALUE);
+            final float lonScale = (block.length - 1) / Math.max(maxLon - minLon, Float.MIN_VALUE);
+            return runInChunks(bounds.height, new Chunk() {
+                public void run(int start, int end) {
+                    int maxCol = posts.length - 1;
+                    int maxRow = posts[0].length - 1;
+                    for (int y = start; y < end; y++) {
+                        int index = y * bounds.width;
+                        for (int x = 0; x < bounds.width; x++, index++) {
+                            int col = Math.min(maxCol, Math.max(0, Math.round((lons[index] - west)
+                                    * lonScale)));
+                            int row = Math.min(maxRow, Math.max(0, Math.round((lats[index] - south)
+                                    * latScale)));
+                            elevations[index] = checkElevation(posts[col][row]);
+                        }
+                    }
+                }
+            }, 1, 0f, 0f);
+        }
+
+        logger.fine("no elevation block for viewshed, looking up elevations frame by frame");
+        int[] pixelElevations = cache.getElevations(lats, lons, null);
+        for (int i = 0; i < pixelElevations.length; i++) {
+            elevations[i] = checkElevation(pixelElevations[i]);
+        }
+        return !isCancelled();
+    }
+
+    /**
+     * @return the elevation, with missing data treated as sea level.
+     */
+    protected static short checkElevation(int elevation) {
+        return elevation == DTEDFrameCache.NO_DATA ? 0 : (short) elevation;
+    }
+
+    /**
+     * Sweep rays out from the observer to every pixel on the edge of the
+     * square around its circle, marking the visible pixels.
+     *
+     * @return false if cancelled.
+     */
+    protected boolean sweep(Projection proj, Observer observer, Viewshed viewshed,
+                            final float[] lats, final float[] lons, final short[] elevations,
+                            final byte[] visible, int observerIndex, int numObservers) {
+        final Rectangle bounds = viewshed.bounds;
+        final int radius = observer.radius;
+        Point2D pnt = proj.forward(observer.location);
+        final int cx = (int) Math.round(pnt.getX()) - bounds.x;
+        final int cy = (int) Math.round(pnt.getY()) - bounds.y;
+        final double obsLat = observer.location.getRadLat();
+        final double obsLon = observer.location.getRadLon();
+
+        int ground = 0;
+        if (dtedCache != null) {
+            ground = checkElevation(dtedCache.getElevation(observer.location.getLatitude(), observer.location.getLongitude()));
+        }
+        final int observerHeight = ground + observer.height;
+
+        if (cx >= 0 && cy >= 0 && cx < bounds.width && cy < bounds.height) {
+            visible[cy * bounds.width + cx] = 1;
+        }
+
+        if (radius <= 0) {
+            return true;
+        }
+
+        final int radiusSqr = radius * radius;
+        final int numRays = 8 * radius;
+        return runInChunks(numRays, new Chunk() {
+            public void run(int start, int end) {
+                for (int ray = start; ray < end; ray++) {
+                    // Walk the edge of the square clockwise from the upper
+                    // left corner.
+                    int side = ray / (2 * radius);
+                    int along = ray % (2 * radius);
+                    int dx, dy;
+                    switch (side) {
+                    case 0:
+                        dx = -radius + along;
+                        dy = -radius;
+                        break;
+                    case 1:
+                        dx = radius;
+                        dy = -radius + along;
+                        break;
+                    case 2:
+                        dx = radius - along;
+                        dy = radius;
+                        break;
+                    default:
+                        dx = -radius;
+                        dy = radius - along;
+                    }
+
+                    double maxSlope = -Double.MAX_VALUE;
+                    for (int step = 1; step <= radius; step++) {
+                        int sx = (int) Math.round((double) dx * step / radius);
+                        int sy = (int) Math.round((double) dy * step / radius);
+                        if (sx * sx + sy * sy > radiusSqr) {
+                            break;
+                        }
+                        int x = cx + sx;
+                        int y = cy + sy;
+                        if (x < 0 || y < 0 || x >= bounds.width || y >= bounds.height) {
+                            break;
+                        }
+
+                        int index = y * bounds.width + x;
+                        double dist = GreatCircle.sphericalDistance(obsLat, obsLon, Math.toRadians(lats[index]), Math.toRadians(lons[index]));
+                        double slope = LOSGenerator.calculateLOSSlope(observerHeight, elevations[index], dist);
+                        if (slope > maxSlope) {
+                            maxSlope = slope;
+                            // Other rays only ever set this too.
+                            visible[index] = 1;
+                        }
+                    }
+                }
+            }
+        }, RAY_CHUNK_SIZE, 100f * observerIndex / numObservers, 100f / numObservers);
+    }
+
+    /**
+     * A piece of work done over a range of indexes.
+     */
+    protected interface Chunk {
+        void run(int start, int end);
+    }
+
+    /**
+     * Run the work for the indexes 0 to size in chunks, on as many threads as
+     * there are processors, with the calling thread taking chunks too. The
+     * calling thread checks for cancellation and reports progress between
+     * its chunks.
+     *
+     * @param size the number of indexes.
+     * @param chunkSize the number of indexes in a chunk.
+     * @param progressStart the progress percentage at the start of the work.
+     * @param progressSpan the percentage the work adds to the progress, 0 for
+     *        no reports.
+     * @return false if cancelled.
+     */
+    protected boolean runInChunks(final int size, final Chunk work, final int chunkSize,
+                                  float progressStart, float progressSpan) {
+        final int numChunks = (size + chunkSize - 1) / chunkSize;
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final AtomicInteger doneChunks = new AtomicInteger();
+
+        class Worker implements Callable<Boolean> {
+            public Boolean call() {
+                int chunk;
+                while ((chunk = nextChunk.getAndIncrement()) < numChunks) {
+                    work.run(chunk * chunkSize, Math.min(size, (chunk + 1) * chunkSize));
+                    doneChunks.incrementAndGet();
+                }
+                return Boolean.TRUE;
+            }
+        }
+
+        Worker worker = new Worker();
+        int numThreads = Math.min(numChunks, Runtime.getRuntime().availableProcessors());
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(numThreads);
+        for (int i = 1; i < numThreads; i++) {
+            futures.add(TaskService.singleton().spawn(worker));
+        }
+
+        boolean ret = true;
+        int reported = -1;
+        int chunk;
+        while ((chunk = nextChunk.getAndIncrement()) < numChunks) {
+            if (isCancelled()) {
+                // Stops the other threads by using up the chunks.
+                nextChunk.set(numChunks);
+                ret = false;
+                break;
+            }
+            work.run(chunk * chunkSize, Math.min(size, (chunk + 1) * chunkSize));
+            int done = doneChunks.incrementAndGet();
+
+            if (progressSpan > 0) {
+                int percent = (int) (progressStart + progressSpan * done / numChunks);
+                if (percent != reported) {
+                    reported = percent;
+                    fireProgressUpdate(ProgressEvent.UPDATE, "Analyzing data...", percent, 100);
+                }
+            }
+        }
+
+        for (Future<Boolean> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                ret = false;
+            } catch (ExecutionException e) {
+                logger.warning("problem calculating viewshed: " + e.getCause());
+                ret = false;
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Stop the viewshed being calculated. createViewshed returns null.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Set or clear the cancelled flag. Clear it before starting a new
+     * calculation after a cancel().
+     */
+    public void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * @return true if the generator has been cancelled, or the calculating
+     *         thread was interrupted or its worker cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled || Thread.currentThread().isInterrupted()
+                || TaskService.isCurrentWorkerCancelled();
+    }
+
+    /**
+     * Add a ProgressListener that will display viewshed progress.
+     */
+    public void addProgressListener(ProgressListener list) {
+        progressSupport.add(list);
+    }
+
+    /**
+     * Remove a ProgressListener that displayed viewshed progress.
+     */
+    public void removeProgressListener(ProgressListener list) {
+        progressSupport.remove(list);
+    }
+
+    /**
+     * Clear all progress listeners.
+     */
+    public void clearProgressListeners() {
+        progressSupport.clear();
+    }
+
+    protected void fireProgressUpdate(int type, String task, int current, int total) {
+        progressSupport.fireUpdate(type, task, total, current);
+    }
+
+    /**
+     * The result of a viewshed calculation.
+     */
+    public static class Viewshed {
+        /** The pixel area of the map the viewshed covers. */
+        public final Rectangle bounds;
+        /**
+         * The number of observers that can see each pixel, row by row from the
+         * upper left of the bounds.
+         */
+        public final int[] counts;
+
+        protected Viewshed(Rectangle bounds) {
+            this.bounds = new Rectangle(bounds);
+            counts = new int[bounds.width * bounds.height];
+        }
+
+        /**
+         * @return the number of observers that can see the map pixel, 0 if
+         *         it's outside the bounds.
+         */
+        public int getCount(int x, int y) {
+            x -= bounds.x;
+            y -= bounds.y;
+            if (x < 0 || y < 0 || x >= bounds.width || y >= bounds.height) {
+                return 0;
+            }
+            return counts[y * bounds.width + x];
+        }
+    }
+}
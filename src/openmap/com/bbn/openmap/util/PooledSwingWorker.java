@@ -3,9 +3,9 @@ package com.bbn.openmap.util;
 
 /**
  * @param <T> The type of value computed by the task.
- * 
+ *
  *        Use thread pool to run tasks that compute a value.
- * 
+ *
  * Thanks to Carsten for cleaning this up.
  */
 public abstract class PooledSwingWorker<T> extends SwingWorker<T> {
@@ -22,6 +22,39 @@ public abstract class PooledSwingWorker<T> extends SwingWorker<T> {
      * Start the worker thread.
      */
     public void start() {
-        TaskService.singleton().spawn(getFuture());
+        TaskService.singleton().spawnWorker(getWorkerKey(), getWorkerName(), getWorkerPriority(), getFuture());
     }
-}
\ No newline at end of file
+
+    /**
+     * The key for this worker in the TaskService. A worker that hasn't started
+     * yet is replaced by a new worker with the same key. Each worker is its
+     * own key by default.
+     */
+    protected Object getWorkerKey() {
+        return this;
+    }
+
+    /**
+     * The name the TaskService keeps the statistics for this worker under.
+     * The class name by default.
+     */
+    protected String getWorkerName() {
+        return getClass().getName();
+    }
+
+    /**
+     * Workers with higher priorities are run first when the TaskService is
+     * busy. 0 by default.
+     */
+    protected int getWorkerPriority() {
+        return 0;
+    }
+
+    /**
+     * @return true if this worker has been interrupted, or is running in a
+     *         thread for a worker that has been cancelled.
+     */
+    public boolean isInterrupted() {
+        return super.isInterrupted() || TaskService.isCurrentWorkerCancelled();
+    }
+}
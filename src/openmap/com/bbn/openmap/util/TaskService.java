@@ -1,22 +1,46 @@
-/* 
+/*
  * <copyright>
  *  Copyright 2010 BBN Technologies
  * </copyright>
  */
 package com.bbn.openmap.util;
 
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Reuse threads instead of making new ones over and over.
+ * <P>
+ * General tasks given to spawn() run on a cached thread pool. Workers, like
+ * the ones layers use to call prepare(), are given to spawnWorker() and run on
+ * a bounded pool, sized to the number of processors by default, so a burst of
+ * projection changes over a map with many layers doesn't start a thread for
+ * every layer. Queued workers run in priority order, and a worker queued with
+ * the same key as one that hasn't started yet replaces it. A worker can check
+ * isCurrentWorkerCancelled() to find out if it has been cancelled while it was
+ * running, and stop early.
+ * <P>
+ * The pool keeps the time workers spend waiting and running for each worker
+ * name, available from getWorkerStatistics().
  */
 public final class TaskService {
+
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.util.TaskService");
+
     public static TaskService singleton() {
         return SingletonHolder.instance;
     }
@@ -25,10 +49,28 @@ public final class TaskService {
         private static final TaskService instance = new TaskService();
     }
 
+    /**
+     * The worker running in the current thread, so it can find out if it has
+     * been cancelled.
+     */
+    private static final ThreadLocal<WorkerTask> currentWorker = new ThreadLocal<WorkerTask>();
+
     private ExecutorService executor;
 
+    private final ThreadPoolExecutor workerExecutor;
+    /** Workers that haven't started yet, by key. */
+    private final ConcurrentHashMap<Object, WorkerTask> queuedWorkers = new ConcurrentHashMap<Object, WorkerTask>();
+    private final ConcurrentHashMap<String, WorkerStatistics> workerStatistics = new ConcurrentHashMap<String, WorkerStatistics>();
+    private final AtomicLong workerSequence = new AtomicLong();
+    private final AtomicLong coalescedWorkers = new AtomicLong();
+    private final AtomicLong cancelledWorkers = new AtomicLong();
+
     private TaskService() {
         executor = Executors.newCachedThreadPool();
+
+        int numThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        workerExecutor = new ThreadPoolExecutor(numThreads, numThreads, 60L, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new WorkerThreadFactory());
+        workerExecutor.allowCoreThreadTimeOut(true);
     }
 
     /**
@@ -43,10 +85,44 @@ public final class TaskService {
     }
 
     /**
-     * Allows more control over how threads can be allocated.
-     * 
+     * Run a worker on the bounded worker pool. If a worker with the same key
+     * is still waiting to run, it's cancelled and this one takes its place.
+     *
+     * @param key identifies the owner of the worker, like a layer. Only the
+     *        most recent worker for a key waits in the queue.
+     * @param name the name the worker's statistics are kept under.
+     * @param priority workers with higher priorities run first, workers with
+     *        the same priority run in the order they were added.
+     * @param task the work.
+     */
+    public void spawnWorker(Object key, String name, int priority, RunnableFuture<?> task) {
+        WorkerTask worker = new WorkerTask(key, name, priority, workerSequence.incrementAndGet(), task);
+        WorkerTask old = queuedWorkers.put(key, worker);
+        if (old != null && workerExecutor.remove(old)) {
+            old.task.cancel(false);
+            coalescedWorkers.incrementAndGet();
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("replaced queued worker " + old.name);
+            }
+        }
+        workerExecutor.execute(worker);
+    }
+
+    /**
+     * @return true if the current thread is running a worker that has been
+     *         cancelled, so it can stop what it's doing.
+     */
+    public static boolean isCurrentWorkerCancelled() {
+        WorkerTask worker = currentWorker.get();
+        return worker != null && worker.task.isCancelled();
+    }
+
+    /**
+     * Allows more control over how threads can be allocated for general
+     * tasks.
+     *
      * @param eService ExecutorService that allocates and schedules thread
-     *        spawning for layers.
+     *        spawning for tasks given to spawn().
      */
     public void setExecutorService(ExecutorService eService) {
         if (eService != null) {
@@ -55,13 +131,210 @@ public final class TaskService {
     }
 
     /**
-     * If called, will replace the default unbounded executor using a cached
-     * thread pool with a fixed thread pool executor, so the maxNumThreads are
-     * allocated. If they are all busy, the Runnables will queue.
-     * 
+     * Set the number of threads used to run workers. If they are all busy,
+     * workers wait in the queue.
+     *
      * @param maxNumThreads
      */
     public void setMaxNumThreads(int maxNumThreads) {
-        executor = new ThreadPoolExecutor(0, maxNumThreads, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        maxNumThreads = Math.max(1, maxNumThreads);
+        if (maxNumThreads > workerExecutor.getMaximumPoolSize()) {
+            workerExecutor.setMaximumPoolSize(maxNumThreads);
+            workerExecutor.setCorePoolSize(maxNumThreads);
+        } else {
+            workerExecutor.setCorePoolSize(maxNumThreads);
+            workerExecutor.setMaximumPoolSize(maxNumThreads);
+        }
+    }
+
+    public int getMaxNumThreads() {
+        return workerExecutor.getMaximumPoolSize();
+    }
+
+    /**
+     * Set the factory for the threads that run workers, to control their
+     * priority or to use a different kind of thread. Threads that have already
+     * been created keep running workers until they time out.
+     */
+    public void setWorkerThreadFactory(ThreadFactory threadFactory) {
+        if (threadFactory != null) {
+            workerExecutor.setThreadFactory(threadFactory);
+        }
+    }
+
+    /**
+     * @return the number of workers waiting to run.
+     */
+    public int getWorkerQueueSize() {
+        return workerExecutor.getQueue().size();
+    }
+
+    /**
+     * @return the number of workers running.
+     */
+    public int getActiveWorkerCount() {
+        return workerExecutor.getActiveCount();
+    }
+
+    /**
+     * @return a snapshot of the worker statistics, sorted by worker name.
+     */
+    public Map<String, WorkerStatistics> getWorkerStatistics() {
+        Map<String, WorkerStatistics> ret = new TreeMap<String, WorkerStatistics>();
+        for (Map.Entry<String, WorkerStatistics> entry : workerStatistics.entrySet()) {
+            ret.put(entry.getKey(), entry.getValue().copy());
+        }
+        return ret;
+    }
+
+    /**
+     * @return a description of the worker pool and the statistics for each
+     *         worker name, for logging.
+     */
+    public String getStatistics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("workers: ").append(getActiveWorkerCount()).append(" running, ").append(getWorkerQueueSize()).append(" queued, ");
+        sb.append(workerExecutor.getCompletedTaskCount()).append(" completed, ");
+        sb.append(coalescedWorkers.get()).append(" replaced, ").append(cancelledWorkers.get()).append(" cancelled before running");
+        for (Map.Entry<String, WorkerStatistics> entry : getWorkerStatistics().entrySet()) {
+            sb.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Clear the worker statistics.
+     */
+    public void resetStatistics() {
+        workerStatistics.clear();
+        coalescedWorkers.set(0);
+        cancelledWorkers.set(0);
+    }
+
+    private void recordWorker(String name, long waitNanos, long runNanos) {
+        WorkerStatistics stats = workerStatistics.get(name);
+        if (stats == null) {
+            stats = new WorkerStatistics();
+            WorkerStatistics existing = workerStatistics.putIfAbsent(name, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        stats.record(waitNanos, runNanos);
+    }
+
+    /**
+     * The time spent by the workers with the same name.
+     */
+    public static class WorkerStatistics {
+        protected long count;
+        protected long totalWaitNanos;
+        protected long totalRunNanos;
+        protected long maxRunNanos;
+        protected long lastRunNanos;
+
+        protected synchronized void record(long waitNanos, long runNanos) {
+            count++;
+            totalWaitNanos += waitNanos;
+            totalRunNanos += runNanos;
+            maxRunNanos = Math.max(maxRunNanos, runNanos);
+            lastRunNanos = runNanos;
+        }
+
+        protected synchronized WorkerStatistics copy() {
+            WorkerStatistics ret = new WorkerStatistics();
+            ret.count = count;
+            ret.totalWaitNanos = totalWaitNanos;
+            ret.totalRunNanos = totalRunNanos;
+            ret.maxRunNanos = maxRunNanos;
+            ret.lastRunNanos = lastRunNanos;
+            return ret;
+        }
+
+        /** @return the number of workers that have run. */
+        public synchronized long getCount() {
+            return count;
+        }
+
+        /** @return the average time workers waited in the queue, in ms. */
+        public synchronized double getAverageWaitMillis() {
+            return count == 0 ? 0 : totalWaitNanos / 1e6 / count;
+        }
+
+        /** @return the average time workers ran, in ms. */
+        public synchronized double getAverageRunMillis() {
+            return count == 0 ? 0 : totalRunNanos / 1e6 / count;
+        }
+
+        /** @return the longest time a worker ran, in ms. */
+        public synchronized double getMaxRunMillis() {
+            return maxRunNanos / 1e6;
+        }
+
+        /** @return the time the last worker ran, in ms. */
+        public synchronized double getLastRunMillis() {
+            return lastRunNanos / 1e6;
+        }
+
+        public String toString() {
+            return String.format("%d runs, average wait %.1f ms, average run %.1f ms, max run %.1f ms, last run %.1f ms", getCount(), getAverageWaitMillis(), getAverageRunMillis(), getMaxRunMillis(), getLastRunMillis());
+        }
+    }
+
+    /**
+     * A worker waiting in the priority queue.
+     */
+    private class WorkerTask implements Runnable, Comparable<WorkerTask> {
+        final Object key;
+        final String name;
+        final int priority;
+        final long sequence;
+        final RunnableFuture<?> task;
+        final long queuedTime = System.nanoTime();
+
+        WorkerTask(Object key, String name, int priority, long sequence, RunnableFuture<?> task) {
+            this.key = key;
+            this.name = name;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        public void run() {
+            queuedWorkers.remove(key, this);
+            if (task.isDone()) {
+                cancelledWorkers.incrementAndGet();
+                return;
+            }
+
+            long start = System.nanoTime();
+            currentWorker.set(this);
+            try {
+                task.run();
+            } finally {
+                currentWorker.remove();
+                recordWorker(name, start - queuedTime, System.nanoTime() - start);
+                // Don't let a cancel(true) that came in at the end interrupt
+                // the next worker.
+                Thread.interrupted();
+            }
+        }
+
+        public int compareTo(WorkerTask other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "OpenMap Worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
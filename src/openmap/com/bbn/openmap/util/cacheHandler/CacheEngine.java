@@ -0,0 +1,104 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.util.cacheHandler;
+
+import java.util.List;
+
+/**
+ * A CacheEngine is the storage and eviction policy behind a CacheHandler. The
+ * CacheHandler takes care of loading objects and keeping statistics, the
+ * engine decides where the CacheObjects live and which ones get tossed when
+ * the cache is full. Lookups are expected to be hashed, and implementations
+ * must be safe to call from multiple threads.
+ * <P>
+ * The capacity of an engine is limited by a count of objects, and optionally
+ * by a total weight (usually bytes) of the objects it holds. The weight of
+ * each CacheObject is set by the CacheHandler before it is handed to the
+ * engine.
+ *
+ * @author dietrick
+ */
+public interface CacheEngine {
+
+    /**
+     * Return the CacheObject for a key, or null if it isn't held. The access
+     * counts as a use of the object for the eviction policy.
+     */
+    CacheObject get(Object key);
+
+    /**
+     * Add a CacheObject to the engine, replacing any object with the same id.
+     *
+     * @param obj the CacheObject to add.
+     * @return a List of CacheObjects that were evicted to make room, never
+     *         null.
+     */
+    List<CacheObject> put(CacheObject obj);
+
+    /**
+     * Remove the CacheObject for a key.
+     *
+     * @return the removed CacheObject, null if it wasn't held.
+     */
+    CacheObject remove(Object key);
+
+    /**
+     * Remove all the objects from the engine.
+     */
+    void clear();
+
+    /**
+     * @return the number of objects currently held.
+     */
+    int size();
+
+    /**
+     * @return the sum of the weights of the objects currently held.
+     */
+    long getWeightedSize();
+
+    /**
+     * @return the maximum number of objects held.
+     */
+    int getMaxSize();
+
+    /**
+     * Set the maximum number of objects held. Objects are evicted if the
+     * engine is holding more than the new limit.
+     *
+     * @return a List of evicted CacheObjects, never null.
+     */
+    List<CacheObject> setMaxSize(int maxSize);
+
+    /**
+     * @return the maximum total weight of the objects held, zero or less if
+     *         there isn't a limit.
+     */
+    long getMaxWeight();
+
+    /**
+     * Set the maximum total weight of the objects held, zero or less for no
+     * limit. Objects are evicted if the engine is holding more than the new
+     * limit.
+     *
+     * @return a List of evicted CacheObjects, never null.
+     */
+    List<CacheObject> setMaxWeight(long maxWeight);
+
+    /**
+     * @return a snapshot List of the CacheObjects currently held.
+     */
+    List<CacheObject> values();
+}
@@ -24,19 +24,53 @@
 
 package com.bbn.openmap.util.cacheHandler;
 
+import java.util.List;
+import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.bbn.openmap.Environment;
+import com.bbn.openmap.I18n;
+import com.bbn.openmap.util.PropUtils;
+
 /**
  * A base cache support object. Based on the
  * com.bbn.openmap.layer.util.cacheHandler package components, this CacheHandler
  * uses Objects instead of Strings and will be replacing the earlier version.
- * 
+ * <P>
+ * The CacheObjects are held by a CacheEngine, which provides hashed lookup and
+ * decides which objects are evicted when the cache is full. The engine can be
+ * chosen with the cachePolicy property (lru or tinylfu), and the cache can be
+ * limited by the memory used by its objects as well as their number by
+ * setting the cacheMaxBytes property. Subclasses that hold large objects
+ * should override weigh(CacheObject) to estimate their size. Subclasses that
+ * are PropertyConsumers can pass their properties to
+ * setCacheEngineProperties() to pick up these settings:
+ *
+ * <pre>
+ * # lru (default) or tinylfu
+ * prefix.cachePolicy=tinylfu
+ * # Maximum bytes held, no limit if not set or zero
+ * prefix.cacheMaxBytes=67108864
+ * # Number of independently locked stripes for heavily threaded access
+ * prefix.cacheConcurrency=4
+ * </pre>
+ *
  * @author dietrick
  */
 public abstract class CacheHandler {
-    protected CacheObject[] objs;
-    protected int logicalClock;
+
+    public final static String CACHE_POLICY_PROPERTY = "cachePolicy";
+    public final static String CACHE_MAX_BYTES_PROPERTY = "cacheMaxBytes";
+    public final static String CACHE_CONCURRENCY_PROPERTY = "cacheConcurrency";
+
+    public final static String LRU_POLICY = "lru";
+    public final static String TINYLFU_POLICY = "tinylfu";
+
+    protected volatile CacheEngine engine;
+    protected String cachePolicy = LRU_POLICY;
+    protected int cacheConcurrency = 1;
+    protected final CacheStatistics statistics = new CacheStatistics();
 
     public static Logger logger = Logger.getLogger("com.bbn.openmap.util.cacheHandler.CacheHandler");
 
@@ -57,50 +91,157 @@ public abstract class CacheHandler {
     }
 
     /**
-     * Set the size, reset the logical clock
+     * Set the size, empty the cache.
      */
     private void initCache(int max_size) {
-        if (objs != null && objs.length == max_size) {
-            clear();
+        if (engine == null) {
+            engine = createCacheEngine(cachePolicy, max_size, 0, cacheConcurrency);
         } else {
-            objs = new CacheObject[max_size];
+            engine.clear();
+            recordEvictions(engine.setMaxSize(max_size));
         }
-        logicalClock = 0;
     }
 
     /**
-     * Remove all the objects from the cache.
+     * Create the CacheEngine that will hold the CacheObjects. Subclasses can
+     * override this to provide their own engine.
+     *
+     * @param policy LRU_POLICY or TINYLFU_POLICY, LRU is used for anything
+     *        else.
+     * @param maxSize the maximum number of objects held.
+     * @param maxWeight the maximum total weight of objects held, zero or less
+     *        for no limit.
+     * @param concurrency the number of independently locked stripes to split
+     *        the cache into.
+     * @return CacheEngine
      */
-    public void clear() {
-        if (objs != null) {
-            for (int i = 0; i < objs.length; i++) {
-                objs[i] = null;
+    protected CacheEngine createCacheEngine(String policy, int maxSize, long maxWeight,
+                                            int concurrency) {
+        if (concurrency > 1) {
+            CacheEngine[] stripes = new CacheEngine[concurrency];
+            for (int i = 0; i < concurrency; i++) {
+                stripes[i] = createCacheEngine(policy, maxSize, maxWeight, 1);
             }
+            return new StripedCacheEngine(stripes, maxSize, maxWeight);
+        }
+
+        if (TINYLFU_POLICY.equalsIgnoreCase(policy)) {
+            return new TinyLFUCacheEngine(maxSize, maxWeight);
+        }
+        return new LRUCacheEngine(maxSize, maxWeight);
+    }
+
+    /**
+     * Change the eviction policy and concurrency of the cache. The objects
+     * currently held are moved to the new engine.
+     *
+     * @param policy LRU_POLICY or TINYLFU_POLICY.
+     * @param concurrency the number of independently locked stripes to split
+     *        the cache into.
+     */
+    public void setCachePolicy(String policy, int concurrency) {
+        if (policy == null) {
+            policy = LRU_POLICY;
+        }
+        concurrency = Math.max(1, concurrency);
+
+        if (policy.equalsIgnoreCase(cachePolicy) && concurrency == cacheConcurrency) {
+            return;
         }
+
+        cachePolicy = policy;
+        cacheConcurrency = concurrency;
+        CacheEngine oldEngine = engine;
+        CacheEngine newEngine = createCacheEngine(policy, oldEngine.getMaxSize(), oldEngine.getMaxWeight(), concurrency);
+        for (CacheObject co : oldEngine.values()) {
+            recordEvictions(newEngine.put(co));
+        }
+        engine = newEngine;
+    }
+
+    public String getCachePolicy() {
+        return cachePolicy;
+    }
+
+    public int getCacheConcurrency() {
+        return cacheConcurrency;
+    }
+
+    /**
+     * Set the maximum total weight of the objects held in the cache, usually
+     * in bytes. Zero or less means there isn't a limit, and the cache is only
+     * limited by the number of objects.
+     */
+    public void setMaxCacheWeight(long maxWeight) {
+        recordEvictions(engine.setMaxWeight(maxWeight));
+    }
+
+    public long getMaxCacheWeight() {
+        return engine.getMaxWeight();
+    }
+
+    /**
+     * @return the sum of the weights of the objects in the cache.
+     */
+    public long getCacheWeight() {
+        return engine.getWeightedSize();
+    }
+
+    /**
+     * @return the number of objects currently in the cache.
+     */
+    public int getCacheCount() {
+        return engine.size();
+    }
+
+    /**
+     * @return hit, miss, eviction and load time statistics for this cache.
+     */
+    public CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Remove all the objects from the cache.
+     */
+    public void clear() {
+        engine.clear();
     }
 
     /**
      * Need to clear memory, get gc moving, and ready for new objects
      */
     public void resetCache() {
-        initCache(objs.length);
+        initCache(engine.getMaxSize());
     }
 
     /**
-     * Need to clear memory, get gc moving, and ready for new objects. Delete
-     * the current Hashtable and create a new one with the new capacity.
+     * Need to clear memory, get gc moving, and ready for new objects. Empty
+     * the cache and set the new capacity.
      * 
-     * @param max_size the capacity of the Hashtable.
+     * @param max_size the capacity of the cache.
      */
     public void resetCache(int max_size) {
         initCache(max_size);
     }
 
+    /**
+     * Change the capacity of the cache, keeping as many of the current objects
+     * as will fit.
+     * 
+     * @param max_size the capacity of the cache.
+     */
+    public void resizeCache(int max_size) {
+        if (max_size > 0) {
+            recordEvictions(engine.setMaxSize(max_size));
+        }
+    }
+
     /**
      * Get the current size of the cache.
      */
     public int getCacheSize() {
-        return objs.length;
+        return engine.getMaxSize();
     }
 
     /**
@@ -111,7 +252,9 @@ public abstract class CacheHandler {
         if (ret != null)
             return ret.obj;
 
+        long start = System.nanoTime();
         ret = load(key);
+        recordLoad(start, ret != null);
         if (ret == null)
             return null;
 
@@ -127,88 +270,105 @@ public abstract class CacheHandler {
     public abstract CacheObject load(Object key);
 
     /**
-     * Search the cache for a match -return null if not found. The key search is
-     * case insensitive.
+     * Return an estimate of the weight of a CacheObject, which is used if the
+     * cache is limited by weight. The default weight is 1 for every object, so
+     * subclasses holding images or elevation data should override this to
+     * return the approximate number of bytes held by the object.
+     */
+    protected long weigh(CacheObject obj) {
+        return 1;
+    }
+
+    /**
+     * Search the cache for a match -return null if not found.
      */
     public CacheObject searchCache(Object key) {
-        for (int i = 0; i < objs.length; i++) {
-            CacheObject co = objs[i];
-            if (co == null) {
-                // Since we load 0 -> length - 1, if we get a null
-                // one, the rest are null, too.
-                break;
-            } else if (co.id.equals(key)) {
-                return co;
-            }
+        CacheObject co = engine.get(key);
+        if (co != null) {
+            statistics.recordHit();
+        } else {
+            statistics.recordMiss();
         }
-        return null;
+        return co;
     }
 
     /**
-     * If there is space in the cache, put the object in. If there isn't space,
-     * find the least used object, and replace it.
+     * Add an object to the cache. If there isn't space, the cache engine
+     * decides which objects get replaced.
      */
     protected void replaceLeastUsed(CacheObject newObj) {
+        newObj.weight = weigh(newObj);
+        List<CacheObject> evicted = engine.put(newObj);
 
-        // If the cache has room...
-        int i;
-        for (i = objs.length - 1; i >= 0; i--) {
-            if (objs[i] == null) {
-                // Somewhere in a partially filled cache, keep looking
-                // for the last taken place...
-                if (i == 0) {
-                    // there is nothing in the cache.
-                    objs[0] = newObj;
-                    if (logger.isLoggable(Level.FINE)) {
-                        logger.fine("was empty - added " + newObj.id);
-                    }
-
-                    return;
-                } else {
-                    continue;
-                }
-            } else if (i == objs.length - 1) {
-                // We're at the end, and there is no empty space -
-                // we'll need to look at the LRU clock.
-                break;
+        if (logger.isLoggable(Level.FINE)) {
+            if (evicted.isEmpty()) {
+                logger.fine("had room - added " + newObj.id);
             } else {
-                // We are at the index of the last taken spot, and the
-                // next place is available.
-                objs[i + 1] = newObj;
-                if (logger.isLoggable(Level.FINE)) {
-                    logger.fine("had room - added " + newObj.id + " to the "
-                            + i + " spot.");
+                for (CacheObject co : evicted) {
+                    logger.fine("Tossing " + co.id + " from cache to add " + newObj.id);
                 }
-                return;
             }
         }
 
-        // If we get here, we need to replace something in the cache.
+        recordEvictions(evicted);
+    }
 
-        int minClock = logicalClock + 1;
-        int LUIndex = -1;
+    /**
+     * Remove an object from the cache.
+     * 
+     * @return the CacheObject removed, null if it wasn't in the cache.
+     */
+    public CacheObject removeFromCache(Object key) {
+        return engine.remove(key);
+    }
 
-        for (i = objs.length - 1; i >= 0; i--) {
-            if (objs[i].older(minClock)) {
-                LUIndex = i;
-                minClock = objs[i].cachedTime;
-            }
-        }
+    /**
+     * Update the statistics for a load that started at the given time.
+     * Subclasses that call their own load methods should call this so the
+     * load times are reported.
+     * 
+     * @param startNanos System.nanoTime() when the load started.
+     * @param success whether the load produced an object.
+     */
+    protected void recordLoad(long startNanos, boolean success) {
+        statistics.recordLoad(System.nanoTime() - startNanos, success);
+    }
 
-        if (LUIndex != -1) {
-            if (logger.isLoggable(Level.FINE)) {
-                logger.fine("Tossing " + objs[LUIndex].id
-                        + " from cache[" + LUIndex + "] to add " + newObj.id);
-            }
-            objs[LUIndex] = newObj;
-            newObj.cachedTime = logicalClock++;
+    protected void recordEvictions(List<CacheObject> evicted) {
+        if (!evicted.isEmpty()) {
+            statistics.recordEvictions(evicted.size());
         }
     }
 
     /**
-     * Return a ListIterator of the cache objects.
+     * Configure the cache engine from properties. The prefix should already
+     * be scoped, i.e. end with a period.
+     */
+    public void setCacheEngineProperties(String prefix, Properties props) {
+        setCachePolicy(props.getProperty(prefix + CACHE_POLICY_PROPERTY, cachePolicy), PropUtils.intFromProperties(props, prefix
+                + CACHE_CONCURRENCY_PROPERTY, cacheConcurrency));
+        setMaxCacheWeight(PropUtils.longFromProperties(props, prefix + CACHE_MAX_BYTES_PROPERTY, getMaxCacheWeight()));
+    }
+
+    public Properties getCacheEngineProperties(String prefix, Properties props) {
+        props.put(prefix + CACHE_POLICY_PROPERTY, cachePolicy);
+        props.put(prefix + CACHE_CONCURRENCY_PROPERTY, Integer.toString(cacheConcurrency));
+        props.put(prefix + CACHE_MAX_BYTES_PROPERTY, Long.toString(Math.max(0, getMaxCacheWeight())));
+        return props;
+    }
+
+    public Properties getCacheEnginePropertyInfo(Properties list) {
+        I18n i18n = Environment.getI18n();
+        PropUtils.setI18NPropertyInfo(i18n, list, CacheHandler.class, CACHE_POLICY_PROPERTY, "Cache Policy", "Eviction policy for the cache (lru or tinylfu)", null);
+        PropUtils.setI18NPropertyInfo(i18n, list, CacheHandler.class, CACHE_MAX_BYTES_PROPERTY, "Cache Memory Limit", "Maximum bytes held in the cache (0 for no limit)", null);
+        PropUtils.setI18NPropertyInfo(i18n, list, CacheHandler.class, CACHE_CONCURRENCY_PROPERTY, "Cache Concurrency", "Number of independently locked cache sections", null);
+        return list;
+    }
+
+    /**
+     * Return a ListIterator of a snapshot of the cache objects.
      */
     public java.util.ListIterator<CacheObject> listIterator() {
-        return java.util.Arrays.asList(objs).listIterator();
+        return engine.values().listIterator();
     }
-}
\ No newline at end of file
+}
@@ -29,6 +29,11 @@ public class CacheObject {
     public Object obj = null;
     public int cachedTime = 0;
     public Object id = null;
+    /**
+     * The weight of the object, used by the CacheEngine if the cache is
+     * limited by weight. Set by the CacheHandler when the object is added.
+     */
+    public long weight = 1;
 
     /**
      * New object, set the local clock to zero
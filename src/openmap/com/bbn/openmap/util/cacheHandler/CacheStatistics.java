@@ -0,0 +1,119 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.util.cacheHandler;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hit, miss, eviction and load time counters for a CacheHandler. The counters
+ * can be updated from multiple threads.
+ *
+ * @author dietrick
+ */
+public class CacheStatistics {
+
+    protected final AtomicLong hits = new AtomicLong();
+    protected final AtomicLong misses = new AtomicLong();
+    protected final AtomicLong evictions = new AtomicLong();
+    protected final AtomicLong loads = new AtomicLong();
+    protected final AtomicLong failedLoads = new AtomicLong();
+    protected final AtomicLong totalLoadTime = new AtomicLong();
+
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    public void recordEvictions(int count) {
+        evictions.addAndGet(count);
+    }
+
+    /**
+     * @param nanos how long the load took.
+     * @param success whether the load produced an object.
+     */
+    public void recordLoad(long nanos, boolean success) {
+        if (success) {
+            loads.incrementAndGet();
+        } else {
+            failedLoads.incrementAndGet();
+        }
+        totalLoadTime.addAndGet(nanos);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getLoadCount() {
+        return loads.get();
+    }
+
+    public long getFailedLoadCount() {
+        return failedLoads.get();
+    }
+
+    /**
+     * @return total time spent loading objects, in nanoseconds.
+     */
+    public long getTotalLoadTime() {
+        return totalLoadTime.get();
+    }
+
+    /**
+     * @return the fraction of requests that were found in the cache, 1 if
+     *         there haven't been any requests.
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 1.0 : (double) h / total;
+    }
+
+    /**
+     * @return the average time to load an object, in milliseconds.
+     */
+    public double getAverageLoadTime() {
+        long count = loads.get() + failedLoads.get();
+        return count == 0 ? 0 : totalLoadTime.get() / 1000000.0 / count;
+    }
+
+    public void reset() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        loads.set(0);
+        failedLoads.set(0);
+        totalLoadTime.set(0);
+    }
+
+    public String toString() {
+        return "CacheStatistics[hits=" + hits.get() + ", misses=" + misses.get() + ", hitRate="
+                + getHitRate() + ", evictions=" + evictions.get() + ", loads=" + loads.get()
+                + ", failedLoads=" + failedLoads.get() + ", avgLoadTime=" + getAverageLoadTime()
+                + "ms]";
+    }
+}
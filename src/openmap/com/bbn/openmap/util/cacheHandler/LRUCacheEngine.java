@@ -0,0 +1,130 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.util.cacheHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A least-recently-used CacheEngine. The objects are kept in an access-ordered
+ * LinkedHashMap, so lookups, insertions and evictions are all constant time.
+ * This is the default engine for the CacheHandler.
+ *
+ * @author dietrick
+ */
+public class LRUCacheEngine implements CacheEngine {
+
+    protected final LinkedHashMap<Object, CacheObject> map;
+    protected int maxSize;
+    protected long maxWeight;
+    protected long weightedSize;
+
+    public LRUCacheEngine(int maxSize) {
+        this(maxSize, 0);
+    }
+
+    public LRUCacheEngine(int maxSize, long maxWeight) {
+        this.maxSize = Math.max(1, maxSize);
+        this.maxWeight = maxWeight;
+        map = new LinkedHashMap<Object, CacheObject>(16, .75f, true);
+    }
+
+    public synchronized CacheObject get(Object key) {
+        return map.get(key);
+    }
+
+    public synchronized List<CacheObject> put(CacheObject obj) {
+        CacheObject old = map.put(obj.id, obj);
+        if (old != null) {
+            weightedSize -= old.weight;
+        }
+        weightedSize += obj.weight;
+        return evict();
+    }
+
+    public synchronized CacheObject remove(Object key) {
+        CacheObject old = map.remove(key);
+        if (old != null) {
+            weightedSize -= old.weight;
+        }
+        return old;
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        weightedSize = 0;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long getWeightedSize() {
+        return weightedSize;
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized List<CacheObject> setMaxSize(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+        return evict();
+    }
+
+    public synchronized long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized List<CacheObject> setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        return evict();
+    }
+
+    public synchronized List<CacheObject> values() {
+        return new ArrayList<CacheObject>(map.values());
+    }
+
+    /**
+     * Toss the eldest objects until the engine is within its limits. The most
+     * recently used object is always kept, even if it's heavier than the
+     * weight limit by itself. Needs to be called while holding the lock.
+     */
+    protected List<CacheObject> evict() {
+        List<CacheObject> evicted = null;
+        Iterator<CacheObject> it = map.values().iterator();
+        while (map.size() > 1 && isOverCapacity()) {
+            CacheObject eldest = it.next();
+            it.remove();
+            weightedSize -= eldest.weight;
+            if (evicted == null) {
+                evicted = new ArrayList<CacheObject>();
+            }
+            evicted.add(eldest);
+        }
+
+        if (evicted == null) {
+            return Collections.emptyList();
+        }
+        return evicted;
+    }
+
+    protected boolean isOverCapacity() {
+        return map.size() > maxSize || (maxWeight > 0 && weightedSize > maxWeight);
+    }
+}
@@ -0,0 +1,136 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.util.cacheHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A CacheEngine that splits its keys across several independent engines, each
+ * with its own lock and a share of the capacity. Threads working on keys that
+ * hash to different stripes don't contend with each other. Eviction is
+ * per-stripe, so this is best used for larger caches where each stripe holds
+ * a reasonable number of objects.
+ *
+ * @author dietrick
+ */
+public class StripedCacheEngine implements CacheEngine {
+
+    protected final CacheEngine[] stripes;
+    protected int maxSize;
+    protected long maxWeight;
+
+    /**
+     * @param stripes the engines to spread the keys across, which should be
+     *        empty and of the same type.
+     * @param maxSize the total maximum number of objects.
+     * @param maxWeight the total maximum weight, zero or less for no limit.
+     */
+    public StripedCacheEngine(CacheEngine[] stripes, int maxSize, long maxWeight) {
+        this.stripes = stripes;
+        setMaxSize(maxSize);
+        setMaxWeight(maxWeight);
+    }
+
+    protected CacheEngine stripeFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[(h & 0x7fffffff) % stripes.length];
+    }
+
+    public CacheObject get(Object key) {
+        return stripeFor(key).get(key);
+    }
+
+    public List<CacheObject> put(CacheObject obj) {
+        return stripeFor(obj.id).put(obj);
+    }
+
+    public CacheObject remove(Object key) {
+        return stripeFor(key).remove(key);
+    }
+
+    public void clear() {
+        for (CacheEngine stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (CacheEngine stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public long getWeightedSize() {
+        long size = 0;
+        for (CacheEngine stripe : stripes) {
+            size += stripe.getWeightedSize();
+        }
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public List<CacheObject> setMaxSize(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+        int n = stripes.length;
+        List<CacheObject> evicted = null;
+        for (int i = 0; i < n; i++) {
+            int stripeSize = this.maxSize / n + (i < this.maxSize % n ? 1 : 0);
+            evicted = collect(evicted, stripes[i].setMaxSize(stripeSize));
+        }
+        return evicted == null ? Collections.<CacheObject> emptyList() : evicted;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public List<CacheObject> setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        int n = stripes.length;
+        List<CacheObject> evicted = null;
+        for (int i = 0; i < n; i++) {
+            long stripeWeight = maxWeight > 0 ? Math.max(1, maxWeight / n
+                    + (i < maxWeight % n ? 1 : 0)) : 0;
+            evicted = collect(evicted, stripes[i].setMaxWeight(stripeWeight));
+        }
+        return evicted == null ? Collections.<CacheObject> emptyList() : evicted;
+    }
+
+    public List<CacheObject> values() {
+        List<CacheObject> ret = new ArrayList<CacheObject>();
+        for (CacheEngine stripe : stripes) {
+            ret.addAll(stripe.values());
+        }
+        return ret;
+    }
+
+    private List<CacheObject> collect(List<CacheObject> evicted, List<CacheObject> more) {
+        if (!more.isEmpty()) {
+            if (evicted == null) {
+                evicted = new ArrayList<CacheObject>();
+            }
+            evicted.addAll(more);
+        }
+        return evicted;
+    }
+}
@@ -0,0 +1,353 @@
+// **********************************************************************
+//
+// <copyright>
+//
+//  BBN Technologies
+//  10 Moulton Street
+//  Cambridge, MA 02138
+//  (617) 873-8000
+//
+//  Copyright (C) BBNT Solutions LLC. All rights reserved.
+//
+// </copyright>
+// **********************************************************************
+
+package com.bbn.openmap.util.cacheHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A W-TinyLFU CacheEngine. New objects go into a small LRU admission window,
+ * and objects falling out of the window have to compete with the main cache's
+ * least valuable object to stay, based on an estimate of how often each key
+ * has been asked for recently. The main cache is a segmented LRU, with a
+ * probation segment for objects that have only been used once since being
+ * admitted and a protected segment for objects that have been used again.
+ * <P>
+ * This policy holds up much better than plain LRU when the access pattern is a
+ * mix of frequently used objects and scans through objects that are only
+ * needed once, like tiles or frames visited during a long pan.
+ *
+ * @author dietrick
+ */
+public class TinyLFUCacheEngine implements CacheEngine {
+
+    /**
+     * The percentage of the capacity given to the admission window.
+     */
+    public static int WINDOW_PERCENT = 1;
+    /**
+     * The percentage of the main cache capacity given to the protected
+     * segment.
+     */
+    public static int PROTECTED_PERCENT = 80;
+
+    protected final LinkedHashMap<Object, CacheObject> window;
+    protected final LinkedHashMap<Object, CacheObject> probation;
+    protected final LinkedHashMap<Object, CacheObject> protectedSegment;
+    protected long windowWeight;
+    protected long probationWeight;
+    protected long protectedWeight;
+    protected int maxSize;
+    protected long maxWeight;
+    protected FrequencySketch sketch;
+
+    public TinyLFUCacheEngine(int maxSize) {
+        this(maxSize, 0);
+    }
+
+    public TinyLFUCacheEngine(int maxSize, long maxWeight) {
+        window = new LinkedHashMap<Object, CacheObject>(16, .75f, true);
+        probation = new LinkedHashMap<Object, CacheObject>(16, .75f, true);
+        protectedSegment = new LinkedHashMap<Object, CacheObject>(16, .75f, true);
+        this.maxSize = Math.max(1, maxSize);
+        this.maxWeight = maxWeight;
+        sketch = new FrequencySketch(this.maxSize);
+    }
+
+    public synchronized CacheObject get(Object key) {
+        CacheObject co = window.get(key);
+        if (co == null) {
+            co = protectedSegment.get(key);
+        }
+
+        if (co == null) {
+            co = probation.remove(key);
+            if (co != null) {
+                // Used again, promote it
+                probationWeight -= co.weight;
+                protectedSegment.put(key, co);
+                protectedWeight += co.weight;
+                demoteProtected();
+            }
+        }
+
+        if (co != null) {
+            sketch.increment(key);
+        }
+        return co;
+    }
+
+    public synchronized List<CacheObject> put(CacheObject obj) {
+        Object key = obj.id;
+        sketch.increment(key);
+
+        CacheObject old = probation.remove(key);
+        if (old != null) {
+            probationWeight -= old.weight;
+            probation.put(key, obj);
+            probationWeight += obj.weight;
+            return evict(null);
+        }
+
+        old = protectedSegment.remove(key);
+        if (old != null) {
+            protectedWeight -= old.weight;
+            protectedSegment.put(key, obj);
+            protectedWeight += obj.weight;
+            demoteProtected();
+            return evict(null);
+        }
+
+        old = window.remove(key);
+        if (old != null) {
+            windowWeight -= old.weight;
+        }
+        window.put(key, obj);
+        windowWeight += obj.weight;
+
+        // Objects pushed out of the window become candidates for the main
+        // cache.
+        LinkedList<CacheObject> candidates = null;
+        long windowMaxWeight = getWindowMaxWeight();
+        Iterator<CacheObject> it = window.values().iterator();
+        while (window.size() > 1
+                && (window.size() > getWindowMaxSize() || (windowMaxWeight > 0 && windowWeight > windowMaxWeight))) {
+            CacheObject eldest = it.next();
+            it.remove();
+            windowWeight -= eldest.weight;
+            probation.put(eldest.id, eldest);
+            probationWeight += eldest.weight;
+            if (candidates == null) {
+                candidates = new LinkedList<CacheObject>();
+            }
+            candidates.add(eldest);
+        }
+
+        return evict(candidates);
+    }
+
+    public synchronized CacheObject remove(Object key) {
+        CacheObject old = window.remove(key);
+        if (old != null) {
+            windowWeight -= old.weight;
+            return old;
+        }
+        old = probation.remove(key);
+        if (old != null) {
+            probationWeight -= old.weight;
+            return old;
+        }
+        old = protectedSegment.remove(key);
+        if (old != null) {
+            protectedWeight -= old.weight;
+        }
+        return old;
+    }
+
+    public synchronized void clear() {
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+        windowWeight = 0;
+        probationWeight = 0;
+        protectedWeight = 0;
+        sketch = new FrequencySketch(maxSize);
+    }
+
+    public synchronized int size() {
+        return window.size() + probation.size() + protectedSegment.size();
+    }
+
+    public synchronized long getWeightedSize() {
+        return windowWeight + probationWeight + protectedWeight;
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized List<CacheObject> setMaxSize(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+        sketch = new FrequencySketch(this.maxSize);
+        demoteProtected();
+        return evict(null);
+    }
+
+    public synchronized long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized List<CacheObject> setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        demoteProtected();
+        return evict(null);
+    }
+
+    public synchronized List<CacheObject> values() {
+        List<CacheObject> ret = new ArrayList<CacheObject>(size());
+        ret.addAll(window.values());
+        ret.addAll(probation.values());
+        ret.addAll(protectedSegment.values());
+        return ret;
+    }
+
+    protected int getWindowMaxSize() {
+        return Math.max(1, maxSize * WINDOW_PERCENT / 100);
+    }
+
+    protected long getWindowMaxWeight() {
+        return maxWeight > 0 ? Math.max(1, maxWeight * WINDOW_PERCENT / 100) : 0;
+    }
+
+    protected int getProtectedMaxSize() {
+        return (maxSize - getWindowMaxSize()) * PROTECTED_PERCENT / 100;
+    }
+
+    protected long getProtectedMaxWeight() {
+        return maxWeight > 0 ? (maxWeight - getWindowMaxWeight()) * PROTECTED_PERCENT / 100 : 0;
+    }
+
+    /**
+     * Move the eldest protected objects back to probation if the protected
+     * segment has grown past its share of the cache.
+     */
+    protected void demoteProtected() {
+        int protectedMaxSize = getProtectedMaxSize();
+        long protectedMaxWeight = getProtectedMaxWeight();
+        Iterator<CacheObject> it = protectedSegment.values().iterator();
+        while (!protectedSegment.isEmpty()
+                && (protectedSegment.size() > protectedMaxSize || (protectedMaxWeight > 0 && protectedWeight > protectedMaxWeight))) {
+            CacheObject eldest = it.next();
+            it.remove();
+            protectedWeight -= eldest.weight;
+            probation.put(eldest.id, eldest);
+            probationWeight += eldest.weight;
+        }
+    }
+
+    /**
+     * Toss objects until the engine is within its limits. Each candidate that
+     * came out of the admission window is compared against the eldest
+     * probation object, and the one that has been asked for less often is
+     * evicted.
+     *
+     * @param candidates objects just moved from the window into probation,
+     *        eldest first, may be null.
+     */
+    protected List<CacheObject> evict(LinkedList<CacheObject> candidates) {
+        List<CacheObject> evicted = null;
+
+        while (size() > 1 && isOverCapacity()) {
+            CacheObject victim;
+            if (!probation.isEmpty()) {
+                victim = probation.values().iterator().next();
+
+                if (candidates != null && !candidates.isEmpty()) {
+                    CacheObject candidate = candidates.removeFirst();
+                    if (candidate != victim
+                            && sketch.frequency(candidate.id) <= sketch.frequency(victim.id)) {
+                        victim = candidate;
+                    }
+                }
+                probation.remove(victim.id);
+                probationWeight -= victim.weight;
+            } else if (!protectedSegment.isEmpty()) {
+                victim = protectedSegment.values().iterator().next();
+                protectedSegment.remove(victim.id);
+                protectedWeight -= victim.weight;
+            } else {
+                victim = window.values().iterator().next();
+                window.remove(victim.id);
+                windowWeight -= victim.weight;
+            }
+
+            if (evicted == null) {
+                evicted = new ArrayList<CacheObject>();
+            }
+            evicted.add(victim);
+        }
+
+        if (evicted == null) {
+            return Collections.emptyList();
+        }
+        return evicted;
+    }
+
+    protected boolean isOverCapacity() {
+        return size() > maxSize || (maxWeight > 0 && getWeightedSize() > maxWeight);
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters, used to estimate how often a key
+     * has been requested. The counters are halved periodically so the
+     * estimates favor recent history.
+     */
+    protected static class FrequencySketch {
+
+        static final int DEPTH = 4;
+        static final int MAX_COUNT = 15;
+        static final int[] SEEDS = new int[] { 0x97cb3127, 0xb1a5e3a5, 0x2fb1fc89,
+                0x5bd1e995 };
+
+        final byte[] table;
+        final int width;
+        final int sampleSize;
+        int additions;
+
+        FrequencySketch(int maxSize) {
+            int w = 16;
+            while (w < maxSize && w < (1 << 24)) {
+                w <<= 1;
+            }
+            width = w;
+            table = new byte[width * DEPTH];
+            sampleSize = 10 * width;
+        }
+
+        int index(Object key, int row) {
+            int h = key.hashCode() * SEEDS[row];
+            h ^= (h >>> 16);
+            return row * width + (h & (width - 1));
+        }
+
+        int frequency(Object key) {
+            int freq = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                freq = Math.min(freq, table[index(key, i)]);
+            }
+            return freq;
+        }
+
+        void increment(Object key) {
+            for (int i = 0; i < DEPTH; i++) {
+                int index = index(key, i);
+                if (table[index] < MAX_COUNT) {
+                    table[index]++;
+                }
+            }
+
+            if (++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+    }
+}
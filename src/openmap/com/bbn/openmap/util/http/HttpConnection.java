@@ -35,9 +35,10 @@ import com.bbn.openmap.util.Debug;
 
 /**
  * HttpConnection handles the communication with an HTTP client in its
- * own thread. An instance of this class is created by the
- * <code>HttpServer</code> each time a connection is made. The
- * instance exists only long enough to fulfill the request, then dies.
+ * own thread. The instance exists only long enough to fulfill the
+ * request, then dies. The <code>HttpServer</code> doesn't create these
+ * anymore, it reads requests itself, but the static methods here are
+ * still the way listeners write their responses.
  * 
  * @author Tom Mitchell
  * @version 1.1, 06/17/97
@@ -263,6 +264,34 @@ public class HttpConnection extends Thread {
 
         // Figure out what type of file to figure Content-type
         // string contents
+        String contentType = getContentType(location);
+
+        HttpRequestEvent event = server.fireHttpRequestEvent(location, out);
+
+        // Check to see if the Writer in the Event was used. If it
+        // was, then the listeners contributed concatenated text, and
+        // the result needs to be retrieved and sent back.
+        if (event.isWriterUsed()) {
+            Writer writer = event.getWriter();
+            String result = writer.toString();
+            writeHttpResponse(out, contentType, result);
+        }
+
+        // else - assume that the binary response listeners took care
+        // of writing things back on their own,
+
+        out.flush();
+        close();
+    }
+
+    /**
+     * Figure out the content type of a text response from the
+     * extension of the requested location.
+     * 
+     * @param location the target of a "GET" command.
+     * @return the content type, or null for a query.
+     */
+    public static String getContentType(String location) {
         String contentType;
         if (location.endsWith(".gif") || location.endsWith(".GIF")) {
 
@@ -289,23 +318,7 @@ public class HttpConnection extends Thread {
         } else {
             contentType = CONTENT_PLAIN;
         }
-
-        HttpRequestEvent event = server.fireHttpRequestEvent(location, out);
-
-        // Check to see if the Writer in the Event was used. If it
-        // was, then the listeners contributed concatenated text, and
-        // the result needs to be retrieved and sent back.
-        if (event.isWriterUsed()) {
-            Writer writer = event.getWriter();
-            String result = writer.toString();
-            writeHttpResponse(out, contentType, result);
-        }
-
-        // else - assume that the binary response listeners took care
-        // of writing things back on their own,
-
-        out.flush();
-        close();
+        return contentType;
     }
 
     /**
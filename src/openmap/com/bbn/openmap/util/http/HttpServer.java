@@ -22,28 +22,69 @@
 
 package com.bbn.openmap.util.http;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Queue;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * A simple HTTP Server implementing HTTP/0.9 protocols.
- * 
+ * A simple HTTP Server, handling GET and POST requests.
+ *
  * Cobbled together from a server originally written by David Flanagan
  * for the book <bold>Java in a Nutshell </bold>, Copyright(c) 1996
  * O'Reilly & Associates.
- * 
+ *
  * Modified to use JDK 1.1 Readers, and Writers. Further modified to
  * use the JDK 1.1 Event model.
- * 
+ * <p>
+ *
+ * The server thread uses a non-blocking Selector to accept connections
+ * and read requests, so idle and slow clients don't tie up a thread.
+ * Complete requests are handed to a fixed pool of threads that fire
+ * the HttpRequestEvents. The listeners write their response into a
+ * buffer, which the server thread then sends back to the client. Only
+ * so many requests are allowed to wait for a thread. Past that, clients
+ * get a 503 response, and when there are too many open connections the
+ * server stops accepting new ones until some close, leaving the rest
+ * waiting in the operating system's backlog.
+ * <p>
+ *
+ * Connections are kept open for more requests when the client asks for
+ * that and the response has a Content-Length, which it does when it's
+ * written with the HttpConnection.writeHttpResponse methods. Timing for
+ * each request is logged at the FINE level, and running totals are
+ * available from getStatistics().
+ *
  * @author Tom Mitchell
  * @version 1.0, 06/13/97
  */
 public class HttpServer extends Thread {
 
+    public static Logger logger = Logger.getLogger("com.bbn.openmap.util.http.HttpServer");
+
     /**
      * The default port. A port of 0 (zero) causes the system to
      * allocate any unused port. With any other number the system will
@@ -52,15 +93,49 @@ public class HttpServer extends Thread {
      */
     public final static int DEFAULT_PORT = 0;
 
+    /** The default number of requests waiting for a handler thread. */
+    public final static int DEFAULT_MAX_QUEUED_REQUESTS = 100;
+    /** The default number of open client connections. */
+    public final static int DEFAULT_MAX_CONNECTIONS = 1000;
+    /**
+     * The default number of milliseconds a connection can sit idle
+     * before it's closed.
+     */
+    public final static int DEFAULT_KEEP_ALIVE_TIMEOUT = 15000;
+    /** The largest request header accepted, in bytes. */
+    public final static int MAX_HEADER_SIZE = 65536;
+
     protected int port;
     protected ServerSocket listen_socket;
     protected Vector listeners;
 
+    protected ServerSocketChannel serverChannel;
+    protected Selector selector;
+    protected ThreadPoolExecutor executor;
+    /** Connections with a response ready to go. */
+    protected final Queue<ChannelConnection> responses = new ConcurrentLinkedQueue<ChannelConnection>();
+    protected volatile boolean running = true;
+
+    protected int maxThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    protected int maxQueuedRequests = DEFAULT_MAX_QUEUED_REQUESTS;
+    protected int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    protected int keepAliveTimeout = DEFAULT_KEEP_ALIVE_TIMEOUT;
+    protected int numConnections = 0;
+    /** Requests handed to the pool, running or waiting. */
+    protected final AtomicInteger pendingRequests = new AtomicInteger();
+
+    protected final AtomicLong requestCount = new AtomicLong();
+    protected final AtomicLong rejectedCount = new AtomicLong();
+    protected final AtomicLong queuedNanos = new AtomicLong();
+    protected final AtomicLong handledNanos = new AtomicLong();
+    protected final AtomicLong maxHandledNanos = new AtomicLong();
+    protected final AtomicLong bytesSent = new AtomicLong();
+
     /**
      * Creates an Http Server on the indicated port, and then starts a
      * thread that listens to that port. The thread will not be a
      * daemon thread.
-     * 
+     *
      * @param port the port to open
      * @see java.net.ServerSocket
      */
@@ -72,7 +147,7 @@ public class HttpServer extends Thread {
      * Creates an Http Server on the indicated port, and then starts a
      * thread that listens to that port. The thread will be a daemon
      * thread of asDaemon is true.
-     * 
+     *
      * @param port the port to open
      * @param asDaemon whether to make thread a daemon
      * @see java.net.ServerSocket
@@ -80,14 +155,19 @@ public class HttpServer extends Thread {
     public HttpServer(int port, boolean asDaemon) throws IOException {
         this.port = port;
         listeners = new Vector();
-        listen_socket = new ServerSocket(port);
+        serverChannel = ServerSocketChannel.open();
+        listen_socket = serverChannel.socket();
+        listen_socket.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        selector = Selector.open();
         this.setDaemon(asDaemon);
+        this.setName("HttpServer");
     }
 
     /**
      * Creates an Http Server on any free port, and then starts a
      * thread that listens to that port.
-     * 
+     *
      * @see java.net.ServerSocket
      */
     public HttpServer() throws IOException {
@@ -95,30 +175,160 @@ public class HttpServer extends Thread {
     }
 
     /**
-     * The body of the server thread. Loop forever, listening for and
-     * accepting connections from clients. For each connection, create
-     * a HttpConnection object to handle communication through the new
-     * Socket.
-     * 
-     * @see HttpConnection
-     * @see java.net.Socket
+     * The body of the server thread. Loop until closed, accepting
+     * connections from clients and reading their requests. Complete
+     * requests are passed to the handler threads, and their responses
+     * are written back from here.
+     *
+     * @see ChannelConnection
      */
     public void run() {
+        executor = createExecutor();
         try {
-            while (true) {
-                Socket client_socket = listen_socket.accept();
-                HttpConnection httpConnection = new HttpConnection(client_socket, this);
-                httpConnection.start();
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            long lastIdleCheck = System.currentTimeMillis();
+
+            while (running) {
+                selector.select(1000);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            ChannelConnection conn = (ChannelConnection) key.attachment();
+                            if (key.isReadable()) {
+                                conn.read();
+                            } else if (key.isWritable()) {
+                                conn.write();
+                            }
+                        }
+                    } catch (CancelledKeyException cke) {
+                        // Closed while we were looking at it.
+                    }
+                }
+
+                ChannelConnection conn;
+                while ((conn = responses.poll()) != null) {
+                    conn.startWrite();
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastIdleCheck >= 1000) {
+                    closeIdleConnections(now);
+                    lastIdleCheck = now;
+                }
             }
+        } catch (ClosedSelectorException cse) {
+            // close() was called.
         } catch (IOException e) {
-            System.err.println("Exception while listening for connections");
-            e.printStackTrace();
+            logger.log(Level.WARNING, "Exception while listening for connections", e);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Create the pool of threads that handle requests.
+     */
+    protected ThreadPoolExecutor createExecutor() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor tpe = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "HttpServer-" + threadCount.incrementAndGet());
+                t.setDaemon(isDaemon());
+                return t;
+            }
+        });
+        tpe.allowCoreThreadTimeOut(true);
+        return tpe;
+    }
+
+    protected void accept() throws IOException {
+        SocketChannel channel;
+        while (numConnections < maxConnections && (channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            ChannelConnection conn = new ChannelConnection(channel);
+            conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+            numConnections++;
+        }
+
+        if (numConnections >= maxConnections) {
+            // Leave the rest in the backlog until connections close.
+            serverChannel.keyFor(selector).interestOps(0);
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("at " + numConnections + " connections, not accepting more for now");
+            }
+        }
+    }
+
+    /**
+     * Close connections that have been waiting for a request for longer
+     * than the keep alive timeout.
+     */
+    protected void closeIdleConnections(long now) {
+        for (SelectionKey key : selector.keys()) {
+            Object att = key.attachment();
+            if (att instanceof ChannelConnection) {
+                ChannelConnection conn = (ChannelConnection) att;
+                if (conn.request == null && now - conn.lastActivity > keepAliveTimeout) {
+                    conn.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by a connection when it closes.
+     */
+    protected void connectionClosed() {
+        numConnections--;
+        SelectionKey acceptKey = serverChannel.keyFor(selector);
+        if (acceptKey != null && acceptKey.isValid() && acceptKey.interestOps() == 0
+                && numConnections < maxConnections) {
+            acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    /**
+     * Stop the server, closing the server socket and all of the
+     * connections. Requests being handled are allowed to finish, but
+     * their responses are dropped.
+     */
+    public void close() {
+        running = false;
+        try {
+            if (selector.isOpen()) {
+                for (SelectionKey key : selector.keys()) {
+                    try {
+                        key.channel().close();
+                    } catch (IOException ioe) {
+                    }
+                }
+                selector.close();
+            }
+            serverChannel.close();
+        } catch (IOException ioe) {
+            logger.fine("problem closing server: " + ioe.getMessage());
+        } catch (ClosedSelectorException cse) {
+        }
+
+        if (executor != null) {
+            executor.shutdown();
         }
     }
 
     /**
      * Gets the port associate with this server.
-     * 
+     *
      * @return the server's port
      */
     public int getPort() {
@@ -128,7 +338,7 @@ public class HttpServer extends Thread {
     /**
      * Creates a HttpRequestEvent and sends it to all registered
      * listeners.
-     * 
+     *
      * @param request the parsed http request
      * @param output OutputStream associated with the request's client
      *        connection.
@@ -164,7 +374,10 @@ public class HttpServer extends Thread {
      * calculated. You can add multiple Listeners that use the Writer
      * inside the HttpRequestEvent to concatenate a complete text
      * response.
-     * 
+     * <p>
+     * Listeners are called from more than one thread at a time, and
+     * need to be able to handle that.
+     *
      * @param l the listener
      * @see HttpRequestListener
      */
@@ -174,7 +387,7 @@ public class HttpServer extends Thread {
 
     /**
      * Removes an http request listener.
-     * 
+     *
      * @param l a listener
      * @see HttpRequestListener
      */
@@ -182,6 +395,502 @@ public class HttpServer extends Thread {
         listeners.removeElement(l);
     }
 
+    /**
+     * Handle a request on one of the pool threads, firing the
+     * HttpRequestEvent and collecting the response.
+     *
+     * @param conn the connection the request came in on.
+     */
+    protected void handleRequest(ChannelConnection conn) {
+        Request request = conn.request;
+        request.startTime = System.nanoTime();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            String contentType = null;
+            if (!request.isPost) {
+                contentType = HttpConnection.getContentType(request.target);
+            }
+
+            HttpRequestEvent event = fireHttpRequestEvent(request.target, out);
+
+            // Check to see if the Writer in the Event was used. If it
+            // was, then the listeners contributed concatenated text,
+            // and the result needs to be retrieved and sent back.
+            if (event.isWriterUsed()) {
+                Writer writer = event.getWriter();
+                String result = writer.toString();
+                HttpConnection.writeHttpResponse(out, contentType, result);
+            }
+
+            // else - assume that the binary response listeners took care
+            // of writing things back on their own,
+
+        } catch (Throwable t) {
+            logger.log(Level.WARNING, "problem handling request " + request.target, t);
+            request.keepAlive = false;
+            if (out.size() == 0) {
+                byte[] error = errorResponse(500, "Internal Server Error");
+                out.write(error, 0, error.length);
+            }
+        }
+
+        request.doneTime = System.nanoTime();
+        pendingRequests.decrementAndGet();
+        conn.setResponse(out.toByteArray());
+        responses.add(conn);
+        selector.wakeup();
+    }
+
+    /**
+     * Record the timing for a finished request.
+     */
+    protected void requestFinished(Request request, int responseLength) {
+        long queued = request.startTime - request.receivedTime;
+        long handled = request.doneTime - request.startTime;
+
+        requestCount.incrementAndGet();
+        queuedNanos.addAndGet(queued);
+        handledNanos.addAndGet(handled);
+        bytesSent.addAndGet(responseLength);
+        long max;
+        while (handled > (max = maxHandledNanos.get())) {
+            if (maxHandledNanos.compareAndSet(max, handled)) {
+                break;
+            }
+        }
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine((request.isPost ? "POST " : "GET ") + request.target + ": queued "
+                    + (queued / 1000000) + " ms, handled " + (handled / 1000000) + " ms, sent "
+                    + (System.nanoTime() - request.doneTime) / 1000000 + " ms, "
+                    + responseLength + " bytes");
+        }
+    }
+
+    /**
+     * Create a complete plain text response for an error.
+     */
+    protected static byte[] errorResponse(int status, String message) {
+        String response = "HTTP/1.0 " + status + " " + message + "\r\nContent-type: "
+                + HttpConnection.CONTENT_PLAIN + "\r\nContent-Length: " + message.length()
+                + "\r\nConnection: close\r\n\r\n" + message;
+        try {
+            return response.getBytes("ISO-8859-1");
+        } catch (java.io.UnsupportedEncodingException uee) {
+            return response.getBytes();
+        }
+    }
+
+    /**
+     * @return the number of requests handled.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the number of requests turned away because too many were
+     *         waiting.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return a summary of the requests handled by the server and how
+     *         long they took.
+     */
+    public String getStatistics() {
+        long count = requestCount.get();
+        StringBuilder sb = new StringBuilder("HttpServer on port ").append(getPort()).append(": ");
+        sb.append(count).append(" requests, ").append(rejectedCount.get()).append(" rejected, ");
+        sb.append(numConnections).append(" connections, ");
+        sb.append(pendingRequests.get()).append(" pending, ");
+        if (count > 0) {
+            sb.append("average wait ").append(queuedNanos.get() / count / 1000000).append(" ms, ");
+            sb.append("average time ").append(handledNanos.get() / count / 1000000).append(" ms, ");
+            sb.append("max time ").append(maxHandledNanos.get() / 1000000).append(" ms, ");
+        }
+        sb.append(bytesSent.get()).append(" bytes sent");
+        return sb.toString();
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * Set the number of threads handling requests. Has to be called
+     * before the server is started.
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = Math.max(1, maxThreads);
+    }
+
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    /**
+     * Set the number of requests that can wait for a thread before
+     * clients get a 503 response. Has to be called before the server is
+     * started.
+     */
+    public void setMaxQueuedRequests(int maxQueuedRequests) {
+        this.maxQueuedRequests = maxQueuedRequests;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Set the number of connections that can be open at one time.
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = Math.max(1, maxConnections);
+    }
+
+    public int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    /**
+     * Set how long, in milliseconds, a connection can wait for a request
+     * before it's closed.
+     */
+    public void setKeepAliveTimeout(int keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    /**
+     * A parsed request.
+     */
+    protected static class Request {
+        /** The target of a GET, or the content of a POST. */
+        protected String target;
+        protected boolean isPost;
+        protected boolean keepAlive;
+        protected long receivedTime;
+        protected long startTime;
+        protected long doneTime;
+    }
+
+    /**
+     * The state of a client connection, only touched by the server
+     * thread except for the response handed over by the handler thread.
+     */
+    protected class ChannelConnection implements Runnable {
+        protected final SocketChannel channel;
+        protected SelectionKey key;
+        /** Bytes read, not yet part of a handled request. */
+        protected byte[] input = new byte[1024];
+        protected int inputLength = 0;
+        /** The request being handled, null while waiting for one. */
+        protected Request request;
+        protected ByteBuffer response;
+        protected long lastActivity = System.currentTimeMillis();
+        protected boolean closed = false;
+
+        public ChannelConnection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        protected void read() {
+            ByteBuffer buffer = ByteBuffer.wrap(input, inputLength, input.length - inputLength);
+            int count;
+            try {
+                count = channel.read(buffer);
+            } catch (IOException ioe) {
+                close();
+                return;
+            }
+
+            if (count < 0) {
+                close();
+                return;
+            }
+
+            inputLength += count;
+            lastActivity = System.currentTimeMillis();
+
+            if (inputLength == input.length) {
+                if (input.length >= MAX_HEADER_SIZE && findHeaderEnd() < 0) {
+                    sendError(431, "Request Header Fields Too Large");
+                    return;
+                }
+                byte[] bigger = new byte[input.length * 2];
+                System.arraycopy(input, 0, bigger, 0, inputLength);
+                input = bigger;
+            }
+
+            parseRequest();
+        }
+
+        /**
+         * Look for a complete request in the input, and hand it to the
+         * pool if there is one.
+         */
+        protected void parseRequest() {
+            int headerEnd = findHeaderEnd();
+            int lineEnd = indexOf((byte) '\n', 0, inputLength);
+            if (lineEnd < 0) {
+                return;
+            }
+
+            String requestLine = new String(input, 0, lineEnd).trim();
+            boolean simpleRequest = requestLine.indexOf(" HTTP/") < 0;
+
+            if (headerEnd < 0 && !simpleRequest) {
+                return;
+            }
+
+            if (simpleRequest) {
+                headerEnd = lineEnd + 1;
+            }
+
+            Request req = new Request();
+            int contentLength = 0;
+            boolean http11 = requestLine.endsWith("HTTP/1.1");
+            String connection = null;
+
+            String headers = new String(input, lineEnd + 1, Math.max(0, headerEnd - lineEnd - 1));
+            for (String header : headers.split("\r?\n")) {
+                int colon = header.indexOf(':');
+                if (colon > 0) {
+                    String name = header.substring(0, colon).trim();
+                    String value = header.substring(colon + 1).trim();
+                    if (name.equalsIgnoreCase("Content-Length")) {
+                        try {
+                            contentLength = Integer.parseInt(value);
+                        } catch (NumberFormatException nfe) {
+                            sendError(400, "Bad Request");
+                            return;
+                        }
+                    } else if (name.equalsIgnoreCase("Connection")) {
+                        connection = value;
+                    }
+                }
+            }
+
+            req.keepAlive = !simpleRequest
+                    && (http11 ? !"close".equalsIgnoreCase(connection) : "keep-alive".equalsIgnoreCase(connection));
+
+            int requestEnd = headerEnd;
+            if (requestLine.startsWith("GET")) {
+                // Command looks like: "GET /thisURL HTTP/1.0"
+                String location = requestLine.substring(3).trim();
+                int locationEnd = location.indexOf(' ');
+                if (locationEnd >= 0) {
+                    location = location.substring(0, locationEnd);
+                }
+                req.target = location;
+            } else if (requestLine.startsWith("POST")) {
+                if (contentLength < 0) {
+                    sendError(400, "Bad Request");
+                    return;
+                }
+                requestEnd = headerEnd + contentLength;
+                if (requestEnd > inputLength) {
+                    if (requestEnd > input.length) {
+                        byte[] bigger = new byte[requestEnd];
+                        System.arraycopy(input, 0, bigger, 0, inputLength);
+                        input = bigger;
+                    }
+                    // Wait for the rest of the content.
+                    return;
+                }
+                req.isPost = true;
+                req.target = new String(input, headerEnd, contentLength).trim();
+            } else {
+                sendError(501, "Not Implemented");
+                return;
+            }
+
+            // Keep anything after the request, the client might have
+            // sent the next one already.
+            System.arraycopy(input, requestEnd, input, 0, inputLength - requestEnd);
+            inputLength -= requestEnd;
+
+            req.receivedTime = System.nanoTime();
+            request = req;
+            key.interestOps(0);
+
+            // Counted here instead of bounding the executor's queue, so
+            // requests aren't turned away just because the pool threads
+            // haven't gotten around to picking up the last ones yet.
+            if (pendingRequests.incrementAndGet() > maxThreads + maxQueuedRequests) {
+                pendingRequests.decrementAndGet();
+                rejectedCount.incrementAndGet();
+                request = null;
+                sendError(503, "Service Unavailable");
+                return;
+            }
+
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException ree) {
+                // Shut down.
+                pendingRequests.decrementAndGet();
+                request = null;
+                close();
+            }
+        }
+
+        /**
+         * Handle the request, on a pool thread.
+         */
+        public void run() {
+            handleRequest(this);
+        }
+
+        /**
+         * Set the response for the current request, adding the
+         * keep-alive header if the connection is staying open. Called
+         * from the handler thread.
+         */
+        protected void setResponse(byte[] bytes) {
+            if (request.keepAlive) {
+                bytes = addKeepAliveHeader(bytes);
+                if (bytes == null) {
+                    request.keepAlive = false;
+                }
+            }
+            response = ByteBuffer.wrap(bytes);
+        }
+
+        /**
+         * @return the response with a Connection: keep-alive header, or
+         *         null if the response doesn't say how long it is, so
+         *         the connection has to be closed to end it.
+         */
+        protected byte[] addKeepAliveHeader(byte[] bytes) {
+            int end = -1;
+            boolean crlf = false;
+            for (int i = 0; i + 1 < bytes.length && i < MAX_HEADER_SIZE; i++) {
+                if (bytes[i] == '\n') {
+                    if (bytes[i + 1] == '\n') {
+                        end = i + 1;
+                        break;
+                    } else if (bytes[i + 1] == '\r' && i + 2 < bytes.length && bytes[i + 2] == '\n') {
+                        end = i + 1;
+                        crlf = true;
+                        break;
+                    }
+                }
+            }
+
+            if (end < 0) {
+                return null;
+            }
+
+            String headers = new String(bytes, 0, end).toLowerCase();
+            if (headers.indexOf("content-length:") < 0 || headers.indexOf("connection:") >= 0) {
+                return null;
+            }
+
+            byte[] header = (crlf ? "Connection: keep-alive\r\n" : "Connection: keep-alive\n").getBytes();
+            byte[] ret = new byte[bytes.length + header.length];
+            System.arraycopy(bytes, 0, ret, 0, end);
+            System.arraycopy(header, 0, ret, end, header.length);
+            System.arraycopy(bytes, end, ret, end + header.length, bytes.length - end);
+            return ret;
+        }
+
+        protected void sendError(int status, String message) {
+            if (request != null) {
+                request.keepAlive = false;
+            }
+            response = ByteBuffer.wrap(errorResponse(status, message));
+            key.interestOps(SelectionKey.OP_WRITE);
+            write();
+        }
+
+        /**
+         * Start sending the response handed over from the handler thread.
+         */
+        protected void startWrite() {
+            if (closed) {
+                return;
+            }
+            if (response == null || !response.hasRemaining()) {
+                close();
+                return;
+            }
+            key.interestOps(SelectionKey.OP_WRITE);
+            write();
+        }
+
+        protected void write() {
+            try {
+                channel.write(response);
+            } catch (IOException ioe) {
+                close();
+                return;
+            }
+
+            lastActivity = System.currentTimeMillis();
+            if (response.hasRemaining()) {
+                return;
+            }
+
+            Request finished = request;
+            int responseLength = response.limit();
+            request = null;
+            response = null;
+
+            if (finished != null) {
+                requestFinished(finished, responseLength);
+            }
+
+            if (finished == null || !finished.keepAlive) {
+                close();
+                return;
+            }
+
+            key.interestOps(SelectionKey.OP_READ);
+            if (inputLength > 0) {
+                parseRequest();
+            }
+        }
+
+        protected int findHeaderEnd() {
+            for (int i = 0; i + 1 < inputLength; i++) {
+                if (input[i] == '\n') {
+                    if (input[i + 1] == '\n') {
+                        return i + 2;
+                    }
+                    if (input[i + 1] == '\r' && i + 2 < inputLength && input[i + 2] == '\n') {
+                        return i + 3;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        protected int indexOf(byte b, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (input[i] == b) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+            }
+            connectionClosed();
+        }
+    }
+
     /**
      * A main routine for unit testing. Starts a HttpServer, adds
      * several HttpRequestListeners, and waits for connections.
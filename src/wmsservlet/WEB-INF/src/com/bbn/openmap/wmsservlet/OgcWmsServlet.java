@@ -23,6 +23,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.bbn.openmap.PropertyHandler;
+import com.bbn.openmap.image.wms.GetMapResponseCache;
 import com.bbn.openmap.image.wms.WMSException;
 import com.bbn.openmap.image.wms.WmsRequestHandler;
 import com.bbn.openmap.util.Debug;
@@ -32,6 +33,13 @@ import com.bbn.openmap.util.Debug;
  */
 public class OgcWmsServlet extends HttpServlet {
 
+    /**
+     * GetMap responses, shared by the request handlers since there is one for
+     * every request.
+     */
+    private GetMapResponseCache getMapCache;
+    private boolean getMapCacheCreated = false;
+
     /**
      * A do-nothing constructor - init does all the work.
      */
@@ -118,8 +126,9 @@ public class OgcWmsServlet extends HttpServlet {
         }
 
         try {
+            Properties props = getProperties();
             WmsRequestHandler wmsRequestHandler = new WmsRequestHandler(schema, hostName,
-                    serverPort, contextPath + servletPath + servletPathInfo, getProperties());
+                    serverPort, contextPath + servletPath + servletPathInfo, props, getGetMapCache(props));
             return wmsRequestHandler;
         } catch (java.net.MalformedURLException me) {
             Debug.message("wms", "MS: caught MalformedURLException - \n" + me.getMessage());
@@ -134,6 +143,21 @@ public class OgcWmsServlet extends HttpServlet {
 
     }
 
+    /**
+     * Get the GetMap response cache shared by the request handlers, created
+     * the first time from the properties.
+     * 
+     * @param props openmap properties.
+     * @return GetMapResponseCache, null if the properties don't configure one.
+     */
+    protected synchronized GetMapResponseCache getGetMapCache(Properties props) {
+        if (!getMapCacheCreated) {
+            getMapCache = GetMapResponseCache.create(props);
+            getMapCacheCreated = true;
+        }
+        return getMapCache;
+    }
+
     /**
      * 
      */